@@ -0,0 +1,131 @@
+package benchmark;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+// a small JMH-style harness: warm up, then time several fixed-length iterations and report ns/op
+//
+// results can be written as "name,nsPerOp" lines and compared against an earlier run, so a CI job
+// on an offline box can fail when a benchmark got slower than the tolerance allows
+public class BenchmarkRunner {
+
+	public interface Op {
+		Object run() throws Exception;
+	}
+
+	public static final class Result {
+		final String name;
+		final double nsPerOp;
+		final double stdDevNs;
+		final long ops;
+
+		Result(String name, double nsPerOp, double stdDevNs, long ops) {
+			this.name = name;
+			this.nsPerOp = nsPerOp;
+			this.stdDevNs = stdDevNs;
+			this.ops = ops;
+		}
+
+		@Override
+		public String toString() {
+			return String.format(Locale.ROOT, "%-32s %14.1f ns/op  +- %10.1f  (%d ops)", name, nsPerOp, stdDevNs, ops);
+		}
+	}
+
+	private final long warmupMillis;
+	private final long iterationMillis;
+	private final int iterations;
+	private final List<Result> results = new ArrayList<>();
+
+	// results are folded in here so the JIT cannot throw the benchmarked work away
+	private static volatile int sink;
+
+	public BenchmarkRunner(long warmupMillis, long iterationMillis, int iterations) {
+		this.warmupMillis = warmupMillis;
+		this.iterationMillis = iterationMillis;
+		this.iterations = iterations;
+	}
+
+	public Result run(String name, Op op) throws Exception {
+		runFor(op, warmupMillis);
+
+		double[] nsPerOp = new double[iterations];
+		long totalOps = 0;
+		for (int i = 0; i < iterations; i++) {
+			long start = System.nanoTime();
+			long ops = runFor(op, iterationMillis);
+			nsPerOp[i] = (System.nanoTime() - start) / (double) ops;
+			totalOps += ops;
+		}
+
+		double mean = 0;
+		for (double v : nsPerOp)
+			mean += v;
+		mean /= iterations;
+		double var = 0;
+		for (double v : nsPerOp)
+			var += (v - mean) * (v - mean);
+		double stdDev = iterations > 1 ? Math.sqrt(var / (iterations - 1)) : 0;
+
+		Result r = new Result(name, mean, stdDev, totalOps);
+		results.add(r);
+		System.out.println(r);
+		return r;
+	}
+
+	private static long runFor(Op op, long millis) throws Exception {
+		long deadline = System.nanoTime() + millis * 1_000_000L;
+		long ops = 0;
+		int acc = 0;
+		do {
+			// check the clock every 16 ops so timing does not dominate very short ops
+			for (int i = 0; i < 16; i++) {
+				Object o = op.run();
+				acc += o == null ? 0 : System.identityHashCode(o);
+			}
+			ops += 16;
+		} while (System.nanoTime() < deadline);
+		sink += acc;
+		return ops;
+	}
+
+	public List<Result> getResults() {
+		return results;
+	}
+
+	public void write(Path file) throws IOException {
+		List<String> lines = new ArrayList<>();
+		for (Result r : results)
+			lines.add(r.name + "," + String.format(Locale.ROOT, "%.1f", r.nsPerOp));
+		Files.write(file, lines, StandardCharsets.UTF_8);
+	}
+
+	// returns the names of benchmarks more than tolerancePercent slower than in the baseline file
+	public List<String> compare(Path baseline, double tolerancePercent) throws IOException {
+		Map<String, Double> before = new HashMap<>();
+		for (String line : Files.readAllLines(baseline, StandardCharsets.UTF_8)) {
+			int comma = line.lastIndexOf(',');
+			if (comma > 0)
+				before.put(line.substring(0, comma), Double.parseDouble(line.substring(comma + 1)));
+		}
+
+		List<String> regressions = new ArrayList<>();
+		for (Result r : results) {
+			Double old = before.get(r.name);
+			if (old == null)
+				continue;
+			double change = (r.nsPerOp - old) / old * 100;
+			System.out.println(String.format(Locale.ROOT, "%-32s %+7.1f%% vs baseline", r.name, change));
+			if (change > tolerancePercent)
+				regressions.add(r.name);
+		}
+		return regressions;
+	}
+}
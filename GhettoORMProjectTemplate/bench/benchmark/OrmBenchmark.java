@@ -0,0 +1,156 @@
+package benchmark;
+
+import java.nio.file.Paths;
+import java.sql.Types;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import dao.StudentMapper;
+import entity.Student;
+import orm.MyORM;
+import standin.StandInDatabase;
+import standin.StandInDriver;
+
+// measures the ORM's own overhead against the in-process stand-in driver, no MySQL needed
+//
+//   mvn -Pbench verify -Dbench.args="[options]"
+//
+// or by hand:
+//
+//   javac -d bin -cp fast-classpath-scanner-2.0.11.jar $(find src bench -name '*.java')
+//   java -cp bin:fast-classpath-scanner-2.0.11.jar benchmark.OrmBenchmark [options]
+//
+// options:
+//   --quick                      short warmup / iterations, for a smoke run
+//   --out results.csv            write name,nsPerOp lines
+//   --baseline baseline.csv      compare with an earlier --out file, exit 1 on regressions
+//   --tolerance 25               allowed slowdown in percent, default 25
+public class OrmBenchmark {
+
+	private static final String[] STUDENT_COLUMNS = { "pk", "first_name", "last_name", "age", "subject_id" };
+	private static final int[] STUDENT_TYPES = { Types.INTEGER, Types.VARCHAR, Types.VARCHAR, Types.INTEGER,
+			Types.INTEGER };
+
+	private static final String[] SUBJECT_COLUMNS = { "id", "name", "num_students" };
+	private static final int[] SUBJECT_TYPES = { Types.INTEGER, Types.VARCHAR, Types.INTEGER };
+	private static final int SUBJECTS = 10;
+
+	public static void main(String[] args) throws Exception {
+		boolean quick = false;
+		String out = null;
+		String baseline = null;
+		double tolerance = 25;
+		for (int i = 0; i < args.length; i++) {
+			switch (args[i]) {
+			case "--quick":
+				quick = true;
+				break;
+			case "--out":
+				out = args[++i];
+				break;
+			case "--baseline":
+				baseline = args[++i];
+				break;
+			case "--tolerance":
+				tolerance = Double.parseDouble(args[++i]);
+				break;
+			default:
+				throw new IllegalArgumentException("unknown option " + args[i]);
+			}
+		}
+
+		Logger.getLogger("").setLevel(Level.WARNING);
+
+		StandInDatabase db = StandInDatabase.get("benchmark");
+		MyORM orm = new MyORM(StandInDriver.class.getName(), db.getUrl(), "bench", "");
+		orm.init();
+		orm.getMetrics().setJmxEnabled(false);
+
+		StudentMapper sm = (StudentMapper) orm.getMapper(Student.class);
+
+		BenchmarkRunner runner = quick ? new BenchmarkRunner(300, 200, 3) : new BenchmarkRunner(3000, 1000, 5);
+
+		// cached mapper lookup and per-call dispatch
+		runner.run("getMapper", () -> orm.getMapper(Student.class));
+
+		cannedStudents(db, 1, false);
+		runner.run("dispatch.getById", () -> sm.getById(1));
+
+		// the same cached lookup of a student with a subject, the @ManyToOne included. the delete
+		// drops the row cached above, which has no subject; the stand-in is not changed by it
+		cannedStudents(db, 1, true);
+		Student cached = new Student();
+		cached.setId(1);
+		sm.delete(cached);
+		runner.run("cached.getById.relations", () -> sm.getById(1));
+
+		// SQL generation + binding for writes
+		runner.run("save.insert", () -> {
+			Student s = new Student();
+			s.setFirst("First");
+			s.setLast("Last");
+			s.setAge(20);
+			sm.save(s);
+			return s;
+		});
+
+		Student existing = new Student();
+		existing.setId(7);
+		existing.setFirst("First");
+		existing.setLast("Last");
+		runner.run("save.update", () -> {
+			existing.setAge(existing.getAge() == null ? 1 : existing.getAge() + 1);
+			sm.save(existing);
+			return existing;
+		});
+
+		// hydration of 1 / 100 / 100k rows
+		for (int rows : new int[] { 1, 100, 100_000 }) {
+			cannedStudents(db, rows, false);
+			runner.run("select.hydrate." + rows, () -> {
+				List<Student> all = sm.getAll();
+				return all.get(all.size() - 1);
+			});
+		}
+
+		// the same rows with their subjects: one batched IN (...) query for the distinct parents
+		for (int rows : new int[] { 100, 100_000 }) {
+			cannedStudents(db, rows, true);
+			runner.run("select.relations." + rows, () -> {
+				List<Student> all = sm.getAll();
+				return all.get(all.size() - 1).getSubject();
+			});
+		}
+
+		orm.shutdown();
+
+		if (out != null)
+			runner.write(Paths.get(out));
+
+		if (baseline != null) {
+			List<String> regressions = runner.compare(Paths.get(baseline), tolerance);
+			if (!regressions.isEmpty()) {
+				System.out.println("REGRESSIONS: " + regressions);
+				System.exit(1);
+			}
+		}
+	}
+
+	// every select on the student table answers with n deterministic rows, built up front so the
+	// stand-in itself does no work per row. with subjects, the rows point at SUBJECTS subjects in
+	// turn and the subject table answers with all of them; without, subject_id is null
+	private static void cannedStudents(StandInDatabase db, int n, boolean subjects) {
+		Object[][] rows = new Object[n][];
+		for (int i = 0; i < n; i++)
+			rows[i] = new Object[] { i + 1, "First" + i, "Last" + i, 18 + i % 10, subjects ? 1 + i % SUBJECTS : null };
+
+		Object[][] subjectRows = new Object[SUBJECTS][];
+		for (int i = 0; i < SUBJECTS; i++)
+			subjectRows[i] = new Object[] { i + 1, "Subject" + i, n / SUBJECTS };
+
+		db.clear();
+		db.whenQuery("from student", STUDENT_COLUMNS, STUDENT_TYPES, rows);
+		db.whenQuery("from subject", SUBJECT_COLUMNS, SUBJECT_TYPES, subjectRows);
+	}
+}
@@ -0,0 +1,189 @@
+package standin;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+// a deterministic, in-process database: queries are answered from canned result sets
+// registered with whenQuery, updates just count and hand out generated keys. failWhen makes
+// chosen statements fail and setDown the whole database unreachable, to see what the ORM does
+// when the database says no
+public class StandInDatabase {
+
+	private static final Map<String, StandInDatabase> DATABASES = new ConcurrentHashMap<>();
+
+	// row values are produced on demand so 100k row results cost no memory up front
+	public interface RowSource {
+		int size();
+
+		Object get(int row, int column);
+	}
+
+	static class Canned {
+		final Pattern pattern;
+		final String[] columns;
+		final int[] sqlTypes;
+		final RowSource rows;
+
+		Canned(Pattern pattern, String[] columns, int[] sqlTypes, RowSource rows) {
+			this.pattern = pattern;
+			this.columns = columns;
+			this.sqlTypes = sqlTypes;
+			this.rows = rows;
+		}
+	}
+
+	private final String name;
+	private final List<Canned> canned = new CopyOnWriteArrayList<>();
+	private final List<Pattern> failing = new CopyOnWriteArrayList<>();
+	private final List<String> log = new CopyOnWriteArrayList<>();
+	private volatile boolean logging;
+	private volatile boolean down;
+
+	private final AtomicLong connectionsOpened = new AtomicLong();
+	private final AtomicLong statementsExecuted = new AtomicLong();
+	private final AtomicLong commits = new AtomicLong();
+	private final AtomicLong nextKey = new AtomicLong(1);
+	private volatile int generatedKeyLimit = Integer.MAX_VALUE;
+	private volatile long keyIncrement = 1;
+
+	private StandInDatabase(String name) {
+		this.name = name;
+	}
+
+	public static StandInDatabase get(String name) {
+		return DATABASES.computeIfAbsent(name, StandInDatabase::new);
+	}
+
+	public String getUrl() {
+		return StandInDriver.URL_PREFIX + name;
+	}
+
+	// the first registered pattern that is found in the sql wins
+	public StandInDatabase whenQuery(String regex, String[] columns, int[] sqlTypes, RowSource rows) {
+		canned.add(new Canned(Pattern.compile(regex, Pattern.CASE_INSENSITIVE), columns, sqlTypes, rows));
+		return this;
+	}
+
+	public StandInDatabase whenQuery(String regex, String[] columns, int[] sqlTypes, Object[][] rows) {
+		return whenQuery(regex, columns, sqlTypes, new RowSource() {
+			public int size() {
+				return rows.length;
+			}
+
+			public Object get(int row, int column) {
+				return rows[row][column];
+			}
+		});
+	}
+
+	// statements whose sql matches throw an SQLException instead of running, until clear()
+	public StandInDatabase failWhen(String regex) {
+		failing.add(Pattern.compile(regex, Pattern.CASE_INSENSITIVE));
+		return this;
+	}
+
+	// while down no connection opens and every statement fails like a lost connection (SQLState 08)
+	public StandInDatabase setDown(boolean down) {
+		this.down = down;
+		return this;
+	}
+
+	public boolean isDown() {
+		return down;
+	}
+
+	public void clear() {
+		canned.clear();
+		failing.clear();
+		log.clear();
+		down = false;
+		generatedKeyLimit = Integer.MAX_VALUE;
+	}
+
+	// generated keys offset, offset + increment, offset + 2 * increment ..., like MySQL's
+	// auto_increment_offset / auto_increment_increment on the shards of one table
+	public StandInDatabase setAutoIncrement(long offset, long increment) {
+		nextKey.set(offset);
+		keyIncrement = increment;
+		return this;
+	}
+
+	// at most this many generated keys per statement, like drivers that return none or only the
+	// last one for a batch
+	public StandInDatabase setGeneratedKeyLimit(int generatedKeyLimit) {
+		this.generatedKeyLimit = generatedKeyLimit;
+		return this;
+	}
+
+	int getGeneratedKeyLimit() {
+		return generatedKeyLimit;
+	}
+
+	public StandInDatabase setLogging(boolean logging) {
+		this.logging = logging;
+		return this;
+	}
+
+	public List<String> getLog() {
+		return new ArrayList<>(log);
+	}
+
+	public long getConnectionsOpened() {
+		return connectionsOpened.get();
+	}
+
+	public long getStatementsExecuted() {
+		return statementsExecuted.get();
+	}
+
+	// server-side commits: explicit ones plus one per autocommitted write
+	public long getCommits() {
+		return commits.get();
+	}
+
+	Canned find(String sql) {
+		for (Canned c : canned)
+			if (c.pattern.matcher(sql).find())
+				return c;
+		return null;
+	}
+
+	void check(String sql) throws SQLException {
+		if (down)
+			throw new SQLException("stand-in " + name + " is down", "08S01");
+		for (Pattern p : failing)
+			if (p.matcher(sql).find())
+				throw new SQLException("stand-in " + name + " fails " + sql);
+	}
+
+	void executed(String sql, List<Object> params) {
+		statementsExecuted.incrementAndGet();
+		if (logging)
+			log.add(params == null || params.isEmpty() ? sql : sql + " " + params);
+	}
+
+	void committed() {
+		commits.incrementAndGet();
+		if (logging)
+			log.add("COMMIT");
+	}
+
+	void rolledBack() {
+		if (logging)
+			log.add("ROLLBACK");
+	}
+
+	void connectionOpened() {
+		connectionsOpened.incrementAndGet();
+	}
+
+	long nextGeneratedKey() {
+		return nextKey.getAndAdd(keyIncrement);
+	}
+}
@@ -0,0 +1,65 @@
+package standin;
+
+import java.sql.Connection;
+import java.sql.Driver;
+import java.sql.DriverManager;
+import java.sql.DriverPropertyInfo;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.util.Properties;
+import java.util.logging.Logger;
+
+// java.sql.Driver for urls of the form jdbc:standin:<database name>
+// the named StandInDatabase decides what every statement returns
+public class StandInDriver implements Driver {
+
+	public static final String URL_PREFIX = "jdbc:standin:";
+
+	static {
+		try {
+			DriverManager.registerDriver(new StandInDriver());
+		} catch (SQLException e) {
+			throw new ExceptionInInitializerError(e);
+		}
+	}
+
+	@Override
+	public Connection connect(String url, Properties info) throws SQLException {
+		if (!acceptsURL(url))
+			return null;
+		StandInDatabase db = StandInDatabase.get(url.substring(URL_PREFIX.length()));
+		if (db.isDown())
+			throw new SQLException("stand-in " + url + " is down", "08001");
+		return StandInJdbc.connection(db);
+	}
+
+	@Override
+	public boolean acceptsURL(String url) {
+		return url != null && url.startsWith(URL_PREFIX);
+	}
+
+	@Override
+	public DriverPropertyInfo[] getPropertyInfo(String url, Properties info) {
+		return new DriverPropertyInfo[0];
+	}
+
+	@Override
+	public int getMajorVersion() {
+		return 1;
+	}
+
+	@Override
+	public int getMinorVersion() {
+		return 0;
+	}
+
+	@Override
+	public boolean jdbcCompliant() {
+		return false;
+	}
+
+	@Override
+	public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+		throw new SQLFeatureNotSupportedException();
+	}
+}
@@ -0,0 +1,377 @@
+package standin;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.List;
+
+// the JDBC object graph handed out by StandInDriver, built from dynamic proxies so only the
+// handful of methods the ORM actually calls need an implementation
+final class StandInJdbc {
+
+	private StandInJdbc() {
+	}
+
+	static Connection connection(StandInDatabase db) {
+		db.connectionOpened();
+		return proxy(Connection.class, new ConnectionHandler(db));
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <T> T proxy(Class<T> type, InvocationHandler handler) {
+		return (T) Proxy.newProxyInstance(StandInJdbc.class.getClassLoader(), new Class<?>[] { type }, handler);
+	}
+
+	// zero / false / null for everything nobody implemented
+	private static Object defaultValue(Class<?> type) {
+		if (type == boolean.class)
+			return false;
+		if (type == int.class)
+			return 0;
+		if (type == long.class)
+			return 0L;
+		if (type == double.class)
+			return 0d;
+		if (type == float.class)
+			return 0f;
+		if (type == short.class)
+			return (short) 0;
+		if (type == byte.class)
+			return (byte) 0;
+		return null;
+	}
+
+	private static Object objectMethod(Object proxy, Method method, Object[] args) {
+		switch (method.getName()) {
+		case "hashCode":
+			return System.identityHashCode(proxy);
+		case "equals":
+			return proxy == args[0];
+		case "toString":
+			return "standin:" + method.getDeclaringClass().getSimpleName();
+		default:
+			return null;
+		}
+	}
+
+	private static final class ConnectionHandler implements InvocationHandler {
+		private final StandInDatabase db;
+		private boolean closed;
+		private boolean autoCommit = true;
+		private int isolation = Connection.TRANSACTION_REPEATABLE_READ;
+
+		// writes since the last commit / rollback of a transaction
+		private boolean uncommitted;
+
+		ConnectionHandler(StandInDatabase db) {
+			this.db = db;
+		}
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			if (method.getDeclaringClass() == Object.class)
+				return objectMethod(proxy, method, args);
+
+			switch (method.getName()) {
+			case "createStatement":
+				return proxy(Statement.class, new StatementHandler(db, this, (Connection) proxy, null));
+			case "prepareStatement":
+				return proxy(PreparedStatement.class, new StatementHandler(db, this, (Connection) proxy, (String) args[0]));
+			case "close":
+				closed = true;
+				return null;
+			case "isClosed":
+				return closed;
+			case "isValid":
+				return !closed && !db.isDown();
+			case "getAutoCommit":
+				return autoCommit;
+			case "setAutoCommit":
+				// switching autocommit back on commits what the transaction left open
+				if (!autoCommit && (Boolean) args[0] && uncommitted)
+					db.committed();
+				autoCommit = (Boolean) args[0];
+				uncommitted = false;
+				return null;
+			case "commit":
+				db.committed();
+				uncommitted = false;
+				return null;
+			case "rollback":
+				db.rolledBack();
+				uncommitted = false;
+				return null;
+			case "getTransactionIsolation":
+				return isolation;
+			case "setTransactionIsolation":
+				isolation = (Integer) args[0];
+				return null;
+			case "getMetaData":
+				return proxy(DatabaseMetaData.class, new DatabaseMetaDataHandler(db, (Connection) proxy));
+			case "getCatalog":
+				return "standin";
+			default:
+				return defaultValue(method.getReturnType());
+			}
+		}
+
+		// like a server, every autocommitted write is a commit of its own
+		void wrote() {
+			if (autoCommit)
+				db.committed();
+			else
+				uncommitted = true;
+		}
+	}
+
+	private static final class StatementHandler implements InvocationHandler {
+		private final StandInDatabase db;
+		private final ConnectionHandler owner;
+		private final Connection connection;
+		private final String preparedSql;
+		private final List<Object> params = new ArrayList<>();
+		private final List<String> batchSql = new ArrayList<>();
+		private int batchRows;
+		private final List<Long> generatedKeys = new ArrayList<>();
+		private int fetchSize;
+
+		StatementHandler(StandInDatabase db, ConnectionHandler owner, Connection connection, String preparedSql) {
+			this.db = db;
+			this.owner = owner;
+			this.connection = connection;
+			this.preparedSql = preparedSql;
+		}
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			if (method.getDeclaringClass() == Object.class)
+				return objectMethod(proxy, method, args);
+
+			String name = method.getName();
+			if (name.startsWith("set") && args != null && args.length >= 2 && args[0] instanceof Integer
+					&& !name.equals("setFetchSize")) {
+				int index = (Integer) args[0];
+				while (params.size() < index)
+					params.add(null);
+				params.set(index - 1, name.equals("setNull") ? null : args[1]);
+				return null;
+			}
+
+			switch (name) {
+			case "executeQuery":
+				return query(args == null ? preparedSql : (String) args[0]);
+			case "executeUpdate":
+			case "execute":
+				return update(args == null ? preparedSql : (String) args[0], method.getReturnType());
+			case "addBatch":
+				if (args != null)
+					batchSql.add((String) args[0]);
+				else
+					batchRows++;
+				db.executed("addBatch " + (args == null ? preparedSql : args[0]), new ArrayList<>(params));
+				return null;
+			case "executeBatch":
+				db.check(preparedSql != null ? preparedSql : String.join("; ", batchSql));
+				int n = Math.max(batchRows, batchSql.size());
+				int[] counts = new int[n];
+				generatedKeys.clear();
+				for (int i = 0; i < n; i++) {
+					counts[i] = 1;
+					if (i < db.getGeneratedKeyLimit())
+						generatedKeys.add(db.nextGeneratedKey());
+				}
+				db.executed("executeBatch(" + n + ") " + (preparedSql == null ? "" : preparedSql), null);
+				if (n > 0)
+					owner.wrote();
+				batchRows = 0;
+				batchSql.clear();
+				return counts;
+			case "clearBatch":
+				batchRows = 0;
+				batchSql.clear();
+				return null;
+			case "clearParameters":
+				params.clear();
+				return null;
+			case "getGeneratedKeys":
+				Object[][] rows = new Object[generatedKeys.size()][];
+				for (int i = 0; i < rows.length; i++)
+					rows[i] = new Object[] { generatedKeys.get(i) };
+				return resultSet(new String[] { "GENERATED_KEY" }, new int[] { Types.BIGINT }, rows);
+			case "setFetchSize":
+				fetchSize = (Integer) args[0];
+				return null;
+			case "getFetchSize":
+				return fetchSize;
+			case "getConnection":
+				return connection;
+			case "getUpdateCount":
+				return -1;
+			default:
+				return defaultValue(method.getReturnType());
+			}
+		}
+
+		private Object update(String sql, Class<?> returnType) throws SQLException {
+			db.check(sql);
+			db.executed(sql, new ArrayList<>(params));
+			owner.wrote();
+			generatedKeys.clear();
+			if (sql.trim().toUpperCase().startsWith("INSERT") && db.getGeneratedKeyLimit() > 0)
+				generatedKeys.add(db.nextGeneratedKey());
+			if (returnType == boolean.class)
+				return false;
+			return 1;
+		}
+
+		private ResultSet query(String sql) throws SQLException {
+			db.check(sql);
+			db.executed(sql, new ArrayList<>(params));
+			StandInDatabase.Canned c = db.find(sql);
+			if (c == null)
+				return resultSet(new String[] { "1" }, new int[] { Types.INTEGER }, new Object[][] {});
+			return proxy(ResultSet.class, new ResultSetHandler(c.columns, c.sqlTypes, c.rows));
+		}
+	}
+
+	static ResultSet resultSet(String[] columns, int[] types, Object[][] rows) {
+		return proxy(ResultSet.class, new ResultSetHandler(columns, types, new StandInDatabase.RowSource() {
+			public int size() {
+				return rows.length;
+			}
+
+			public Object get(int row, int column) {
+				return rows[row][column];
+			}
+		}));
+	}
+
+	private static final class ResultSetHandler implements InvocationHandler {
+		private final String[] columns;
+		private final int[] types;
+		private final StandInDatabase.RowSource rows;
+		private int row = -1;
+		private boolean wasNull;
+		private boolean closed;
+
+		ResultSetHandler(String[] columns, int[] types, StandInDatabase.RowSource rows) {
+			this.columns = columns;
+			this.types = types;
+			this.rows = rows;
+		}
+
+		private int index(Object arg) throws SQLException {
+			if (arg instanceof Integer)
+				return (Integer) arg;
+			for (int i = 0; i < columns.length; i++)
+				if (columns[i].equalsIgnoreCase((String) arg))
+					return i + 1;
+			throw new SQLException("no column " + arg);
+		}
+
+		private Object value(Object arg) throws SQLException {
+			Object v = rows.get(row, index(arg) - 1);
+			wasNull = v == null;
+			return v;
+		}
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			if (method.getDeclaringClass() == Object.class)
+				return objectMethod(proxy, method, args);
+
+			switch (method.getName()) {
+			case "next":
+				return ++row < rows.size();
+			case "close":
+				closed = true;
+				return null;
+			case "isClosed":
+				return closed;
+			case "wasNull":
+				return wasNull;
+			case "getMetaData":
+				return proxy(ResultSetMetaData.class, (p, m, a) -> {
+					if (m.getDeclaringClass() == Object.class)
+						return objectMethod(p, m, a);
+					switch (m.getName()) {
+					case "getColumnCount":
+						return columns.length;
+					case "getColumnName":
+					case "getColumnLabel":
+						return columns[(Integer) a[0] - 1];
+					case "getColumnType":
+						return types[(Integer) a[0] - 1];
+					default:
+						return defaultValue(m.getReturnType());
+					}
+				});
+			case "getObject":
+				return value(args[0]);
+			case "getString": {
+				Object v = value(args[0]);
+				return v == null ? null : v.toString();
+			}
+			case "getInt": {
+				Object v = value(args[0]);
+				return v == null ? 0 : ((Number) v).intValue();
+			}
+			case "getLong": {
+				Object v = value(args[0]);
+				return v == null ? 0L : ((Number) v).longValue();
+			}
+			case "getDouble": {
+				Object v = value(args[0]);
+				return v == null ? 0d : ((Number) v).doubleValue();
+			}
+			case "getBigDecimal": {
+				Object v = value(args[0]);
+				return v == null ? null : new BigDecimal(v.toString());
+			}
+			default:
+				return defaultValue(method.getReturnType());
+			}
+		}
+	}
+
+	private static final class DatabaseMetaDataHandler implements InvocationHandler {
+		private final StandInDatabase db;
+		private final Connection connection;
+
+		DatabaseMetaDataHandler(StandInDatabase db, Connection connection) {
+			this.db = db;
+			this.connection = connection;
+		}
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			if (method.getDeclaringClass() == Object.class)
+				return objectMethod(proxy, method, args);
+
+			switch (method.getName()) {
+			case "getConnection":
+				return connection;
+			case "getTables":
+			case "getColumns": {
+				StandInDatabase.Canned c = db.find("metadata:" + method.getName());
+				if (c == null)
+					return resultSet(new String[] { "TABLE_NAME", "COLUMN_NAME" },
+							new int[] { Types.VARCHAR, Types.VARCHAR }, new Object[][] {});
+				return proxy(ResultSet.class, new ResultSetHandler(c.columns, c.sqlTypes, c.rows));
+			}
+			default:
+				return defaultValue(method.getReturnType());
+			}
+		}
+	}
+}
@@ -1,8 +1,16 @@
+import java.util.ArrayList;
+import java.util.List;
+
 import dao.StudentMapper;
 import dao.SubjectMapper;
 import entity.Student;
 import entity.Subject;
+import orm.ColumnBatch;
+import orm.MethodMetrics;
 import orm.MyORM;
+import orm.PageRequest;
+import orm.Session;
+import orm.Slice;
 
 public class Tester {
 
@@ -14,6 +22,7 @@ public class Tester {
 		
 		StudentMapper sm = (StudentMapper) orm.getMapper(Student.class);
 		
+		List<Student> students = new ArrayList<>();
 		for (int i = 0; i<10; i++)
 		{
 			Student s = new Student();
@@ -21,15 +30,39 @@ public class Tester {
 			s.setFirst("Test"+i);
 			s.setLast("Test"+i);
 			
-			sm.save(s);
+			students.add(s);
 		}
 		
+		sm.saveAll(students);	// one batch, ids are filled in from the generated keys
+		System.out.println(students);
+		
 		System.out.println(sm.getById(4));
 		
 		System.out.println(sm.getAll());
 		
 		System.out.println(sm.getByFirstNameAndLastName("Test1", "Test1"));
 		
+		// scalar projections, no Student objects behind them
+		System.out.println(sm.countAll() + " students, first names " + sm.getFirstNamesByLastName("Test1"));
+		
+		// columnar read: the age column as an int[], null ages marked in the batch
+		ColumnBatch ages = sm.getAges();
+		long ageSum = 0;
+		int[] ageValues = ages.getInts("age");
+		for (int i = 0; i < ages.size(); i++)
+			if (!ages.isNull("age", i))
+				ageSum += ageValues[i];
+		System.out.println(ages.size() + " ages, sum " + ageSum);
+		
+		// keyset paging: each page seeks past the last row of the previous one
+		Slice<Student> page = sm.getAll(PageRequest.of(4));
+		System.out.println(page.getContent());
+		while (page.hasNext())
+		{
+			page = sm.getAll(page.nextPageRequest());
+			System.out.println(page.getContent());
+		}
+		
 		
 		SubjectMapper sbm = (SubjectMapper) orm.getMapper(Subject.class);
 		
@@ -38,6 +71,43 @@ public class Tester {
 		sb.setNumStudents(20);
 		
 		sbm.save(sb);
+		
+		// unit of work: the three saves go out as one UPDATE, in one commit
+		try (Session session = orm.openSession())
+		{
+			StudentMapper ssm = (StudentMapper) session.getMapper(Student.class);
+			
+			Student s = students.get(0);
+			for (int i = 0; i<3; i++)
+			{
+				s.setAge(s.getAge() + 1);
+				ssm.save(s);
+			}
+			
+			session.flush();
+		}
+		
+		// one transaction, one commit: the new subject and its student are saved together or not at all
+		orm.inTransaction(tx -> {
+			Subject math = new Subject();
+			math.setName("math101");
+			math.setNumStudents(1);
+			sbm.save(math);
+			
+			Student s = new Student();
+			s.setFirst("Tx");
+			s.setLast("Tx");
+			s.setAge(20);
+			s.setSubjectId(math.getId());
+			sm.save(s);
+		});
+		
+		System.out.println(orm.getPoolStats());
+		System.out.println(orm.getEntityCacheStats(Student.class));
+		System.out.println(orm.getQueryCacheStats());
+		
+		for (MethodMetrics m : orm.getMetrics().getAll())
+			System.out.println(m);
 
 	}
 
@@ -11,4 +11,22 @@ public @interface Entity {
 	
 	String table();
 	
+	// second-level cache of rows looked up by primary key, off by default
+	boolean cached() default false;
+	int cacheSize() default 10000;
+	long cacheTtlMillis() default 0;	// 0 = no expiry, entries leave by eviction or writes
+	
+	// loaded and saved entities keep a snapshot of their column values, a save then updates only
+	// the columns that changed and skips the UPDATE when none did. a Session keeps the snapshots of
+	// its entities, plain mappers a fixed size table per entity (entities pushed out of it, read
+	// or written inside a transaction are updated in full)
+	boolean dirtyChecking() default false;
+	
+	// rows are spread over the shards of MyORM.addShard() by the value of the shardKey column,
+	// the id column when empty. entities that are not sharded live on the primary only
+	boolean sharded() default false;
+	String shardKey() default "";
+	ShardFunction shardFunction() default ShardFunction.HASH;
+	long[] shardRanges() default {};	// RANGE: the first key of the second, third ... shard, ascending
+	
 }
@@ -0,0 +1,13 @@
+package annotations;
+
+// when the ORM loads a relationship field
+public enum FetchType {
+	
+	// while the select runs, one batched query per relationship for all returned entities
+	EAGER,
+	
+	// on first access of the collection, batched over the entities loaded with it. @OneToMany only,
+	// a @ManyToOne field has nothing to load on access
+	LAZY
+	
+}
@@ -0,0 +1,33 @@
+package annotations;
+
+import static java.lang.annotation.ElementType.FIELD;
+import static java.lang.annotation.RetentionPolicy.RUNTIME;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.Target;
+
+// a field holding the parent entity, joined through a foreign key @Column of this entity
+//
+//   @Column(name="subject_id", sqlType="INTEGER")
+//   private Integer subjectId;
+//
+//   @ManyToOne(column="subject_id")
+//   private Subject subject;
+//
+// parents are fetched while the select runs, one WHERE id IN (...) query per batchSize distinct
+// keys not in the parent's second-level cache. the field has the parent's own class, so there is
+// no proxy that could load it later: fetch = LAZY is rejected when the entity is checked. leave
+// the field out and read the foreign key column to skip the query
+@Retention(RUNTIME)
+@Target(FIELD)
+public @interface ManyToOne {
+	
+	// the foreign key @Column of this entity
+	String column();
+	
+	// EAGER only, see above
+	FetchType fetch() default FetchType.EAGER;
+	
+	int batchSize() default 100;
+	
+}
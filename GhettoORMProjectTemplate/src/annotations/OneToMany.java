@@ -0,0 +1,28 @@
+package annotations;
+
+import static java.lang.annotation.ElementType.FIELD;
+import static java.lang.annotation.RetentionPolicy.RUNTIME;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.Target;
+
+// a List (or Collection) field holding the child entities whose foreign key column points at
+// this entity's id
+//
+//   @OneToMany(mappedBy="subject_id")
+//   private List<Student> students;
+//
+// children of every entity returned by a select are loaded with one WHERE fk IN (...) query per
+// batchSize parents, right away (EAGER) or when a collection is first used (LAZY)
+@Retention(RUNTIME)
+@Target(FIELD)
+public @interface OneToMany {
+	
+	// the foreign key @Column of the child entity
+	String mappedBy();
+	
+	FetchType fetch() default FetchType.LAZY;
+	
+	int batchSize() default 100;
+	
+}
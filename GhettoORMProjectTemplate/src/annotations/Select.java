@@ -11,5 +11,20 @@ import java.lang.annotation.Target;
 public @interface Select {
 	
 	String value();
+	
+	// rows fetched per round trip when the method returns Stream<T> or Iterator<T>
+	// 0 uses the GhettoJdbcBlackBox default. also the rows per batch of a Stream<ColumnBatch>
+	int fetchSize() default 0;
+	
+	// read from the primary even when MyORM has replicas, for reads that must see the latest writes
+	boolean readFromPrimary() default false;
+	
+	// cache the rows per distinct parameter values, dropped by any @Save / @Delete on the table
+	boolean cached() default false;
+	
+	int cacheSize() default 1000;
+	
+	// 0 keeps results until they are evicted or invalidated
+	long cacheTtlMillis() default 0;
 
 }
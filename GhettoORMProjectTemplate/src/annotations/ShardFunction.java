@@ -0,0 +1,13 @@
+package annotations;
+
+// how an @Entity(sharded = true) row finds its shard from the value of its shard key
+public enum ShardFunction {
+
+	// integral keys by modulo, key 1 on the first shard, key 2 on the second ...
+	// other keys by the hash of their string form
+	HASH,
+
+	// integral keys by @Entity(shardRanges), the first key of every shard after the first
+	RANGE
+
+}
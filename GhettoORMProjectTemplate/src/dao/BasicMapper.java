@@ -1,6 +1,6 @@
 package dao;
 
-// DO NOT DO ANYTHING WITH THIS CLASS
+import java.util.Collection;
 
 public interface BasicMapper<T> {
 	
@@ -8,4 +8,8 @@ public interface BasicMapper<T> {
 	public void createTable();	
 	public void save(T s);	
 	public void delete(T s);	
+	
+	// bulk versions, sent as chunked JDBC batches
+	public void saveAll(Collection<T> s);	
+	public void deleteAll(Collection<T> s);	
 }
@@ -0,0 +1,61 @@
+package dao;
+
+import java.util.Collection;
+import java.util.List;
+
+import annotations.CreateTable;
+import annotations.Delete;
+import annotations.MappedClass;
+import annotations.Param;
+import annotations.Save;
+import annotations.Select;
+import entity.Enrollment;
+
+@MappedClass(clazz=Enrollment.class)
+public interface EnrollmentMapper extends BasicMapper<Enrollment>  // all mappers should extend BasicMapper
+{
+
+	@CreateTable
+	@MappedClass(clazz = Enrollment.class)
+	public void createTable();	
+	
+	// saves and deletes go to the shard of the student_id
+	@Save
+	@MappedClass(clazz = Enrollment.class)
+	public void save(Enrollment e);	
+	
+	@Delete
+	@MappedClass(clazz = Enrollment.class)
+	public void delete(Enrollment e);	
+	
+	@Save
+	@MappedClass(clazz = Enrollment.class)
+	public void saveAll(Collection<Enrollment> e);	
+	
+	@Delete
+	@MappedClass(clazz = Enrollment.class)
+	public void deleteAll(Collection<Enrollment> e);	
+	
+	
+	// the where clause pins the shard key: one shard
+	@Select("select * from :table where student_id = :studentId")
+	@MappedClass(clazz = Enrollment.class)
+	public List<Enrollment> getByStudent(@Param("studentId") Integer studentId);
+	
+	
+	// no shard key: every shard at once, the rows merged in shard order
+	@Select("select * from :table where subject_id = :subjectId")
+	@MappedClass(clazz = Enrollment.class)
+	public List<Enrollment> getBySubject(@Param("subjectId") Integer subjectId);
+	
+	
+	@Select("select * from :table")
+	@MappedClass(clazz = Enrollment.class)
+	public List<Enrollment> getAll();
+	
+	
+	// one count per shard, a single long could not be merged
+	@Select("select count(*) from :table")
+	@MappedClass(clazz = Enrollment.class)
+	public List<Long> countPerShard();
+}
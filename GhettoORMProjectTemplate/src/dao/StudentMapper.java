@@ -1,6 +1,9 @@
 package dao;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Stream;
 
 import annotations.CreateTable;
 import annotations.Delete;
@@ -10,6 +13,10 @@ import annotations.Save;
 import annotations.Select;
 import entity.Student;
 import entity.Subject;
+import orm.ColumnBatch;
+import orm.Page;
+import orm.PageRequest;
+import orm.Slice;
 
 @MappedClass(clazz=Student.class)
 public interface StudentMapper extends BasicMapper<Student>  // all mappers should extend BasicMapper with the correct type
@@ -27,6 +34,14 @@ public interface StudentMapper extends BasicMapper<Student>  // all mappers shou
 	@MappedClass(clazz = Student.class)
 	public void delete(Student s);	
 	
+	@Save
+	@MappedClass(clazz = Student.class)
+	public void saveAll(Collection<Student> s);	
+	
+	@Delete
+	@MappedClass(clazz = Student.class)
+	public void deleteAll(Collection<Student> s);	
+	
 		
 	//note: always double check SQL that it works
 	//		always check if the thing being inserted is supposed to be a string, don't forget quotes
@@ -40,9 +55,56 @@ public interface StudentMapper extends BasicMapper<Student>  // all mappers shou
 	@MappedClass(clazz = Student.class)
 	public List<Student> getAll();
 	
-	// WARNING: the query itself should no longer have the string quotes
-	// these are to be added based on the parameter type
-	@Select("select * from :table where first_name = :firstName and last_name = :lastName")
+	
+	// one page at a time: pass PageRequest.of(size) or PageRequest.of(size, "age"), then
+	// slice.nextPageRequest() for the page after, each page costs the same however deep it is
+	@Select("select * from :table")
+	@MappedClass(clazz = Student.class)
+	public Slice<Student> getAll(PageRequest page);
+	
+	
+	@Select("select * from :table where last_name = :lastName")
+	@MappedClass(clazz = Student.class)
+	public Page<Student> getByLastName(@Param("lastName") String lastName, PageRequest page);
+	
+	
+	// async versions run on the ORM executor, independent lookups overlap their database time
+	@Select("select * from :table where pk = :id")
+	@MappedClass(clazz = Student.class)
+	public CompletableFuture<Student> getByIdAsync(@Param("id") Integer id);
+	
+	
+	@Select("select * from :table")
+	@MappedClass(clazz = Student.class)
+	public CompletableFuture<List<Student>> getAllAsync();
+	
+	
+	// rows are read lazily from a cursor, close the stream (try-with-resources) when done
+	@Select(value = "select * from :table", fetchSize = 500)
+	@MappedClass(clazz = Student.class)
+	public Stream<Student> streamAll();
+	
+	// aggregates and narrow reads are mapped straight to the return type, no Student is created
+	@Select("select count(*) from :table")
+	@MappedClass(clazz = Student.class)
+	public long countAll();
+	
+	
+	@Select("select first_name from :table where last_name = :lastName")
+	@MappedClass(clazz = Student.class)
+	public List<String> getFirstNamesByLastName(@Param("lastName") String lastName);
+	
+	
+	// columnar scan: one int[] of ages plus a null bitmap, no object per row
+	@Select("select age from :table")
+	@MappedClass(clazz = Student.class)
+	public ColumnBatch getAges();
+	
+	
+	// WARNING: the query itself should not have string quotes around parameters
+	// every :param is sent as a bound ? parameter of the matching type
+	// results are cached per name pair until the next @Save / @Delete on student
+	@Select(value = "select * from :table where first_name = :firstName and last_name = :lastName", cached = true)
 	@MappedClass(clazz = Student.class)
 	public Student getByFirstNameAndLastName(@Param("firstName") String firstName, @Param("lastName") String lastName );
 
@@ -1,5 +1,6 @@
 package dao;
 
+import java.util.Collection;
 import java.util.List;
 
 import annotations.CreateTable;
@@ -27,7 +28,20 @@ public interface SubjectMapper extends BasicMapper<Subject>  // all mappers shou
 	@MappedClass(clazz = Subject.class)
 	public void delete(Subject s);	
 	
+	@Save
+	@MappedClass(clazz = Subject.class)
+	public void saveAll(Collection<Subject> s);	
+	
+	@Delete
+	@MappedClass(clazz = Subject.class)
+	public void deleteAll(Collection<Subject> s);	
+	
 	
 	// you may add more @Select here for testing
+	
+	// getStudents() of every returned subject is filled by one batched query on first use
+	@Select("select * from :table")
+	@MappedClass(clazz = Subject.class)
+	public List<Subject> getAll();
 }
 
@@ -0,0 +1,71 @@
+package entity;
+
+import annotations.Column;
+import annotations.Entity;
+import annotations.ManyToOne;
+
+// the sharded example: with MyORM.addShard() the enrollments of one student all live on the shard of
+// its student_id, a student's list is read from that shard alone. subjects stay on the primary
+@Entity(table="enrollment", sharded=true, shardKey="student_id")
+public class Enrollment {
+	
+	@Column(name="id", 			sqlType="INTEGER not NULL AUTO_INCREMENT", id=true)
+	private Integer id;
+
+	@Column(name="student_id", 	sqlType="INTEGER not NULL")
+	private Integer studentId;
+
+	@Column(name="subject_id", 	sqlType="INTEGER")
+	private Integer subjectId;
+
+	@Column(name="grade", 		sqlType="INTEGER")
+	private Integer grade;
+
+	@ManyToOne(column="subject_id")
+	private Subject subject;
+
+	public Integer getId() {
+		return id;
+	}
+
+	public void setId(Integer id) {
+		this.id = id;
+	}
+
+	public Integer getStudentId() {
+		return studentId;
+	}
+
+	public void setStudentId(Integer studentId) {
+		this.studentId = studentId;
+	}
+
+	public Integer getSubjectId() {
+		return subjectId;
+	}
+
+	public void setSubjectId(Integer subjectId) {
+		this.subjectId = subjectId;
+	}
+
+	public Integer getGrade() {
+		return grade;
+	}
+
+	public void setGrade(Integer grade) {
+		this.grade = grade;
+	}
+
+	public Subject getSubject() {
+		return subject;
+	}
+
+	public void setSubject(Subject subject) {
+		this.subject = subject;
+	}
+
+	@Override
+	public String toString() {
+		return "Enrollment [id=" + id + ", studentId=" + studentId + ", subjectId=" + subjectId + ", grade=" + grade + "]";
+	}
+}
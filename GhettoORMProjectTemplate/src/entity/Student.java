@@ -2,8 +2,9 @@ package entity;
 
 import annotations.Column;
 import annotations.Entity;
+import annotations.ManyToOne;
 
-@Entity(table="student")
+@Entity(table="student", cached=true, cacheSize=5000, dirtyChecking=true)
 public class Student {
 	
 	@Column(name="pk", 			sqlType="INTEGER not NULL AUTO_INCREMENT", id=true)
@@ -18,6 +19,12 @@ public class Student {
 	@Column(name="age", 		sqlType="INTEGER")
 	private Integer age;
 
+	@Column(name="subject_id", 	sqlType="INTEGER")
+	private Integer subjectId;
+
+	@ManyToOne(column="subject_id")
+	private Subject subject;
+
 	public Integer getId() {
 		return id;
 	}
@@ -50,6 +57,22 @@ public class Student {
 		this.age = age;
 	}
 
+	public Integer getSubjectId() {
+		return subjectId;
+	}
+
+	public void setSubjectId(Integer subjectId) {
+		this.subjectId = subjectId;
+	}
+
+	public Subject getSubject() {
+		return subject;
+	}
+
+	public void setSubject(Subject subject) {
+		this.subject = subject;
+	}
+
 	@Override
 	public String toString() {
 		return "Student [id=" + id + ", first=" + first + ", last=" + last + ", age=" + age + "]";
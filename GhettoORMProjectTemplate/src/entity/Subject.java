@@ -1,9 +1,12 @@
 package entity;
 
+import java.util.List;
+
 import annotations.Column;
 import annotations.Entity;
+import annotations.OneToMany;
 
-@Entity(table="subject")
+@Entity(table="subject", cached=true, cacheSize=1000)
 public class Subject {
 	
 	@Column(name="id", 			sqlType="INTEGER not NULL AUTO_INCREMENT", id=true)
@@ -15,6 +18,9 @@ public class Subject {
 	@Column(name="num_students", 		 sqlType="INTEGER")
 	private Integer numStudents;
 
+	@OneToMany(mappedBy="subject_id")
+	private List<Student> students;
+
 	
 	
 	public Integer getId() {
@@ -53,6 +59,18 @@ public class Subject {
 
 
 
+	public List<Student> getStudents() {
+		return students;
+	}
+
+
+
+	public void setStudents(List<Student> students) {
+		this.students = students;
+	}
+
+
+
 	@Override
 	public String toString() {
 		return "Subject [id=" + id + ", name=" + name + ", numStudents=" + numStudents + "]";
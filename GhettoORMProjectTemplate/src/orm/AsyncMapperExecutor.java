@@ -0,0 +1,112 @@
+package orm;
+
+import java.lang.reflect.Method;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// runs mapper methods that return CompletableFuture
+//
+// at most maxConcurrency calls run at once (the connection pool size), the rest wait in a queue
+// instead of parking threads on the pool, so the default executor can be one thread per task
+public class AsyncMapperExecutor {
+
+	private final Executor executor;
+	private final int maxConcurrency;
+
+	private final Queue<Task<?>> waiting = new ConcurrentLinkedQueue<>();
+	private final AtomicInteger running = new AtomicInteger();
+
+	public AsyncMapperExecutor(Executor executor, int maxConcurrency) {
+		if (maxConcurrency < 1)
+			throw new IllegalArgumentException("maxConcurrency must be at least 1");
+		this.executor = executor;
+		this.maxConcurrency = maxConcurrency;
+	}
+
+	// virtual threads when the JVM has them (Java 21+), otherwise a cached pool of daemon threads
+	public static Executor defaultExecutor() {
+		try {
+			Method m = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return (ExecutorService) m.invoke(null);
+		} catch (ReflectiveOperationException e) {
+			AtomicInteger count = new AtomicInteger();
+			return Executors.newCachedThreadPool(r -> {
+				Thread t = new Thread(r, "orm-async-" + count.incrementAndGet());
+				t.setDaemon(true);
+				return t;
+			});
+		}
+	}
+
+	private static final class Task<T> implements Runnable {
+		final Callable<T> call;
+		final CompletableFuture<T> future = new CompletableFuture<>();
+
+		Task(Callable<T> call) {
+			this.call = call;
+		}
+
+		@Override
+		public void run() {
+			try {
+				future.complete(call.call());
+			} catch (Throwable t) {
+				future.completeExceptionally(t);
+			}
+		}
+	}
+
+	public <T> CompletableFuture<T> submit(Callable<T> call) {
+		Task<T> task = new Task<>(call);
+		waiting.add(task);
+		drain();
+		return task.future;
+	}
+
+	private void drain() {
+		while (true) {
+			int current = running.get();
+			if (current >= maxConcurrency || waiting.isEmpty())
+				return;
+			if (!running.compareAndSet(current, current + 1))
+				continue;
+
+			Task<?> task = waiting.poll();
+			if (task == null) {
+				running.decrementAndGet();
+				continue; // somebody else took it, re-check the queue
+			}
+			try {
+				executor.execute(() -> {
+					try {
+						task.run();
+					} finally {
+						running.decrementAndGet();
+						drain();
+					}
+				});
+			} catch (RuntimeException e) {
+				running.decrementAndGet();
+				task.future.completeExceptionally(e); // executor rejected it (shut down)
+			}
+		}
+	}
+
+	public int getMaxConcurrency() {
+		return maxConcurrency;
+	}
+
+	public int getRunning() {
+		return running.get();
+	}
+
+	public int getQueued() {
+		return waiting.size();
+	}
+}
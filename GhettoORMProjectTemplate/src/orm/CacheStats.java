@@ -0,0 +1,51 @@
+package orm;
+
+// point-in-time counters of an LruCache
+public class CacheStats {
+
+	private final long size;
+	private final long hits;
+	private final long misses;
+	private final long evictions;
+	private final long invalidations;
+
+	CacheStats(long size, long hits, long misses, long evictions, long invalidations) {
+		this.size = size;
+		this.hits = hits;
+		this.misses = misses;
+		this.evictions = evictions;
+		this.invalidations = invalidations;
+	}
+
+	public long getSize() {
+		return size;
+	}
+
+	public long getHits() {
+		return hits;
+	}
+
+	public long getMisses() {
+		return misses;
+	}
+
+	public long getEvictions() {
+		return evictions;
+	}
+
+	public long getInvalidations() {
+		return invalidations;
+	}
+
+	public double getHitRatio() {
+		long lookups = hits + misses;
+		return lookups == 0 ? 0 : hits / (double) lookups;
+	}
+
+	@Override
+	public String toString() {
+		return "CacheStats [size=" + size + ", hits=" + hits + ", misses=" + misses + ", hitRatio="
+				+ String.format("%.3f", getHitRatio()) + ", evictions=" + evictions + ", invalidations="
+				+ invalidations + "]";
+	}
+}
@@ -0,0 +1,356 @@
+package orm;
+
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import realdb.RowCursor;
+
+// the rows of a @Select as one primitive array per column, for scans over numeric columns
+//
+//   @Select("select age from :table")
+//   ColumnBatch getAges();                     int[] ages = batch.getInts("age")
+//
+//   @Select(value = "select pk, age from :table", fetchSize = 10000)
+//   Stream<ColumnBatch> scanAges();            one batch per 10000 rows, close the stream when done
+//
+// INTEGER / SMALLINT / TINYINT columns fill an int[], BIGINT a long[], FLOAT / DOUBLE / DECIMAL /
+// NUMERIC a double[], anything else an Object[]. values come straight from ResultSet.getInt /
+// getLong / getDouble and nulls are bits in a BitSet per column, so a numeric scan creates no object
+// per row. the arrays grow by doubling while the cursor is read and are trimmed to size() at the end.
+// the getters hand out those arrays, not copies. columnar selects skip the entity and query caches
+public class ColumnBatch {
+
+	public enum Type {
+		INT, LONG, DOUBLE, OBJECT
+	}
+
+	// rows per batch of Stream<ColumnBatch> / Iterator<ColumnBatch> when the @Select has no fetchSize
+	static final int DEFAULT_CHUNK_SIZE = 10_000;
+
+	private static final int INITIAL_CAPACITY = 1024;
+
+	public static final class Column {
+
+		private final String name;
+		private final Type type;
+		private final BitSet nulls = new BitSet();
+
+		private int[] ints;
+		private long[] longs;
+		private double[] doubles;
+		private Object[] objects;
+
+		private Column(String name, Type type, int capacity) {
+			this.name = name;
+			this.type = type;
+			resize(capacity);
+		}
+
+		private void resize(int capacity) {
+			switch (type) {
+			case INT:
+				ints = ints == null ? new int[capacity] : Arrays.copyOf(ints, capacity);
+				break;
+			case LONG:
+				longs = longs == null ? new long[capacity] : Arrays.copyOf(longs, capacity);
+				break;
+			case DOUBLE:
+				doubles = doubles == null ? new double[capacity] : Arrays.copyOf(doubles, capacity);
+				break;
+			default:
+				objects = objects == null ? new Object[capacity] : Arrays.copyOf(objects, capacity);
+			}
+		}
+
+		// the first rows of other, stored from row at on
+		private void append(Column other, int rows, int at) {
+			if (other.type != type)
+				throw new RuntimeException("Column " + name + " is " + other.type + " in one batch and " + type
+						+ " in another");
+			switch (type) {
+			case INT:
+				System.arraycopy(other.ints, 0, ints, at, rows);
+				break;
+			case LONG:
+				System.arraycopy(other.longs, 0, longs, at, rows);
+				break;
+			case DOUBLE:
+				System.arraycopy(other.doubles, 0, doubles, at, rows);
+				break;
+			default:
+				System.arraycopy(other.objects, 0, objects, at, rows);
+			}
+			for (int row = other.nulls.nextSetBit(0); row >= 0 && row < rows; row = other.nulls.nextSetBit(row + 1))
+				nulls.set(at + row);
+		}
+
+		private void read(ResultSet rs, int index, int row) throws SQLException {
+			switch (type) {
+			case INT:
+				ints[row] = rs.getInt(index);
+				break;
+			case LONG:
+				longs[row] = rs.getLong(index);
+				break;
+			case DOUBLE:
+				doubles[row] = rs.getDouble(index);
+				break;
+			default:
+				objects[row] = rs.getObject(index);
+			}
+			if (rs.wasNull())
+				nulls.set(row);
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public Type getType() {
+			return type;
+		}
+
+		// 0 where the value is null, see isNull()
+		public int[] getInts() {
+			return checked(Type.INT, ints);
+		}
+
+		public long[] getLongs() {
+			return checked(Type.LONG, longs);
+		}
+
+		public double[] getDoubles() {
+			return checked(Type.DOUBLE, doubles);
+		}
+
+		public Object[] getObjects() {
+			return checked(Type.OBJECT, objects);
+		}
+
+		public boolean isNull(int row) {
+			return nulls.get(row);
+		}
+
+		// bit i set when row i is null
+		public BitSet getNulls() {
+			return (BitSet) nulls.clone();
+		}
+
+		public int getNullCount() {
+			return nulls.cardinality();
+		}
+
+		private <A> A checked(Type wanted, A array) {
+			if (type != wanted)
+				throw new RuntimeException("Column " + name + " is read as " + type + ", not " + wanted);
+			return array;
+		}
+	}
+
+	private final String[] columnNames;
+	private final Column[] columns;
+	private int size;
+	private int capacity;
+
+	private ColumnBatch(String[] columnNames, Type[] types, int capacity) {
+		this.columnNames = columnNames;
+		this.columns = new Column[columnNames.length];
+		this.capacity = capacity;
+		for (int i = 0; i < columns.length; i++)
+			columns[i] = new Column(columnNames[i], types[i], capacity);
+	}
+
+	// every remaining row of the cursor in one batch, the cursor is closed afterwards
+	static ColumnBatch readAll(RowCursor cursor) {
+		try {
+			return read(cursor, types(cursor), INITIAL_CAPACITY, Integer.MAX_VALUE);
+		} finally {
+			cursor.close();
+		}
+	}
+
+	// the rows of batches with the same columns, one batch after the other
+	static ColumnBatch concat(List<ColumnBatch> batches) {
+		if (batches.size() == 1)
+			return batches.get(0);
+
+		ColumnBatch first = batches.get(0);
+		int total = 0;
+		for (ColumnBatch b : batches)
+			total += b.size;
+
+		Type[] types = new Type[first.columns.length];
+		for (int i = 0; i < types.length; i++)
+			types[i] = first.columns[i].type;
+		ColumnBatch all = new ColumnBatch(first.columnNames, types, total);
+
+		for (ColumnBatch b : batches) {
+			for (int i = 0; i < all.columns.length; i++)
+				all.columns[i].append(b.columns[i], b.size, all.size);
+			all.size += b.size;
+		}
+		return all;
+	}
+
+	// up to maxRows rows of the cursor
+	private static ColumnBatch read(RowCursor cursor, Type[] types, int capacity, int maxRows) {
+		ColumnBatch batch = new ColumnBatch(cursor.getColumnNames(), types, capacity);
+		ResultSet rs = cursor.getResultSet();
+		try {
+			while (batch.size < maxRows && cursor.advance()) {
+				if (batch.size == batch.capacity)
+					batch.grow();
+				for (int i = 0; i < batch.columns.length; i++)
+					batch.columns[i].read(rs, i + 1, batch.size);
+				batch.size++;
+			}
+		} catch (SQLException se) {
+			cursor.close();
+			throw new RuntimeException(se);
+		}
+		batch.trim();
+		return batch;
+	}
+
+	private static Type[] types(RowCursor cursor) {
+		try {
+			ResultSetMetaData md = cursor.getResultSet().getMetaData();
+			Type[] types = new Type[md.getColumnCount()];
+			for (int i = 0; i < types.length; i++)
+				types[i] = typeOf(md.getColumnType(i + 1));
+			return types;
+		} catch (SQLException se) {
+			cursor.close();
+			throw new RuntimeException(se);
+		}
+	}
+
+	private static Type typeOf(int sqlType) {
+		switch (sqlType) {
+		case Types.INTEGER:
+		case Types.SMALLINT:
+		case Types.TINYINT:
+			return Type.INT;
+		case Types.BIGINT:
+			return Type.LONG;
+		case Types.FLOAT:
+		case Types.REAL:
+		case Types.DOUBLE:
+		case Types.DECIMAL:
+		case Types.NUMERIC:
+			return Type.DOUBLE;
+		default:
+			return Type.OBJECT;
+		}
+	}
+
+	private void grow() {
+		capacity = capacity * 2;
+		for (Column c : columns)
+			c.resize(capacity);
+	}
+
+	private void trim() {
+		if (size == capacity)
+			return;
+		capacity = size;
+		for (Column c : columns)
+			c.resize(size);
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	public String[] getColumnNames() {
+		return columnNames.clone();
+	}
+
+	public Column getColumn(int index) {
+		return columns[index];
+	}
+
+	public Column getColumn(String name) {
+		for (Column c : columns)
+			if (c.name.equalsIgnoreCase(name))
+				return c;
+		throw new RuntimeException("No column " + name + " in " + Arrays.toString(columnNames));
+	}
+
+	public int[] getInts(String column) {
+		return getColumn(column).getInts();
+	}
+
+	public long[] getLongs(String column) {
+		return getColumn(column).getLongs();
+	}
+
+	public double[] getDoubles(String column) {
+		return getColumn(column).getDoubles();
+	}
+
+	public boolean isNull(String column, int row) {
+		return getColumn(column).isNull(row);
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder("ColumnBatch [size=").append(size).append(", columns=");
+		for (int i = 0; i < columns.length; i++)
+			sb.append(i == 0 ? "" : ", ").append(columns[i].name).append(' ').append(columns[i].type);
+		return sb.append("]").toString();
+	}
+
+	// successive batches of chunkSize rows from one cursor, backs Stream<ColumnBatch> / Iterator<ColumnBatch>
+	static final class Chunks implements Iterator<ColumnBatch>, AutoCloseable {
+
+		private final RowCursor cursor;
+		private final Type[] types;
+		private final int chunkSize;
+
+		Chunks(RowCursor cursor, int chunkSize) {
+			this.cursor = cursor;
+			this.types = types(cursor);
+			this.chunkSize = chunkSize;
+		}
+
+		@Override
+		public boolean hasNext() {
+			return cursor.hasNext();
+		}
+
+		@Override
+		public ColumnBatch next() {
+			if (!hasNext())
+				throw new NoSuchElementException();
+			return read(cursor, types, chunkSize, chunkSize);
+		}
+
+		@Override
+		public void close() {
+			cursor.close();
+		}
+
+		// a sequential stream whose close() closes the cursor
+		Stream<ColumnBatch> stream() {
+			Spliterator<ColumnBatch> split = Spliterators.spliteratorUnknownSize(this,
+					Spliterator.ORDERED | Spliterator.NONNULL);
+			return StreamSupport.stream(split, false).onClose(this::close);
+		}
+	}
+}
@@ -0,0 +1,120 @@
+package orm;
+
+import java.lang.reflect.Field;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+import annotations.Column;
+
+// one @Column of an entity, resolved once when the entity is registered
+public class ColumnMetadata {
+
+	private final String name;
+	private final String sqlType;
+	private final boolean id;
+	private final Field field;
+	private final Class<?> boxedType;
+	private final Function<Object, Object> getter;
+	private final BiConsumer<Object, Object> setter;
+
+	// generated may be null, see EntityAccessors
+	ColumnMetadata(Field field, Column column, GeneratedEntity generated) {
+		this.name = column.name();
+		this.sqlType = column.sqlType();
+		this.id = column.id();
+		this.field = field;
+		this.boxedType = EntityAccessors.wrap(field.getType());
+		this.getter = EntityAccessors.getter(field, generated);
+		this.setter = EntityAccessors.setter(field, generated);
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public String getSqlType() {
+		return sqlType;
+	}
+
+	public boolean isId() {
+		return id;
+	}
+
+	public Field getField() {
+		return field;
+	}
+
+	public Class<?> getJavaType() {
+		return field.getType();
+	}
+
+	public Object get(Object entity) {
+		return getter.apply(entity);
+	}
+
+	public void set(Object entity, Object value) {
+		setter.accept(entity, coerce(value));
+	}
+
+	// JDBC hands back Long for generated keys, BigInteger for unsigned BIGINT, etc.
+	// convert those to the field type so the setter does not throw ClassCastException
+	Object coerce(Object value) {
+		return coerce(value, field.getType(), boxedType);
+	}
+
+	// the same conversions to any type, a primitive type gets 0 / false instead of null
+	static Object coerce(Object value, Class<?> type) {
+		return coerce(value, type, EntityAccessors.wrap(type));
+	}
+
+	private static Object coerce(Object value, Class<?> type, Class<?> boxedType) {
+		if (value == null)
+			return type.isPrimitive() ? coerce(0, type, boxedType) : null;
+		if (boxedType.isInstance(value))
+			return value;
+
+		if (value instanceof Number) {
+			Number n = (Number) value;
+			if (boxedType == Integer.class)
+				return n.intValue();
+			if (boxedType == Long.class)
+				return n.longValue();
+			if (boxedType == Double.class)
+				return n.doubleValue();
+			if (boxedType == Float.class)
+				return n.floatValue();
+			if (boxedType == Short.class)
+				return n.shortValue();
+			if (boxedType == Byte.class)
+				return n.byteValue();
+			if (boxedType == Boolean.class)
+				return n.intValue() != 0;
+			if (boxedType == BigDecimal.class)
+				return new BigDecimal(n.toString());
+			if (boxedType == BigInteger.class)
+				return new BigInteger(n.toString());
+		}
+		if (value instanceof java.sql.Date && boxedType == LocalDate.class)
+			return ((java.sql.Date) value).toLocalDate();
+		if (value instanceof Timestamp && boxedType == LocalDateTime.class)
+			return ((Timestamp) value).toLocalDateTime();
+		if (value instanceof Time && boxedType == LocalTime.class)
+			return ((Time) value).toLocalTime();
+		if (boxedType == String.class)
+			return value.toString();
+
+		return value;
+	}
+
+	@Override
+	public String toString() {
+		return "ColumnMetadata [name=" + name + ", sqlType=" + sqlType + ", id=" + id + "]";
+	}
+}
@@ -0,0 +1,181 @@
+package orm;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Parameter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import annotations.Param;
+import annotations.Select;
+
+// a @Select template parsed once into positional JDBC form
+//
+//   select * from :table where first_name = :firstName and last_name = :lastName
+//   -> select * from student where first_name = ? and last_name = ?   with argIndexes {0, 1}
+//
+// :table is replaced by the entity table name, every other :name becomes a ? bound from the
+// method argument annotated with @Param("name"); text inside quotes is left alone
+public class CompiledQuery {
+
+	private final String template;
+	private final String sql;
+	private final int[] argIndexes;
+	private final int pkArgIndex;
+	private final int shardArgIndex;
+
+	// select * from :table where <id column> = :param
+	private static final Pattern PK_LOOKUP = Pattern
+			.compile("(?i)\\s*select\\s+\\*\\s+from\\s+:table\\s+where\\s+(\\w+)\\s*=\\s*:(\\w+)\\s*;?\\s*");
+
+	// select ... from :table where a = :x and b = :y ..., only equalities joined by AND
+	private static final Pattern EQUALITIES = Pattern.compile("(?is)\\s*select\\s+.+?\\s+from\\s+:table\\s+where\\s+"
+			+ "(\\w+\\s*=\\s*:\\w+(?:\\s+and\\s+\\w+\\s*=\\s*:\\w+)*)\\s*;?\\s*");
+	private static final Pattern EQUALITY = Pattern.compile("(\\w+)\\s*=\\s*:(\\w+)");
+
+	private CompiledQuery(String template, String sql, int[] argIndexes, int pkArgIndex, int shardArgIndex) {
+		this.template = template;
+		this.sql = sql;
+		this.argIndexes = argIndexes;
+		this.pkArgIndex = pkArgIndex;
+		this.shardArgIndex = shardArgIndex;
+	}
+
+	public static CompiledQuery compile(Method method, EntityMetadata meta) {
+		Select select = method.getAnnotation(Select.class);
+		if (select == null)
+			throw new RuntimeException("@Select annotation missing on " + method.getName());
+
+		Map<String, Integer> paramIndexes = new HashMap<>();
+		Parameter[] params = method.getParameters();
+		for (int i = 0; i < params.length; i++) {
+			Param p = params[i].getAnnotation(Param.class);
+			if (p != null)
+				paramIndexes.put(p.value(), i);
+		}
+
+		CompiledQuery query = compile(select.value(), meta.getTableName(), paramIndexes, method.getName());
+
+		int pkArgIndex = -1;
+		Matcher m = PK_LOOKUP.matcher(select.value());
+		if (m.matches() && m.group(1).equalsIgnoreCase(meta.getIdColumn().getName())
+				&& paramIndexes.containsKey(m.group(2)))
+			pkArgIndex = paramIndexes.get(m.group(2));
+
+		int shardArgIndex = shardArgIndex(select.value(), meta, paramIndexes);
+		if (pkArgIndex < 0 && shardArgIndex < 0)
+			return query;
+
+		return new CompiledQuery(query.template, query.sql, query.argIndexes, pkArgIndex, shardArgIndex);
+	}
+
+	// the argument a sharded entity's select pins the shard key to, -1 when the select may match
+	// rows of every shard
+	static int shardArgIndex(String template, EntityMetadata meta, Map<String, Integer> paramIndexes) {
+		ColumnMetadata shardKey = meta.getShardKey();
+		Matcher where = shardKey == null ? null : EQUALITIES.matcher(template);
+		if (where == null || !where.matches())
+			return -1;
+
+		Matcher eq = EQUALITY.matcher(where.group(1));
+		while (eq.find())
+			if (eq.group(1).equalsIgnoreCase(shardKey.getName()) && paramIndexes.containsKey(eq.group(2)))
+				return paramIndexes.get(eq.group(2));
+		return -1;
+	}
+
+	static CompiledQuery compile(String template, String tableName, Map<String, Integer> paramIndexes,
+			String methodName) {
+		StringBuilder sql = new StringBuilder(template.length());
+		List<Integer> order = new ArrayList<>();
+		char quote = 0;
+
+		int i = 0;
+		while (i < template.length()) {
+			char ch = template.charAt(i);
+
+			if (quote != 0) {
+				if (ch == quote)
+					quote = 0;
+				sql.append(ch);
+				i++;
+				continue;
+			}
+			if (ch == '\'' || ch == '"' || ch == '`') {
+				quote = ch;
+				sql.append(ch);
+				i++;
+				continue;
+			}
+			if (ch != ':' || i + 1 >= template.length() || !Character.isJavaIdentifierStart(template.charAt(i + 1))) {
+				sql.append(ch);
+				i++;
+				continue;
+			}
+
+			int end = i + 1;
+			while (end < template.length() && Character.isJavaIdentifierPart(template.charAt(end)))
+				end++;
+			String name = template.substring(i + 1, end);
+
+			if (name.equals("table")) {
+				sql.append(tableName);
+			} else {
+				Integer argIndex = paramIndexes.get(name);
+				if (argIndex == null)
+					throw new RuntimeException("No @Param(\"" + name + "\") on " + methodName + " for :" + name);
+				sql.append('?');
+				order.add(argIndex);
+			}
+			i = end;
+		}
+
+		int[] argIndexes = new int[order.size()];
+		for (int k = 0; k < argIndexes.length; k++)
+			argIndexes[k] = order.get(k);
+
+		return new CompiledQuery(template, sql.toString(), argIndexes, -1, -1);
+	}
+
+	public String getTemplate() {
+		return template;
+	}
+
+	public String getSql() {
+		return sql;
+	}
+
+	public int getParameterCount() {
+		return argIndexes.length;
+	}
+
+	// a full-row select by primary key, the only kind the entity cache can answer
+	public boolean isPkLookup() {
+		return pkArgIndex >= 0;
+	}
+
+	public int getPkArgIndex() {
+		return pkArgIndex;
+	}
+
+	// the argument holding the shard key of an @Entity(sharded = true) select, -1 if there is none
+	public int getShardArgIndex() {
+		return shardArgIndex;
+	}
+
+	// the method arguments in ? order, a named param used twice is bound twice
+	public Object[] bind(Object[] args) {
+		Object[] values = new Object[argIndexes.length];
+		for (int k = 0; k < argIndexes.length; k++)
+			values[k] = args[argIndexes[k]];
+		return values;
+	}
+
+	@Override
+	public String toString() {
+		return "CompiledQuery [sql=" + sql + "]";
+	}
+}
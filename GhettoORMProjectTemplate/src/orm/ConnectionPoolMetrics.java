@@ -0,0 +1,52 @@
+package orm;
+
+import realdb.GhettoJdbcBlackBox;
+
+public class ConnectionPoolMetrics implements ConnectionPoolMetricsMBean {
+
+	private final GhettoJdbcBlackBox jdbc;
+
+	ConnectionPoolMetrics(GhettoJdbcBlackBox jdbc) {
+		this.jdbc = jdbc;
+	}
+
+	@Override
+	public int getTotal() {
+		return jdbc.getPoolStats().getTotal();
+	}
+
+	@Override
+	public int getIdle() {
+		return jdbc.getPoolStats().getIdle();
+	}
+
+	@Override
+	public int getActive() {
+		return jdbc.getPoolStats().getActive();
+	}
+
+	@Override
+	public long getCreated() {
+		return jdbc.getPoolStats().getCreated();
+	}
+
+	@Override
+	public long getBorrowed() {
+		return jdbc.getPoolStats().getBorrowed();
+	}
+
+	@Override
+	public long getTimeouts() {
+		return jdbc.getPoolStats().getTimeouts();
+	}
+
+	@Override
+	public long getValidationFailures() {
+		return jdbc.getPoolStats().getValidationFailures();
+	}
+
+	@Override
+	public double getAverageWaitMillis() {
+		return jdbc.getPoolStats().getAverageWaitMillis();
+	}
+}
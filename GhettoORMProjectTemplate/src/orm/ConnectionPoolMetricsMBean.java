@@ -0,0 +1,21 @@
+package orm;
+
+// JMX view of the GhettoJdbcBlackBox connection pool
+public interface ConnectionPoolMetricsMBean {
+
+	int getTotal();
+
+	int getIdle();
+
+	int getActive();
+
+	long getCreated();
+
+	long getBorrowed();
+
+	long getTimeouts();
+
+	long getValidationFailures();
+
+	double getAverageWaitMillis();
+}
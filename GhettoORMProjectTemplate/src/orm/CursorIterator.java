@@ -0,0 +1,71 @@
+package orm;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import realdb.RowCursor;
+
+// entities hydrated one row at a time from a live cursor, backs @Select methods returning
+// Iterator<T> or Stream<T>; close it (or run it to the end) to give the connection back
+//
+// entities with relationships are read ahead in chunks instead, so their @ManyToOne /
+// @OneToMany fields cost one batched query per chunk rather than one per row
+public class CursorIterator<T> implements Iterator<T>, AutoCloseable {
+
+	// read-ahead of entities with relationships, at most the default relationship batch size
+	private static final int RELATION_CHUNK = 100;
+
+	private final RowCursor cursor;
+	private final EntityMetadata meta;
+	private final ColumnMetadata[] mapping;
+	private final RelationLoader relations;
+	private final int chunkSize;
+	private final ArrayDeque<Object> buffer = new ArrayDeque<>();
+
+	CursorIterator(RowCursor cursor, EntityMetadata meta, RelationLoader relations, int fetchSize) {
+		this.cursor = cursor;
+		this.meta = meta;
+		this.mapping = meta.mapHeader(cursor.getColumnNames());
+		this.relations = meta.hasRelations() ? relations : null;
+		this.chunkSize = fetchSize > 0 ? Math.min(fetchSize, RELATION_CHUNK) : RELATION_CHUNK;
+	}
+
+	@Override
+	public boolean hasNext() {
+		return !buffer.isEmpty() || cursor.hasNext();
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public T next() {
+		if (relations == null)
+			return (T) meta.hydrate(mapping, cursor.next());
+
+		if (buffer.isEmpty()) {
+			List<Object> chunk = new ArrayList<>(chunkSize);
+			chunk.add(meta.hydrate(mapping, cursor.next()));
+			while (chunk.size() < chunkSize && cursor.hasNext())
+				chunk.add(meta.hydrate(mapping, cursor.next()));
+			relations.load(meta, chunk);
+			buffer.addAll(chunk);
+		}
+		return (T) buffer.poll();
+	}
+
+	@Override
+	public void close() {
+		cursor.close();
+	}
+
+	// a sequential stream whose close() closes the cursor
+	Stream<T> stream() {
+		Spliterator<T> split = Spliterators.spliteratorUnknownSize(this, Spliterator.ORDERED | Spliterator.NONNULL);
+		return StreamSupport.stream(split, false).onClose(this::close);
+	}
+}
@@ -1,341 +1,553 @@
 package orm;
 
-import java.lang.reflect.Field;
 import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.Method;
+import java.lang.reflect.UndeclaredThrowableException;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Function;
+import java.util.stream.Stream;
 
-import annotations.*;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import realdb.CallTimings;
 import realdb.GhettoJdbcBlackBox;
+import realdb.QueryResult;
 
 public class DaoInvocationHandler implements InvocationHandler {
 
-	static GhettoJdbcBlackBox jdbc;
+	private static final Logger LOG = Logger.getLogger(DaoInvocationHandler.class.getName());
+	
+	private final GhettoJdbcBlackBox jdbc;
+	private final EntityWriter writer;
+	
+	private final MyORM orm;
+	private final Class<?> mapperInterface;
+	
+	// writes of mappers handed out by a Session are queued there until flush()
+	private final Session session;
+	
+	// every method of the interface, shared by all handlers of the same mapper interface
+	private final Map<Method, MapperOperation> operations;
 	
-	public DaoInvocationHandler() {
-		// TODO Auto-generated constructor stub
+	public DaoInvocationHandler(MyORM orm, Class<?> mapperInterface) {
 		
-		if (jdbc==null)
-		{
-			jdbc = new GhettoJdbcBlackBox();
-			jdbc.init("com.mysql.cj.jdbc.Driver", 				// DO NOT CHANGE
-					  "jdbc:mysql://localhost/studentdb",    // change jdbcblackbox to the DB name you wish to use
-					  "root", 									// USER NAME
-					  "");										// PASSWORD
-		}
+		this(orm, mapperInterface, null);
+	}
+	
+	DaoInvocationHandler(MyORM orm, Class<?> mapperInterface, Session session) {
+		
+		this.orm = orm;
+		this.mapperInterface = mapperInterface;
+		this.session = session;
+		this.jdbc = orm.getJdbc();
+		this.writer = orm.getWriter();
+		this.operations = orm.getOperations(mapperInterface);
 	}
 	
 	@Override
 	public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
 		
-		if (method.isAnnotationPresent(CreateTable.class)) {
-	        createTable(method);
-	    }
+		// resolved once per mapper interface, see MapperOperation
+		MapperOperation op = operations.get(method);
+		if (op == null)
+			throw new RuntimeException(method.getName() + " is not a method of " + mapperInterface.getSimpleName());
 		
-		if (method.isAnnotationPresent(Delete.class)) {
-	        delete(method, args[0]);
-	    }
+		switch (op.getKind()) {
+		case HASH_CODE:
+			return System.identityHashCode(proxy);
+		case EQUALS:
+			return proxy == args[0];
+		case TO_STRING:
+			return mapperInterface.getSimpleName() + "@" + Integer.toHexString(System.identityHashCode(proxy))
+					+ (session != null ? " (session)" : "");
+		default:
+			return run(op, args);
+		}
+	}
+	
+	// the operation a generated mapper keeps for one of its methods, looked up when it is created
+	public MapperOperation operation(Method method) {
 		
-		if (method.isAnnotationPresent(Save.class)) {
-	        save(method, args[0]);
-	    }
-
-	    if (method.isAnnotationPresent(Select.class)) {
-	        return select(method, args);
-	    }
-			
-		return null;
+		MapperOperation op = operations.get(method);
+		if (op == null)
+			throw new RuntimeException(method.getName() + " is not a method of " + mapperInterface.getSimpleName());
+		return op;
 	}
 	
+	// what the methods of a generated mapper call, no Method lookup or proxy in between
+	public Object call(MapperOperation op, Object[] args) {
+		
+		try {
+			return run(op, args);
+		} catch (RuntimeException | Error e) {
+			throw e;
+		} catch (Throwable t) {
+			throw new UndeclaredThrowableException(t);
+		}
+	}
+	
+	private Object run(MapperOperation op, Object[] args) throws Throwable {
+		
+		if (op.getKind() == MapperOperation.Kind.UNSUPPORTED)
+			throw new RuntimeException(mapperInterface.getSimpleName() + "." + op.getMethod().getName()
+					+ " has no @Select, @Save, @Delete or @CreateTable annotation");
+		
+		// CompletableFuture<T> methods run the same operation on the ORM's async executor,
+		// inside a transaction on the calling thread, which holds the transaction's connection
+		if (op.isAsync() && jdbc.inTransaction()) {
+			CompletableFuture<Object> done = new CompletableFuture<>();
+			try {
+				done.complete(timedDispatch(op, args));
+			} catch (Throwable t) {
+				done.completeExceptionally(t);
+			}
+			return done;
+		}
+		if (op.isAsync()) {
+			return orm.getAsyncExecutor().submit(() -> {
+				try {
+					return timedDispatch(op, args);
+				} catch (Exception e) {
+					throw e;
+				} catch (Throwable t) {
+					throw new CompletionException(t);
+				}
+			});
+		}
+		
+		return timedDispatch(op, args);
+	}
 	
-	// HELPER METHOD: when putting in field values into SQL, strings are in quotes otherwise they go in as is
-	private String getValueAsSql(Object o) throws Exception
+	// records the call in the method's MethodMetrics, split into acquire / execute / hydrate time
+	private Object timedDispatch(MapperOperation op, Object[] args) throws Throwable {
+		
+		MethodMetrics metrics = op.getMetrics(orm);
+		long[] timings = CallTimings.reset();
+		long start = System.nanoTime();
+		boolean failed = true;
+		Object result = null;
+		
+		try {
+			result = dispatch(op, args);
+			failed = false;
+			return result;
+		} finally {
+			metrics.record(System.nanoTime() - start, CallTimings.acquireNanos(timings),
+					CallTimings.executeNanos(timings), CallTimings.hydrateNanos(timings), rowCount(result), failed);
+		}
+	}
+	
+	// lazy results are not counted, their rows are read after the call returns
+	private static long rowCount(Object result)
 	{
-		if (o.getClass()==String.class)
-		{
-			return "\""+o+"\"";
+		if (result == null || result instanceof Stream || result instanceof Iterator)
+			return 0;
+		if (result instanceof List)
+			return ((List<?>) result).size();
+		if (result instanceof Slice)
+			return ((Slice<?>) result).getNumberOfElements();
+		return 1;
+	}
+	
+	private Object dispatch(MapperOperation op, Object[] args) throws Throwable {
+		
+		EntityMetadata meta = op.getMeta();
+		
+		switch (op.getKind()) {
+		case CREATE_TABLE:
+			createTable(meta);
+			return null;
+			
+		// cached query results of the table are dropped even if the write failed half way
+		// (session writes invalidate when they are flushed)
+		case DELETE:
+			try {
+				if (args[0] instanceof Collection)
+					deleteAll(meta, (Collection<?>) args[0]);
+				else
+					delete(meta, args[0]);
+			} finally {
+				if (session == null)
+					orm.invalidateQueryCaches(meta);
+			}
+			return null;
+			
+		case SAVE:
+			try {
+				if (args[0] instanceof Collection)
+					saveAll(meta, (Collection<?>) args[0]);
+				else
+					save(meta, args[0]);
+			} finally {
+				if (session == null)
+					orm.invalidateQueryCaches(meta);
+			}
+			return null;
+			
+		case SELECT:
+	        // queued session writes go out first so the query sees them
+	        if (session != null) {
+	            session.flush();
+	        }
+	        return select(op, args);
+	        
+		default:
+			return null;
 		}
-		else
-		{
-			return String.valueOf(o);
-		}		
 	}
 	
 	
-	// handles @CreateTable
-	private void createTable(Method method)
+	// handles @CreateTable, on every shard for a sharded entity
+	private void createTable(EntityMetadata meta)
 	{
+	    String returnSql = meta.getCreateTableSql();
 
-	    MappedClass mappedClass = method.getAnnotation(MappedClass.class);
-	    if (mappedClass == null)
-	        throw new RuntimeException("@CreateTable requires @MappedClass on the method");
-
-	    Class<?> clazz = mappedClass.clazz();  // entity class
-	    String tableName = clazz.getSimpleName();
-
-	    String template = "CREATE TABLE <name> (<fields> PRIMARY KEY (<id>))";
-
-	    String fieldString = "";
-	    String pkColumn = null;
-
-	    Field[] fields = clazz.getDeclaredFields();
-	    for (Field f : fields)
-	    {
-	        if (f.isAnnotationPresent(Column.class))
-	        {
-	            Column c = f.getAnnotation(Column.class);
-	            String name = c.name();
-	            String sql = c.sqlType();
-
-	            if (c.id())
-	                pkColumn = name;
+	    if (LOG.isLoggable(Level.FINE))
+	        LOG.fine("Executing CreateTable SQL: " + returnSql);
 
-	            fieldString += name + " " + sql + ", ";
-	        }
+	    ShardRouter shards = orm.getShardRouter(meta);
+	    if (shards == null) {
+	        jdbc.runSQL(returnSql);
+	        return;
+	    }
+	    for (int i = 0; i < shards.size(); i++) {
+	        shards.getShard(i).getJdbc().runSQL(returnSql);
 	    }
-
-	    String returnSql = template
-	            .replace("<name>", tableName)
-	            .replace("<fields>", fieldString)
-	            .replace("<id>", pkColumn);
-
-	    System.out.println("Executing CreateTable SQL: " + returnSql);
-
-	    jdbc.runSQL(returnSql);
 	}
 	
 	// handles @Delete
-	private void delete(Method method, Object o) throws Exception
+	private void delete(EntityMetadata meta, Object o)
 	{	
-	    MappedClass mapped = method.getAnnotation(MappedClass.class);
-
-	    Class<?> entityClass = mapped.clazz();
-	    String tableName = entityClass.getSimpleName();
-
-	    Field pkField = null;
-	    String pkColumnName = null;
-
-	    for (Field f : entityClass.getDeclaredFields()) {
-	        if (f.isAnnotationPresent(Column.class)) {
-	            Column c = f.getAnnotation(Column.class);
-	            if (c.id()) {
-	                pkField = f;
-	                pkColumnName = c.name();
-	                break;
-	            }
-	        }
-	    }
-
-	    pkField.setAccessible(true);
-
-	    Object pkValue = pkField.get(o);
-
-	    if (pkValue == null) {
-	        throw new RuntimeException("no pk value");
+	    if (session != null) {
+	        session.delete(meta, o);
+	    } else {
+	        writer.delete(meta, o);
 	    }
-
-	    String pkValueSql = getValueAsSql(pkValue);
-
-	    String sql = "DELETE FROM " + tableName + " WHERE " + pkColumnName + "=" + pkValueSql;
-
-	    System.out.println("Executing Delete SQL: " + sql);
-	    jdbc.runSQL(sql);
 	}
 	
-	// handles @Save
-	private void save(Method method, Object o) throws Exception
+	// handles @Delete with a Collection argument: one JDBC batch per chunk
+	private void deleteAll(EntityMetadata meta, Collection<?> entities)
 	{
-		
-	    MappedClass mc = method.getAnnotation(MappedClass.class);
-	    if (mc == null)
-	        throw new RuntimeException("@MappedClass annotation missing");
-
-	    Class<?> entityClass = mc.clazz();
 
-	    Field primaryKeyField = null;
-
-	    for (Field field : entityClass.getDeclaredFields()) {
-	        Column c = field.getAnnotation(Column.class);
-	        if (c != null && c.id()) {
-	            primaryKeyField = field;
-	            break;
+	    if (session != null) {
+	        for (Object o : entities) {
+	            session.delete(meta, o);
 	        }
+	    } else {
+	        writer.deleteAll(meta, entities);
 	    }
+	}
+	
+	// handles @Save
+	private void save(EntityMetadata meta, Object o)
+	{
 
-	    if (primaryKeyField == null)
-	        throw new RuntimeException("No primary key field found in " + entityClass.getName());
-
-	    primaryKeyField.setAccessible(true);
-	    
-	    Object pkValue = primaryKeyField.get(o);
-
-	    String tableName = entityClass.getSimpleName();  
-
-	    if (pkValue == null) {
-	        insert(o, entityClass, tableName);
+	    if (session != null) {
+	        session.save(meta, o);
+	    } else if (meta.getIdColumn().get(o) == null) {
+	        writer.insert(meta, o);
 	    } else {
-	        update(o, entityClass, tableName);
+	        writer.update(meta, o);
 	    }
 
 	}
-
-	private void insert(Object o, Class entityClass, String tableName) throws Exception 
+	
+	// handles @Save with a Collection argument: new entities (no pk) are inserted and
+	// existing ones updated, one JDBC batch per chunk, generated keys are written back
+	private void saveAll(EntityMetadata meta, Collection<?> entities)
 	{
-		
-		String columnsString = "";
-	    String valuesString = "";
-
-	    Field[] fields = entityClass.getDeclaredFields();
-
-	    for (Field f : fields) {
-	        Column c = f.getAnnotation(Column.class);
+	    ColumnMetadata pk = meta.getIdColumn();
 
-
-	        f.setAccessible(true);
-	        Object value = f.get(o);
-	        
-	        if (c.id() && value == null) {
-	            continue;
+	    if (session != null) {
+	        for (Object o : entities) {
+	            session.save(meta, o);
 	        }
+	        return;
+	    }
 
-	        columnsString += c.name() + ", ";
+	    List<Object> inserted = new ArrayList<>();
+	    List<Object> updated = new ArrayList<>();
 
-	        valuesString += getValueAsSql(value) + ", ";
-	    }
-	    
-	    if (columnsString.endsWith(", ")) {
-	        columnsString = columnsString.substring(0, columnsString.length() - 2);
+	    for (Object o : entities) {
+	        if (pk.get(o) == null) {
+	            inserted.add(o);
+	        } else {
+	            updated.add(o);
+	        }
 	    }
 
-	    if (valuesString.endsWith(", ")) {
-	        valuesString = valuesString.substring(0, valuesString.length() - 2);
+	    writer.insertAll(meta, inserted);
+	    writer.updateAll(meta, updated);
+	}
+	
+	//handles @select
+	private Object select(MapperOperation op, Object[] args) throws Exception {
+
+	    // a replica in turn, unless the read has to see the writes of this thread or session
+	    boolean primaryOnly = op.isReadFromPrimary() || (session != null && session.isReadFromPrimary());
+
+	    for (int failed = 0; ; failed++) {
+	        // every replica failed once, the primary is left
+	        DatabaseNode source = orm.getReadNode(primaryOnly || failed >= orm.getReplicaCount());
+	        try {
+	            return select(op, args, source);
+	        } catch (RuntimeException e) {
+	            // a replica that cannot be reached is skipped from now on, the read goes to the next
+	            // database; sharded rows never come from a replica, their failures are the shard's
+	            if (op.getShards() != null || !orm.replicaFailed(source, e)) {
+	                throw e;
+	            }
+	        }
 	    }
-	    
-	    String sql = "INSERT INTO " + tableName + " (" + columnsString + ") VALUES (" + valuesString + ")";
+	}
 
-	    System.out.println("Executing SQL: " + sql);
+	private Object select(MapperOperation op, Object[] args, DatabaseNode source) throws Exception {
 
-	    jdbc.runSQL(sql);
-	    
-	}
+	    EntityMetadata meta = op.getMeta();
+	    MapperOperation.Result result = op.getResult();
 
-	private void update(Object o, Class entityClass, String tableName) throws IllegalAccessException, Exception {
-	    String setPart = "";
-	    Field pkField = null;
-	    String pkColumnName = null;
-	    Object pkValue = null;
-
-	    for (Field f : entityClass.getDeclaredFields()) {
-	        if (f.isAnnotationPresent(Column.class)) {
-	            Column c = f.getAnnotation(Column.class);
-	            f.setAccessible(true);
-	            Object value = f.get(o);
-
-	            if (c.id()) {
-	                pkField = f;
-	                pkColumnName = c.name();
-	                pkValue = value;
-	            } else {
-	                setPart += c.name() + " = " + getValueAsSql(value) + ", ";
-	            }
+	    // rows of a sharded entity come from the shard owning the shard key the where clause pins,
+	    // or from every shard (scatter); their relationships still load through source
+	    ShardRouter shards = op.getShards();
+	    boolean scatter = shards != null && op.getShardArgIndex() < 0;
+	    GhettoJdbcBlackBox reader = shards == null ? source.getJdbc()
+	            : scatter ? null : shards.shardFor(args[op.getShardArgIndex()]).getJdbc();
+
+	    if (result == MapperOperation.Result.SLICE || result == MapperOperation.Result.PAGE) {
+	        if (scatter) {
+	            throw new RuntimeException(op.getMethod().getName() + " pages a sharded entity without its shard key "
+	                    + meta.getShardKey().getName() + ", pages cannot be merged across shards");
 	        }
+	        return selectPage(source, reader, op.getPagedQuery(), args, meta, result == MapperOperation.Result.PAGE);
 	    }
 
-	    if (pkField == null) {
-	        throw new RuntimeException("No primary key field found in " + entityClass.getName());
+	    CompiledQuery query = op.getQuery();
+	    int fetchSize = op.getFetchSize();
+
+	    // columnar reads: typed arrays filled straight from the cursor, no row or entity objects
+	    if (result == MapperOperation.Result.COLUMNS) {
+	        long readStart = System.nanoTime();
+	        ColumnBatch batch = scatter
+	                ? ColumnBatch.concat(shards.onEveryShard(
+	                        db -> ColumnBatch.readAll(db.openCursor(query.getSql(), query.bind(args), fetchSize))))
+	                : ColumnBatch.readAll(reader.openCursor(query.getSql(), query.bind(args), fetchSize));
+	        CallTimings.addHydrate(System.nanoTime() - readStart);
+	        return batch;
 	    }
-	    if (pkValue == null) {
-	        throw new RuntimeException("Primary key value is null for update");
+	    if (result == MapperOperation.Result.COLUMN_STREAM || result == MapperOperation.Result.COLUMN_ITERATOR) {
+	        int chunkSize = fetchSize > 0 ? fetchSize : ColumnBatch.DEFAULT_CHUNK_SIZE;
+	        if (scatter) {
+	            ShardedIterator<ColumnBatch> chunks = new ShardedIterator<>(shards,
+	                    db -> new ColumnBatch.Chunks(db.openCursor(query.getSql(), query.bind(args), chunkSize), chunkSize));
+	            return result == MapperOperation.Result.COLUMN_STREAM ? chunks.stream() : chunks;
+	        }
+	        ColumnBatch.Chunks chunks = new ColumnBatch.Chunks(reader.openCursor(query.getSql(), query.bind(args), chunkSize),
+	                chunkSize);
+	        return result == MapperOperation.Result.COLUMN_STREAM ? chunks.stream() : chunks;
 	    }
 
-	    if (setPart.endsWith(", ")) {
-	        setPart = setPart.substring(0, setPart.length() - 2);
+	    // lazy results: hydrate one row at a time from a live cursor instead of buffering the table
+	    if (result == MapperOperation.Result.STREAM || result == MapperOperation.Result.ITERATOR) {
+	        if (scatter) {
+	            ShardedIterator<Object> it = new ShardedIterator<>(shards, db -> new CursorIterator<>(
+	                    db.openCursor(query.getSql(), query.bind(args), fetchSize), meta, source.getRelations(), fetchSize));
+	            return result == MapperOperation.Result.STREAM ? it.stream() : it;
+	        }
+	        CursorIterator<Object> it = new CursorIterator<>(reader.openCursor(query.getSql(), query.bind(args), fetchSize), meta,
+	                source.getRelations(), fetchSize);
+	        return result == MapperOperation.Result.STREAM ? it.stream() : it;
 	    }
 
-	    String sql = "UPDATE " + tableName + " SET " + setPart + " WHERE " + pkColumnName + " = " + getValueAsSql(pkValue);
+	    // one value per shard, which could be a count, a max or a single row: summing or picking is the caller's call
+	    if (scatter && result == MapperOperation.Result.PROJECTION) {
+	        throw new RuntimeException(op.getMethod().getName() + " returns a single value of a sharded entity without its "
+	                + "shard key " + meta.getShardKey().getName() + ", return a List to get the value of every shard");
+	    }
 
-	    System.out.println("Executing UPDATE SQL: " + sql);
+	    // inside a transaction rows may be uncommitted or newer than the cached ones, the caches are skipped
+	    boolean inTransaction = jdbc.inTransaction();
 
-	    jdbc.runSQL(sql);
-	}
-	
-	//handles @select
-	private Object select(Method method, Object[] args) throws Exception {
+	    // primary key lookups of @Entity(cached=true) entities are answered from memory when possible
+	    LruCache<Object, Object[]> cache = inTransaction ? null : op.getEntityCache();
+	    boolean cacheable = cache != null;
+	    Object cacheKey = null;
+	    long generation = 0;
 
-	    MappedClass mapped = method.getAnnotation(MappedClass.class);
-	    if (mapped == null) {
-	        throw new RuntimeException("@MappedClass annotation missing");
+	    if (cacheable) {
+	        cacheKey = EntityWriter.cacheKey(args[query.getPkArgIndex()]);
+	        Object[] cached = cache.get(cacheKey);
+	        if (cached != null) {
+	            return withRelations(source, meta, tracked(meta, meta.fromRow(cached), null, cached));
+	        }
+	        generation = cache.generation(cacheKey);
 	    }
-	    Class<?> clazz = mapped.clazz();
 
-	    String tableName = clazz.getSimpleName();
+	    // @Select(cached=true): rows come from the method's result cache, one query per miss
+	    Object[] params = query.bind(args);
+	    QueryCache queryCache = inTransaction ? null : op.getQueryCache(orm);
+	    Callable<QueryResult> run = scatter
+	            ? () -> QueryResult.concat(shards.onEveryShard(db -> db.runQuery(query.getSql(), params)))
+	            : () -> reader.runQuery(query.getSql(), params);
+	    QueryResult results = queryCache != null ? queryCache.get(params, run) : run.call();
 
-	    Select selectAnn = method.getAnnotation(Select.class);
-	    if (selectAnn == null) {
-	        throw new RuntimeException("@Select annotation missing");
-	    }
-	    String sqlString = selectAnn.value().replace(":table", tableName);
-
-	    java.lang.reflect.Parameter[] params = method.getParameters();
-	    for (int i = 0; i < params.length; i++) {
-	        java.lang.reflect.Parameter p = params[i];
-	        if (p.isAnnotationPresent(Param.class)) {
-	            String paramName = p.getAnnotation(Param.class).value();
-	            Object paramValue = args[i];
-	            if (paramValue instanceof String) {
-	                sqlString = sqlString.replace(":" + paramName, "\"" + paramValue + "\"");
-	            } else {
-	                sqlString = sqlString.replace(":" + paramName, paramValue.toString());
-	            }
-	        }
+	    if (op.getProjection() != null) {
+	        return project(op, results);
 	    }
 
-	    List<HashMap<String, Object>> results = jdbc.runSQLQuery(sqlString);
-
-	    if (method.getReturnType() == List.class) {
-	        List<Object> returnValue = new ArrayList<>();
-	        for (HashMap<String, Object> result : results) {
-	            Object o = clazz.getDeclaredConstructor().newInstance();
-
-	            for (String columnName : result.keySet()) {
-	                for (Field f : clazz.getDeclaredFields()) {
-	                    if (f.isAnnotationPresent(Column.class)) {
-	                        Column col = f.getAnnotation(Column.class);
-	                        if (col.name().equals(columnName)) {
-	                            f.setAccessible(true);
-	                            f.set(o, result.get(columnName));
-	                        }
-	                    }
-	                }
-	            }
+	    // header -> column resolved once per result, rows are filled by column index
+	    long hydrateStart = System.nanoTime();
+	    ColumnMetadata[] mapping = meta.mapHeader(results.getColumnNames());
 
-	            returnValue.add(o);
+	    if (result == MapperOperation.Result.LIST) {
+	        List<Object> returnValue = new ArrayList<>(results.size());
+	        for (Object[] row : results.getRows()) {
+	            returnValue.add(meta.hydrate(mapping, row));
 	        }
+	        CallTimings.addHydrate(System.nanoTime() - hydrateStart);
+	        tracked(meta, returnValue, mapping, results.getRows());
+
+	        // relationships of all rows at once, one IN (...) query per batch
+	        source.getRelations().load(meta, returnValue);
 	        return returnValue;
 	    } else {
 	        if (results.isEmpty()) {
 	            return null;
 	        }
 
-	        HashMap<String, Object> result = results.get(0);
-	        Object o = clazz.getDeclaredConstructor().newInstance();
-
-	        for (String columnName : result.keySet()) {
-	            for (Field f : clazz.getDeclaredFields()) {
-	                if (f.isAnnotationPresent(Column.class)) {
-	                    Column col = f.getAnnotation(Column.class);
-	                    if (col.name().equals(columnName)) {
-	                        f.setAccessible(true);
-	                        f.set(o, result.get(columnName));
-	                    }
-	                }
+	        Object o = meta.hydrate(mapping, results.getRows().get(0));
+	        CallTimings.addHydrate(System.nanoTime() - hydrateStart);
+
+	        // skipped if a write to this row raced with the query
+	        if (cacheable && results.size() == 1 && meta.isComplete(mapping)) {
+	            cache.putIfGeneration(cacheKey, meta.toRow(o), generation);
+	        }
+	        return withRelations(source, meta, tracked(meta, o, mapping, results.getRows().get(0)));
+	    }
+	}
+	
+	// scalars, Maps and constructor projections: no entity is created, no relationship loaded
+	private static Object project(MapperOperation op, QueryResult results)
+	{
+	    long hydrateStart = System.nanoTime();
+	    Function<Object[], Object> rows = op.getProjection().forHeader(results.getColumnNames());
+	    Object returnValue;
+
+	    if (op.getResult() == MapperOperation.Result.PROJECTION_LIST) {
+	        List<Object> values = new ArrayList<>(results.size());
+	        for (Object[] row : results.getRows()) {
+	            values.add(rows.apply(row));
+	        }
+	        returnValue = values;
+	    } else {
+	        returnValue = results.isEmpty() ? op.getProjection().empty() : rows.apply(results.getRows().get(0));
+	    }
+
+	    CallTimings.addHydrate(System.nanoTime() - hydrateStart);
+	    return returnValue;
+	}
+	
+	// HELPER METHOD: loaded entities get a snapshot for dirty checking, a session mapper's in the
+	// session, a plain mapper's in the entity's SnapshotTable unless a transaction may roll back
+	// what was read. mapping is null when row is a cached toRow()
+	private Object tracked(EntityMetadata meta, Object o, ColumnMetadata[] mapping, Object[] row)
+	{
+	    if (session != null) {
+	        session.track(meta, o);
+	    } else {
+	        SnapshotTable snapshots = orm.getSnapshots(meta);
+	        if (snapshots != null && !jdbc.inTransaction()) {
+	            snapshots.put(o, mapping, row);
+	        }
+	    }
+	    return o;
+	}
+	
+	// rows.get(i) is the row of entities.get(i)
+	private void tracked(EntityMetadata meta, List<Object> entities, ColumnMetadata[] mapping, List<Object[]> rows)
+	{
+	    if (session != null) {
+	        session.track(meta, entities);
+	    } else {
+	        SnapshotTable snapshots = orm.getSnapshots(meta);
+	        if (snapshots != null && !jdbc.inTransaction()) {
+	            // the table would only keep the last SLOTS of a long list anyway
+	            for (int i = Math.max(0, entities.size() - SnapshotTable.SLOTS); i < entities.size(); i++) {
+	                snapshots.put(entities.get(i), mapping, rows.get(i));
 	            }
 	        }
+	    }
+	}
+	
+	// HELPER METHOD: loads the @ManyToOne / @OneToMany fields of a single entity
+	private static Object withRelations(DatabaseNode source, EntityMetadata meta, Object o)
+	{
+	    if (meta.hasRelations()) {
+	        source.getRelations().load(meta, Collections.singletonList(o));
+	    }
+	    return o;
+	}
+	
+	// Slice<T> / Page<T>: the template rewritten for the requested order and keyset position,
+	// Page<T> also runs a COUNT(*) of the whole query
+	private Object selectPage(DatabaseNode source, GhettoJdbcBlackBox reader, PagedQuery paged, Object[] args,
+	        EntityMetadata meta, boolean counted)
+	{
+	    PageRequest request = paged.pageRequest(args);
+	    CompiledQuery query = paged.query(request);
+
+	    QueryResult results = reader.runQuery(query.getSql(), paged.bind(query, args, request));
+
+	    long hydrateStart = System.nanoTime();
+	    ColumnMetadata[] mapping = meta.mapHeader(results.getColumnNames());
+	    List<Object[]> rows = results.getRows();
+	    int size = Math.min(rows.size(), request.getSize());
+
+	    List<Object> content = new ArrayList<>(size);
+	    for (int i = 0; i < size; i++) {
+	        content.add(meta.hydrate(mapping, rows.get(i)));
+	    }
+	    CallTimings.addHydrate(System.nanoTime() - hydrateStart);
+	    tracked(meta, content, mapping, rows);
+	    source.getRelations().load(meta, content);
+
+	    // the extra row tells there is a next page, the last row of this one is where it starts
+	    PageRequest next = null;
+	    if (rows.size() > request.getSize()) {
+	        Object[] last = rows.get(size - 1);
+	        next = request.next(valueOf(mapping, last, paged.sortColumn(request), request),
+	                valueOf(mapping, last, meta.getIdColumn(), request));
+	    }
 
-	        return o;
+	    if (!counted) {
+	        return new Slice<>(content, request, next);
+	    }
+
+	    CompiledQuery count = paged.countQuery();
+	    QueryResult total = reader.runQuery(count.getSql(), count.bind(args));
+	    return new Page<>(content, request, next, ((Number) total.getRows().get(0)[0]).longValue());
+	}
+	
+	// HELPER METHOD: a keyset column of a result row, the select must return it
+	private static Object valueOf(ColumnMetadata[] mapping, Object[] row, ColumnMetadata column, PageRequest request)
+	{
+	    for (int i = 0; i < mapping.length; i++) {
+	        if (mapping[i] == column) {
+	            return row[i];
+	        }
+	    }
+	    if (request.getMode() == PageRequest.Mode.KEYSET) {
+	        throw new RuntimeException("Keyset paging needs column " + column.getName() + " in the select list");
 	    }
+	    return null;
 	}
 	
 }
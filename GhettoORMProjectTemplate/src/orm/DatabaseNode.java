@@ -0,0 +1,51 @@
+package orm;
+
+import realdb.GhettoJdbcBlackBox;
+
+// one database @Select calls can read from: the primary, one of its replicas (see MyORM.addReplica())
+// or a shard (see MyORM.addShard()). the relationships of the entities a select returned are loaded
+// from the same database, sharded related entities from their shards
+final class DatabaseNode {
+
+	private final String name;
+	private final GhettoJdbcBlackBox jdbc;
+	private final RelationLoader relations;
+
+	// a replica that could not be reached is skipped by MyORM.getReadNode() until this System.nanoTime()
+	private volatile boolean down;
+	private volatile long downUntil;
+
+	DatabaseNode(String name, GhettoJdbcBlackBox jdbc, MyORM orm) {
+		this.name = name;
+		this.jdbc = jdbc;
+		this.relations = new RelationLoader(jdbc, orm);
+	}
+
+	// "primary", "replica0", "replica1" ..., "shard1", "shard2" ...
+	String getName() {
+		return name;
+	}
+
+	GhettoJdbcBlackBox getJdbc() {
+		return jdbc;
+	}
+
+	RelationLoader getRelations() {
+		return relations;
+	}
+
+	// up, or down long enough to be tried again
+	boolean isAvailable() {
+		return !down || System.nanoTime() - downUntil >= 0;
+	}
+
+	void markDown(long nanos) {
+		downUntil = System.nanoTime() + nanos;
+		down = true;
+	}
+
+	@Override
+	public String toString() {
+		return "DatabaseNode [" + name + "]";
+	}
+}
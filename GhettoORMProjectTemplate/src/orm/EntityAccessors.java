@@ -0,0 +1,182 @@
+package orm;
+
+import java.lang.invoke.CallSite;
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+// builds the instantiator, getters and setters of an entity once, at registration time
+//
+// public no-arg constructors and public JavaBean getX/setX methods are turned into real
+// Supplier / Function / BiConsumer classes by LambdaMetafactory, the same way javac compiles a
+// method reference, so the JIT can inline them like any other call. everything else (private
+// fields without accessors, non-public constructors) falls back to a MethodHandle on the member.
+// entities compiled with processor.OrmProcessor use its GeneratedEntity switches instead.
+final class EntityAccessors {
+
+	private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+
+	private EntityAccessors() {
+	}
+
+	// generated may be null, or not cover the constructor / field
+	static Supplier<Object> instantiator(Class<?> entityClass, GeneratedEntity generated) {
+		if (generated != null && generated.hasConstructor())
+			return generated::newInstance;
+		return instantiator(entityClass);
+	}
+
+	static Function<Object, Object> getter(Field field, GeneratedEntity generated) {
+		int index = indexOf(generated, field);
+		if (index < 0)
+			return getter(field);
+		return entity -> generated.get(entity, index);
+	}
+
+	static BiConsumer<Object, Object> setter(Field field, GeneratedEntity generated) {
+		int index = indexOf(generated, field);
+		if (index < 0)
+			return setter(field);
+		return (entity, value) -> generated.set(entity, index, value);
+	}
+
+	private static int indexOf(GeneratedEntity generated, Field field) {
+		if (generated == null || generated.entityClass() != field.getDeclaringClass())
+			return -1;
+		String[] fields = generated.fields();
+		for (int i = 0; i < fields.length; i++)
+			if (fields[i].equals(field.getName()))
+				return i;
+		return -1;
+	}
+
+	@SuppressWarnings("unchecked")
+	static Supplier<Object> instantiator(Class<?> entityClass) {
+		Constructor<?> ctor;
+		try {
+			ctor = entityClass.getDeclaredConstructor();
+		} catch (NoSuchMethodException e) {
+			throw new RuntimeException("Entity " + entityClass.getName() + " needs a no-arg constructor", e);
+		}
+
+		try {
+			if (isPublic(entityClass) && Modifier.isPublic(ctor.getModifiers())) {
+				MethodHandle impl = LOOKUP.unreflectConstructor(ctor);
+				CallSite site = LambdaMetafactory.metafactory(LOOKUP, "get", MethodType.methodType(Supplier.class),
+						MethodType.methodType(Object.class), impl, MethodType.methodType(entityClass));
+				return (Supplier<Object>) site.getTarget().invoke();
+			}
+
+			ctor.setAccessible(true);
+			MethodHandle handle = LOOKUP.unreflectConstructor(ctor).asType(MethodType.methodType(Object.class));
+			return () -> {
+				try {
+					return handle.invokeExact();
+				} catch (Throwable t) {
+					throw rethrow(t);
+				}
+			};
+		} catch (Throwable t) {
+			throw new RuntimeException("Cannot build instantiator for " + entityClass.getName(), t);
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	static Function<Object, Object> getter(Field field) {
+		Class<?> owner = field.getDeclaringClass();
+		Method m = beanMethod(owner, (field.getType() == boolean.class ? "is" : "get") + capitalize(field.getName()));
+
+		try {
+			if (m != null && m.getParameterCount() == 0 && m.getReturnType() == field.getType()) {
+				MethodHandle impl = LOOKUP.unreflect(m);
+				CallSite site = LambdaMetafactory.metafactory(LOOKUP, "apply", MethodType.methodType(Function.class),
+						MethodType.methodType(Object.class, Object.class), impl,
+						MethodType.methodType(wrap(field.getType()), owner));
+				return (Function<Object, Object>) site.getTarget().invoke();
+			}
+
+			field.setAccessible(true);
+			MethodHandle handle = LOOKUP.unreflectGetter(field)
+					.asType(MethodType.methodType(Object.class, Object.class));
+			return entity -> {
+				try {
+					return handle.invokeExact(entity);
+				} catch (Throwable t) {
+					throw rethrow(t);
+				}
+			};
+		} catch (Throwable t) {
+			throw new RuntimeException("Cannot build getter for " + owner.getName() + "." + field.getName(), t);
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	static BiConsumer<Object, Object> setter(Field field) {
+		Class<?> owner = field.getDeclaringClass();
+		Method m = beanMethod(owner, "set" + capitalize(field.getName()), field.getType());
+
+		try {
+			if (m != null) {
+				MethodHandle impl = LOOKUP.unreflect(m);
+				CallSite site = LambdaMetafactory.metafactory(LOOKUP, "accept",
+						MethodType.methodType(BiConsumer.class),
+						MethodType.methodType(void.class, Object.class, Object.class), impl,
+						MethodType.methodType(void.class, owner, wrap(field.getType())));
+				return (BiConsumer<Object, Object>) site.getTarget().invoke();
+			}
+
+			field.setAccessible(true);
+			MethodHandle handle = LOOKUP.unreflectSetter(field)
+					.asType(MethodType.methodType(void.class, Object.class, Object.class));
+			return (entity, value) -> {
+				try {
+					handle.invokeExact(entity, value);
+				} catch (Throwable t) {
+					throw rethrow(t);
+				}
+			};
+		} catch (Throwable t) {
+			throw new RuntimeException("Cannot build setter for " + owner.getName() + "." + field.getName(), t);
+		}
+	}
+
+	// only public methods of public classes can be spun into lambdas from here
+	private static Method beanMethod(Class<?> owner, String name, Class<?>... params) {
+		if (!isPublic(owner))
+			return null;
+		try {
+			Method m = owner.getMethod(name, params);
+			return Modifier.isStatic(m.getModifiers()) ? null : m;
+		} catch (NoSuchMethodException e) {
+			return null;
+		}
+	}
+
+	private static boolean isPublic(Class<?> c) {
+		return Modifier.isPublic(c.getModifiers()) && (c.getEnclosingClass() == null || isPublic(c.getEnclosingClass()));
+	}
+
+	private static String capitalize(String s) {
+		return Character.toUpperCase(s.charAt(0)) + s.substring(1);
+	}
+
+	static Class<?> wrap(Class<?> type) {
+		return type.isPrimitive() ? MethodType.methodType(type).wrap().returnType() : type;
+	}
+
+	private static RuntimeException rethrow(Throwable t) {
+		if (t instanceof RuntimeException)
+			return (RuntimeException) t;
+		if (t instanceof Error)
+			throw (Error) t;
+		return new RuntimeException(t);
+	}
+}
@@ -0,0 +1,371 @@
+package orm;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+import annotations.Column;
+import annotations.Entity;
+
+// everything the ORM needs to know about an @Entity class
+// built once by MyORM.scanEntities() and never changed afterwards
+public class EntityMetadata {
+
+	// a snapshot value for a column no query returned
+	private static final Object UNREAD = new Object();
+
+	private final Class<?> entityClass;
+	private final String tableName;
+	private final List<ColumnMetadata> columns;
+	private final List<ColumnMetadata> nonIdColumns;
+	private final ColumnMetadata idColumn;
+	private final Map<String, ColumnMetadata> columnsByName;
+	private final ColumnMetadata[] columnArray;
+	private final Entity entityAnnotation;
+	private final Supplier<Object> instantiator;
+	private final List<RelationMetadata> relations;
+
+	// @Entity(sharded = true): the column whose value picks the shard of a row, null otherwise
+	private final ColumnMetadata shardKey;
+
+	// write statements never change for an entity, so they are built here once
+	private final String insertSql;
+	private final String updateSql;
+	private final String deleteSql;
+	private final String createTableSql;
+
+	// @Entity(dirtyChecking = true): Session and SnapshotTable snapshots are diffed with changedColumns()
+	private final boolean dirtyChecked;
+	private final int idIndex;
+	private final long allNonIdColumns;
+	private final Map<Long, String> partialUpdateSql = new ConcurrentHashMap<>();
+
+	private EntityMetadata(Class<?> entityClass, Entity entity, List<ColumnMetadata> columns,
+			ColumnMetadata idColumn, List<RelationMetadata> relations, GeneratedEntity generated) {
+		this.entityClass = entityClass;
+		this.relations = Collections.unmodifiableList(relations);
+		this.entityAnnotation = entity;
+		this.tableName = entity.table();
+		this.columns = Collections.unmodifiableList(columns);
+		this.idColumn = idColumn;
+
+		List<ColumnMetadata> nonId = new ArrayList<>();
+		Map<String, ColumnMetadata> byName = new HashMap<>();
+		for (ColumnMetadata c : columns) {
+			if (!c.isId())
+				nonId.add(c);
+			byName.put(c.getName(), c);
+		}
+		this.nonIdColumns = Collections.unmodifiableList(nonId);
+		this.columnsByName = Collections.unmodifiableMap(byName);
+		this.columnArray = columns.toArray(new ColumnMetadata[0]);
+
+		this.shardKey = !entity.sharded() ? null : entity.shardKey().isEmpty() ? idColumn : byName.get(entity.shardKey());
+		if (entity.sharded() && shardKey == null)
+			throw new RuntimeException("Entity " + entityClass.getSimpleName() + " has no @Column " + entity.shardKey()
+					+ " to shard by");
+
+		this.instantiator = EntityAccessors.instantiator(entityClass, generated);
+
+		StringBuilder insertColumns = new StringBuilder();
+		StringBuilder insertValues = new StringBuilder();
+		StringBuilder setPart = new StringBuilder();
+		for (ColumnMetadata c : nonId) {
+			if (insertColumns.length() > 0) {
+				insertColumns.append(", ");
+				insertValues.append(", ");
+				setPart.append(", ");
+			}
+			insertColumns.append(c.getName());
+			insertValues.append('?');
+			setPart.append(c.getName()).append(" = ?");
+		}
+		this.insertSql = "INSERT INTO " + tableName + " (" + insertColumns + ") VALUES (" + insertValues + ")";
+		this.updateSql = "UPDATE " + tableName + " SET " + setPart + " WHERE " + idColumn.getName() + " = ?";
+		this.deleteSql = "DELETE FROM " + tableName + " WHERE " + idColumn.getName() + " = ?";
+
+		StringBuilder definitions = new StringBuilder();
+		for (ColumnMetadata c : columns)
+			definitions.append(c.getName()).append(' ').append(c.getSqlType()).append(", ");
+		this.createTableSql = "CREATE TABLE " + tableName + " (" + definitions + "PRIMARY KEY (" + idColumn.getName()
+				+ "))";
+
+		this.idIndex = columns.indexOf(idColumn);
+		long mask = 0;
+		for (int i = 0; i < columnArray.length && i < 64; i++)
+			if (i != idIndex)
+				mask |= 1L << i;
+		this.allNonIdColumns = mask;
+
+		// one bit per column, entities wider than 64 columns always get full updates
+		this.dirtyChecked = entity.dirtyChecking() && columnArray.length <= 64;
+	}
+
+	// reads @Entity and the @Column fields of the class
+	// throws if there is not exactly 1 field with a Column id attribute
+	public static EntityMetadata of(Class<?> entityClass) {
+		return of(entityClass, null);
+	}
+
+	// same, with the accessors processor.OrmProcessor generated for the class
+	static EntityMetadata of(Class<?> entityClass, GeneratedEntity generated) {
+		Entity entity = entityClass.getAnnotation(Entity.class);
+		if (entity == null)
+			throw new RuntimeException("Entity class " + entityClass.getName() + " missing @Entity");
+
+		List<ColumnMetadata> columns = new ArrayList<>();
+		List<RelationMetadata> relations = new ArrayList<>();
+		ColumnMetadata idColumn = null;
+		int idCount = 0;
+
+		for (Field f : entityClass.getDeclaredFields()) {
+			RelationMetadata relation = RelationMetadata.of(f, generated);
+			if (relation != null)
+				relations.add(relation);
+
+			Column c = f.getAnnotation(Column.class);
+			if (c == null)
+				continue;
+
+			ColumnMetadata column = new ColumnMetadata(f, c, generated);
+			columns.add(column);
+
+			if (column.isId()) {
+				idColumn = column;
+				idCount++;
+			}
+		}
+
+		if (idCount != 1)
+			throw new RuntimeException("Entity " + entityClass.getSimpleName() + " must have exactly 1 ID Column.");
+
+		return new EntityMetadata(entityClass, entity, columns, idColumn, relations, generated);
+	}
+
+	public Class<?> getEntityClass() {
+		return entityClass;
+	}
+
+	public String getTableName() {
+		return tableName;
+	}
+
+	// in field declaration order
+	public List<ColumnMetadata> getColumns() {
+		return columns;
+	}
+
+	public List<ColumnMetadata> getNonIdColumns() {
+		return nonIdColumns;
+	}
+
+	public ColumnMetadata getIdColumn() {
+		return idColumn;
+	}
+
+	// null unless the entity is @Entity(sharded = true)
+	public ColumnMetadata getShardKey() {
+		return shardKey;
+	}
+
+	// null if the entity has no such column
+	public ColumnMetadata getColumn(String columnName) {
+		return columnsByName.get(columnName);
+	}
+
+	// position i of the result header -> the column it fills, null for columns the entity does not map
+	public ColumnMetadata[] mapHeader(String[] columnNames) {
+		ColumnMetadata[] mapping = new ColumnMetadata[columnNames.length];
+		for (int i = 0; i < columnNames.length; i++)
+			mapping[i] = columnsByName.get(columnNames[i]);
+		return mapping;
+	}
+
+	// fills a new entity from a row laid out like the header given to mapHeader
+	public Object hydrate(ColumnMetadata[] mapping, Object[] row) {
+		Object o = instantiator.get();
+		for (int i = 0; i < mapping.length; i++) {
+			if (mapping[i] != null)
+				mapping[i].set(o, row[i]);
+		}
+		return o;
+	}
+
+	// INSERT of every non-id column, the id is left to AUTO_INCREMENT
+	public String getInsertSql() {
+		return insertSql;
+	}
+
+	public Object[] getInsertValues(Object entity) {
+		Object[] values = new Object[nonIdColumns.size()];
+		for (int i = 0; i < values.length; i++)
+			values[i] = nonIdColumns.get(i).get(entity);
+		return values;
+	}
+
+	// UPDATE of every non-id column by id
+	public String getUpdateSql() {
+		return updateSql;
+	}
+
+	public Object[] getUpdateValues(Object entity) {
+		Object[] values = new Object[nonIdColumns.size() + 1];
+		for (int i = 0; i < nonIdColumns.size(); i++)
+			values[i] = nonIdColumns.get(i).get(entity);
+		values[values.length - 1] = idColumn.get(entity);
+		return values;
+	}
+
+	// UPDATE of only the columns whose bits are set in changedColumns, by id
+	public String getUpdateSql(long changedColumns) {
+		if (changedColumns == allNonIdColumns)
+			return updateSql;
+		return partialUpdateSql.computeIfAbsent(changedColumns, mask -> {
+			StringBuilder sql = new StringBuilder("UPDATE ").append(tableName).append(" SET ");
+			String separator = "";
+			for (int i = 0; i < columnArray.length; i++) {
+				if ((mask & (1L << i)) != 0) {
+					sql.append(separator).append(columnArray[i].getName()).append(" = ?");
+					separator = ", ";
+				}
+			}
+			return sql.append(" WHERE ").append(idColumn.getName()).append(" = ?").toString();
+		});
+	}
+
+	// parameters of getUpdateSql(changedColumns) taken from a toRow() row, the id last
+	public Object[] getUpdateValues(Object[] row, long changedColumns) {
+		boolean all = changedColumns == allNonIdColumns;
+		Object[] values = new Object[(all ? nonIdColumns.size() : Long.bitCount(changedColumns)) + 1];
+		int k = 0;
+		for (int i = 0; i < row.length; i++)
+			if (i != idIndex && (all || (changedColumns & (1L << i)) != 0))
+				values[k++] = row[i];
+		values[k] = row[idIndex];
+		return values;
+	}
+
+	// every non-id column, what an UPDATE without a snapshot has to write
+	public long getAllColumnsMask() {
+		return allNonIdColumns;
+	}
+
+	// bit i set when column i (getColumns() order) differs between the two rows, 0 if none does
+	public long changedColumns(Object[] before, Object[] after) {
+		long changed = 0;
+		for (int i = 0; i < after.length; i++)
+			if (i != idIndex && !Objects.deepEquals(before[i], after[i]))
+				changed |= 1L << i;
+		return changed;
+	}
+
+	public boolean isDirtyChecked() {
+		return dirtyChecked;
+	}
+
+	public Object getId(Object[] row) {
+		return row[idIndex];
+	}
+
+	public String getDeleteSql() {
+		return deleteSql;
+	}
+
+	// CREATE TABLE with every @Column and the primary key
+	public String getCreateTableSql() {
+		return createTableSql;
+	}
+
+	// all column values of the entity, in getColumns() order
+	public Object[] toRow(Object entity) {
+		Object[] row = new Object[columnArray.length];
+		for (int i = 0; i < row.length; i++)
+			row[i] = columnArray[i].get(entity);
+		return row;
+	}
+
+	// toRow() of the entity hydrate(mapping, row) fills in. a column the header lacks equals
+	// nothing, changedColumns() always counts it as changed
+	public Object[] toRow(ColumnMetadata[] mapping, Object[] row) {
+		Object[] values = new Object[columnArray.length];
+		Arrays.fill(values, UNREAD);
+		for (int i = 0; i < mapping.length; i++) {
+			if (mapping[i] != null)
+				values[indexOf(mapping[i])] = mapping[i].coerce(row[i]);
+		}
+		return values;
+	}
+
+	private int indexOf(ColumnMetadata column) {
+		for (int i = 0; i < columnArray.length; i++)
+			if (columnArray[i] == column)
+				return i;
+		throw new IllegalArgumentException(column.getName() + " is not a column of " + tableName);
+	}
+
+	// inverse of toRow
+	public Object fromRow(Object[] row) {
+		return hydrate(columnArray, row);
+	}
+
+	// true when a result with this header mapping fills every column of the entity
+	public boolean isComplete(ColumnMetadata[] mapping) {
+		int found = 0;
+		for (ColumnMetadata c : mapping)
+			if (c != null)
+				found++;
+		return found == columnArray.length;
+	}
+
+	// @OneToMany / @ManyToOne fields, not columns of the table
+	public List<RelationMetadata> getRelations() {
+		return relations;
+	}
+
+	public boolean hasRelations() {
+		return !relations.isEmpty();
+	}
+
+	// the many-to-one of this (child) entity that is the other side of parent's one-to-many, or null
+	RelationMetadata inverseOf(RelationMetadata oneToMany, EntityMetadata parent) {
+		for (RelationMetadata r : relations)
+			if (r.isManyToOne() && r.getTarget() == parent && r.getColumn().equals(oneToMany.getColumn()))
+				return r;
+		return null;
+	}
+
+	// a many-to-one field set to a saved parent writes the parent's id into the foreign key column
+	public void syncForeignKeys(Object entity) {
+		for (RelationMetadata r : relations) {
+			if (!r.isManyToOne())
+				continue;
+			Object parent = r.get(entity);
+			if (parent == null)
+				continue;
+			Object parentId = r.getTarget().getIdColumn().get(parent);
+			if (parentId != null)
+				columnsByName.get(r.getColumn()).set(entity, parentId);
+		}
+	}
+
+	public Entity getEntityAnnotation() {
+		return entityAnnotation;
+	}
+
+	public Object newInstance() {
+		return instantiator.get();
+	}
+
+	@Override
+	public String toString() {
+		return "EntityMetadata [entityClass=" + entityClass.getSimpleName() + ", tableName=" + tableName
+				+ ", columns=" + columns + "]";
+	}
+}
@@ -0,0 +1,273 @@
+package orm;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import realdb.GhettoJdbcBlackBox;
+
+// the INSERT / UPDATE / DELETE side of the ORM, shared by mapper proxies and sessions
+//
+// single entities go out as one statement, collections as one JDBC batch per
+// MyORM.getBatchSize() rows. generated keys are written back into the id field and written
+// rows are dropped from the entity's second-level cache. a @ManyToOne field set to a saved
+// parent writes the parent's id into its foreign key column first
+//
+// for @Entity(dirtyChecking = true) an UPDATE sets only the columns that differ from the entity's
+// snapshot and is skipped when nothing changed. a Session flush hands in the snapshots it took,
+// everything else uses the entity's SnapshotTable: rows loaded by orm.getMapper() mappers and rows
+// written here outside a transaction. inside one a write drops the snapshot instead, the
+// transaction may still roll it back
+//
+// rows of @Entity(sharded = true) entities go to the shard of their shard key, collections as one
+// batch per shard and chunk, see ShardRouter
+class EntityWriter {
+
+	private final MyORM orm;
+	private final GhettoJdbcBlackBox jdbc;
+
+	EntityWriter(MyORM orm) {
+		this.orm = orm;
+		this.jdbc = orm.getJdbc();
+	}
+
+	// the generated AUTO_INCREMENT key is written back into the id field
+	void insert(EntityMetadata meta, Object o) {
+		meta.syncForeignKeys(o);
+		ShardRouter shards = orm.getShardRouter(meta);
+		int shard = shards == null ? 0 : shards.shardOfEntity(o);
+
+		Object key = jdbcOf(shards, shard).runInsert(meta.getInsertSql(), meta.getInsertValues(o));
+		if (key == null)
+			throw new RuntimeException("The driver returned no generated key for the row inserted into "
+					+ meta.getTableName() + ", its id is unknown");
+		meta.getIdColumn().set(o, key);
+		if (shards != null)
+			shards.checkGeneratedKey(key, shard);
+
+		SnapshotTable snapshots = orm.getSnapshots(meta);
+		if (snapshots != null)
+			wrote(snapshots, o, meta.toRow(o));
+	}
+
+	// every non-id column, for dirty-checked entities the ones changed since the snapshot
+	void update(EntityMetadata meta, Object o) {
+		meta.syncForeignKeys(o);
+		ShardRouter shards = orm.getShardRouter(meta);
+		GhettoJdbcBlackBox db = jdbcOf(shards, shards == null ? 0 : shards.shardOfEntity(o));
+
+		SnapshotTable snapshots = orm.getSnapshots(meta);
+		if (snapshots == null) {
+			db.runSQL(meta.getUpdateSql(), meta.getUpdateValues(o));
+			evict(meta, meta.getIdColumn().get(o));
+			return;
+		}
+
+		Object[] row = meta.toRow(o);
+		Object[] before = snapshots.get(o);
+		long changed = before == null ? meta.getAllColumnsMask() : meta.changedColumns(before, row);
+		if (changed == 0)
+			return;
+		db.runSQL(meta.getUpdateSql(changed), meta.getUpdateValues(row, changed));
+		evict(meta, meta.getId(row));
+		wrote(snapshots, o, row);
+	}
+
+	void delete(EntityMetadata meta, Object o) {
+		Object pkValue = requirePk(meta, o);
+		ShardRouter shards = orm.getShardRouter(meta);
+		jdbcOf(shards, shards == null ? 0 : shards.shardOfEntity(o)).runSQL(meta.getDeleteSql(), new Object[] { pkValue });
+		evict(meta, pkValue);
+
+		SnapshotTable snapshots = orm.getSnapshots(meta);
+		if (snapshots != null)
+			snapshots.remove(o);
+	}
+
+	void insertAll(EntityMetadata meta, List<?> entities) {
+		ShardRouter shards = orm.getShardRouter(meta);
+		if (shards == null) {
+			insertAll(jdbc, meta, entities, null, 0);
+			return;
+		}
+		List<List<Object>> byShard = byShard(shards, meta, entities);
+		for (int i = 0; i < byShard.size(); i++)
+			if (!byShard.get(i).isEmpty())
+				insertAll(jdbcOf(shards, i), meta, byShard.get(i), shards, i);
+	}
+
+	private void insertAll(GhettoJdbcBlackBox db, EntityMetadata meta, List<?> entities, ShardRouter shards, int shard) {
+		ColumnMetadata pk = meta.getIdColumn();
+
+		List<Object[]> rows = new ArrayList<>(entities.size());
+		for (Object o : entities) {
+			meta.syncForeignKeys(o);
+			rows.add(meta.getInsertValues(o));
+		}
+
+		int done = 0;
+		for (List<Object[]> chunk : chunks(rows)) {
+			List<Object> keys = db.runBatch(meta.getInsertSql(), chunk, true);
+			// ids left null would make the rows look new again on their next save
+			if (keys.size() != chunk.size())
+				throw new RuntimeException("The driver returned " + keys.size() + " generated keys for " + chunk.size()
+						+ " rows inserted into " + meta.getTableName() + ", their ids are unknown");
+			for (int i = 0; i < keys.size(); i++) {
+				pk.set(entities.get(done + i), keys.get(i));
+				if (shards != null)
+					shards.checkGeneratedKey(keys.get(i), shard);
+			}
+			done += chunk.size();
+		}
+
+		SnapshotTable snapshots = orm.getSnapshots(meta);
+		if (snapshots != null)
+			for (Object o : entities)
+				wrote(snapshots, o, meta.toRow(o));
+	}
+
+	void updateAll(EntityMetadata meta, Collection<?> entities) {
+		updateAll(meta, entities, null);
+	}
+
+	// snapshots: entity -> toRow() as it was loaded, see Session, null to use the SnapshotTable;
+	// entities without one are updated in full. returns the entities an UPDATE was sent for
+	List<Object> updateAll(EntityMetadata meta, Collection<?> entities, Map<Object, Object[]> snapshots) {
+		ShardRouter shards = orm.getShardRouter(meta);
+		if (shards == null)
+			return updateAll(jdbc, meta, entities, snapshots);
+
+		List<Object> updated = new ArrayList<>(entities.size());
+		List<List<Object>> byShard = byShard(shards, meta, entities);
+		for (int i = 0; i < byShard.size(); i++)
+			if (!byShard.get(i).isEmpty())
+				updated.addAll(updateAll(jdbcOf(shards, i), meta, byShard.get(i), snapshots));
+		return updated;
+	}
+
+	// entities changing the same set of columns share a statement, so they share a batch
+	private List<Object> updateAll(GhettoJdbcBlackBox db, EntityMetadata meta, Collection<?> entities,
+			Map<Object, Object[]> snapshots) {
+		SnapshotTable table = orm.getSnapshots(meta);
+		Map<Long, List<Object[]>> byColumns = new LinkedHashMap<>();
+		List<Object> updated = new ArrayList<>(entities.size());
+		List<Object[]> updatedRows = new ArrayList<>(entities.size());
+
+		for (Object o : entities) {
+			meta.syncForeignKeys(o);
+			Object[] row = meta.toRow(o);
+			Object[] before = table == null ? null : snapshots != null ? snapshots.get(o) : table.get(o);
+			long changed = before == null ? meta.getAllColumnsMask() : meta.changedColumns(before, row);
+			if (changed == 0)
+				continue;
+			byColumns.computeIfAbsent(changed, c -> new ArrayList<>()).add(meta.getUpdateValues(row, changed));
+			updated.add(o);
+			updatedRows.add(row);
+		}
+
+		for (Map.Entry<Long, List<Object[]>> e : byColumns.entrySet()) {
+			String sql = meta.getUpdateSql(e.getKey());
+			for (List<Object[]> chunk : chunks(e.getValue()))
+				db.runBatch(sql, chunk, false);
+		}
+		for (int i = 0; i < updated.size(); i++) {
+			evict(meta, meta.getId(updatedRows.get(i)));
+			if (table != null)
+				wrote(table, updated.get(i), updatedRows.get(i));
+		}
+		return updated;
+	}
+
+	void deleteAll(EntityMetadata meta, Collection<?> entities) {
+		ShardRouter shards = orm.getShardRouter(meta);
+		if (shards == null) {
+			deleteAll(jdbc, meta, entities);
+			return;
+		}
+		List<List<Object>> byShard = byShard(shards, meta, entities);
+		for (int i = 0; i < byShard.size(); i++)
+			if (!byShard.get(i).isEmpty())
+				deleteAll(jdbcOf(shards, i), meta, byShard.get(i));
+	}
+
+	private void deleteAll(GhettoJdbcBlackBox db, EntityMetadata meta, Collection<?> entities) {
+		List<Object[]> rows = new ArrayList<>(entities.size());
+		for (Object o : entities)
+			rows.add(new Object[] { requirePk(meta, o) });
+
+		for (List<Object[]> chunk : chunks(rows))
+			db.runBatch(meta.getDeleteSql(), chunk, false);
+		for (Object[] row : rows)
+			evict(meta, row[0]);
+
+		SnapshotTable snapshots = orm.getSnapshots(meta);
+		if (snapshots != null)
+			for (Object o : entities)
+				snapshots.remove(o);
+	}
+
+	// the entities of each shard, in their original order
+	private static List<List<Object>> byShard(ShardRouter shards, EntityMetadata meta, Collection<?> entities) {
+		List<List<Object>> byShard = new ArrayList<>(shards.size());
+		for (int i = 0; i < shards.size(); i++)
+			byShard.add(new ArrayList<>());
+		for (Object o : entities) {
+			meta.syncForeignKeys(o);	// the shard key may be a foreign key column
+			byShard.get(shards.shardOfEntity(o)).add(o);
+		}
+		return byShard;
+	}
+
+	// the primary for entities that are not sharded, inside a transaction the shard joins it
+	private GhettoJdbcBlackBox jdbcOf(ShardRouter shards, int shard) {
+		return shards == null ? jdbc : orm.getWriteJdbc(shards.getShard(shard));
+	}
+
+	// a written row is the new snapshot once it is durable, within a transaction it has none
+	private void wrote(SnapshotTable snapshots, Object o, Object[] row) {
+		if (jdbc.inTransaction())
+			snapshots.remove(o);
+		else
+			snapshots.put(o, row);
+	}
+
+	// drops a written row from the entity's second-level cache, if it has one
+	// inside MyORM.inTransaction() it is dropped again after the commit
+	void evict(EntityMetadata meta, Object pkValue) {
+		LruCache<Object, Object[]> cache = orm.getEntityCache(meta);
+		if (cache == null)
+			return;
+		Object key = cacheKey(pkValue);
+		cache.invalidate(key);
+
+		Transaction tx = orm.currentTransaction();
+		if (tx != null)
+			tx.evicted(meta, key);
+	}
+
+	// getById(4) and a Long 4 from the database must hit the same cache entry
+	static Object cacheKey(Object pkValue) {
+		if (pkValue instanceof Integer || pkValue instanceof Long || pkValue instanceof Short
+				|| pkValue instanceof Byte)
+			return ((Number) pkValue).longValue();
+		return pkValue;
+	}
+
+	private static Object requirePk(EntityMetadata meta, Object o) {
+		Object pkValue = meta.getIdColumn().get(o);
+		if (pkValue == null)
+			throw new RuntimeException("no pk value");
+		return pkValue;
+	}
+
+	// splits batch rows into MyORM.getBatchSize() sized pieces
+	private List<List<Object[]>> chunks(List<Object[]> rows) {
+		List<List<Object[]>> chunks = new ArrayList<>();
+		int size = orm.getBatchSize();
+		for (int from = 0; from < rows.size(); from += size)
+			chunks.add(rows.subList(from, Math.min(rows.size(), from + size)));
+		return chunks;
+	}
+}
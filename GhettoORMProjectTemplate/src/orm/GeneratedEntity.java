@@ -0,0 +1,24 @@
+package orm;
+
+// the accessors of one @Entity, written out at compile time by processor.OrmProcessor
+//
+// get / set are plain switch statements over the entity's public getX / setX methods, so an
+// entity registered from the generated index needs no method lookups and no LambdaMetafactory.
+// fields without a public getter and setter are not listed and keep the EntityAccessors path
+public interface GeneratedEntity {
+
+	Class<?> entityClass();
+
+	// the @Column / relationship fields get and set can reach, in declaration order
+	String[] fields();
+
+	// false if the class has no public no-arg constructor
+	boolean hasConstructor();
+
+	Object newInstance();
+
+	// field is the position in fields()
+	Object get(Object entity, int field);
+
+	void set(Object entity, int field, Object value);
+}
@@ -0,0 +1,22 @@
+package orm;
+
+import java.util.List;
+
+// every mapper and entity of the application, written out at compile time by processor.OrmProcessor
+//
+// when the class exists MyORM.init() registers what it lists instead of scanning the classpath,
+// and getMapper() hands out the generated mapper classes instead of JDK proxies
+public interface GeneratedIndex {
+
+	// the one implementation MyORM looks for
+	String CLASS_NAME = "dao.OrmIndex";
+
+	// interfaces annotated with @MappedClass
+	List<Class<?>> mappers();
+
+	List<GeneratedEntity> entities();
+
+	// an instance of the generated class implementing mapperInterface, running every method through
+	// the handler's operation for it; null if the interface was compiled without the processor
+	Object newMapper(Class<?> mapperInterface, DaoInvocationHandler handler);
+}
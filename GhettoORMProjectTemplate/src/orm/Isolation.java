@@ -0,0 +1,26 @@
+package orm;
+
+import java.sql.Connection;
+
+import realdb.GhettoJdbcBlackBox;
+
+// isolation levels of MyORM.inTransaction(), the JDBC Connection.TRANSACTION_* constants
+public enum Isolation {
+
+	// whatever the pooled connection uses, REPEATABLE READ on a default MySQL server
+	DEFAULT(GhettoJdbcBlackBox.DEFAULT_ISOLATION),
+	READ_UNCOMMITTED(Connection.TRANSACTION_READ_UNCOMMITTED),
+	READ_COMMITTED(Connection.TRANSACTION_READ_COMMITTED),
+	REPEATABLE_READ(Connection.TRANSACTION_REPEATABLE_READ),
+	SERIALIZABLE(Connection.TRANSACTION_SERIALIZABLE);
+
+	private final int level;
+
+	Isolation(int level) {
+		this.level = level;
+	}
+
+	int getLevel() {
+		return level;
+	}
+}
@@ -0,0 +1,82 @@
+package orm;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// lock-free log-linear histogram of nanosecond latencies
+// every power of two is split into 8 sub-buckets, so percentiles are within ~12% of the real value
+public class LatencyHistogram {
+
+	private static final int SUB_BUCKET_BITS = 3;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	private static final int BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+	private final AtomicLong count = new AtomicLong();
+	private final AtomicLong max = new AtomicLong();
+	private final AtomicLong sum = new AtomicLong();
+
+	public void record(long nanos) {
+		if (nanos < 0)
+			nanos = 0;
+		counts.incrementAndGet(bucket(nanos));
+		count.incrementAndGet();
+		sum.addAndGet(nanos);
+		long m;
+		while (nanos > (m = max.get()) && !max.compareAndSet(m, nanos))
+			;
+	}
+
+	private static int bucket(long v) {
+		if (v < SUB_BUCKETS)
+			return (int) v;
+		int exp = 63 - Long.numberOfLeadingZeros(v); // >= SUB_BUCKET_BITS
+		int sub = (int) (v >>> (exp - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+		return (exp - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + sub;
+	}
+
+	// upper edge of a bucket, what percentile() reports
+	private static long bucketValue(int b) {
+		if (b < SUB_BUCKETS)
+			return b;
+		int exp = b / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+		long sub = b % SUB_BUCKETS;
+		return ((SUB_BUCKETS + sub + 1) << (exp - SUB_BUCKET_BITS)) - 1;
+	}
+
+	// p in 0..100, 0 when nothing was recorded
+	public long percentile(double p) {
+		long total = count.get();
+		if (total == 0)
+			return 0;
+		long rank = Math.max(1, (long) Math.ceil(total * p / 100.0));
+		long seen = 0;
+		for (int b = 0; b < BUCKETS; b++) {
+			seen += counts.get(b);
+			if (seen >= rank)
+				return Math.min(bucketValue(b), max.get());
+		}
+		return max.get();
+	}
+
+	public long getCount() {
+		return count.get();
+	}
+
+	public long getMax() {
+		return max.get();
+	}
+
+	public long getMean() {
+		long c = count.get();
+		return c == 0 ? 0 : sum.get() / c;
+	}
+
+	public void reset() {
+		for (int b = 0; b < BUCKETS; b++)
+			counts.set(b, 0);
+		count.set(0);
+		sum.set(0);
+		max.set(0);
+	}
+}
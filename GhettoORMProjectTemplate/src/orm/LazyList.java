@@ -0,0 +1,117 @@
+package orm;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// what a LAZY @OneToMany field holds until it is used
+//
+// all lists installed by one select share a Batch: the first one touched loads the children of
+// its owner and of the next batchSize - 1 owners still waiting, in one WHERE fk IN (...) query,
+// so walking every parent's collection costs owners / batchSize queries instead of one each.
+// the batch only knows the owners by id, each list holds its own owner; children loaded for an
+// owner whose list is not touched yet wait in the batch until it is
+final class LazyList extends AbstractList<Object> {
+
+	static final class Batch {
+		private final RelationLoader loader;
+		private final RelationMetadata relation;
+		private final RelationMetadata inverse;
+		private final List<Object> keys;
+		private final Map<Object, Integer> positions = new HashMap<>();
+
+		// children loaded but not handed to their list yet, by owner key
+		private final Map<Object, List<Object>> loaded = new HashMap<>();
+		private final boolean[] requested;
+
+		// keys: the normalized ids of the owners, in select order, null for owners without one
+		Batch(RelationLoader loader, RelationMetadata relation, RelationMetadata inverse, List<Object> keys) {
+			this.loader = loader;
+			this.relation = relation;
+			this.inverse = inverse;
+			this.keys = keys;
+			this.requested = new boolean[keys.size()];
+			for (int i = 0; i < keys.size(); i++)
+				if (keys.get(i) != null)
+					positions.putIfAbsent(keys.get(i), i);
+		}
+
+		synchronized List<Object> childrenOf(Object owner, Object key) {
+			List<Object> children = loaded.remove(key);
+			if (children == null) {
+				// this owner first, then the ones after it (wrapping around) not requested yet
+				List<Object> slice = new ArrayList<>();
+				slice.add(key);
+				int start = positions.get(key);
+				requested[start] = true;
+				for (int i = 1; i < keys.size() && slice.size() < relation.getBatchSize(); i++) {
+					int k = (start + i) % keys.size();
+					Object other = keys.get(k);
+					if (!requested[k] && other != null && positions.get(other) == k) {
+						requested[k] = true;
+						slice.add(other);
+					}
+				}
+
+				Map<Object, List<Object>> found = loader.loadLazy(relation, inverse, slice);
+				for (int i = 1; i < slice.size(); i++) {
+					List<Object> list = found.get(slice.get(i));
+					loaded.put(slice.get(i), list != null ? list : new ArrayList<>());
+				}
+				children = found.get(key);
+				if (children == null)
+					children = new ArrayList<>();
+			}
+			RelationLoader.setInverse(inverse, children, owner);
+			return children;
+		}
+	}
+
+	private final Batch batch;
+	private final Object owner;
+	private final Object key;
+	private List<Object> delegate;
+
+	LazyList(Batch batch, Object owner, Object key) {
+		this.batch = batch;
+		this.owner = owner;
+		this.key = key;
+	}
+
+	private List<Object> delegate() {
+		if (delegate == null)
+			delegate = batch.childrenOf(owner, key);
+		return delegate;
+	}
+
+	public boolean isLoaded() {
+		return delegate != null;
+	}
+
+	@Override
+	public Object get(int index) {
+		return delegate().get(index);
+	}
+
+	@Override
+	public int size() {
+		return delegate().size();
+	}
+
+	@Override
+	public Object set(int index, Object element) {
+		return delegate().set(index, element);
+	}
+
+	@Override
+	public void add(int index, Object element) {
+		delegate().add(index, element);
+	}
+
+	@Override
+	public Object remove(int index) {
+		return delegate().remove(index);
+	}
+}
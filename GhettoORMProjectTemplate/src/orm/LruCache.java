@@ -0,0 +1,205 @@
+package orm;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+// bounded, concurrent cache with approximate LRU eviction and an optional TTL
+//
+// reads never lock: an entry just remembers when it was last read. once the cache grows past
+// maxSize one writer trims it back to 90% by dropping the least recently read entries, so the
+// sort is paid once per maxSize / 10 inserts
+//
+// versions guard against caching stale loads: read generation(key) before going to the database
+// and store the result with putIfGeneration(); an invalidation of that key in between wins.
+// invalidate() leaves a tombstone with a new version behind, so writes to other keys never stop
+// a load from being cached. tombstones count towards maxSize and are evicted like entries; each
+// eviction round that drops one, and clear(), bump the version every key without an entry has
+public class LruCache<K, V> implements LruCacheMBean {
+
+	// value is null for a tombstone
+	private static final class Entry<V> {
+		final V value;
+		final long version;
+		final long expiresAtNanos;
+		volatile long lastReadNanos;
+
+		Entry(V value, long version, long expiresAtNanos, long now) {
+			this.value = value;
+			this.version = version;
+			this.expiresAtNanos = expiresAtNanos;
+			this.lastReadNanos = now;
+		}
+	}
+
+	private static final class Victim<K, V> {
+		final K key;
+		final Entry<V> entry;
+		final long lastReadNanos;
+
+		Victim(K key, Entry<V> entry) {
+			this.key = key;
+			this.entry = entry;
+			this.lastReadNanos = entry.lastReadNanos;
+		}
+	}
+
+	private final ConcurrentHashMap<K, Entry<V>> map = new ConcurrentHashMap<>();
+	private final int maxSize;
+	private final long ttlNanos;
+	private final ReentrantLock evictLock = new ReentrantLock();
+	private final AtomicLong versions = new AtomicLong();
+
+	// generation(key) of the keys without an entry or tombstone, negated so it never equals a version
+	private final AtomicLong absentGeneration = new AtomicLong();
+
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder evictions = new LongAdder();
+	private final LongAdder invalidations = new LongAdder();
+
+	// ttlMillis <= 0 means entries only leave by eviction or invalidation
+	public LruCache(int maxSize, long ttlMillis) {
+		if (maxSize < 1)
+			throw new IllegalArgumentException("cache size must be at least 1");
+		this.maxSize = maxSize;
+		this.ttlNanos = ttlMillis > 0 ? ttlMillis * 1_000_000L : 0;
+	}
+
+	public V get(K key) {
+		Entry<V> e = map.get(key);
+		if (e == null || e.value == null) {
+			misses.increment();
+			return null;
+		}
+
+		long now = System.nanoTime();
+		if (ttlNanos > 0 && now - e.expiresAtNanos > 0) {
+			map.remove(key, e);
+			misses.increment();
+			return null;
+		}
+
+		e.lastReadNanos = now;
+		hits.increment();
+		return e.value;
+	}
+
+	public void put(K key, V value) {
+		long now = System.nanoTime();
+		map.put(key, new Entry<>(value, versions.incrementAndGet(), now + ttlNanos, now));
+		if (map.size() > maxSize)
+			evict();
+	}
+
+	public long generation(K key) {
+		Entry<V> e = map.get(key);
+		return e != null ? e.version : -absentGeneration.get();
+	}
+
+	// stores the value only if key was not invalidated since generation(key) returned expected
+	public void putIfGeneration(K key, V value, long expected) {
+		long now = System.nanoTime();
+		boolean[] stored = new boolean[1];
+		map.compute(key, (k, e) -> {
+			long current = e != null ? e.version : -absentGeneration.get();
+			if (current != expected)
+				return e;
+			stored[0] = true;
+			return new Entry<>(value, versions.incrementAndGet(), now + ttlNanos, now);
+		});
+		if (stored[0] && map.size() > maxSize)
+			evict();
+	}
+
+	public void invalidate(K key) {
+		long now = System.nanoTime();
+		Entry<V> old = map.put(key, new Entry<>(null, versions.incrementAndGet(), now, now));
+		if (old != null && old.value != null)
+			invalidations.increment();
+		if (old == null && map.size() > maxSize)
+			evict();
+	}
+
+	@Override
+	public void clear() {
+		absentGeneration.incrementAndGet();
+		for (Entry<V> e : map.values())
+			if (e.value != null)
+				invalidations.increment();
+		map.clear();
+	}
+
+	private void evict() {
+		if (!evictLock.tryLock())
+			return; // somebody else is already trimming
+		try {
+			int target = (int) (maxSize * 0.9);
+			int excess = map.size() - target;
+			if (excess <= 0)
+				return;
+
+			// copy the read stamps first, readers keep updating them while we sort
+			List<Victim<K, V>> victims = new ArrayList<>(map.size());
+			for (Map.Entry<K, Entry<V>> e : map.entrySet())
+				victims.add(new Victim<>(e.getKey(), e.getValue()));
+			victims.sort(Comparator.comparingLong(v -> v.lastReadNanos));
+
+			boolean tombstones = false;
+			for (int i = 0; i < excess && i < victims.size(); i++) {
+				Victim<K, V> v = victims.get(i);
+				if (!map.remove(v.key, v.entry))
+					continue;
+				if (v.entry.value == null)
+					tombstones = true;
+				else
+					evictions.increment();
+			}
+
+			// a load that started before its key's tombstone went away must not be cached
+			if (tombstones)
+				absentGeneration.incrementAndGet();
+		} finally {
+			evictLock.unlock();
+		}
+	}
+
+	public CacheStats getStats() {
+		return new CacheStats(map.size(), hits.sum(), misses.sum(), evictions.sum(), invalidations.sum());
+	}
+
+	@Override
+	public long getSize() {
+		return map.size();
+	}
+
+	@Override
+	public long getHits() {
+		return hits.sum();
+	}
+
+	@Override
+	public long getMisses() {
+		return misses.sum();
+	}
+
+	@Override
+	public double getHitRatio() {
+		return getStats().getHitRatio();
+	}
+
+	@Override
+	public long getEvictions() {
+		return evictions.sum();
+	}
+
+	@Override
+	public long getInvalidations() {
+		return invalidations.sum();
+	}
+}
@@ -0,0 +1,19 @@
+package orm;
+
+// JMX view of an LruCache
+public interface LruCacheMBean {
+
+	long getSize();
+
+	long getHits();
+
+	long getMisses();
+
+	double getHitRatio();
+
+	long getEvictions();
+
+	long getInvalidations();
+
+	void clear();
+}
@@ -0,0 +1,302 @@
+package orm;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Type;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Stream;
+
+import annotations.CreateTable;
+import annotations.Delete;
+import annotations.MappedClass;
+import annotations.Save;
+import annotations.Select;
+
+// one mapper method, resolved once per mapper interface by MyORM.getOperations()
+//
+// the annotation probing, @MappedClass lookup, template parsing and return type analysis that
+// used to run on every call happen here, so DaoInvocationHandler.invoke() is one map lookup and a
+// switch; generated mappers hold their operations and skip even that (the class is public for
+// them, nothing in it is). the metrics and the @Select(cached=true) result cache are still created
+// on first call, methods that are never called do not show up in the MBeans
+public final class MapperOperation {
+
+	enum Kind {
+		CREATE_TABLE, SAVE, DELETE, SELECT,
+		// the java.lang.Object methods a proxy also routes to its handler
+		HASH_CODE, EQUALS, TO_STRING,
+		// no ORM annotation, fails when called
+		UNSUPPORTED
+	}
+
+	// what a @Select hands back, after unwrapping CompletableFuture
+	enum Result {
+		ENTITY, LIST, STREAM, ITERATOR, SLICE, PAGE,
+		// one / a list of scalars, Maps or constructor projections, see Projection
+		PROJECTION, PROJECTION_LIST,
+		// ColumnBatch, or a Stream / Iterator of ColumnBatch chunks
+		COLUMNS, COLUMN_STREAM, COLUMN_ITERATOR
+	}
+
+	private final Kind kind;
+	private final Method method;
+	private final Class<?> mapperInterface;
+	private final EntityMetadata meta;
+	private final boolean async;
+
+	// @Select only
+	private final Result result;
+	private final CompiledQuery query;
+	private final PagedQuery pagedQuery;
+	private final Projection projection;
+	private final int fetchSize;
+	private final boolean cached;
+	private final boolean readFromPrimary;
+
+	// the shards of a sharded entity, null when all of its rows are on the primary
+	private final ShardRouter shards;
+
+	// entity cache of a full-row primary key lookup, null for every other select
+	private final LruCache<Object, Object[]> entityCache;
+
+	private volatile MethodMetrics metrics;
+	private volatile QueryCache queryCache;
+
+	private MapperOperation(Kind kind, Method method, Class<?> mapperInterface, EntityMetadata meta, boolean async,
+			Result result, CompiledQuery query, PagedQuery pagedQuery, Projection projection, int fetchSize,
+			boolean cached, boolean readFromPrimary, ShardRouter shards, LruCache<Object, Object[]> entityCache) {
+		this.kind = kind;
+		this.method = method;
+		this.mapperInterface = mapperInterface;
+		this.meta = meta;
+		this.async = async;
+		this.result = result;
+		this.query = query;
+		this.pagedQuery = pagedQuery;
+		this.projection = projection;
+		this.fetchSize = fetchSize;
+		this.cached = cached;
+		this.readFromPrimary = readFromPrimary;
+		this.shards = shards;
+		this.entityCache = entityCache;
+	}
+
+	private MapperOperation(Kind kind, Method method, Class<?> mapperInterface) {
+		this(kind, method, mapperInterface, null, false, null, null, null, null, 0, false, false, null, null);
+	}
+
+	// every method a proxy or generated mapper of the interface can be called with
+	static Map<Method, MapperOperation> bind(MyORM orm, Class<?> mapperInterface) {
+		Map<Method, MapperOperation> operations = new HashMap<>();
+
+		for (Method m : mapperInterface.getMethods()) {
+			if (!Modifier.isStatic(m.getModifiers()))
+				operations.put(m, of(orm, mapperInterface, m));
+		}
+
+		try {
+			operations.put(Object.class.getMethod("hashCode"), new MapperOperation(Kind.HASH_CODE, null, mapperInterface));
+			operations.put(Object.class.getMethod("equals", Object.class),
+					new MapperOperation(Kind.EQUALS, null, mapperInterface));
+			operations.put(Object.class.getMethod("toString"), new MapperOperation(Kind.TO_STRING, null, mapperInterface));
+		} catch (NoSuchMethodException e) {
+			throw new IllegalStateException(e);
+		}
+		return Collections.unmodifiableMap(operations);
+	}
+
+	private static MapperOperation of(MyORM orm, Class<?> mapperInterface, Method declared) {
+		// BasicMapper<Student>.save(Object) runs the annotated StudentMapper.save(Student), also when
+		// it is the bridge javac adds to StudentMapper with the annotations copied over
+		Method method = annotated(declared) && !declared.isBridge() ? declared : override(mapperInterface, declared);
+		if (method == null)
+			return new MapperOperation(Kind.UNSUPPORTED, declared, mapperInterface);
+
+		EntityMetadata meta = metadataFor(orm, mapperInterface, method);
+		boolean async = method.getReturnType() == CompletableFuture.class;
+
+		if (method.isAnnotationPresent(CreateTable.class))
+			return new MapperOperation(Kind.CREATE_TABLE, method, mapperInterface, meta, async, null, null, null, null,
+					0, false, false, null, null);
+		if (method.isAnnotationPresent(Delete.class))
+			return new MapperOperation(Kind.DELETE, method, mapperInterface, meta, async, null, null, null, null, 0,
+					false, false, null, null);
+		if (method.isAnnotationPresent(Save.class))
+			return new MapperOperation(Kind.SAVE, method, mapperInterface, meta, async, null, null, null, null, 0,
+					false, false, null, null);
+
+		Select select = method.getAnnotation(Select.class);
+		Type valueType = async ? Projection.elementType(method.getGenericReturnType()) : method.getGenericReturnType();
+		Class<?> resultType = valueType == null || Projection.rawType(valueType) == null ? Object.class
+				: Projection.rawType(valueType);
+		Result result = resultOf(resultType);
+		ShardRouter shards = orm.getShardRouter(meta);
+
+		if (result == Result.SLICE || result == Result.PAGE)
+			return new MapperOperation(Kind.SELECT, method, mapperInterface, meta, async, result, null,
+					PagedQuery.compile(method, meta), null, 0, false, select.readFromPrimary(), shards, null);
+
+		// long, String, Map, a DTO ... or a List of them: rows are mapped without the entity
+		Projection projection = null;
+		if ((result == Result.STREAM || result == Result.ITERATOR)
+				&& Projection.elementType(valueType) == ColumnBatch.class) {
+			result = result == Result.STREAM ? Result.COLUMN_STREAM : Result.COLUMN_ITERATOR;
+		} else if (result == Result.ENTITY) {
+			projection = Projection.of(valueType, meta, method);
+			if (projection != null)
+				result = Result.PROJECTION;
+		} else if (result == Result.LIST) {
+			Type element = Projection.elementType(valueType);
+			projection = element == null ? null : Projection.of(element, meta, method);
+			if (projection != null)
+				result = Result.PROJECTION_LIST;
+		}
+
+		// parsed once into "... where pk = ?", the arguments are bound with setXxx
+		CompiledQuery query = CompiledQuery.compile(method, meta);
+
+		// primary key lookups of @Entity(cached=true) entities are answered from memory when possible
+		LruCache<Object, Object[]> cache = orm.getEntityCache(meta);
+		boolean pkLookup = cache != null && query.isPkLookup() && resultType == meta.getEntityClass();
+
+		return new MapperOperation(Kind.SELECT, method, mapperInterface, meta, async, result, query, null,
+				projection, select.fetchSize(), select.cached(), select.readFromPrimary(), shards, pkLookup ? cache : null);
+	}
+
+	private static boolean annotated(Method m) {
+		return m.isAnnotationPresent(Select.class) || m.isAnnotationPresent(Save.class)
+				|| m.isAnnotationPresent(Delete.class) || m.isAnnotationPresent(CreateTable.class);
+	}
+
+	// the annotated method of the mapper interface a generic superinterface method stands for
+	private static Method override(Class<?> mapperInterface, Method declared) {
+		for (Method m : mapperInterface.getMethods()) {
+			if (m.isBridge() || m.equals(declared) || !annotated(m) || !m.getName().equals(declared.getName())
+					|| m.getParameterCount() != declared.getParameterCount())
+				continue;
+
+			boolean matches = true;
+			Class<?>[] params = m.getParameterTypes();
+			Class<?>[] declaredParams = declared.getParameterTypes();
+			for (int i = 0; i < params.length; i++)
+				matches &= declaredParams[i].isAssignableFrom(params[i]);
+			if (matches)
+				return m;
+		}
+		return null;
+	}
+
+	// the registry entry of the entity named by @MappedClass on the method,
+	// or on the mapper interface for methods that do not repeat it
+	private static EntityMetadata metadataFor(MyORM orm, Class<?> mapperInterface, Method method) {
+		MappedClass mappedClass = method.getAnnotation(MappedClass.class);
+		if (mappedClass == null)
+			mappedClass = mapperInterface.getAnnotation(MappedClass.class);
+		if (mappedClass == null)
+			throw new RuntimeException("@MappedClass annotation missing on " + method.getName());
+
+		return orm.getEntityMetadata(mappedClass.clazz());
+	}
+
+	private static Result resultOf(Class<?> resultType) {
+		if (resultType == Slice.class)
+			return Result.SLICE;
+		if (resultType == Page.class)
+			return Result.PAGE;
+		if (resultType == ColumnBatch.class)
+			return Result.COLUMNS;
+		if (resultType == Stream.class)
+			return Result.STREAM;
+		if (resultType == Iterator.class)
+			return Result.ITERATOR;
+		if (resultType == List.class)
+			return Result.LIST;
+		return Result.ENTITY;
+	}
+
+	Kind getKind() {
+		return kind;
+	}
+
+	// the annotated method, for BasicMapper methods the mapper's override
+	Method getMethod() {
+		return method;
+	}
+
+	EntityMetadata getMeta() {
+		return meta;
+	}
+
+	// returns CompletableFuture, runs on the ORM's async executor
+	boolean isAsync() {
+		return async;
+	}
+
+	Result getResult() {
+		return result;
+	}
+
+	CompiledQuery getQuery() {
+		return query;
+	}
+
+	PagedQuery getPagedQuery() {
+		return pagedQuery;
+	}
+
+	// null unless the result is PROJECTION / PROJECTION_LIST
+	Projection getProjection() {
+		return projection;
+	}
+
+	int getFetchSize() {
+		return fetchSize;
+	}
+
+	// @Select(readFromPrimary = true), never sent to a replica
+	boolean isReadFromPrimary() {
+		return readFromPrimary;
+	}
+
+	// null unless the entity is sharded over several databases
+	ShardRouter getShards() {
+		return shards;
+	}
+
+	// the argument holding the shard key, -1 when the select has to ask every shard
+	int getShardArgIndex() {
+		return query != null ? query.getShardArgIndex() : pagedQuery != null ? pagedQuery.getShardArgIndex() : -1;
+	}
+
+	LruCache<Object, Object[]> getEntityCache() {
+		return entityCache;
+	}
+
+	// null when the method is not @Select(cached=true)
+	QueryCache getQueryCache(MyORM orm) {
+		if (!cached)
+			return null;
+		QueryCache c = queryCache;
+		if (c == null)
+			queryCache = c = orm.getQueryCache(method, meta);
+		return c;
+	}
+
+	MethodMetrics getMetrics(MyORM orm) {
+		MethodMetrics m = metrics;
+		if (m == null)
+			metrics = m = orm.getMetrics().forMethod(mapperInterface, method);
+		return m;
+	}
+
+	@Override
+	public String toString() {
+		return "MapperOperation [kind=" + kind + ", method=" + (method == null ? null : method.getName()) + ", result="
+				+ result + (query != null ? ", sql=" + query.getSql() : "") + "]";
+	}
+}
@@ -0,0 +1,161 @@
+package orm;
+
+import java.util.concurrent.atomic.LongAdder;
+
+// counters and latency histograms of one mapper method
+// latency is the whole call, acquire / execute / hydrate are the parts of it spent waiting for a
+// pooled connection, running statements, and turning rows into objects
+public class MethodMetrics implements MethodMetricsMBean {
+
+	private final String mapperName;
+	private final String methodName;
+
+	private final LongAdder calls = new LongAdder();
+	private final LongAdder errors = new LongAdder();
+	private final LongAdder rows = new LongAdder();
+
+	private final LatencyHistogram latency = new LatencyHistogram();
+	private final LatencyHistogram acquire = new LatencyHistogram();
+	private final LatencyHistogram execute = new LatencyHistogram();
+	private final LatencyHistogram hydrate = new LatencyHistogram();
+
+	MethodMetrics(String mapperName, String methodName) {
+		this.mapperName = mapperName;
+		this.methodName = methodName;
+	}
+
+	void record(long totalNanos, long acquireNanos, long executeNanos, long hydrateNanos, long rowCount,
+			boolean failed) {
+		calls.increment();
+		if (failed)
+			errors.increment();
+		if (rowCount > 0)
+			rows.add(rowCount);
+		latency.record(totalNanos);
+		acquire.record(acquireNanos);
+		execute.record(executeNanos);
+		hydrate.record(hydrateNanos);
+	}
+
+	public String getMapperName() {
+		return mapperName;
+	}
+
+	public String getMethodName() {
+		return methodName;
+	}
+
+	public LatencyHistogram getLatency() {
+		return latency;
+	}
+
+	public LatencyHistogram getAcquire() {
+		return acquire;
+	}
+
+	public LatencyHistogram getExecute() {
+		return execute;
+	}
+
+	public LatencyHistogram getHydrate() {
+		return hydrate;
+	}
+
+	@Override
+	public long getCalls() {
+		return calls.sum();
+	}
+
+	@Override
+	public long getErrors() {
+		return errors.sum();
+	}
+
+	@Override
+	public long getRows() {
+		return rows.sum();
+	}
+
+	private static long micros(long nanos) {
+		return nanos / 1000;
+	}
+
+	@Override
+	public long getLatencyP50Micros() {
+		return micros(latency.percentile(50));
+	}
+
+	@Override
+	public long getLatencyP99Micros() {
+		return micros(latency.percentile(99));
+	}
+
+	@Override
+	public long getLatencyMaxMicros() {
+		return micros(latency.getMax());
+	}
+
+	@Override
+	public long getAcquireP50Micros() {
+		return micros(acquire.percentile(50));
+	}
+
+	@Override
+	public long getAcquireP99Micros() {
+		return micros(acquire.percentile(99));
+	}
+
+	@Override
+	public long getAcquireMaxMicros() {
+		return micros(acquire.getMax());
+	}
+
+	@Override
+	public long getExecuteP50Micros() {
+		return micros(execute.percentile(50));
+	}
+
+	@Override
+	public long getExecuteP99Micros() {
+		return micros(execute.percentile(99));
+	}
+
+	@Override
+	public long getExecuteMaxMicros() {
+		return micros(execute.getMax());
+	}
+
+	@Override
+	public long getHydrateP50Micros() {
+		return micros(hydrate.percentile(50));
+	}
+
+	@Override
+	public long getHydrateP99Micros() {
+		return micros(hydrate.percentile(99));
+	}
+
+	@Override
+	public long getHydrateMaxMicros() {
+		return micros(hydrate.getMax());
+	}
+
+	@Override
+	public void reset() {
+		calls.reset();
+		errors.reset();
+		rows.reset();
+		latency.reset();
+		acquire.reset();
+		execute.reset();
+		hydrate.reset();
+	}
+
+	@Override
+	public String toString() {
+		return mapperName + "." + methodName + " [calls=" + getCalls() + ", errors=" + getErrors() + ", rows="
+				+ getRows() + ", p50=" + getLatencyP50Micros() + "us, p99=" + getLatencyP99Micros() + "us, max="
+				+ getLatencyMaxMicros() + "us, acquireP99=" + getAcquireP99Micros() + "us, executeP99="
+				+ getExecuteP99Micros() + "us, hydrateP99=" + getHydrateP99Micros() + "us]";
+	}
+}
@@ -0,0 +1,37 @@
+package orm;
+
+// JMX view of one mapper method, times are in microseconds
+public interface MethodMetricsMBean {
+
+	long getCalls();
+
+	long getErrors();
+
+	long getRows();
+
+	long getLatencyP50Micros();
+
+	long getLatencyP99Micros();
+
+	long getLatencyMaxMicros();
+
+	long getAcquireP50Micros();
+
+	long getAcquireP99Micros();
+
+	long getAcquireMaxMicros();
+
+	long getExecuteP50Micros();
+
+	long getExecuteP99Micros();
+
+	long getExecuteMaxMicros();
+
+	long getHydrateP50Micros();
+
+	long getHydrateP99Micros();
+
+	long getHydrateMaxMicros();
+
+	void reset();
+}
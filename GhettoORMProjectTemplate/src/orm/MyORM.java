@@ -1,33 +1,209 @@
 package orm;
 
 import java.lang.reflect.*; 
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 import io.github.lukehutch.fastclasspathscanner.*;
 
 import annotations.*;
-import dao.BasicMapper;
+import realdb.GhettoJdbcBlackBox;
+import realdb.PoolStats;
 
 public class MyORM 
 {	
 	
+	private static final Logger LOG = Logger.getLogger(MyORM.class.getName());
+	
+	// the database used by new MyORM()
+	public static final String DEFAULT_DRIVER = "com.mysql.cj.jdbc.Driver";	// DO NOT CHANGE
+	public static final String DEFAULT_URL = "jdbc:mysql://localhost/studentdb"	// change studentdb to the DB name you wish to use
+			+ "?useServerPrepStmts=true&useCursorFetch=true&rewriteBatchedStatements=true";
+	public static final String DEFAULT_USER = "root";
+	public static final String DEFAULT_PASSWORD = "";
+	
+	private final String driverClass;
+	private final String url;
+	private final String user;
+	private final String password;
+	
+	// created by init(), shared by every mapper proxy of this ORM
+	private GhettoJdbcBlackBox jdbc;
+	private EntityWriter writer;
+	private DatabaseNode primary;
+	
+	// read-only copies of the database, @Select calls take them in turn, see addReplica()
+	private final List<String[]> replicaLogins = new ArrayList<>();
+	private DatabaseNode[] replicas = new DatabaseNode[0];
+	private final AtomicInteger nextReplica = new AtomicInteger();
+	private volatile long replicaRetryMillis = 30_000;
+	
+	// databases sharing the rows of @Entity(sharded = true) entities, see addShard(). shards[0] is the primary
+	private final List<String[]> shardLogins = new ArrayList<>();
+	private DatabaseNode[] shards = new DatabaseNode[0];
+	private Map<Class<?>, ShardRouter> shardRouters = Collections.emptyMap();
+	private Executor shardThreads;
+	
+	// the shards written inside the transaction open on this thread, see getWriteJdbc()
+	private final ThreadLocal<List<GhettoJdbcBlackBox>> shardTransactions = new ThreadLocal<>();
+	
 	HashMap<Class<?>, Class<?>> entityToMapperMap = new HashMap<>();
 	
+	// the generated dao.OrmIndex, null when the sources were compiled without the processor
+	private GeneratedIndex index;
+	
+	// filled by scanEntities(), read-only afterwards
+	Map<Class<?>, EntityMetadata> entityMetadataMap = Collections.emptyMap();
+	
+	// second-level caches of @Entity(cached=true) entities: primary key -> row in column order
+	private Map<Class<?>, LruCache<Object, Object[]>> entityCaches = Collections.emptyMap();
+	private Map<Class<?>, SnapshotTable> snapshotTables = Collections.emptyMap();
+	
+	// result caches of @Select(cached=true) methods, created on first call
+	private final Map<Method, QueryCache> queryCaches = new ConcurrentHashMap<>();
+	private final Map<String, List<QueryCache>> queryCachesByTable = new ConcurrentHashMap<>();
+	
+	// per mapper method call counts and latencies, also exported over JMX
+	private final OrmMetrics metrics = new OrmMetrics();
+	
+	// what init() does about missing tables and columns
+	private volatile SchemaMode schemaMode = SchemaMode.CREATE_MISSING;
+	
+	// rows per JDBC batch for saveAll / deleteAll and importTable
+	private volatile int batchSize = 500;
+	
+	// runs CompletableFuture mapper methods, see getAsyncExecutor()
+	private Executor asyncThreads;
+	private AsyncMapperExecutor asyncExecutor;
+	
+	// every method of a mapper interface resolved once, shared by all its proxies (session ones too)
+	private final Map<Class<?>, Map<Method, MapperOperation>> operations = new ConcurrentHashMap<>();
+	
+	// the inTransaction() work running on each thread
+	private final ThreadLocal<Transaction> transactions = new ThreadLocal<>();
+	
+	// mappers without a session are stateless, one per mapper interface is handed out again and again
+	private final Map<Class<?>, Object> mappers = new ConcurrentHashMap<>();
+	
+	
+	public MyORM()
+	{
+		this(DEFAULT_DRIVER, DEFAULT_URL, DEFAULT_USER, DEFAULT_PASSWORD);
+	}
+	
+	
+	// any JDBC driver on the classpath, e.g. the in-process stand-in driver the benchmarks use
+	public MyORM(String driverClass, String url, String user, String password)
+	{
+		this.driverClass = driverClass;
+		this.url = url;
+		this.user = user;
+		this.password = password;
+	}
+	
 	
 	public void init() throws Exception
 	{
-		// scan all mappers -- @MappedClass
-		scanMappers();		
+		// connect, this also checks the database answers
+		jdbc = new GhettoJdbcBlackBox();
+		jdbc.init(driverClass, url, user, password);
+		writer = new EntityWriter(this);
+		primary = new DatabaseNode("primary", jdbc, this);
+		
+		DatabaseNode[] connected = new DatabaseNode[replicaLogins.size()];
+		for (int i = 0; i < connected.length; i++) {
+			
+			String[] login = replicaLogins.get(i);
+			GhettoJdbcBlackBox replica = new GhettoJdbcBlackBox();
+			replica.init(driverClass, login[0], login[1], login[2]);
+			connected[i] = new DatabaseNode("replica" + i, replica, this);
+		}
+		replicas = connected;
+		
+		DatabaseNode[] sharded = new DatabaseNode[shardLogins.size() + 1];
+		sharded[0] = primary;
+		for (int i = 1; i < sharded.length; i++) {
+			
+			String[] login = shardLogins.get(i - 1);
+			GhettoJdbcBlackBox shard = new GhettoJdbcBlackBox();
+			shard.init(driverClass, login[0], login[1], login[2]);
+			sharded[i] = new DatabaseNode("shard" + i, shard, this);
+		}
+		shards = sharded;
+		if (shards.length > 1)
+			shardThreads = AsyncMapperExecutor.defaultExecutor();
 		
-		// scan all the entities -- @Entity
-		scanEntities();
+		// mappers and entities listed at compile time by processor.OrmProcessor, if it ran
+		index = loadIndex();
+		
+		if (index != null) {
+			
+			registerIndex(index);
+			
+		} else {
+			
+			// scan all mappers -- @MappedClass
+			scanMappers();		
+			
+			// scan all the entities -- @Entity
+			scanEntities();
+		}
 				
-		// create all entity tables
+		// create the missing entity tables
 		createTables();
+		
+		metrics.registerPool(jdbc);
+		for (DatabaseNode replica : replicas)
+			metrics.registerPool(replica.getJdbc(), replica.getName());
+		for (int i = 1; i < shards.length; i++)
+			metrics.registerPool(shards[i].getJdbc(), shards[i].getName());
 
 	}
 
 
+	private static GeneratedIndex loadIndex() throws ReflectiveOperationException
+	{
+		Class<?> indexClass;
+		try {
+			indexClass = Class.forName(GeneratedIndex.CLASS_NAME, true, MyORM.class.getClassLoader());
+		} catch (ClassNotFoundException e) {
+			return null;
+		}
+		
+		if (LOG.isLoggable(Level.FINE))
+			LOG.fine("ORM: Using " + GeneratedIndex.CLASS_NAME + ", classpath scanning skipped");
+		
+		return (GeneratedIndex) indexClass.getConstructor().newInstance();
+	}
+	
+	
+	// the same registration as scanMappers() + scanEntities(), from the generated lists
+	private void registerIndex(GeneratedIndex index)
+	{
+		for (Class<?> c : index.mappers())
+			mapEntity(c);
+		
+		HashMap<Class<?>, EntityMetadata> metadata = new HashMap<>();
+		
+		for (GeneratedEntity generated : index.entities())
+			metadata.put(generated.entityClass(), EntityMetadata.of(generated.entityClass(), generated));
+		
+		registerEntities(metadata);
+	}
+	
+	
 	private void scanMappers() throws ClassNotFoundException 
 	{
 		// use FastClasspathScanner to scan the dao package for @MappedClass
@@ -36,62 +212,209 @@ public class MyORM
 		// map the clazz to the mapper class
 		
 		new FastClasspathScanner("dao")
-			.matchClassesWithAnnotation(MappedClass.class, c -> {
-				
-				MappedClass mc = c.getAnnotation(MappedClass.class);
-                Class<?> entityClass = mc.clazz();
+			.matchClassesWithAnnotation(MappedClass.class, c -> mapEntity(c))
+			.scan();
 
-                if (!entityClass.isAnnotationPresent(Entity.class)) {
-                    throw new RuntimeException("Entity class " + entityClass.getName() + " missing @Entity");
-                }
+	}
+	
+	
+	private void mapEntity(Class<?> c)
+	{
+		MappedClass mc = c.getAnnotation(MappedClass.class);
+        Class<?> entityClass = mc.clazz();
 
-                entityToMapperMap.put(entityClass, c);
-                System.out.println("ORM: Mapped " + entityClass.getSimpleName() + " -> " + c.getSimpleName());
-                
-			})
-			.scan();
+        if (!entityClass.isAnnotationPresent(Entity.class)) {
+            throw new RuntimeException("Entity class " + entityClass.getName() + " missing @Entity");
+        }
 
+        entityToMapperMap.put(entityClass, c);
+        if (LOG.isLoggable(Level.FINE))
+        	LOG.fine("ORM: Mapped " + entityClass.getSimpleName() + " -> " + c.getSimpleName());
 	}
 	
 
 	private void scanEntities() throws ClassNotFoundException 
 	{
 		// use FastClasspathScanner to scan the entity package for @Entity
-			// go through each of the fields 
-			// check if there is only 1 field with a Column id attribute
-			// if more than one field has id throw new RuntimeException("duplicate id=true")
+			// build the EntityMetadata of each entity once
+			// EntityMetadata.of throws if there is not exactly 1 field with a Column id attribute
+		
+		HashMap<Class<?>, EntityMetadata> metadata = new HashMap<>();
 		
 		new FastClasspathScanner("entity")
 		.matchClassesWithAnnotation(Entity.class, c -> {
 			
-			int id_count = 0;
+			metadata.put(c, EntityMetadata.of(c));
+		})
+		.scan();
+		
+		registerEntities(metadata);
+	}
+	
+	
+	private void registerEntities(HashMap<Class<?>, EntityMetadata> metadata)
+	{
+		// mapped entities living outside the entity package still need metadata
+		for (Class<?> entityClazz : entityToMapperMap.keySet()) {
+			
+			if (!metadata.containsKey(entityClazz))
+				metadata.put(entityClazz, EntityMetadata.of(entityClazz));
+		}
+		
+		entityMetadataMap = Collections.unmodifiableMap(metadata);
+		
+		// relationships can only be checked once every entity has its metadata
+		for (EntityMetadata meta : entityMetadataMap.values()) {
 			
-			for (Field fielders : c.getDeclaredFields()) {
+			for (RelationMetadata relation : meta.getRelations())
+				relation.resolve(meta, entityMetadataMap);
+		}
+		
+		HashMap<Class<?>, LruCache<Object, Object[]>> caches = new HashMap<>();
+		for (EntityMetadata meta : entityMetadataMap.values()) {
+			
+			Entity e = meta.getEntityAnnotation();
+			if (e.cached()) {
 				
-				if (fielders.isAnnotationPresent(Column.class)) {
-					
-					Column retrieved_column = fielders.getAnnotation(Column.class);
-					
-					if (retrieved_column.id()) {
-						
-						id_count++;
-					}	
-				}
+				LruCache<Object, Object[]> cache = new LruCache<>(e.cacheSize(), e.cacheTtlMillis());
+				caches.put(meta.getEntityClass(), cache);
+				metrics.registerCache("EntityCache", meta.getEntityClass().getSimpleName(), cache);
 			}
-			if (id_count != 1) {
-				
-				throw new RuntimeException("Entity " + c.getSimpleName() + "must have exactly 1 ID Column.");
-				
-			}  
-		})
-		.scan();
+		}
+		entityCaches = Collections.unmodifiableMap(caches);
+		
+		HashMap<Class<?>, SnapshotTable> tables = new HashMap<>();
+		for (EntityMetadata meta : entityMetadataMap.values()) {
+			
+			if (meta.isDirtyChecked())
+				tables.put(meta.getEntityClass(), new SnapshotTable(meta));
+		}
+		snapshotTables = Collections.unmodifiableMap(tables);
 		
+		// with the primary as the only database, sharded entities simply live there
+		HashMap<Class<?>, ShardRouter> routers = new HashMap<>();
+		for (EntityMetadata meta : entityMetadataMap.values()) {
+			
+			if (meta.getShardKey() != null && shards.length > 1)
+				routers.put(meta.getEntityClass(), new ShardRouter(meta, shards, shardThreads));
+		}
+		shardRouters = Collections.unmodifiableMap(routers);
+	}
+	
+	
+	// null unless the entity is @Entity(sharded = true) and there are shards besides the primary
+	ShardRouter getShardRouter(EntityMetadata meta)
+	{
+		return shardRouters.get(meta.getEntityClass());
+	}
+	
+	
+	// null when the entity is not @Entity(cached=true)
+	LruCache<Object, Object[]> getEntityCache(EntityMetadata meta)
+	{
+		return entityCaches.get(meta.getEntityClass());
+	}
+	
+	
+	// null when the entity is not @Entity(dirtyChecking=true)
+	SnapshotTable getSnapshots(EntityMetadata meta)
+	{
+		return snapshotTables.get(meta.getEntityClass());
+	}
+	
+	
+	// hit / miss counters of an entity's second-level cache, null if it has none
+	public CacheStats getEntityCacheStats(Class<?> entityClass)
+	{
+		LruCache<Object, Object[]> cache = entityCaches.get(entityClass);
+		
+		return cache == null ? null : cache.getStats();
+	}
+	
+	
+	// null when the method is not @Select(cached=true)
+	QueryCache getQueryCache(Method method, EntityMetadata meta)
+	{
+		QueryCache cache = queryCaches.get(method);
+		if (cache != null || !method.getAnnotation(Select.class).cached())
+			return cache;
+		
+		return queryCaches.computeIfAbsent(method, m -> {
+			
+			Select select = m.getAnnotation(Select.class);
+			QueryCache created = new QueryCache(meta.getTableName(), select.cacheSize(), select.cacheTtlMillis());
+			queryCachesByTable.computeIfAbsent(meta.getTableName(), t -> new CopyOnWriteArrayList<>()).add(created);
+			metrics.registerCache("QueryCache", queryCacheName(m), created.getResults());
+			return created;
+		});
+	}
+	
+	
+	// every @Save / @Delete calls this, any row of the table may have changed
+	void invalidateQueryCaches(EntityMetadata meta)
+	{
+		Transaction tx = transactions.get();
+		if (tx != null)
+			tx.invalidated(meta);
+		
+		List<QueryCache> caches = queryCachesByTable.get(meta.getTableName());
+		if (caches == null)
+			return;
+		
+		for (QueryCache cache : caches)
+			cache.invalidateAll();
+	}
+	
+	
+	// hit / miss counters of the query caches created so far, by "Mapper.method"
+	public Map<String, CacheStats> getQueryCacheStats()
+	{
+		Map<String, CacheStats> stats = new LinkedHashMap<>();
+		
+		for (Map.Entry<Method, QueryCache> e : queryCaches.entrySet())
+			stats.put(queryCacheName(e.getKey()), e.getValue().getStats());
+		
+		return stats;
+	}
+	
+	
+	private static String queryCacheName(Method method)
+	{
+		return method.getDeclaringClass().getSimpleName() + "." + method.getName();
+	}
+	
+	
+	EntityMetadata getEntityMetadata(Class<?> clazz)
+	{
+		EntityMetadata metadata = entityMetadataMap.get(clazz);
 		
+		if (metadata == null) {
+			
+			throw new RuntimeException("No entity metadata for " + clazz.getSimpleName() + ", is it annotated with @Entity?");
+		}
 		
+		return metadata;
+	}
+	
+	
+	Map<Method, MapperOperation> getOperations(Class<?> mapperInterface)
+	{
+		Map<Method, MapperOperation> ops = operations.get(mapperInterface);
+		if (ops != null)
+			return ops;
+		
+		return operations.computeIfAbsent(mapperInterface, i -> MapperOperation.bind(this, i));
 	}
 	
 	
 	public Object getMapper(Class clazz)
+	{
+		return getMapper(clazz, null);
+	}
+	
+	
+	// mappers of a session queue their writes in it, see openSession()
+	Object getMapper(Class<?> clazz, Session session)
 	{
 		// create the proxy object for the mapper class supplied in clazz parameter
 		// all proxies will use the supplied DaoInvocationHandler as the InvocationHandler
@@ -103,7 +426,28 @@ public class MyORM
 			throw new RuntimeException("No Mapper interface found for entity: " + clazz.getSimpleName() + ".");
 		}
 		
-		DaoInvocationHandler project_handler = new DaoInvocationHandler();
+		if (session == null) {
+			
+			Object mapper = mappers.get(classMapper_interf);
+			if (mapper != null)
+				return mapper;
+			
+			return mappers.computeIfAbsent(classMapper_interf, i -> newMapper(i, null));
+		}
+		
+		return newMapper(classMapper_interf, session);
+	}
+	
+	
+	private Object newMapper(Class<?> classMapper_interf, Session session)
+	{
+		DaoInvocationHandler project_handler = new DaoInvocationHandler(this, classMapper_interf, session);
+		
+		// the class processor.OrmProcessor generated for the interface, a plain virtual call per method
+		Object generated = index == null ? null : index.newMapper(classMapper_interf, project_handler);
+		
+		if (generated != null)
+			return generated;
 		
 		Object project_proxy = Proxy.newProxyInstance(
 								classMapper_interf.getClassLoader(),
@@ -114,29 +458,452 @@ public class MyORM
 	}
 	
 
-	private void createTables()
+	// runs work in one transaction on one pooled connection, see Transaction
+	public void inTransaction(Transaction.Work work)
 	{
-		// go through all the Mapper classes in the map
-					// create a proxy instance for each
-					// all these proxies can be casted to BasicMapper
-					// run the createTable() method on each of the proxies
+		inTransaction(Isolation.DEFAULT, work);
+	}
+	
+	
+	public void inTransaction(Isolation isolation, Transaction.Work work)
+	{
+		inTransactionResult(isolation, tx -> {
+			work.run(tx);
+			return null;
+		});
+	}
+	
+	
+	public <T> T inTransactionResult(Transaction.ResultWork<T> work)
+	{
+		return inTransactionResult(Isolation.DEFAULT, work);
+	}
+	
+	
+	// commits once when work returns, rolls back when it throws (checked exceptions come back
+	// wrapped in a RuntimeException) or called setRollbackOnly(). nested work that failed also rolls
+	// back the transaction, with an UnexpectedRollbackException once the outer work returns in spite
+	// of it. shard transactions commit before the primary's and are not undone when a later commit
+	// fails, see Transaction
+	public <T> T inTransactionResult(Isolation isolation, Transaction.ResultWork<T> work)
+	{
+		Transaction outer = transactions.get();
+		if (outer != null) {
+			
+			outer.join(isolation);
+			try {
+				return work.run(outer);
+			} catch (Exception | Error e) {
+				outer.nestedFailed(e);
+				throw rethrow(e);
+			}
+		}
 		
-		for (Class<?> entityClazzes : entityToMapperMap.keySet()) {
+		GhettoJdbcBlackBox jdbc = getJdbc();
+		jdbc.begin(isolation.getLevel());
+		Transaction tx = new Transaction(isolation);
+		transactions.set(tx);
+		
+		boolean committed = false;
+		try {
+			T result = work.run(tx);
+			if (tx.getNestedFailure() != null) {
+				// the work caught the failure, the caller must not take the rollback for a commit
+				throw new UnexpectedRollbackException(
+						"Transaction rolled back because nested work failed: " + tx.getNestedFailure(), tx.getNestedFailure());
+			}
+			if (!tx.isRollbackOnly()) {
+				commitShardTransactions();
+				jdbc.commit();
+				committed = true;
+			}
+			return result;
 			
-			Object table_proxy = getMapper(entityClazzes);
-			BasicMapper<?> table_mappers = (BasicMapper<?>) table_proxy;
+		} catch (Exception | Error e) {
+			throw rethrow(e);
 			
-			table_mappers.createTable();
+		} finally {
+			transactions.remove();
+			if (!committed)
+				rollbackShardTransactions();
 			
-			System.out.println("Table created for: " + entityClazzes.getSimpleName());
+			// a failed commit has already rolled back and closed the transaction
+			if (!committed && jdbc.inTransaction()) {
+				try {
+					jdbc.rollback();
+				} catch (RuntimeException e) {
+					LOG.log(Level.WARNING, "Rollback of a failed transaction failed", e);
+				}
+			}
+			if (committed)
+				tx.afterCommit(this);
+		}
+	}
+	
+	
+	private static RuntimeException rethrow(Throwable t)
+	{
+		if (t instanceof RuntimeException)
+			return (RuntimeException) t;
+		if (t instanceof Error)
+			throw (Error) t;
+		
+		return new RuntimeException(t);
+	}
+	
+	
+	// null outside inTransaction()
+	Transaction currentTransaction()
+	{
+		return transactions.get();
+	}
+	
+	
+	// the connection pool a write to shard goes through. while the primary has a transaction open on
+	// this thread the shard opens one too, at the same isolation level, ended together with the
+	// primary's by commitShardTransactions() / rollbackShardTransactions()
+	GhettoJdbcBlackBox getWriteJdbc(DatabaseNode shard)
+	{
+		GhettoJdbcBlackBox db = shard.getJdbc();
+		if (db == jdbc || !jdbc.inTransaction() || db.inTransaction())
+			return db;
+		
+		Transaction tx = transactions.get();
+		db.begin(tx == null ? GhettoJdbcBlackBox.DEFAULT_ISOLATION : tx.getIsolation().getLevel());
+		
+		List<GhettoJdbcBlackBox> open = shardTransactions.get();
+		if (open == null)
+			shardTransactions.set(open = new ArrayList<>());
+		open.add(db);
+		return db;
+	}
+	
+	
+	// right before the primary commits. the shards commit one after the other, there is no two-phase
+	// commit: when one fails the shards after it and the primary roll back, the ones before it stay
+	// committed
+	void commitShardTransactions()
+	{
+		List<GhettoJdbcBlackBox> open = shardTransactions.get();
+		if (open == null)
+			return;
+		
+		shardTransactions.remove();
+		for (int i = 0; i < open.size(); i++) {
+			try {
+				open.get(i).commit();
+			} catch (RuntimeException e) {
+				// left for the caller's rollbackShardTransactions()
+				shardTransactions.set(new ArrayList<>(open.subList(i + 1, open.size())));
+				throw e;
+			}
+		}
+	}
+	
+	
+	void rollbackShardTransactions()
+	{
+		List<GhettoJdbcBlackBox> open = shardTransactions.get();
+		if (open == null)
+			return;
+		
+		shardTransactions.remove();
+		for (GhettoJdbcBlackBox db : open) {
+			try {
+				db.rollback();
+			} catch (RuntimeException e) {
+				LOG.log(Level.WARNING, "Rollback of a shard transaction failed", e);
+			}
+		}
+	}
+	
+	
+	// a unit of work: its mappers queue saves and deletes until Session.flush()
+	public Session openSession()
+	{
+		return new Session(this);
+	}
+	
+	
+	// streams every row of the entity's table into file, CSV for *.csv and TransferFormat.BINARY otherwise
+	// no entity is created, the rows come from a replica if there is one. returns the number of rows written
+	public long exportTable(Class<?> entityClass, Path file)
+	{
+		return exportTable(entityClass, file, TransferFormat.forFile(file));
+	}
+	
+	
+	public long exportTable(Class<?> entityClass, Path file, TransferFormat format)
+	{
+		return new TableTransfer(this).exportTable(getEntityMetadata(entityClass), file, format);
+	}
+	
+	
+	// inserts the rows of an exportTable file, getBatchSize() rows per JDBC batch, ids included
+	// returns the number of rows inserted
+	public long importTable(Class<?> entityClass, Path file)
+	{
+		return importTable(entityClass, file, TransferFormat.forFile(file));
+	}
+	
+	
+	public long importTable(Class<?> entityClass, Path file, TransferFormat format)
+	{
+		return new TableTransfer(this).importTable(getEntityMetadata(entityClass), file, format);
+	}
+	
+	
+	// a read-only copy of the database, with the user and password of the primary
+	public void addReplica(String url)
+	{
+		addReplica(url, user, password);
+	}
+	
+	
+	// call before init(). with replicas every @Select goes to the next replica in turn, while
+	// @Save / @Delete / @CreateTable and the schema DDL stay on the primary. a replica that cannot be
+	// reached is skipped for getReplicaRetryMillis(), its reads go to the next one or the primary.
+	// reads still go to the primary inside a transaction, for @Select(readFromPrimary = true) and for
+	// the mappers of a Session.setReadFromPrimary(true) session, the ways to read your own writes
+	// despite replica lag. entity and query caches are filled by whichever database answered the read
+	public void addReplica(String url, String user, String password)
+	{
+		if (jdbc != null)
+			throw new IllegalStateException("Replicas must be added before init()");
+		
+		replicaLogins.add(new String[] { url, user, password });
+	}
+	
+	
+	// a database holding a share of the rows of the @Entity(sharded = true) entities, with the user
+	// and password of the primary
+	public void addShard(String url)
+	{
+		addShard(url, user, password);
+	}
+	
+	
+	// call before init(). the primary is shard 0, the added shards are 1, 2 ... in call order; every
+	// shard gets the tables of the sharded entities, the other entities stay on the primary. @Save and
+	// @Delete go to the shard of the entity's shard key, a @Select whose where clause pins the shard
+	// key (... where pk = :id) to the shard owning it, and any other @Select to all shards at once, their
+	// rows merged in shard order. sharded entities are always read from the shards, never from replicas.
+	// writes to several shards inside inTransaction() or a Session flush commit on each shard in turn,
+	// before the primary: not atomically, a failed commit leaves the shards committed before it as
+	// they are, see Transaction
+	public void addShard(String url, String user, String password)
+	{
+		if (jdbc != null)
+			throw new IllegalStateException("Shards must be added before init()");
+		
+		shardLogins.add(new String[] { url, user, password });
+	}
+	
+	
+	// the primary plus the added shards
+	public int getShardCount()
+	{
+		return shardLogins.size() + 1;
+	}
+	
+	
+	// the database the next read goes to: the next replica in turn that is not down, the primary
+	// when all of them are
+	DatabaseNode getReadNode(boolean primaryOnly)
+	{
+		DatabaseNode[] nodes = replicas;
+		if (primaryOnly || nodes.length == 0 || getJdbc().inTransaction())
+			return primary;
+		
+		int next = nextReplica.getAndIncrement();
+		for (int i = 0; i < nodes.length; i++) {
 			
+			DatabaseNode node = nodes[Math.floorMod(next + i, nodes.length)];
+			if (node.isAvailable())
+				return node;
 		}
+		return primary;
+	}
+	
+	
+	int getReplicaCount()
+	{
+		return replicas.length;
+	}
+	
+	
+	// a read on node failed with e. a replica that cannot be reached is left out of getReadNode() for
+	// getReplicaRetryMillis() and true is returned, the read may go to the next database. query errors
+	// and failures of the primary are the caller's
+	boolean replicaFailed(DatabaseNode node, RuntimeException e)
+	{
+		if (node == primary || !GhettoJdbcBlackBox.isConnectionFailure(e))
+			return false;
 		
+		node.markDown(TimeUnit.MILLISECONDS.toNanos(replicaRetryMillis));
+		LOG.log(Level.WARNING, "ORM: " + node.getName() + " cannot be reached, reads skip it for "
+				+ replicaRetryMillis + "ms", e);
+		return true;
+	}
+	
+	
+	public long getReplicaRetryMillis()
+	{
+		return replicaRetryMillis;
+	}
+	
+	
+	// how long reads skip a replica that could not be reached, 30s by default
+	public void setReplicaRetryMillis(long replicaRetryMillis)
+	{
+		if (replicaRetryMillis < 0)
+			throw new IllegalArgumentException("replica retry time must not be negative");
 		
+		this.replicaRetryMillis = replicaRetryMillis;
 	}
-
 	
-
+	
+	public SchemaMode getSchemaMode()
+	{
+		return schemaMode;
+	}
+	
+	
+	// call before init(), CREATE_MISSING by default
+	public void setSchemaMode(SchemaMode schemaMode)
+	{
+		if (schemaMode == null)
+			throw new IllegalArgumentException("schema mode must not be null");
+		
+		this.schemaMode = schemaMode;
+	}
+	
+	
+	public int getBatchSize()
+	{
+		return batchSize;
+	}
+	
+	
+	public void setBatchSize(int batchSize)
+	{
+		if (batchSize < 1)
+			throw new IllegalArgumentException("batch size must be at least 1");
+		
+		this.batchSize = batchSize;
+	}
+	
+	
+	// threads for CompletableFuture mapper methods, virtual threads by default
+	// call before the first async mapper call
+	public synchronized void setAsyncExecutor(Executor executor)
+	{
+		this.asyncThreads = executor;
+		this.asyncExecutor = null;
+	}
+	
+	
+	// async calls never run more at once than the connection pool can serve
+	synchronized AsyncMapperExecutor getAsyncExecutor()
+	{
+		if (asyncExecutor == null) {
+			
+			Executor threads = asyncThreads != null ? asyncThreads : AsyncMapperExecutor.defaultExecutor();
+			asyncExecutor = new AsyncMapperExecutor(threads, getJdbc().getMaxPoolSize());
+		}
+		
+		return asyncExecutor;
+	}
 	
 	
+	public OrmMetrics getMetrics()
+	{
+		return metrics;
+	}
+	
+	
+	// connection pool counters of the shared GhettoJdbcBlackBox
+	public PoolStats getPoolStats()
+	{
+		return getJdbc().getPoolStats();
+	}
+	
+	
+	// one entry per replica, in addReplica() order
+	public List<PoolStats> getReplicaPoolStats()
+	{
+		List<PoolStats> stats = new ArrayList<>(replicas.length);
+		for (DatabaseNode replica : replicas)
+			stats.add(replica.getJdbc().getPoolStats());
+		
+		return stats;
+	}
+	
+	
+	// one entry per shard, the primary's first
+	public List<PoolStats> getShardPoolStats()
+	{
+		List<PoolStats> stats = new ArrayList<>(shards.length);
+		for (DatabaseNode shard : shards)
+			stats.add(shard.getJdbc().getPoolStats());
+		
+		return stats;
+	}
+	
+	
+	EntityWriter getWriter()
+	{
+		if (writer == null)
+			throw new RuntimeException("ORM not initialized, call init() first.");
+		
+		return writer;
+	}
+	
+	
+	GhettoJdbcBlackBox getJdbc()
+	{
+		if (jdbc == null)
+			throw new RuntimeException("ORM not initialized, call init() first.");
+		
+		return jdbc;
+	}
+	
+	
+	// closes the pooled connections and unregisters the MBeans, the ORM cannot be used afterwards
+	public void shutdown()
+	{
+		metrics.unregisterAll();
+		if (jdbc != null)
+			jdbc.shutdown();
+		for (DatabaseNode replica : replicas)
+			replica.getJdbc().shutdown();
+		for (int i = 1; i < shards.length; i++)
+			shards[i].getJdbc().shutdown();
+	}
+	
+
+	private void createTables()
+	{
+		// only the tables and columns the database does not have yet, see SchemaBootstrap
+		List<EntityMetadata> mapped = new ArrayList<>();
+		
+		for (Class<?> entityClazzes : entityToMapperMap.keySet())
+			mapped.add(getEntityMetadata(entityClazzes));
+		
+		SchemaBootstrap bootstrap = new SchemaBootstrap(this);
+		List<String> ddl = new ArrayList<>(bootstrap.run(jdbc, schemaMode, mapped));
+		
+		// the other shards only hold the sharded tables
+		List<EntityMetadata> sharded = new ArrayList<>();
+		for (EntityMetadata meta : mapped)
+			if (getShardRouter(meta) != null)
+				sharded.add(meta);
+		
+		for (int i = 1; i < shards.length && !sharded.isEmpty(); i++)
+			ddl.addAll(bootstrap.run(shards[i].getJdbc(), schemaMode, sharded));
+		
+		if (LOG.isLoggable(Level.FINE))
+			LOG.fine("Schema " + schemaMode + ": " + ddl.size() + " DDL statements for " + mapped.size() + " tables");
+	}
+
 }
@@ -0,0 +1,129 @@
+package orm;
+
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import realdb.GhettoJdbcBlackBox;
+
+// one MethodMetrics per mapper interface + method, each also registered as an MBean named
+//   orm:type=MapperMethod,instance=1,mapper=StudentMapper,method=getById
+//
+// instance tells the MyORM objects of one JVM apart: a number in creation order unless
+// setInstanceName() picked a name. MyORM.shutdown() unregisters the MBeans of its instance
+public class OrmMetrics {
+
+	private static final Logger LOG = Logger.getLogger(OrmMetrics.class.getName());
+
+	private static final AtomicInteger INSTANCES = new AtomicInteger();
+
+	private final Map<Method, MethodMetrics> byMethod = new ConcurrentHashMap<>();
+	private volatile boolean jmxEnabled = true;
+	private volatile String instanceName = Integer.toString(INSTANCES.incrementAndGet());
+
+	// what this instance registered, for unregisterAll()
+	private final List<ObjectName> registered = new CopyOnWriteArrayList<>();
+	private volatile boolean closed;
+
+	public MethodMetrics forMethod(Class<?> mapperInterface, Method method) {
+		MethodMetrics m = byMethod.get(method);
+		if (m != null)
+			return m;
+		return byMethod.computeIfAbsent(method, k -> {
+			MethodMetrics created = new MethodMetrics(mapperInterface.getSimpleName(), method.getName());
+			register("orm:type=MapperMethod,instance=" + quoteIfNeeded(instanceName) + ",mapper=" + quoteIfNeeded(created.getMapperName()) + ",method="
+					+ quoteIfNeeded(created.getMethodName() + overloadSuffix(mapperInterface, method)), created);
+			return created;
+		});
+	}
+
+	// overloaded methods get their parameter count appended so the MBean names stay unique
+	private static String overloadSuffix(Class<?> mapperInterface, Method method) {
+		int sameName = 0;
+		for (Method m : mapperInterface.getDeclaredMethods())
+			if (!m.isBridge() && m.getName().equals(method.getName()))
+				sameName++;
+		return sameName > 1 ? "/" + method.getParameterCount() : "";
+	}
+
+	private static String quoteIfNeeded(String s) {
+		return s.matches("[A-Za-z0-9_$/]+") ? s : ObjectName.quote(s);
+	}
+
+	void registerPool(GhettoJdbcBlackBox jdbc) {
+		register("orm:type=ConnectionPool,instance=" + quoteIfNeeded(instanceName), new ConnectionPoolMetrics(jdbc));
+	}
+
+	// the pool of a replica or shard, next to the primary's
+	void registerPool(GhettoJdbcBlackBox jdbc, String name) {
+		register("orm:type=ConnectionPool,instance=" + quoteIfNeeded(instanceName) + ",name=" + quoteIfNeeded(name),
+				new ConnectionPoolMetrics(jdbc));
+	}
+
+	void registerCache(String kind, String name, LruCache<?, ?> cache) {
+		register("orm:type=" + kind + ",instance=" + quoteIfNeeded(instanceName) + ",name=" + quoteIfNeeded(name),
+				cache);
+	}
+
+	private void register(String name, Object mbean) {
+		if (!jmxEnabled || closed)
+			return;
+		try {
+			ObjectName objectName = new ObjectName(name);
+			ManagementFactory.getPlatformMBeanServer().registerMBean(mbean, objectName);
+			registered.add(objectName);
+		} catch (Exception e) {
+			// metrics must never break a mapper call. a name taken already is another ORM that
+			// setInstanceName() gave the same name
+			LOG.log(Level.WARNING, "Could not register MBean " + name, e);
+		}
+	}
+
+	// the MBeans of this instance leave the platform MBeanServer, none are registered afterwards
+	void unregisterAll() {
+		closed = true;
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		for (ObjectName name : registered) {
+			try {
+				server.unregisterMBean(name);
+			} catch (Exception e) {
+				LOG.log(Level.WARNING, "Could not unregister MBean " + name, e);
+			}
+		}
+		registered.clear();
+	}
+
+	public void setJmxEnabled(boolean jmxEnabled) {
+		this.jmxEnabled = jmxEnabled;
+	}
+
+	// the instance key of this ORM's MBean names, call before MyORM.init()
+	public void setInstanceName(String instanceName) {
+		if (instanceName == null || instanceName.isEmpty())
+			throw new IllegalArgumentException("instance name must not be empty");
+		this.instanceName = instanceName;
+	}
+
+	public String getInstanceName() {
+		return instanceName;
+	}
+
+	public List<MethodMetrics> getAll() {
+		return new ArrayList<>(byMethod.values());
+	}
+
+	public void reset() {
+		for (MethodMetrics m : byMethod.values())
+			m.reset();
+	}
+}
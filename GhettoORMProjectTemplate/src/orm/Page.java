@@ -0,0 +1,28 @@
+package orm;
+
+import java.util.List;
+
+// a Slice that also knows how many rows the whole query has, which costs one COUNT(*) per call
+public class Page<T> extends Slice<T> {
+
+	private final long totalElements;
+
+	Page(List<T> content, PageRequest request, PageRequest next, long totalElements) {
+		super(content, request, next);
+		this.totalElements = totalElements;
+	}
+
+	public long getTotalElements() {
+		return totalElements;
+	}
+
+	public int getTotalPages() {
+		return (int) ((totalElements + getSize() - 1) / getSize());
+	}
+
+	@Override
+	public String toString() {
+		return "Page [number=" + getNumber() + ", size=" + getSize() + ", totalElements=" + totalElements
+				+ ", hasNext=" + hasNext() + ", content=" + getContent() + "]";
+	}
+}
@@ -0,0 +1,114 @@
+package orm;
+
+import java.util.Arrays;
+
+// which page a paged @Select should return, passed as a plain (un-annotated) method argument
+//
+// keyset requests (of) seek past the last row of the previous page with WHERE sort > last,
+// so page 1000 costs the same as page 1; the first request has no position, the next ones come
+// from Slice.nextPageRequest(). offset requests (ofOffset) can jump to any page number but
+// the database still reads and skips every row before it
+//
+// the sort column must be an @Column of the entity; the id column breaks ties, so a non-unique
+// sort column still pages without gaps or repeats as long as it holds no NULLs
+public final class PageRequest {
+
+	public enum Mode {
+		KEYSET, OFFSET
+	}
+
+	private final Mode mode;
+	private final int size;
+	private final int page;
+	private final String sortColumn;
+	private final boolean descending;
+
+	// keyset position: sort value and id of the previous page's last row, null for the first page
+	private final Object[] after;
+
+	private PageRequest(Mode mode, int size, int page, String sortColumn, boolean descending, Object[] after) {
+		if (size < 1)
+			throw new IllegalArgumentException("page size must be at least 1");
+		if (page < 0)
+			throw new IllegalArgumentException("page number must not be negative");
+		this.mode = mode;
+		this.size = size;
+		this.page = page;
+		this.sortColumn = sortColumn;
+		this.descending = descending;
+		this.after = after;
+	}
+
+	// first keyset page ordered by the id column
+	public static PageRequest of(int size) {
+		return new PageRequest(Mode.KEYSET, size, 0, null, false, null);
+	}
+
+	// first keyset page ordered by sortColumn, then id
+	public static PageRequest of(int size, String sortColumn) {
+		return new PageRequest(Mode.KEYSET, size, 0, sortColumn, false, null);
+	}
+
+	// page number page (0 based) with LIMIT / OFFSET, ordered by the id column
+	public static PageRequest ofOffset(int page, int size) {
+		return new PageRequest(Mode.OFFSET, size, page, null, false, null);
+	}
+
+	public static PageRequest ofOffset(int page, int size, String sortColumn) {
+		return new PageRequest(Mode.OFFSET, size, page, sortColumn, false, null);
+	}
+
+	public PageRequest descending() {
+		return new PageRequest(mode, size, page, sortColumn, true, after);
+	}
+
+	// the request for the page after one ending with a row of (sortValue, idValue)
+	PageRequest next(Object sortValue, Object idValue) {
+		Object[] position = mode == Mode.KEYSET ? new Object[] { sortValue, idValue } : null;
+		return new PageRequest(mode, size, page + 1, sortColumn, descending, position);
+	}
+
+	public Mode getMode() {
+		return mode;
+	}
+
+	public int getSize() {
+		return size;
+	}
+
+	// 0 based, for keyset requests the number of pages read before this one
+	public int getPage() {
+		return page;
+	}
+
+	// null means the id column
+	public String getSortColumn() {
+		return sortColumn;
+	}
+
+	public boolean isDescending() {
+		return descending;
+	}
+
+	boolean isFirst() {
+		return mode == Mode.KEYSET ? after == null : page == 0;
+	}
+
+	Object getAfterSortValue() {
+		return after == null ? null : after[0];
+	}
+
+	Object getAfterId() {
+		return after == null ? null : after[1];
+	}
+
+	long getOffset() {
+		return (long) page * size;
+	}
+
+	@Override
+	public String toString() {
+		return "PageRequest [mode=" + mode + ", size=" + size + ", page=" + page + ", sortColumn="
+				+ sortColumn + ", descending=" + descending + ", after=" + Arrays.toString(after) + "]";
+	}
+}
@@ -0,0 +1,208 @@
+package orm;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Parameter;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import annotations.Param;
+import annotations.Select;
+
+// a @Select returning Page<T> / Slice<T>, rewritten per sort order and position
+//
+//   select * from :table where last_name = :lastName
+//   -> keyset, first page:  ... where last_name = ? ORDER BY pk LIMIT ?
+//   -> keyset, later pages: ... where (last_name = ?) AND pk > ? ORDER BY pk LIMIT ?
+//   -> by age:              ... AND (age > ? OR (age = ? AND pk > ?)) ORDER BY age, pk LIMIT ?
+//   -> offset:              ... ORDER BY pk LIMIT ? OFFSET ?
+//
+// one row more than the page size is fetched to know whether there is a next page. the template
+// itself must not sort, limit or group; the ORM owns those clauses
+class PagedQuery {
+
+	// synthetic :params, bound from the PageRequest after the method arguments
+	private static final String AFTER_SORT = "__pageSort";
+	private static final String AFTER_ID = "__pageId";
+	private static final String LIMIT = "__pageLimit";
+	private static final String OFFSET = "__pageOffset";
+
+	private static final Pattern WHERE = Pattern.compile("\\bwhere\\b");
+	private static final Pattern FORBIDDEN = Pattern.compile("\\b(order\\s+by|limit|offset|group\\s+by|having|union)\\b");
+
+	private final String template;
+	private final EntityMetadata meta;
+	private final String tableName;
+	private final String methodName;
+	private final int pageArgIndex;
+	private final int argCount;
+	private final Map<String, Integer> paramIndexes;
+	private final int shardArgIndex;
+
+	// index just after the top level WHERE keyword, -1 if there is none
+	private final int whereEnd;
+
+	private final CompiledQuery countQuery;
+	private final Map<String, CompiledQuery> variants = new ConcurrentHashMap<>();
+
+	private PagedQuery(String template, EntityMetadata meta, String methodName, int pageArgIndex, int argCount,
+			Map<String, Integer> paramIndexes, int whereEnd) {
+		this.template = template;
+		this.meta = meta;
+		this.tableName = meta.getTableName();
+		this.methodName = methodName;
+		this.pageArgIndex = pageArgIndex;
+		this.argCount = argCount;
+		this.paramIndexes = paramIndexes;
+		this.whereEnd = whereEnd;
+		this.shardArgIndex = CompiledQuery.shardArgIndex(template, meta, paramIndexes);
+		this.countQuery = CompiledQuery.compile("SELECT COUNT(*) FROM (" + template + ") page_count", tableName,
+				paramIndexes, methodName);
+	}
+
+	static PagedQuery compile(Method method, EntityMetadata meta) {
+		Select select = method.getAnnotation(Select.class);
+		String template = select.value().trim();
+		if (template.endsWith(";"))
+			template = template.substring(0, template.length() - 1).trim();
+
+		Map<String, Integer> paramIndexes = new HashMap<>();
+		int pageArgIndex = -1;
+		Parameter[] params = method.getParameters();
+		for (int i = 0; i < params.length; i++) {
+			Param p = params[i].getAnnotation(Param.class);
+			if (p != null)
+				paramIndexes.put(p.value(), i);
+			else if (params[i].getType() == PageRequest.class)
+				pageArgIndex = i;
+		}
+		if (pageArgIndex < 0)
+			throw new RuntimeException(method.getName() + " returns a page but has no PageRequest parameter");
+
+		int n = params.length;
+		paramIndexes.put(AFTER_SORT, n);
+		paramIndexes.put(AFTER_ID, n + 1);
+		paramIndexes.put(LIMIT, n + 2);
+		paramIndexes.put(OFFSET, n + 3);
+
+		// keywords are only looked for outside quotes and parentheses
+		String topLevel = topLevel(template).toLowerCase();
+		Matcher forbidden = FORBIDDEN.matcher(topLevel);
+		if (forbidden.find())
+			throw new RuntimeException("Paged @Select " + method.getName() + " must not contain "
+					+ forbidden.group(1).toUpperCase() + ", the ORM adds ORDER BY and LIMIT itself");
+
+		Matcher where = WHERE.matcher(topLevel);
+		int whereEnd = where.find() ? where.end() : -1;
+
+		return new PagedQuery(template, meta, method.getName(), pageArgIndex, n, paramIndexes, whereEnd);
+	}
+
+	// the template with quoted text and anything inside parentheses blanked out
+	private static String topLevel(String template) {
+		StringBuilder sb = new StringBuilder(template.length());
+		char quote = 0;
+		int depth = 0;
+		for (int i = 0; i < template.length(); i++) {
+			char ch = template.charAt(i);
+			if (quote != 0) {
+				if (ch == quote)
+					quote = 0;
+				sb.append(' ');
+			} else if (ch == '\'' || ch == '"' || ch == '`') {
+				quote = ch;
+				sb.append(' ');
+			} else if (ch == '(') {
+				depth++;
+				sb.append(' ');
+			} else if (ch == ')') {
+				depth--;
+				sb.append(' ');
+			} else {
+				sb.append(depth > 0 ? ' ' : ch);
+			}
+		}
+		return sb.toString();
+	}
+
+	PageRequest pageRequest(Object[] args) {
+		PageRequest request = (PageRequest) args[pageArgIndex];
+		if (request == null)
+			throw new RuntimeException("PageRequest argument of " + methodName + " is null");
+		return request;
+	}
+
+	// the sort column, validated against the entity so only declared column names reach the SQL
+	ColumnMetadata sortColumn(PageRequest request) {
+		if (request.getSortColumn() == null)
+			return meta.getIdColumn();
+		ColumnMetadata c = meta.getColumn(request.getSortColumn());
+		if (c == null)
+			throw new RuntimeException("No @Column " + request.getSortColumn() + " on "
+					+ meta.getEntityClass().getSimpleName() + " to sort " + methodName + " by");
+		return c;
+	}
+
+	CompiledQuery query(PageRequest request) {
+		ColumnMetadata sort = sortColumn(request);
+		boolean keyset = request.getMode() == PageRequest.Mode.KEYSET;
+		boolean seek = keyset && !request.isFirst();
+		String key = request.getMode() + "|" + sort.getName() + "|" + request.isDescending() + "|" + seek;
+
+		return variants.computeIfAbsent(key, k -> CompiledQuery.compile(rewrite(sort, request.isDescending(), keyset, seek),
+				tableName, paramIndexes, methodName));
+	}
+
+	private String rewrite(ColumnMetadata sort, boolean descending, boolean keyset, boolean seek) {
+		String id = meta.getIdColumn().getName();
+		String s = sort.getName();
+		boolean byId = sort == meta.getIdColumn();
+		String op = descending ? " < " : " > ";
+		String dir = descending ? " DESC" : "";
+
+		StringBuilder sql = new StringBuilder(template.length() + 128);
+		if (seek) {
+			String predicate = byId ? id + op + ":" + AFTER_ID
+					: "(" + s + op + ":" + AFTER_SORT + " OR (" + s + " = :" + AFTER_SORT + " AND " + id + op + ":"
+							+ AFTER_ID + "))";
+			if (whereEnd < 0)
+				sql.append(template).append(" WHERE ").append(predicate);
+			else
+				sql.append(template, 0, whereEnd).append(" (").append(template.substring(whereEnd).trim())
+						.append(") AND ").append(predicate);
+		} else {
+			sql.append(template);
+		}
+
+		sql.append(" ORDER BY ");
+		if (!byId)
+			sql.append(s).append(dir).append(", ");
+		sql.append(id).append(dir);
+		sql.append(" LIMIT :").append(LIMIT);
+		if (!keyset)
+			sql.append(" OFFSET :").append(OFFSET);
+		return sql.toString();
+	}
+
+	// method arguments followed by the page values the synthetic params bind to
+	Object[] bind(CompiledQuery query, Object[] args, PageRequest request) {
+		Object[] all = Arrays.copyOf(args, argCount + 4);
+		all[argCount] = request.getAfterSortValue();
+		all[argCount + 1] = request.getAfterId();
+		all[argCount + 2] = request.getSize() + 1;
+		all[argCount + 3] = request.getOffset();
+		return query.bind(all);
+	}
+
+	CompiledQuery countQuery() {
+		return countQuery;
+	}
+
+	// see CompiledQuery.getShardArgIndex()
+	int getShardArgIndex() {
+		return shardArgIndex;
+	}
+}
@@ -0,0 +1,296 @@
+package orm;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Parameter;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import annotations.Select;
+
+// the rows of a @Select that does not return its entity, mapped without creating any entity:
+//
+//   long countAll();                    select count(*) from :table      -> first column of the first row
+//   List<String> getFirstNames();       select first_name from :table    -> first column of every row
+//   Map<String, Object> getRow(...);    column name -> value, in select order
+//   List<NameAndAge> getNames();        new NameAndAge(first_name, age) for every row
+//
+// constructor projections (DTOs, records) use the public constructor taking as many parameters as
+// the select has columns. when its parameter names are known (records, or classes compiled with
+// -parameters) columns are matched by name, first_name fitting firstName, and every parameter has
+// to find its column. otherwise they go by position, which is only accepted when the select spells out its columns and their count and entity
+// column types fit the constructor, checked when the mapper is bound instead of on the first call.
+// picked once from the method's return type by MapperOperation, no relationship is ever loaded
+abstract class Projection {
+
+	// one item of a select list: a column, optionally qualified, or any expression with an alias
+	private static final Pattern COLUMN = Pattern.compile("(?:\\w+\\.)?(\\w+)");
+	private static final Pattern ALIASED = Pattern.compile("(?is).*[\\w)'`\"]\\s+(?:as\\s+)?[`\"]?(\\w+)[`\"]?");
+
+	// resolves the header of one result, the function then maps each of its rows
+	abstract Function<Object[], Object> forHeader(String[] columnNames);
+
+	// what a method returning one value gets when there are no rows
+	Object empty() {
+		return null;
+	}
+
+	// null when type is, or can hold, the entity itself
+	static Projection of(Type type, EntityMetadata meta, Method method) {
+		Class<?> raw = rawType(type);
+		if (raw == null || raw.isAssignableFrom(meta.getEntityClass()))
+			return null;
+
+		if (raw == Map.class)
+			return new RowMap();
+		if (isScalar(raw))
+			return new Scalar(raw);
+		if (raw.isInterface() || Modifier.isAbstract(raw.getModifiers()) || raw.getConstructors().length == 0)
+			throw new RuntimeException("Cannot map rows to " + raw.getSimpleName()
+					+ ", return the entity, a scalar, a Map or a class with a public constructor");
+		return new ByConstructor(raw, meta, method);
+	}
+
+	static Class<?> rawType(Type type) {
+		if (type instanceof Class)
+			return (Class<?>) type;
+		if (type instanceof ParameterizedType)
+			return (Class<?>) ((ParameterizedType) type).getRawType();
+		return null;
+	}
+
+	// List<String> -> String, null for a raw or wildcard List
+	static Type elementType(Type type) {
+		if (type instanceof ParameterizedType)
+			return ((ParameterizedType) type).getActualTypeArguments()[0];
+		return null;
+	}
+
+	// the column labels of the top level select list, "" for an expression without alias; null for
+	// select *, t.* or a template that is not a plain select
+	static List<String> selectList(String template) {
+		String sql = template.trim();
+		if (sql.length() < 7 || !sql.substring(0, 7).equalsIgnoreCase("select "))
+			return null;
+
+		List<String> items = new ArrayList<>();
+		int depth = 0;
+		char quote = 0;
+		int start = 7;
+		for (int i = start; i < sql.length(); i++) {
+			char ch = sql.charAt(i);
+			if (quote != 0) {
+				if (ch == quote)
+					quote = 0;
+			} else if (ch == '\'' || ch == '"' || ch == '`') {
+				quote = ch;
+			} else if (ch == '(') {
+				depth++;
+			} else if (ch == ')') {
+				depth--;
+			} else if (depth == 0 && ch == ',') {
+				items.add(sql.substring(start, i).trim());
+				start = i + 1;
+			} else if (depth == 0 && Character.isWhitespace(sql.charAt(i - 1)) && sql.regionMatches(true, i, "from", 0, 4)
+					&& (i + 4 == sql.length() || Character.isWhitespace(sql.charAt(i + 4)))) {
+				items.add(sql.substring(start, i).trim());
+				return labels(items);
+			}
+		}
+		return null;
+	}
+
+	private static List<String> labels(List<String> items) {
+		List<String> labels = new ArrayList<>(items.size());
+		for (int i = 0; i < items.size(); i++) {
+			String item = items.get(i);
+			if (i == 0 && item.regionMatches(true, 0, "distinct ", 0, 9))
+				item = item.substring(9).trim();
+			if (item.endsWith("*"))
+				return null;
+
+			Matcher column = COLUMN.matcher(item);
+			Matcher aliased = ALIASED.matcher(item);
+			labels.add(column.matches() ? column.group(1) : aliased.matches() ? aliased.group(1) : "");
+		}
+		return labels;
+	}
+
+	private static boolean isScalar(Class<?> c) {
+		return c.isPrimitive() || Number.class.isAssignableFrom(c) || c == String.class || c == Boolean.class
+				|| c == Character.class || Date.class.isAssignableFrom(c) || c.getName().startsWith("java.time.")
+				|| c == BigDecimal.class || c == BigInteger.class || c == UUID.class || c == byte[].class;
+	}
+
+	// first column, converted to the return type
+	private static final class Scalar extends Projection {
+		private final Class<?> type;
+
+		Scalar(Class<?> type) {
+			this.type = type;
+		}
+
+		@Override
+		Function<Object[], Object> forHeader(String[] columnNames) {
+			if (columnNames.length == 0)
+				throw new RuntimeException("A select returning " + type.getSimpleName() + " must return a column");
+			return row -> ColumnMetadata.coerce(row[0], type);
+		}
+
+		// select count(*) from an empty join still has to give an int back
+		@Override
+		Object empty() {
+			return type.isPrimitive() ? ColumnMetadata.coerce(null, type) : null;
+		}
+	}
+
+	private static final class RowMap extends Projection {
+		@Override
+		Function<Object[], Object> forHeader(String[] columnNames) {
+			return row -> {
+				Map<String, Object> map = new LinkedHashMap<>(columnNames.length * 2);
+				for (int i = 0; i < columnNames.length; i++)
+					map.put(columnNames[i], row[i]);
+				return map;
+			};
+		}
+	}
+
+	private static final class ByConstructor extends Projection {
+		private final Class<?> type;
+
+		// the constructor and column order are looked up once per distinct select list
+		private final Map<List<String>, Function<Object[], Object>> byHeader = new ConcurrentHashMap<>();
+
+		ByConstructor(Class<?> type, EntityMetadata meta, Method method) {
+			this.type = type;
+			check(meta, method);
+		}
+
+		// without parameter names the columns go by position, which has to fit before the first call
+		private void check(EntityMetadata meta, Method method) {
+			List<String> columns = selectList(method.getAnnotation(Select.class).value());
+			if (columns == null) {
+				boolean fits = false;
+				for (Constructor<?> c : type.getConstructors())
+					fits |= c.getParameterCount() <= 1 || namesPresent(c);
+				if (!fits)
+					throw positional(method, "the select does not list its columns, their order is unknown");
+				return;
+			}
+
+			Constructor<?> ctor = constructor(columns.size());
+			if (ctor == null)
+				throw new RuntimeException(method.getName() + ": no public constructor of " + type.getSimpleName()
+						+ " takes the " + columns.size() + " selected columns " + columns);
+			if (namesPresent(ctor)) {
+				columnOrder(ctor.getParameters(), columns.toArray(new String[0]));
+				return;
+			}
+
+			Class<?>[] params = ctor.getParameterTypes();
+			for (int i = 0; i < params.length; i++) {
+				ColumnMetadata column = meta.getColumn(columns.get(i));
+				if (column != null && !fits(params[i], column.getJavaType()))
+					throw positional(method, "column " + columns.get(i) + " (" + column.getJavaType().getSimpleName()
+							+ ") does not fit parameter " + (i + 1) + " (" + params[i].getSimpleName() + ")");
+			}
+		}
+
+		private RuntimeException positional(Method method, String reason) {
+			return new RuntimeException(method.getName() + " maps its columns to the constructor of "
+					+ type.getSimpleName() + " by position, as the class file has no parameter names, but " + reason
+					+ ". Compile " + type.getSimpleName() + " with -parameters to match the columns by name");
+		}
+
+		// what ColumnMetadata.coerce() can turn a value of the column's type into
+		private static boolean fits(Class<?> param, Class<?> column) {
+			Class<?> p = EntityAccessors.wrap(param);
+			Class<?> c = EntityAccessors.wrap(column);
+			return p.isAssignableFrom(c) || p == String.class || (Number.class.isAssignableFrom(c)
+					&& (Number.class.isAssignableFrom(p) || p == Boolean.class));
+		}
+
+		// with parameter names if one of the constructors of that size has them
+		private Constructor<?> constructor(int parameterCount) {
+			Constructor<?> ctor = null;
+			for (Constructor<?> c : type.getConstructors())
+				if (c.getParameterCount() == parameterCount && (ctor == null || namesPresent(c)))
+					ctor = c;
+			return ctor;
+		}
+
+		@Override
+		Function<Object[], Object> forHeader(String[] columnNames) {
+			return byHeader.computeIfAbsent(Arrays.asList(columnNames.clone()), h -> bind(columnNames));
+		}
+
+		private Function<Object[], Object> bind(String[] columnNames) {
+			Constructor<?> ctor = constructor(columnNames.length);
+			if (ctor == null)
+				throw new RuntimeException("No public constructor of " + type.getSimpleName() + " takes the "
+						+ columnNames.length + " selected columns " + Arrays.toString(columnNames));
+
+			Parameter[] params = ctor.getParameters();
+			int[] columns = columnOrder(params, columnNames);
+			Constructor<?> target = ctor;
+			if (!Modifier.isPublic(type.getModifiers()))
+				target.setAccessible(true);
+
+			return row -> {
+				Object[] args = new Object[params.length];
+				for (int i = 0; i < args.length; i++)
+					args[i] = ColumnMetadata.coerce(row[columns[i]], params[i].getType());
+				try {
+					return target.newInstance(args);
+				} catch (InvocationTargetException e) {
+					throw new RuntimeException("Constructor of " + type.getSimpleName() + " failed", e.getCause());
+				} catch (ReflectiveOperationException e) {
+					throw new RuntimeException("Cannot create " + type.getSimpleName(), e);
+				}
+			};
+		}
+
+		private static boolean namesPresent(Constructor<?> c) {
+			return c.getParameterCount() > 0 && c.getParameters()[0].isNamePresent();
+		}
+
+		// parameter i takes column columns[i]: by name when the class has parameter names, else by position
+		private int[] columnOrder(Parameter[] params, String[] columnNames) {
+			int[] columns = new int[params.length];
+			boolean byName = params.length > 0 && params[0].isNamePresent();
+
+			for (int i = 0; i < params.length; i++) {
+				columns[i] = byName ? -1 : i;
+				for (int k = 0; k < columnNames.length && byName; k++)
+					if (normalize(columnNames[k]).equals(normalize(params[i].getName())))
+						columns[i] = k;
+				// a silent fallback to positions could hand a column to the wrong parameter
+				if (columns[i] < 0)
+					throw new RuntimeException("Parameter " + params[i].getName() + " of the constructor of "
+							+ type.getSimpleName() + " matches none of the selected columns " + Arrays.toString(columnNames));
+			}
+			return columns;
+		}
+
+		private static String normalize(String name) {
+			return name.replace("_", "").toLowerCase(Locale.ROOT);
+		}
+	}
+}
@@ -0,0 +1,104 @@
+package orm;
+
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+
+import realdb.QueryResult;
+
+// result cache of one @Select(cached = true) method: bound parameter values -> the raw rows
+//
+// only the QueryResult is cached, every call hydrates its own entities from it, so callers never
+// share (and never modify each other's) instances. concurrent misses for the same parameters
+// collapse into a single database execution, the other callers wait for the one in flight
+class QueryCache {
+
+	private static final class Key {
+		final Object[] params;
+		final int hash;
+
+		Key(Object[] params) {
+			this.params = params;
+			this.hash = Arrays.hashCode(params);
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			return o instanceof Key && Arrays.equals(params, ((Key) o).params);
+		}
+	}
+
+	private final String tableName;
+	private final LruCache<Key, QueryResult> results;
+	private final ConcurrentHashMap<Key, CompletableFuture<QueryResult>> loading = new ConcurrentHashMap<>();
+
+	QueryCache(String tableName, int maxSize, long ttlMillis) {
+		this.tableName = tableName;
+		this.results = new LruCache<>(maxSize, ttlMillis);
+	}
+
+	// params are the values bound to the ? of the compiled SQL, the SQL itself is fixed per method
+	QueryResult get(Object[] params, Callable<QueryResult> loader) throws Exception {
+		Key key = new Key(params);
+		QueryResult cached = results.get(key);
+		if (cached != null)
+			return cached;
+
+		CompletableFuture<QueryResult> mine = new CompletableFuture<>();
+		CompletableFuture<QueryResult> inFlight = loading.putIfAbsent(key, mine);
+		if (inFlight != null)
+			return await(inFlight);
+
+		try {
+			long generation = results.generation(key);
+			QueryResult loaded = loader.call();
+			results.putIfGeneration(key, loaded, generation);
+			mine.complete(loaded);
+			return loaded;
+		} catch (Throwable t) {
+			mine.completeExceptionally(t);
+			throw t;
+		} finally {
+			loading.remove(key, mine);
+		}
+	}
+
+	private static QueryResult await(CompletableFuture<QueryResult> inFlight) throws Exception {
+		try {
+			return inFlight.get();
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof Exception)
+				throw (Exception) cause;
+			if (cause instanceof Error)
+				throw (Error) cause;
+			throw e;
+		}
+	}
+
+	// a write to the table: drop everything, and let new callers start a fresh load instead of
+	// joining one that may have read the old rows
+	void invalidateAll() {
+		results.clear();
+		loading.clear();
+	}
+
+	String getTableName() {
+		return tableName;
+	}
+
+	LruCache<?, ?> getResults() {
+		return results;
+	}
+
+	CacheStats getStats() {
+		return results.getStats();
+	}
+}
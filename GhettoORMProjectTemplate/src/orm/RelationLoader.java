@@ -0,0 +1,283 @@
+package orm;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import annotations.FetchType;
+import realdb.GhettoJdbcBlackBox;
+import realdb.QueryResult;
+
+// fills the @ManyToOne / @OneToMany fields of the entities one select returned
+//
+// instead of one query per entity (N+1), every relationship costs one query per batchSize keys:
+//
+//   select * from student                                      -> 250 students
+//   SELECT * FROM subject WHERE id IN (?, ?, ..., ?)           -> their distinct subjects, 100 per query
+//
+// and the rows are stitched onto their owners in memory. IN lists are padded to a power of two
+// (repeating the last key) so each relationship only ever uses a handful of statement shapes.
+//
+// every load has an identity map per entity type: a row already loaded during the same call is
+// reused instead of fetched again, which also makes EAGER cycles (subject -> students -> subject)
+// stop. children loaded through a one-to-many get their inverse many-to-one pointed at the
+// parent instance without a query
+//
+// parents of an @Entity(cached = true) target are taken from its second-level cache first, and the
+// ones fetched are put there, so a cached lookup of a child costs no query for its parent either
+//
+// related entities that are @Entity(sharded = true) come from their shards: keys looked up by the
+// shard key only from the shards that own them, any other column (children by foreign key) from
+// every shard
+class RelationLoader {
+
+	private final GhettoJdbcBlackBox jdbc;
+	private final MyORM orm;
+	private final Map<String, String> inSql = new ConcurrentHashMap<>();
+
+	RelationLoader(GhettoJdbcBlackBox jdbc, MyORM orm) {
+		this.jdbc = jdbc;
+		this.orm = orm;
+	}
+
+	// entities loaded together in one call, keyed by entity type and normalized id. the entities
+	// the select returned are only indexed once a relationship leads back to their type
+	private static final class Context {
+		final Map<EntityMetadata, Map<Object, Object>> byType = new HashMap<>();
+		final EntityMetadata rootMeta;
+		final List<?> roots;
+
+		Context(EntityMetadata rootMeta, List<?> roots) {
+			this.rootMeta = rootMeta;
+			this.roots = roots;
+		}
+
+		Map<Object, Object> of(EntityMetadata meta) {
+			Map<Object, Object> known = byType.get(meta);
+			if (known == null) {
+				known = new HashMap<>();
+				byType.put(meta, known);
+				if (meta == rootMeta) {
+					for (Object o : roots) {
+						Object id = meta.getIdColumn().get(o);
+						if (id != null)
+							known.putIfAbsent(EntityWriter.cacheKey(id), o);
+					}
+				}
+			}
+			return known;
+		}
+	}
+
+	void load(EntityMetadata meta, List<?> entities) {
+		if (!meta.hasRelations() || entities.isEmpty())
+			return;
+		load(meta, entities, new Context(meta, entities), null);
+	}
+
+	// skip: the many-to-one the caller points at the owner itself, or null
+	private void load(EntityMetadata meta, List<?> entities, Context ctx, RelationMetadata skip) {
+		if (!meta.hasRelations() || entities.isEmpty())
+			return;
+
+		for (RelationMetadata r : meta.getRelations()) {
+			if (r == skip)
+				continue;
+			if (r.isManyToOne()) {
+				fetchParents(meta, r, entities, ctx);
+			} else if (r.getFetch() == FetchType.EAGER) {
+				fetchChildren(meta, r, entities, ctx);
+			} else {
+				installLazy(meta, r, entities);
+			}
+		}
+	}
+
+	// many-to-one: one query for the distinct foreign keys not loaded yet
+	private void fetchParents(EntityMetadata meta, RelationMetadata r, List<?> owners, Context ctx) {
+		EntityMetadata target = r.getTarget();
+		ColumnMetadata fk = meta.getColumn(r.getColumn());
+		Map<Object, Object> known = ctx.of(target);
+
+		Map<Object, Object> missing = new LinkedHashMap<>();
+		for (Object o : owners) {
+			Object value = fk.get(o);
+			if (value != null && r.get(o) == null) {
+				Object key = EntityWriter.cacheKey(value);
+				if (!known.containsKey(key))
+					missing.put(key, value);
+			}
+		}
+
+		// the second-level cache first, like getById; inside a transaction it is skipped
+		List<Object> fresh = new ArrayList<>();
+		LruCache<Object, Object[]> cache = orm.getJdbc().inTransaction() ? null : orm.getEntityCache(target);
+		Map<Object, Long> versions = null;
+		if (cache != null && !missing.isEmpty()) {
+			versions = new HashMap<>();
+			for (Iterator<Map.Entry<Object, Object>> it = missing.entrySet().iterator(); it.hasNext();) {
+				Object key = it.next().getKey();
+				Object[] row = cache.get(key);
+				if (row != null) {
+					fresh.add(target.fromRow(row));
+					it.remove();
+				} else {
+					versions.put(key, cache.generation(key));
+				}
+			}
+		}
+
+		List<Object> fetched = fetchWhereIn(target, target.getIdColumn(), new ArrayList<>(missing.values()),
+				r.getBatchSize());
+		for (Object p : fetched) {
+			Object key = EntityWriter.cacheKey(target.getIdColumn().get(p));
+			Long version = versions == null ? null : versions.get(key);
+			if (version != null)
+				cache.putIfGeneration(key, target.toRow(p), version);
+		}
+		fresh.addAll(fetched);
+		for (Object p : fresh)
+			known.put(EntityWriter.cacheKey(target.getIdColumn().get(p)), p);
+
+		for (Object o : owners) {
+			Object value = fk.get(o);
+			if (value != null && r.get(o) == null)
+				r.set(o, known.get(EntityWriter.cacheKey(value)));
+		}
+
+		load(target, fresh, ctx, null);
+	}
+
+	// one-to-many, EAGER: children of all owners, one query per batchSize owners
+	private void fetchChildren(EntityMetadata meta, RelationMetadata r, List<?> owners, Context ctx) {
+		Map<Object, Object> ownersByKey = new LinkedHashMap<>();
+		for (Object o : owners) {
+			Object id = meta.getIdColumn().get(o);
+			if (id != null)
+				ownersByKey.putIfAbsent(EntityWriter.cacheKey(id), o);
+		}
+
+		RelationMetadata inverse = r.getTarget().inverseOf(r, meta);
+		Map<Object, List<Object>> children = children(r, inverse, new ArrayList<>(ownersByKey.keySet()), ctx);
+		for (Object o : owners) {
+			Object id = meta.getIdColumn().get(o);
+			List<Object> list = id == null ? null : children.get(EntityWriter.cacheKey(id));
+			if (list == null)
+				list = new ArrayList<>();
+			else if (ownersByKey.get(EntityWriter.cacheKey(id)) == o)
+				setInverse(inverse, list, o);
+			else
+				list = new ArrayList<>(list);	// a second instance of the same row
+			r.set(o, list);
+		}
+	}
+
+	// normalized owner id -> its children, owners without children are left out. the inverse
+	// many-to-one is not loaded, the caller points it at the owner
+	private Map<Object, List<Object>> children(RelationMetadata r, RelationMetadata inverse, List<Object> ownerKeys,
+			Context ctx) {
+		EntityMetadata child = r.getTarget();
+		ColumnMetadata fk = child.getColumn(r.getColumn());
+
+		Map<Object, Object> known = ctx.of(child);
+		Map<Object, List<Object>> result = new HashMap<>();
+		List<Object> fresh = new ArrayList<>();
+
+		for (Object c : fetchWhereIn(child, fk, ownerKeys, r.getBatchSize())) {
+			Object existing = known.putIfAbsent(EntityWriter.cacheKey(child.getIdColumn().get(c)), c);
+			if (existing != null)
+				c = existing;
+			else
+				fresh.add(c);
+			result.computeIfAbsent(EntityWriter.cacheKey(fk.get(c)), k -> new ArrayList<>()).add(c);
+		}
+
+		load(child, fresh, ctx, inverse);
+		return result;
+	}
+
+	// children loaded through a one-to-many point back at the owner without a query
+	static void setInverse(RelationMetadata inverse, List<Object> children, Object owner) {
+		if (inverse == null)
+			return;
+		for (Object c : children)
+			if (inverse.get(c) == null)
+				inverse.set(c, owner);
+	}
+
+	// one-to-many, LAZY: every owner gets a list that loads the children of its whole batch
+	private void installLazy(EntityMetadata meta, RelationMetadata r, List<?> owners) {
+		List<Object> keys = new ArrayList<>(owners.size());
+		for (Object o : owners) {
+			Object id = meta.getIdColumn().get(o);
+			keys.add(id == null ? null : EntityWriter.cacheKey(id));
+		}
+
+		LazyList.Batch batch = new LazyList.Batch(this, r, r.getTarget().inverseOf(r, meta), keys);
+		for (int i = 0; i < keys.size(); i++)
+			r.set(owners.get(i), keys.get(i) == null ? new ArrayList<>() : new LazyList(batch, owners.get(i), keys.get(i)));
+	}
+
+	// children of a slice of lazy owners by their normalized ids, in a fresh load context of their own
+	Map<Object, List<Object>> loadLazy(RelationMetadata r, RelationMetadata inverse, List<Object> ownerKeys) {
+		return children(r, inverse, ownerKeys, new Context(null, Collections.emptyList()));
+	}
+
+	// SELECT * FROM target WHERE column IN (...), batchSize values per query
+	private List<Object> fetchWhereIn(EntityMetadata target, ColumnMetadata column, List<Object> values, int batchSize) {
+		if (values.isEmpty())
+			return Collections.emptyList();
+
+		List<Object> entities = new ArrayList<>();
+		ShardRouter shards = orm.getShardRouter(target);
+		if (shards == null) {
+			fetchWhereIn(jdbc, target, column, values, batchSize, entities);
+		} else if (column == target.getShardKey()) {
+			List<List<Object>> byShard = new ArrayList<>();
+			for (int i = 0; i < shards.size(); i++)
+				byShard.add(new ArrayList<>());
+			for (Object value : values)
+				byShard.get(shards.shardOf(value)).add(value);
+			for (int i = 0; i < shards.size(); i++)
+				if (!byShard.get(i).isEmpty())
+					fetchWhereIn(shards.getShard(i).getJdbc(), target, column, byShard.get(i), batchSize, entities);
+		} else {
+			for (int i = 0; i < shards.size(); i++)
+				fetchWhereIn(shards.getShard(i).getJdbc(), target, column, values, batchSize, entities);
+		}
+		return entities;
+	}
+
+	private void fetchWhereIn(GhettoJdbcBlackBox database, EntityMetadata target, ColumnMetadata column,
+			List<Object> values, int batchSize, List<Object> entities) {
+		for (int from = 0; from < values.size(); from += batchSize) {
+			List<Object> chunk = values.subList(from, Math.min(values.size(), from + batchSize));
+
+			int slots = Math.min(Integer.highestOneBit(chunk.size() * 2 - 1), batchSize);
+			Object[] params = new Object[slots];
+			for (int i = 0; i < slots; i++)
+				params[i] = chunk.get(Math.min(i, chunk.size() - 1));
+
+			QueryResult results = database.runQuery(inSql(target, column, slots), params);
+			ColumnMetadata[] mapping = target.mapHeader(results.getColumnNames());
+			for (Object[] row : results.getRows())
+				entities.add(target.hydrate(mapping, row));
+		}
+	}
+
+	private String inSql(EntityMetadata target, ColumnMetadata column, int slots) {
+		String key = target.getTableName() + "." + column.getName() + "/" + slots;
+		return inSql.computeIfAbsent(key, k -> {
+			StringBuilder sql = new StringBuilder("SELECT * FROM ").append(target.getTableName()).append(" WHERE ")
+					.append(column.getName()).append(" IN (");
+			for (int i = 0; i < slots; i++)
+				sql.append(i == 0 ? "?" : ", ?");
+			return sql.append(")").toString();
+		});
+	}
+}
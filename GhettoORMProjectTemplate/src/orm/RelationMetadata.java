@@ -0,0 +1,138 @@
+package orm;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+import annotations.FetchType;
+import annotations.ManyToOne;
+import annotations.OneToMany;
+
+// one @OneToMany or @ManyToOne field of an entity
+//
+// the target entity is only known once every entity is registered, MyORM.scanEntities()
+// resolves it after building all the EntityMetadata
+public class RelationMetadata {
+
+	public enum Kind {
+		ONE_TO_MANY, MANY_TO_ONE
+	}
+
+	private final Kind kind;
+	private final Field field;
+	private final Class<?> targetClass;
+	private final String column;
+	private final FetchType fetch;
+	private final int batchSize;
+	private final Function<Object, Object> getter;
+	private final BiConsumer<Object, Object> setter;
+
+	private volatile EntityMetadata target;
+
+	private RelationMetadata(Kind kind, Field field, Class<?> targetClass, String column, FetchType fetch,
+			int batchSize, GeneratedEntity generated) {
+		if (batchSize < 1)
+			throw new RuntimeException("batchSize of " + field.getName() + " must be at least 1");
+		this.kind = kind;
+		this.field = field;
+		this.targetClass = targetClass;
+		this.column = column;
+		this.fetch = fetch;
+		this.batchSize = batchSize;
+		this.getter = EntityAccessors.getter(field, generated);
+		this.setter = EntityAccessors.setter(field, generated);
+	}
+
+	// null if the field is not a relationship, generated may be null
+	static RelationMetadata of(Field field, GeneratedEntity generated) {
+		ManyToOne manyToOne = field.getAnnotation(ManyToOne.class);
+		if (manyToOne != null && manyToOne.fetch() == FetchType.LAZY)
+			throw new RuntimeException("@ManyToOne field " + field.getName() + " cannot be LAZY, it holds the parent entity "
+					+ "itself and nothing could load it on access");
+		if (manyToOne != null)
+			return new RelationMetadata(Kind.MANY_TO_ONE, field, field.getType(), manyToOne.column(), manyToOne.fetch(),
+					manyToOne.batchSize(), generated);
+
+		OneToMany oneToMany = field.getAnnotation(OneToMany.class);
+		if (oneToMany != null) {
+			if (field.getType() != List.class && field.getType() != Collection.class)
+				throw new RuntimeException("@OneToMany field " + field.getName() + " must be a List or Collection");
+			return new RelationMetadata(Kind.ONE_TO_MANY, field, elementType(field), oneToMany.mappedBy(),
+					oneToMany.fetch(), oneToMany.batchSize(), generated);
+		}
+		return null;
+	}
+
+	private static Class<?> elementType(Field field) {
+		Type t = field.getGenericType();
+		if (t instanceof ParameterizedType) {
+			Type arg = ((ParameterizedType) t).getActualTypeArguments()[0];
+			if (arg instanceof Class)
+				return (Class<?>) arg;
+		}
+		throw new RuntimeException("@OneToMany field " + field.getName() + " needs an element type, like List<Student>");
+	}
+
+	// checks both ends of the join exist
+	void resolve(EntityMetadata owner, Map<Class<?>, EntityMetadata> entities) {
+		EntityMetadata t = entities.get(targetClass);
+		if (t == null)
+			throw new RuntimeException("Relationship " + owner.getEntityClass().getSimpleName() + "." + field.getName()
+					+ " points at " + targetClass.getSimpleName() + ", which is not an @Entity");
+
+		EntityMetadata fkSide = kind == Kind.MANY_TO_ONE ? owner : t;
+		if (fkSide.getColumn(column) == null)
+			throw new RuntimeException("Relationship " + owner.getEntityClass().getSimpleName() + "." + field.getName()
+					+ ": no @Column " + column + " on " + fkSide.getEntityClass().getSimpleName());
+		this.target = t;
+	}
+
+	public Kind getKind() {
+		return kind;
+	}
+
+	public boolean isManyToOne() {
+		return kind == Kind.MANY_TO_ONE;
+	}
+
+	public Field getField() {
+		return field;
+	}
+
+	// the parent entity of a many-to-one, the child entity of a one-to-many
+	public EntityMetadata getTarget() {
+		return target;
+	}
+
+	// the foreign key column: on this entity for many-to-one, on the child for one-to-many
+	public String getColumn() {
+		return column;
+	}
+
+	public FetchType getFetch() {
+		return fetch;
+	}
+
+	public int getBatchSize() {
+		return batchSize;
+	}
+
+	public Object get(Object entity) {
+		return getter.apply(entity);
+	}
+
+	public void set(Object entity, Object value) {
+		setter.accept(entity, value);
+	}
+
+	@Override
+	public String toString() {
+		return "RelationMetadata [kind=" + kind + ", field=" + field.getName() + ", target="
+				+ targetClass.getSimpleName() + ", column=" + column + ", fetch=" + fetch + "]";
+	}
+}
@@ -0,0 +1,133 @@
+package orm;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Predicate;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+
+import realdb.GhettoJdbcBlackBox;
+
+// brings the database, and every shard of MyORM.addShard(), up to the @Entity / @Column definitions
+// when MyORM.init() runs
+//
+// the existing tables and columns are read once through DatabaseMetaData and only what is missing
+// is created: CREATE TABLE for a missing table, ALTER TABLE ... ADD COLUMN for a missing column.
+// nothing is dropped, and column types are not compared. a database that already matches costs
+// that one metadata read and no DDL at all.
+//
+// the DDL of different tables is independent, so it runs in parallel on the ORM's async executor,
+// at most one statement per pooled connection. tables whose column types declare a REFERENCES
+// constraint are only created once the others exist
+class SchemaBootstrap {
+
+	private static final Logger LOG = Logger.getLogger(SchemaBootstrap.class.getName());
+
+	private static final Pattern REFERENCES = Pattern.compile("(?i)\\breferences\\b");
+
+	private final MyORM orm;
+
+	SchemaBootstrap(MyORM orm) {
+		this.orm = orm;
+	}
+
+	// the DDL statements that ran on the database of jdbc, empty when its schema already matched
+	List<String> run(GhettoJdbcBlackBox jdbc, SchemaMode mode, Collection<EntityMetadata> entities) {
+		if (mode == SchemaMode.SKIP)
+			return Collections.emptyList();
+
+		Map<String, Set<String>> existing = jdbc.readSchema();
+
+		// table -> its statements, which run in order
+		Map<String, List<String>> ddl = new LinkedHashMap<>();
+		Set<String> referencing = new HashSet<>();
+		List<String> missing = new ArrayList<>();
+
+		for (EntityMetadata meta : entities) {
+			String table = meta.getTableName();
+			if (ddl.containsKey(table))
+				continue;
+
+			Set<String> columns = existing.get(table.toLowerCase(Locale.ROOT));
+			List<String> statements = new ArrayList<>();
+
+			if (columns == null) {
+				missing.add("table " + table);
+				statements.add(meta.getCreateTableSql());
+			} else {
+				for (ColumnMetadata c : meta.getColumns()) {
+					if (columns.contains(c.getName().toLowerCase(Locale.ROOT)))
+						continue;
+					missing.add("column " + table + "." + c.getName());
+					if (c.isId() && mode == SchemaMode.CREATE_MISSING)
+						throw new RuntimeException("Table " + table + " exists without its primary key column "
+								+ c.getName() + ", which cannot be added to it");
+					statements.add("ALTER TABLE " + table + " ADD COLUMN " + c.getName() + " " + c.getSqlType());
+				}
+			}
+
+			if (statements.isEmpty())
+				continue;
+			ddl.put(table, statements);
+			for (ColumnMetadata c : meta.getColumns())
+				if (REFERENCES.matcher(c.getSqlType()).find())
+					referencing.add(table);
+		}
+
+		if (mode == SchemaMode.VALIDATE) {
+			if (!missing.isEmpty())
+				throw new RuntimeException("Database schema does not match the entities, missing " + String.join(", ", missing));
+			return Collections.emptyList();
+		}
+
+		List<String> executed = new ArrayList<>();
+		execute(jdbc, ddl, table -> !referencing.contains(table), executed);
+		execute(jdbc, ddl, referencing::contains, executed);
+		return executed;
+	}
+
+	// one task per table, waits for all of them and rethrows the first failure
+	private void execute(GhettoJdbcBlackBox jdbc, Map<String, List<String>> ddl, Predicate<String> filter,
+			List<String> executed) {
+		List<CompletableFuture<Void>> running = new ArrayList<>();
+
+		for (Map.Entry<String, List<String>> e : ddl.entrySet()) {
+			if (!filter.test(e.getKey()))
+				continue;
+
+			running.add(orm.getAsyncExecutor().submit(() -> {
+				for (String sql : e.getValue()) {
+					LOG.info("Schema: " + sql);
+					jdbc.runSQL(sql);
+				}
+				return null;
+			}));
+			executed.addAll(e.getValue());
+		}
+
+		RuntimeException failure = null;
+		for (CompletableFuture<Void> f : running) {
+			try {
+				f.join();
+			} catch (CompletionException ex) {
+				RuntimeException cause = ex.getCause() instanceof RuntimeException ? (RuntimeException) ex.getCause()
+						: new RuntimeException(ex.getCause());
+				if (failure == null)
+					failure = cause;
+				else
+					failure.addSuppressed(cause);
+			}
+		}
+		if (failure != null)
+			throw failure;
+	}
+}
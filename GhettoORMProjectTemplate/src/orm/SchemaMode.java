@@ -0,0 +1,14 @@
+package orm;
+
+// what MyORM.init() does about the tables of the mapped entities, see MyORM.setSchemaMode()
+public enum SchemaMode {
+
+	// create missing tables and add missing columns, existing ones are never dropped or altered
+	CREATE_MISSING,
+
+	// fail init() when a table or column is missing, without running any DDL
+	VALIDATE,
+
+	// leave the database alone, not even its metadata is read
+	SKIP
+}
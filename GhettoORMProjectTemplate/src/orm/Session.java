@@ -0,0 +1,276 @@
+package orm;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import realdb.GhettoJdbcBlackBox;
+
+// a unit of work: mappers from getMapper() queue their @Save / @Delete calls instead of running
+// them, flush() sends everything as JDBC batches on one connection in one transaction
+//
+//   try (Session session = orm.openSession()) {
+//       StudentMapper sm = (StudentMapper) session.getMapper(Student.class);
+//       ... any number of sm.save(s) / sm.delete(s) ...
+//       session.flush();
+//   }
+//
+// repeated writes of one row collapse into one statement carrying the entity's state at flush
+// time: saving a new entity twice inserts it once, saving a row three times updates it once, and
+// a delete replaces queued updates of the row (or cancels a queued insert of the same object).
+// flush() writes all inserts, then all updates, then all deletes. @Select calls on a session
+// mapper flush first, so queries see the queued writes. when MyORM has replicas that holds once
+// setReadFromPrimary(true) keeps the session's reads on the primary the writes went to
+//
+// for @Entity(dirtyChecking = true) the session keeps a snapshot of every entity its @Select
+// calls return (lists, single rows and pages; not streams, iterators or related entities) and
+// of every entity it wrote. flush() then updates only the columns that changed since and sends
+// nothing for an unchanged entity; an entity without a snapshot is updated in full. snapshots
+// live as long as the session, mappers from orm.getMapper() keep theirs in a SnapshotTable
+//
+// like the entities it tracks, a session is used by one thread at a time
+public class Session implements AutoCloseable {
+
+	private static final Logger LOG = Logger.getLogger(Session.class.getName());
+
+	// the queued writes of one entity type
+	private static final class Pending {
+		final EntityMetadata meta;
+
+		// new entities in save order, their key is only known after the insert
+		final List<Object> insertOrder = new ArrayList<>();
+		final Set<Object> inserts = Collections.newSetFromMap(new IdentityHashMap<>());
+
+		// by primary key, the entity saved last for a row wins
+		final Map<Object, Object> updates = new LinkedHashMap<>();
+		final Map<Object, Object> deletes = new LinkedHashMap<>();
+
+		Pending(EntityMetadata meta) {
+			this.meta = meta;
+		}
+
+		List<Object> insertsInOrder() {
+			List<Object> list = new ArrayList<>(inserts.size());
+			for (Object o : insertOrder)
+				if (inserts.contains(o))
+					list.add(o);
+			return list;
+		}
+
+		int size() {
+			return inserts.size() + updates.size() + deletes.size();
+		}
+	}
+
+	private final MyORM orm;
+	private final EntityWriter writer;
+	private final GhettoJdbcBlackBox jdbc;
+
+	private final Map<Class<?>, Pending> pending = new LinkedHashMap<>();
+
+	// entity (by identity) -> toRow() as last read or written, dirty-checked entities only
+	private final Map<Object, Object[]> snapshots = new IdentityHashMap<>();
+	private boolean closed;
+	private volatile boolean readFromPrimary;
+
+	Session(MyORM orm) {
+		this.orm = orm;
+		this.writer = orm.getWriter();
+		this.jdbc = orm.getJdbc();
+	}
+
+	public Object getMapper(Class<?> entityClass) {
+		checkOpen();
+		return orm.getMapper(entityClass, this);
+	}
+
+	void save(EntityMetadata meta, Object o) {
+		checkOpen();
+		Pending p = pendingFor(meta);
+		Object pkValue = meta.getIdColumn().get(o);
+
+		if (pkValue == null) {
+			if (p.inserts.add(o))
+				p.insertOrder.add(o);
+			return;
+		}
+
+		Object key = EntityWriter.cacheKey(pkValue);
+		// the row is already deleted in this unit of work, an UPDATE would match nothing
+		if (p.deletes.containsKey(key))
+			return;
+		p.updates.put(key, o);
+	}
+
+	void delete(EntityMetadata meta, Object o) {
+		checkOpen();
+		Pending p = pendingFor(meta);
+		Object pkValue = meta.getIdColumn().get(o);
+
+		if (pkValue == null) {
+			if (!p.inserts.remove(o))
+				throw new RuntimeException("no pk value");
+			return; // never reached the database
+		}
+
+		Object key = EntityWriter.cacheKey(pkValue);
+		p.updates.remove(key);
+		p.deletes.put(key, o);
+	}
+
+	// an entity a @Select of this session returned, in the state the database has
+	void track(EntityMetadata meta, Object o) {
+		if (meta.isDirtyChecked())
+			snapshots.put(o, meta.toRow(o));
+	}
+
+	void track(EntityMetadata meta, List<?> entities) {
+		if (meta.isDirtyChecked())
+			for (Object o : entities)
+				snapshots.put(o, meta.toRow(o));
+	}
+
+	private Pending pendingFor(EntityMetadata meta) {
+		Pending p = pending.get(meta.getEntityClass());
+		if (p == null) {
+			p = new Pending(meta);
+			pending.put(meta.getEntityClass(), p);
+		}
+		return p;
+	}
+
+	// read your writes: @Select calls of this session's mappers skip the replicas
+	public void setReadFromPrimary(boolean readFromPrimary) {
+		this.readFromPrimary = readFromPrimary;
+	}
+
+	public boolean isReadFromPrimary() {
+		return readFromPrimary;
+	}
+
+	// writes queued so far, after collapsing
+	public int getPendingCount() {
+		int count = 0;
+		for (Pending p : pending.values())
+			count += p.size();
+		return count;
+	}
+
+	// sends the queue in one transaction, or as part of the transaction already open on this
+	// thread. with shards, each shard written gets a transaction of its own, committed right before
+	// the primary's and not atomically with it (see MyORM.commitShardTransactions()). a failed flush is rolled back and its
+	// queue discarded, inserted entities get their id reset to null
+	public void flush() {
+		checkOpen();
+		if (getPendingCount() == 0)
+			return;
+
+		List<Pending> work = new ArrayList<>(pending.values());
+		pending.clear();
+
+		if (LOG.isLoggable(Level.FINE))
+			LOG.fine("Flushing " + countOf(work) + " session writes");
+
+		boolean ownTransaction = !jdbc.inTransaction();
+		if (ownTransaction)
+			jdbc.begin();
+
+		boolean committed = false;
+		try {
+			for (Pending p : work)
+				writer.insertAll(p.meta, p.insertsInOrder());
+			List<List<Object>> updated = new ArrayList<>(work.size());
+			for (Pending p : work)
+				updated.add(writer.updateAll(p.meta, p.updates.values(), snapshots));
+			for (Pending p : work)
+				writer.deleteAll(p.meta, p.deletes.values());
+
+			if (ownTransaction) {
+				orm.commitShardTransactions();
+				jdbc.commit();
+			}
+			committed = true;
+
+			// the snapshots follow the database: the written values once they are durable, none
+			// while an outer transaction may still roll the writes back
+			for (int i = 0; i < work.size(); i++) {
+				Pending p = work.get(i);
+				if (!p.meta.isDirtyChecked())
+					continue;
+				for (Object o : p.deletes.values())
+					snapshots.remove(o);
+				if (ownTransaction) {
+					track(p.meta, p.insertsInOrder());
+					track(p.meta, updated.get(i));
+				} else {
+					for (Object o : updated.get(i))
+						snapshots.remove(o);
+				}
+			}
+		} finally {
+			if (!committed && ownTransaction) {
+				rollbackQuietly();
+				for (Pending p : work)
+					for (Object o : p.inserts)
+						p.meta.getIdColumn().set(o, null);
+			}
+
+			// again after the commit: a reader may have cached the old row in between
+			for (Pending p : work) {
+				for (Object key : p.updates.keySet())
+					writer.evict(p.meta, key);
+				for (Object key : p.deletes.keySet())
+					writer.evict(p.meta, key);
+				orm.invalidateQueryCaches(p.meta);
+			}
+		}
+	}
+
+	private void rollbackQuietly() {
+		orm.rollbackShardTransactions();
+		try {
+			jdbc.rollback();
+		} catch (RuntimeException e) {
+			LOG.log(Level.WARNING, "Rollback of a failed session flush failed", e);
+		}
+	}
+
+	private static int countOf(Collection<Pending> work) {
+		int count = 0;
+		for (Pending p : work)
+			count += p.size();
+		return count;
+	}
+
+	// drops queued writes without sending them, and the snapshots of dirty checking
+	public void clear() {
+		pending.clear();
+		snapshots.clear();
+	}
+
+	// unflushed writes are discarded, call flush() first to keep them
+	@Override
+	public void close() {
+		if (closed)
+			return;
+		closed = true;
+
+		int discarded = getPendingCount();
+		if (discarded > 0)
+			LOG.warning("Session closed with " + discarded + " unflushed writes, they were discarded");
+		pending.clear();
+		snapshots.clear();
+	}
+
+	private void checkOpen() {
+		if (closed)
+			throw new RuntimeException("Session is closed");
+	}
+}
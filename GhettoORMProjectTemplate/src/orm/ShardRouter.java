@@ -0,0 +1,160 @@
+package orm;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.logging.Logger;
+
+import annotations.Entity;
+import annotations.ShardFunction;
+import realdb.GhettoJdbcBlackBox;
+
+// the shards the rows of one @Entity(sharded = true) entity live on, see MyORM.addShard()
+//
+// the value of the entity's shard key column picks the shard:
+//
+//   HASH    integral keys go to shard (key - 1) mod n: keys 1, 2, 3 ... land on shards 0, 1, 2 ...
+//           those are the ids MySQL generates with auto_increment_increment = n and
+//           auto_increment_offset = shard + 1, so a new row can go to any shard and its generated
+//           id still leads back to it. other keys go by the hash of their string form
+//   RANGE   shardRanges holds the first key of shards 1 .. n-1, in ascending order. a new row
+//           without a key goes to the last shard, the one open-ended range
+//
+// the primary is shard 0. one router per sharded entity, made by MyORM.init()
+final class ShardRouter {
+
+	private static final Logger LOG = Logger.getLogger(ShardRouter.class.getName());
+
+	private final EntityMetadata meta;
+	private final ColumnMetadata key;
+	private final ShardFunction function;
+	private final long[] ranges;
+	private final DatabaseNode[] shards;
+	private final Executor threads;
+
+	// HASH: new rows without a generated key yet take the shards in turn
+	private final AtomicInteger nextInsert = new AtomicInteger();
+
+	ShardRouter(EntityMetadata meta, DatabaseNode[] shards, Executor threads) {
+		Entity entity = meta.getEntityAnnotation();
+		this.meta = meta;
+		this.key = meta.getShardKey();
+		this.function = entity.shardFunction();
+		this.ranges = entity.shardRanges().clone();
+		this.shards = shards;
+		this.threads = threads;
+
+		if (function == ShardFunction.RANGE) {
+			if (ranges.length != shards.length - 1)
+				throw new RuntimeException("Entity " + meta.getEntityClass().getSimpleName() + " has " + ranges.length
+						+ " shardRanges for " + shards.length + " shards, it needs " + (shards.length - 1));
+			for (int i = 1; i < ranges.length; i++)
+				if (ranges[i] <= ranges[i - 1])
+					throw new RuntimeException("shardRanges of " + meta.getEntityClass().getSimpleName()
+							+ " must be ascending");
+		}
+	}
+
+	int size() {
+		return shards.length;
+	}
+
+	DatabaseNode getShard(int shard) {
+		return shards[shard];
+	}
+
+	// the shard the rows with this shard key value live on
+	int shardOf(Object keyValue) {
+		if (keyValue == null)
+			throw new RuntimeException(meta.getEntityClass().getSimpleName() + " has no value in its shard key column "
+					+ key.getName());
+
+		Object normalized = EntityWriter.cacheKey(keyValue);
+		if (function == ShardFunction.RANGE) {
+			if (!(normalized instanceof Long))
+				throw new RuntimeException("RANGE sharding of " + meta.getEntityClass().getSimpleName()
+						+ " needs an integral shard key, not " + keyValue.getClass().getSimpleName());
+
+			long k = (Long) normalized;
+			int shard = 0;
+			while (shard < ranges.length && k >= ranges[shard])
+				shard++;
+			return shard;
+		}
+
+		if (normalized instanceof Long)
+			return (int) Math.floorMod((Long) normalized - 1, (long) shards.length);
+		return Math.floorMod(normalized.toString().hashCode(), shards.length);
+	}
+
+	DatabaseNode shardFor(Object keyValue) {
+		return shards[shardOf(keyValue)];
+	}
+
+	// the shard an entity is written to, new rows sharded by their generated id included
+	int shardOfEntity(Object entity) {
+		Object value = key.get(entity);
+		if (value == null && key.isId())
+			return function == ShardFunction.RANGE ? shards.length - 1
+					: Math.floorMod(nextInsert.getAndIncrement(), shards.length);
+		return shardOf(value);
+	}
+
+	// a generated id leading to another shard is a row its key lookups will never find
+	void checkGeneratedKey(Object generated, int shard) {
+		if (!key.isId() || shardOf(generated) == shard)
+			return;
+		LOG.warning(meta.getEntityClass().getSimpleName() + " " + generated + " was inserted on shard " + shard
+				+ " but belongs on shard " + shardOf(generated) + ", check the AUTO_INCREMENT settings of the shards");
+	}
+
+	// read on every shard at once, the results in shard order. inside a transaction, whose shard
+	// connections are bound to the calling thread, the shards are read one after the other on it
+	<T> List<T> onEveryShard(Function<GhettoJdbcBlackBox, T> read) {
+		List<T> results = new ArrayList<>(shards.length);
+		if (shards[0].getJdbc().inTransaction()) {
+			for (DatabaseNode shard : shards)
+				results.add(read.apply(shard.getJdbc()));
+			return results;
+		}
+
+		List<CompletableFuture<T>> running = new ArrayList<>(shards.length);
+		for (int i = 1; i < shards.length; i++) {
+			GhettoJdbcBlackBox jdbc = shards[i].getJdbc();
+			running.add(CompletableFuture.supplyAsync(() -> read.apply(jdbc), threads));
+		}
+
+		// shard 0 on this thread while the others run
+		RuntimeException failure = null;
+		try {
+			results.add(read.apply(shards[0].getJdbc()));
+		} catch (RuntimeException e) {
+			failure = e;
+		}
+		for (CompletableFuture<T> f : running) {
+			try {
+				results.add(f.join());
+			} catch (CompletionException ex) {
+				RuntimeException cause = ex.getCause() instanceof RuntimeException ? (RuntimeException) ex.getCause()
+						: new RuntimeException(ex.getCause());
+				if (failure == null)
+					failure = cause;
+				else
+					failure.addSuppressed(cause);
+			}
+		}
+		if (failure != null)
+			throw failure;
+		return results;
+	}
+
+	@Override
+	public String toString() {
+		return "ShardRouter [" + meta.getEntityClass().getSimpleName() + " by " + key.getName() + ", " + function + ", "
+				+ shards.length + " shards]";
+	}
+}
@@ -0,0 +1,72 @@
+package orm;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Function;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import realdb.GhettoJdbcBlackBox;
+
+// a Stream<T> / Iterator<T> @Select of a sharded entity without its shard key: the rows of every
+// shard, one shard after the other. the cursor of a shard is opened when the one before it runs
+// out, so the iterator holds one connection at a time; close it (or run it to the end) to give
+// that one back
+final class ShardedIterator<T> implements Iterator<T>, AutoCloseable {
+
+	private final ShardRouter shards;
+	private final Function<GhettoJdbcBlackBox, Iterator<T>> open;
+
+	private int next;
+	private Iterator<T> current;
+	private boolean closed;
+
+	// open is a cursor-backed CursorIterator or ColumnBatch.Chunks on the shard it is given
+	ShardedIterator(ShardRouter shards, Function<GhettoJdbcBlackBox, Iterator<T>> open) {
+		this.shards = shards;
+		this.open = open;
+	}
+
+	@Override
+	public boolean hasNext() {
+		while (!closed && (current == null || !current.hasNext())) {
+			closeCurrent();
+			if (next == shards.size())
+				return false;
+			current = open.apply(shards.getShard(next++).getJdbc());
+		}
+		return !closed;
+	}
+
+	@Override
+	public T next() {
+		if (!hasNext())
+			throw new NoSuchElementException();
+		return current.next();
+	}
+
+	@Override
+	public void close() {
+		closed = true;
+		closeCurrent();
+	}
+
+	private void closeCurrent() {
+		if (current instanceof AutoCloseable) {
+			try {
+				((AutoCloseable) current).close();
+			} catch (Exception e) {
+				throw new RuntimeException(e);
+			}
+		}
+		current = null;
+	}
+
+	// a sequential stream whose close() closes the open cursor
+	Stream<T> stream() {
+		Spliterator<T> split = Spliterators.spliteratorUnknownSize(this, Spliterator.ORDERED | Spliterator.NONNULL);
+		return StreamSupport.stream(split, false).onClose(this::close);
+	}
+}
@@ -0,0 +1,59 @@
+package orm;
+
+import java.util.Iterator;
+import java.util.List;
+
+// one page of a paged @Select, without a total count
+public class Slice<T> implements Iterable<T> {
+
+	private final List<T> content;
+	private final PageRequest request;
+	private final PageRequest next;
+
+	Slice(List<T> content, PageRequest request, PageRequest next) {
+		this.content = content;
+		this.request = request;
+		this.next = next;
+	}
+
+	public List<T> getContent() {
+		return content;
+	}
+
+	public int getNumberOfElements() {
+		return content.size();
+	}
+
+	// 0 based
+	public int getNumber() {
+		return request.getPage();
+	}
+
+	public int getSize() {
+		return request.getSize();
+	}
+
+	public PageRequest getRequest() {
+		return request;
+	}
+
+	public boolean hasNext() {
+		return next != null;
+	}
+
+	// pass this to the same method for the following page, null on the last page
+	public PageRequest nextPageRequest() {
+		return next;
+	}
+
+	@Override
+	public Iterator<T> iterator() {
+		return content.iterator();
+	}
+
+	@Override
+	public String toString() {
+		return getClass().getSimpleName() + " [number=" + getNumber() + ", size=" + getSize() + ", hasNext="
+				+ hasNext() + ", content=" + content + "]";
+	}
+}
@@ -0,0 +1,72 @@
+package orm;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+// the dirty checking snapshots of entities loaded and saved through orm.getMapper() mappers,
+// one table per @Entity(dirtyChecking = true) entity
+//
+// a fixed number of slots picked by primary key, each holding one entity and its row. there is
+// no locking and nothing to clean up: an entity whose slot was taken by another one (a row loaded
+// again takes its own slot) simply has no snapshot any more and its next save is a full UPDATE, as
+// without dirty checking. a slot keeps
+// its entity reachable until another entity takes it, so at most SLOTS entities per type stay
+// alive longer than they otherwise would
+//
+// loads keep the result row as it came from the database, it only becomes a toRow() snapshot
+// when the entity is saved
+final class SnapshotTable {
+
+	static final int SLOTS = 1024;
+
+	// mapping is null for a row that already is a toRow()
+	private static final class Entry {
+		final Object entity;
+		final ColumnMetadata[] mapping;
+		final Object[] row;
+
+		Entry(Object entity, ColumnMetadata[] mapping, Object[] row) {
+			this.entity = entity;
+			this.mapping = mapping;
+			this.row = row;
+		}
+	}
+
+	private final EntityMetadata meta;
+	private final AtomicReferenceArray<Entry> slots = new AtomicReferenceArray<>(SLOTS);
+
+	SnapshotTable(EntityMetadata meta) {
+		this.meta = meta;
+	}
+
+	// cheaper than an identity hash, which the JVM would have to create for every loaded entity
+	private int slotOf(Object entity) {
+		Object pkValue = meta.getIdColumn().get(entity);
+		int h = pkValue == null ? 0 : EntityWriter.cacheKey(pkValue).hashCode();
+		return (h ^ (h >>> 16)) & (SLOTS - 1);
+	}
+
+	// toRow() as last put for exactly this object, null if there is none
+	Object[] get(Object entity) {
+		Entry e = slots.get(slotOf(entity));
+		if (e == null || e.entity != entity)
+			return null;
+		return e.mapping == null ? e.row : meta.toRow(e.mapping, e.row);
+	}
+
+	void put(Object entity, Object[] row) {
+		slots.lazySet(slotOf(entity), new Entry(entity, null, row));
+	}
+
+	// a row the entity was hydrated from with this header mapping
+	void put(Object entity, ColumnMetadata[] mapping, Object[] row) {
+		slots.lazySet(slotOf(entity), new Entry(entity, mapping, row));
+	}
+
+	// leaves the slot alone when another entity has taken it meanwhile
+	void remove(Object entity) {
+		int slot = slotOf(entity);
+		Entry e = slots.get(slot);
+		if (e != null && e.entity == entity)
+			slots.compareAndSet(slot, e, null);
+	}
+}
@@ -0,0 +1,728 @@
+package orm;
+
+import java.io.BufferedReader;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+
+import realdb.GhettoJdbcBlackBox;
+import realdb.RowCursor;
+
+// MyORM.exportTable / importTable: a whole table to or from a file, without creating any entity
+//
+// an export reads one forward-only cursor and writes through a 64 KiB buffer to a FileChannel,
+// an import reads the file the same way and inserts MyORM.getBatchSize() rows per JDBC batch, so
+// memory stays at one buffer and one batch whatever the size of the table. the id column travels
+// with the other @Columns, imported rows keep their keys
+//
+// BINARY: "GORMTBL1", the column count, the name and Codec of every column, then per row a null
+// bitmap followed by the values of the non-null columns. big-endian ints, longs, floats and doubles,
+// one byte per boolean, int length + bytes for strings, decimals and byte[], epoch seconds + nanos
+// for timestamps, epoch days for dates and nanos of the day for times
+//
+// CSV: a header line of column names, then one line per row. an empty field is null, "" is the
+// empty string, byte[] columns are Base64. the values are parsed by the entity's field types
+class TableTransfer {
+
+	private static final byte[] MAGIC = "GORMTBL1".getBytes(StandardCharsets.US_ASCII);
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	// how a column travels, picked from the entity field type
+	enum Codec {
+		INT, LONG, DOUBLE, FLOAT, BOOLEAN, STRING, DECIMAL, BYTES, TIMESTAMP, DATE, TIME;
+
+		static Codec of(Class<?> type) {
+			Class<?> t = EntityAccessors.wrap(type);
+			if (t == Integer.class || t == Short.class || t == Byte.class)
+				return INT;
+			if (t == Long.class)
+				return LONG;
+			if (t == Double.class)
+				return DOUBLE;
+			if (t == Float.class)
+				return FLOAT;
+			if (t == Boolean.class)
+				return BOOLEAN;
+			if (Number.class.isAssignableFrom(t))
+				return DECIMAL;
+			if (t == byte[].class)
+				return BYTES;
+			if (t == LocalDate.class || t == java.sql.Date.class)
+				return DATE;
+			if (t == LocalTime.class || t == java.sql.Time.class)
+				return TIME;
+			if (t == LocalDateTime.class || java.util.Date.class.isAssignableFrom(t))
+				return TIMESTAMP;
+			return STRING;
+		}
+
+		// current row of the cursor into slot c, primitives without boxing
+		void fetch(ResultSet rs, int index, Row row, int c) throws SQLException {
+			switch (this) {
+			case INT:
+				row.bits[c] = rs.getInt(index);
+				break;
+			case LONG:
+				row.bits[c] = rs.getLong(index);
+				break;
+			case DOUBLE:
+				row.bits[c] = Double.doubleToRawLongBits(rs.getDouble(index));
+				break;
+			case FLOAT:
+				row.bits[c] = Float.floatToRawIntBits((float) rs.getDouble(index));
+				break;
+			case STRING:
+				row.objects[c] = rs.getString(index);
+				break;
+			default:
+				row.objects[c] = normalize(rs.getObject(index));
+			}
+			row.nulls[c] = rs.wasNull();
+		}
+
+		// what the database driver hands back, as the one type the codec writes
+		private Object normalize(Object value) {
+			if (value == null)
+				return null;
+			switch (this) {
+			case BOOLEAN:
+				return value instanceof Boolean ? value : ((Number) value).intValue() != 0;
+			case DECIMAL:
+				return value instanceof BigDecimal ? ((BigDecimal) value).toPlainString() : value.toString();
+			case BYTES:
+				if (!(value instanceof byte[]))
+					throw new RuntimeException("Expected byte[] but the database returned " + value.getClass().getName());
+				return value;
+			case TIMESTAMP:
+				if (value instanceof LocalDateTime)
+					return Timestamp.valueOf((LocalDateTime) value);
+				return value instanceof Timestamp ? value : new Timestamp(((java.util.Date) value).getTime());
+			case DATE:
+				return value instanceof java.sql.Date ? ((java.sql.Date) value).toLocalDate() : value;
+			case TIME:
+				return value instanceof java.sql.Time ? ((java.sql.Time) value).toLocalTime() : value;
+			default:
+				return value;
+			}
+		}
+
+		void write(Row row, int c, BinaryOut out) throws IOException {
+			switch (this) {
+			case INT:
+				out.putInt((int) row.bits[c]);
+				break;
+			case LONG:
+			case DOUBLE:
+				out.putLong(row.bits[c]);
+				break;
+			case FLOAT:
+				out.putInt((int) row.bits[c]);
+				break;
+			case BOOLEAN:
+				out.putByte((Boolean) row.objects[c] ? 1 : 0);
+				break;
+			case STRING:
+			case DECIMAL:
+				out.putBytes(((String) row.objects[c]).getBytes(StandardCharsets.UTF_8));
+				break;
+			case BYTES:
+				out.putBytes((byte[]) row.objects[c]);
+				break;
+			case TIMESTAMP:
+				Timestamp ts = (Timestamp) row.objects[c];
+				out.putLong(Math.floorDiv(ts.getTime(), 1000));
+				out.putInt(ts.getNanos());
+				break;
+			case DATE:
+				out.putLong(((LocalDate) row.objects[c]).toEpochDay());
+				break;
+			case TIME:
+				out.putLong(((LocalTime) row.objects[c]).toNanoOfDay());
+				break;
+			}
+		}
+
+		// the value as it is bound to the INSERT
+		Object read(BinaryIn in) throws IOException {
+			switch (this) {
+			case INT:
+				return in.getInt();
+			case LONG:
+				return in.getLong();
+			case DOUBLE:
+				return Double.longBitsToDouble(in.getLong());
+			case FLOAT:
+				return Float.intBitsToFloat(in.getInt());
+			case BOOLEAN:
+				return in.getByte() != 0;
+			case STRING:
+				return new String(in.getBytes(), StandardCharsets.UTF_8);
+			case DECIMAL:
+				return new BigDecimal(new String(in.getBytes(), StandardCharsets.UTF_8));
+			case BYTES:
+				return in.getBytes();
+			case TIMESTAMP:
+				Timestamp ts = new Timestamp(in.getLong() * 1000);
+				ts.setNanos(in.getInt());
+				return ts;
+			case DATE:
+				return LocalDate.ofEpochDay(in.getLong());
+			default:
+				return LocalTime.ofNanoOfDay(in.getLong());
+			}
+		}
+
+		void format(Row row, int c, StringBuilder sb) {
+			switch (this) {
+			case INT:
+			case LONG:
+				sb.append(row.bits[c]);
+				break;
+			case DOUBLE:
+				sb.append(Double.longBitsToDouble(row.bits[c]));
+				break;
+			case FLOAT:
+				sb.append(Float.intBitsToFloat((int) row.bits[c]));
+				break;
+			case STRING:
+				appendQuoted((String) row.objects[c], sb);
+				break;
+			case BYTES:
+				sb.append(Base64.getEncoder().encodeToString((byte[]) row.objects[c]));
+				break;
+			default:
+				sb.append(row.objects[c]);
+			}
+		}
+
+		Object parse(String text) {
+			switch (this) {
+			case INT:
+				return Integer.valueOf(text.trim());
+			case LONG:
+				return Long.valueOf(text.trim());
+			case DOUBLE:
+				return Double.valueOf(text.trim());
+			case FLOAT:
+				return Float.valueOf(text.trim());
+			case BOOLEAN:
+				return text.trim().equalsIgnoreCase("true") || text.trim().equals("1");
+			case DECIMAL:
+				return new BigDecimal(text.trim());
+			case BYTES:
+				return Base64.getDecoder().decode(text.trim());
+			case TIMESTAMP:
+				return Timestamp.valueOf(text.trim());
+			case DATE:
+				return LocalDate.parse(text.trim());
+			case TIME:
+				return LocalTime.parse(text.trim());
+			default:
+				return text;
+			}
+		}
+	}
+
+	// one exported row, reused for every row of the cursor
+	private static final class Row {
+		final long[] bits;
+		final Object[] objects;
+		final boolean[] nulls;
+
+		Row(int columns) {
+			bits = new long[columns];
+			objects = new Object[columns];
+			nulls = new boolean[columns];
+		}
+	}
+
+	private final MyORM orm;
+	private final GhettoJdbcBlackBox jdbc;
+
+	TableTransfer(MyORM orm) {
+		this.orm = orm;
+		this.jdbc = orm.getJdbc();
+	}
+
+	// number of rows written
+	long exportTable(EntityMetadata meta, Path file, TransferFormat format) {
+		List<ColumnMetadata> columns = meta.getColumns();
+		String[] names = new String[columns.size()];
+		Codec[] codecs = new Codec[names.length];
+		for (int i = 0; i < names.length; i++) {
+			names[i] = columns.get(i).getName();
+			codecs[i] = Codec.of(columns.get(i).getJavaType());
+		}
+
+		String sql = "SELECT " + String.join(", ", names) + " FROM " + meta.getTableName();
+		long count = 0;
+
+		// a full scan is exactly the read a replica is for, a sharded table is read one shard after the other
+		List<GhettoJdbcBlackBox> readers = new ArrayList<>();
+		ShardRouter shards = orm.getShardRouter(meta);
+		for (int i = 0; shards != null && i < shards.size(); i++)
+			readers.add(shards.getShard(i).getJdbc());
+		if (shards == null)
+			readers.add(orm.getReadNode(false).getJdbc());
+
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING)) {
+			Row row = new Row(names.length);
+
+			if (format == TransferFormat.BINARY) {
+				BinaryOut out = new BinaryOut(channel);
+				out.writeHeader(names, codecs);
+				byte[] bitmap = new byte[(names.length + 7) / 8];
+
+				for (GhettoJdbcBlackBox reader : readers) {
+					try (RowCursor cursor = reader.openCursor(sql, new Object[0], 0)) {
+						ResultSet rs = cursor.getResultSet();
+						while (cursor.advance()) {
+							fetch(rs, codecs, row);
+							Arrays.fill(bitmap, (byte) 0);
+							for (int c = 0; c < codecs.length; c++)
+								if (row.nulls[c])
+									bitmap[c >> 3] |= 1 << (c & 7);
+							out.putRaw(bitmap);
+							for (int c = 0; c < codecs.length; c++)
+								if (!row.nulls[c])
+									codecs[c].write(row, c, out);
+							count++;
+						}
+					}
+				}
+				out.flush();
+			} else {
+				Writer out = Channels.newWriter(channel, StandardCharsets.UTF_8.newEncoder(), BUFFER_SIZE);
+				StringBuilder line = new StringBuilder(256);
+				for (int c = 0; c < names.length; c++)
+					appendQuoted(names[c], line.append(c == 0 ? "" : ","));
+				out.append(line).append("\r\n");
+
+				for (GhettoJdbcBlackBox reader : readers) {
+					try (RowCursor cursor = reader.openCursor(sql, new Object[0], 0)) {
+						ResultSet rs = cursor.getResultSet();
+						while (cursor.advance()) {
+							fetch(rs, codecs, row);
+							line.setLength(0);
+							for (int c = 0; c < codecs.length; c++) {
+								if (c > 0)
+									line.append(',');
+								if (!row.nulls[c])
+									codecs[c].format(row, c, line);
+							}
+							out.append(line).append("\r\n");
+							count++;
+						}
+					}
+				}
+				out.flush();
+			}
+		} catch (IOException | SQLException e) {
+			throw new RuntimeException("Export of " + meta.getTableName() + " to " + file + " failed", e);
+		}
+		return count;
+	}
+
+	private static void fetch(ResultSet rs, Codec[] codecs, Row row) throws SQLException {
+		for (int c = 0; c < codecs.length; c++)
+			codecs[c].fetch(rs, c + 1, row, c);
+	}
+
+	// number of rows inserted. the table keeps its rows, a failed import leaves the batches sent so far
+	long importTable(EntityMetadata meta, Path file, TransferFormat format) {
+		long count = 0;
+
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			RowSource source = format == TransferFormat.BINARY ? new BinaryIn(channel) : new CsvIn(channel, meta);
+
+			String[] names = source.columnNames();
+			for (int i = 0; i < names.length; i++) {
+				ColumnMetadata column = column(meta, names[i]);
+				if (column == null)
+					throw new RuntimeException(file + " has a column " + names[i] + " that "
+							+ meta.getEntityClass().getSimpleName() + " does not map");
+				names[i] = column.getName();
+			}
+
+			StringBuilder sql = new StringBuilder("INSERT INTO ").append(meta.getTableName()).append(" (")
+					.append(String.join(", ", names)).append(") VALUES (");
+			for (int i = 0; i < names.length; i++)
+				sql.append(i == 0 ? "?" : ", ?");
+			String insert = sql.append(")").toString();
+
+			// rows of a sharded table go to the shard of their shard key, in batches per shard
+			ShardRouter shards = orm.getShardRouter(meta);
+			int keyIndex = shards == null ? -1 : Arrays.asList(names).indexOf(meta.getShardKey().getName());
+			if (shards != null && keyIndex < 0)
+				throw new RuntimeException(file + " has no column " + meta.getShardKey().getName() + " to shard "
+						+ meta.getEntityClass().getSimpleName() + " rows by");
+
+			int batchSize = orm.getBatchSize();
+			List<List<Object[]>> batches = new ArrayList<>();
+			for (int i = 0; i < (shards == null ? 1 : shards.size()); i++)
+				batches.add(new ArrayList<>());
+
+			Object[] values;
+			while ((values = source.next()) != null) {
+				int shard = shards == null ? 0 : shards.shardOf(values[keyIndex]);
+				List<Object[]> batch = batches.get(shard);
+				batch.add(values);
+				if (batch.size() == batchSize) {
+					writerOf(shards, shard).runBatch(insert, batch, false);
+					count += batch.size();
+					batch.clear();
+				}
+			}
+			for (int i = 0; i < batches.size(); i++) {
+				List<Object[]> batch = batches.get(i);
+				if (!batch.isEmpty()) {
+					writerOf(shards, i).runBatch(insert, batch, false);
+					count += batch.size();
+				}
+			}
+		} catch (IOException e) {
+			throw new RuntimeException("Import of " + file + " into " + meta.getTableName() + " failed after " + count
+					+ " rows", e);
+		} finally {
+			// cached reads of the table may miss the new rows
+			orm.invalidateQueryCaches(meta);
+			LruCache<Object, Object[]> cache = orm.getEntityCache(meta);
+			if (cache != null)
+				cache.clear();
+		}
+		return count;
+	}
+
+	private GhettoJdbcBlackBox writerOf(ShardRouter shards, int shard) {
+		return shards == null ? jdbc : orm.getWriteJdbc(shards.getShard(shard));
+	}
+
+	// file headers written by hand or by another database may differ in case
+	private static ColumnMetadata column(EntityMetadata meta, String name) {
+		ColumnMetadata column = meta.getColumn(name);
+		for (int i = 0; column == null && i < meta.getColumns().size(); i++)
+			if (meta.getColumns().get(i).getName().equalsIgnoreCase(name))
+				column = meta.getColumns().get(i);
+		return column;
+	}
+
+	private static void appendQuoted(String s, StringBuilder sb) {
+		boolean quote = s.isEmpty();
+		for (int i = 0; i < s.length() && !quote; i++) {
+			char ch = s.charAt(i);
+			quote = ch == ',' || ch == '"' || ch == '\n' || ch == '\r';
+		}
+		if (!quote) {
+			sb.append(s);
+			return;
+		}
+		sb.append('"');
+		for (int i = 0; i < s.length(); i++) {
+			char ch = s.charAt(i);
+			sb.append(ch);
+			if (ch == '"')
+				sb.append('"');
+		}
+		sb.append('"');
+	}
+
+	// the rows of an import file
+	private interface RowSource {
+		String[] columnNames() throws IOException;
+
+		// insert values in columnNames() order, null at the end of the file
+		Object[] next() throws IOException;
+	}
+
+	// a direct buffer in front of the channel, drained whenever the next value does not fit
+	private static final class BinaryOut {
+		private final FileChannel channel;
+		private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+		BinaryOut(FileChannel channel) {
+			this.channel = channel;
+		}
+
+		void writeHeader(String[] names, Codec[] codecs) throws IOException {
+			putRaw(MAGIC);
+			putInt(names.length);
+			for (int i = 0; i < names.length; i++) {
+				putBytes(names[i].getBytes(StandardCharsets.UTF_8));
+				putByte(codecs[i].ordinal());
+			}
+		}
+
+		private void ensure(int bytes) throws IOException {
+			if (buffer.remaining() < bytes)
+				drain();
+		}
+
+		private void drain() throws IOException {
+			buffer.flip();
+			while (buffer.hasRemaining())
+				channel.write(buffer);
+			buffer.clear();
+		}
+
+		void putByte(int b) throws IOException {
+			ensure(1);
+			buffer.put((byte) b);
+		}
+
+		void putInt(int v) throws IOException {
+			ensure(4);
+			buffer.putInt(v);
+		}
+
+		void putLong(long v) throws IOException {
+			ensure(8);
+			buffer.putLong(v);
+		}
+
+		void putBytes(byte[] bytes) throws IOException {
+			putInt(bytes.length);
+			putRaw(bytes);
+		}
+
+		// values larger than the buffer go straight to the channel
+		void putRaw(byte[] bytes) throws IOException {
+			if (bytes.length <= buffer.capacity()) {
+				ensure(bytes.length);
+				buffer.put(bytes);
+				return;
+			}
+			drain();
+			ByteBuffer wrapped = ByteBuffer.wrap(bytes);
+			while (wrapped.hasRemaining())
+				channel.write(wrapped);
+		}
+
+		void flush() throws IOException {
+			drain();
+		}
+	}
+
+	private static final class BinaryIn implements RowSource {
+		private final FileChannel channel;
+		private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+		private Codec[] codecs;
+		private byte[] bitmap;
+
+		BinaryIn(FileChannel channel) {
+			this.channel = channel;
+			buffer.flip();
+		}
+
+		@Override
+		public String[] columnNames() throws IOException {
+			byte[] magic = new byte[MAGIC.length];
+			if (!fill(magic.length))
+				throw new RuntimeException("Not a table export, the file is too short");
+			buffer.get(magic);
+			if (!Arrays.equals(magic, MAGIC))
+				throw new RuntimeException("Not a table export, use TransferFormat.CSV for CSV files");
+
+			int count = getInt();
+			String[] names = new String[count];
+			codecs = new Codec[count];
+			Codec[] all = Codec.values();
+			for (int i = 0; i < count; i++) {
+				names[i] = new String(getBytes(), StandardCharsets.UTF_8);
+				int codec = getByte();
+				if (codec < 0 || codec >= all.length)
+					throw new RuntimeException("Unknown value codec " + codec + " of column " + names[i]);
+				codecs[i] = all[codec];
+			}
+			bitmap = new byte[(count + 7) / 8];
+			return names;
+		}
+
+		@Override
+		public Object[] next() throws IOException {
+			if (!fill(1))
+				return null;
+			require(bitmap.length);
+			buffer.get(bitmap);
+
+			Object[] values = new Object[codecs.length];
+			for (int c = 0; c < codecs.length; c++)
+				if ((bitmap[c >> 3] & (1 << (c & 7))) == 0)
+					values[c] = codecs[c].read(this);
+			return values;
+		}
+
+		// false when the file ends first
+		private boolean fill(int bytes) throws IOException {
+			if (buffer.remaining() >= bytes)
+				return true;
+			buffer.compact();
+			try {
+				while (buffer.position() < bytes)
+					if (channel.read(buffer) < 0)
+						return false;
+			} finally {
+				buffer.flip();
+			}
+			return true;
+		}
+
+		private void require(int bytes) throws IOException {
+			if (!fill(bytes))
+				throw new EOFException("The export file ends in the middle of a row");
+		}
+
+		int getByte() throws IOException {
+			require(1);
+			return buffer.get();
+		}
+
+		int getInt() throws IOException {
+			require(4);
+			return buffer.getInt();
+		}
+
+		long getLong() throws IOException {
+			require(8);
+			return buffer.getLong();
+		}
+
+		byte[] getBytes() throws IOException {
+			int length = getInt();
+			if (length < 0)
+				throw new RuntimeException("Corrupt export file, negative length " + length);
+			byte[] bytes = new byte[length];
+			int done = Math.min(length, buffer.remaining());
+			buffer.get(bytes, 0, done);
+
+			// the rest of a value larger than the buffer is read around it
+			ByteBuffer rest = ByteBuffer.wrap(bytes, done, length - done);
+			while (rest.hasRemaining())
+				if (channel.read(rest) < 0)
+					throw new EOFException("The export file ends in the middle of a value");
+			return bytes;
+		}
+	}
+
+	private static final class CsvIn implements RowSource {
+		private final BufferedReader in;
+		private final EntityMetadata meta;
+		private final StringBuilder field = new StringBuilder();
+		private Codec[] codecs;
+		private long line = 1;
+
+		CsvIn(FileChannel channel, EntityMetadata meta) {
+			Reader reader = Channels.newReader(channel, StandardCharsets.UTF_8.newDecoder(), BUFFER_SIZE);
+			this.in = new BufferedReader(reader, BUFFER_SIZE);
+			this.meta = meta;
+		}
+
+		@Override
+		public String[] columnNames() throws IOException {
+			in.mark(1);
+			if (in.read() != '\uFEFF')
+				in.reset();
+
+			List<String> header = nextRecord();
+			if (header == null)
+				throw new RuntimeException("The CSV file is empty, it needs at least a header line");
+
+			String[] names = header.toArray(new String[0]);
+			codecs = new Codec[names.length];
+			for (int i = 0; i < names.length; i++) {
+				ColumnMetadata column = names[i] == null ? null : column(meta, names[i].trim());
+				if (column == null)
+					throw new RuntimeException("CSV column " + names[i] + " is not mapped by "
+							+ meta.getEntityClass().getSimpleName());
+				names[i] = column.getName();
+				codecs[i] = Codec.of(column.getJavaType());
+			}
+			return names;
+		}
+
+		@Override
+		public Object[] next() throws IOException {
+			List<String> fields = nextRecord();
+			if (fields == null)
+				return null;
+			if (fields.size() != codecs.length)
+				throw new RuntimeException("CSV line " + (line - 1) + " has " + fields.size() + " fields instead of "
+						+ codecs.length);
+
+			Object[] values = new Object[codecs.length];
+			for (int c = 0; c < codecs.length; c++) {
+				String text = fields.get(c);
+				try {
+					values[c] = text == null ? null : codecs[c].parse(text);
+				} catch (RuntimeException e) {
+					throw new RuntimeException("CSV line " + (line - 1) + ": bad value '" + text + "'", e);
+				}
+			}
+			return values;
+		}
+
+		// the fields of the next record, an unquoted empty field as null. null at the end of the file
+		private List<String> nextRecord() throws IOException {
+			int c = in.read();
+			if (c == -1)
+				return null;
+
+			List<String> fields = new ArrayList<>();
+			while (true) {
+				field.setLength(0);
+				if (c == '"') {
+					while (true) {
+						c = in.read();
+						if (c == -1)
+							throw new RuntimeException("CSV line " + line + " ends inside a quoted field");
+						if (c == '"' && (c = in.read()) != '"')
+							break;
+						if (c == '\n')
+							line++;
+						field.append((char) c);
+					}
+					fields.add(field.toString());
+				} else {
+					while (c != ',' && c != '\n' && c != '\r' && c != -1) {
+						field.append((char) c);
+						c = in.read();
+					}
+					fields.add(field.length() == 0 ? null : field.toString());
+				}
+
+				if (c == ',') {
+					c = in.read();
+					continue;
+				}
+				if (c == '\r') {
+					in.mark(1);
+					if (in.read() != '\n')
+						in.reset();
+				} else if (c != '\n' && c != -1) {
+					throw new RuntimeException("CSV line " + line + ": unexpected '" + (char) c + "' after a quoted field");
+				}
+				line++;
+				return fields;
+			}
+		}
+	}
+}
@@ -0,0 +1,109 @@
+package orm;
+
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+// the transaction MyORM.inTransaction() runs its work in
+//
+//   orm.inTransaction(tx -> {
+//       studentMapper.save(student);
+//       subjectMapper.save(subject);
+//   });
+//
+//   int moved = orm.inTransactionResult(Isolation.SERIALIZABLE, tx -> { ... return n; });
+//
+// every mapper call of the thread runs on one pooled connection with autocommit off until the work
+// returns, session flushes and CompletableFuture methods included: one COMMIT for all the writes,
+// or a ROLLBACK when the work throws or calls setRollbackOnly(). an inTransaction() inside the
+// work joins the open transaction, a failure in it rolls back the whole transaction: when the outer
+// work catches that failure and returns anyway, the rollback is reported by an
+// UnexpectedRollbackException instead of passing for a commit.
+//
+// writes to the shards of sharded entities (MyORM.addShard()) join the transaction with one
+// transaction per shard, committed one after the other right before the primary's. that is not
+// atomic: a failed commit rolls back the shards after it and the primary, while the shards before
+// it stay committed, nothing undoes them.
+//
+// reads inside the transaction skip the entity and query caches, which only ever hold committed
+// rows. the cache entries its writes dropped are dropped again after the commit, since a reader
+// outside the transaction may have cached the old row in between
+public final class Transaction {
+
+	public interface Work {
+		void run(Transaction tx) throws Exception;
+	}
+
+	public interface ResultWork<T> {
+		T run(Transaction tx) throws Exception;
+	}
+
+	private final Isolation isolation;
+	private boolean rollbackOnly;
+	// the first failure of nested work, the reason for rollbackOnly when the work itself did not ask
+	private Throwable nestedFailure;
+
+	// replayed by afterCommit()
+	private final Map<EntityMetadata, Set<Object>> evicted = new LinkedHashMap<>();
+	private final Set<EntityMetadata> invalidated = new LinkedHashSet<>();
+
+	Transaction(Isolation isolation) {
+		this.isolation = isolation;
+	}
+
+	public Isolation getIsolation() {
+		return isolation;
+	}
+
+	// the transaction rolls back when the work returns, without an exception
+	public void setRollbackOnly() {
+		rollbackOnly = true;
+	}
+
+	public boolean isRollbackOnly() {
+		return rollbackOnly;
+	}
+
+	// a nested inTransaction() failed with e, the transaction cannot commit any more
+	void nestedFailed(Throwable e) {
+		rollbackOnly = true;
+		if (nestedFailure == null)
+			nestedFailure = e;
+	}
+
+	Throwable getNestedFailure() {
+		return nestedFailure;
+	}
+
+	// a nested inTransaction() runs in this transaction, it cannot ask for another level
+	void join(Isolation requested) {
+		if (requested != Isolation.DEFAULT && requested != isolation)
+			throw new RuntimeException("Cannot run " + requested + " work inside a " + isolation + " transaction");
+	}
+
+	void evicted(EntityMetadata meta, Object cacheKey) {
+		evicted.computeIfAbsent(meta, m -> new HashSet<>()).add(cacheKey);
+	}
+
+	void invalidated(EntityMetadata meta) {
+		invalidated.add(meta);
+	}
+
+	void afterCommit(MyORM orm) {
+		for (Map.Entry<EntityMetadata, Set<Object>> e : evicted.entrySet()) {
+			LruCache<Object, Object[]> cache = orm.getEntityCache(e.getKey());
+			if (cache != null)
+				for (Object key : e.getValue())
+					cache.invalidate(key);
+		}
+		for (EntityMetadata meta : invalidated)
+			orm.invalidateQueryCaches(meta);
+	}
+
+	@Override
+	public String toString() {
+		return "Transaction [isolation=" + isolation + ", rollbackOnly=" + rollbackOnly + "]";
+	}
+}
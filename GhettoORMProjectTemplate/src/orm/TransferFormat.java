@@ -0,0 +1,20 @@
+package orm;
+
+import java.nio.file.Path;
+import java.util.Locale;
+
+// file formats of MyORM.exportTable / importTable
+public enum TransferFormat {
+
+	// the compact one: a header, then per row a null bitmap and the values in binary
+	BINARY,
+
+	// RFC 4180, a header line of column names, for spreadsheets and other databases
+	CSV;
+
+	// CSV for *.csv, BINARY for everything else
+	public static TransferFormat forFile(Path file) {
+		Path name = file.getFileName();
+		return name != null && name.toString().toLowerCase(Locale.ROOT).endsWith(".csv") ? CSV : BINARY;
+	}
+}
@@ -0,0 +1,12 @@
+package orm;
+
+// MyORM.inTransaction() rolled back although its work returned normally: nested work failed and
+// the outer work caught the exception. the cause is that failure
+public class UnexpectedRollbackException extends RuntimeException {
+
+	private static final long serialVersionUID = 1L;
+
+	public UnexpectedRollbackException(String message, Throwable cause) {
+		super(message, cause);
+	}
+}
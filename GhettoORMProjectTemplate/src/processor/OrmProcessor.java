@@ -0,0 +1,583 @@
+package processor;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.ExecutableType;
+import javax.lang.model.type.PrimitiveType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic;
+
+// the compile-time half of MyORM: reads @MappedClass, @Entity, @Column, @Select and @Param and writes
+//
+//   dao/StudentMapperImpl.java      implements StudentMapper, every method hands its arguments to the
+//                                   orm.MapperOperation it resolved when created, no java.lang.reflect.Proxy
+//   entity/StudentAccessors.java    an orm.GeneratedEntity, getters / setters as switch statements
+//   dao/OrmIndex.java               lists both, MyORM.init() loads it instead of scanning the classpath
+//
+// binding parameters and mapping rows stay with orm.DaoInvocationHandler, which a generated method
+// calls with its arguments. a method writing its own setXxx / getXxx calls would have to repeat what
+// the handler does around them (replicas, entity and query caches, shards, sessions, dirty checking,
+// relationships) for every method of every mapper. the handler binds by the positions CompiledQuery
+// worked out once and fills entities through the generated accessors, so neither side reflects per call
+//
+// mistakes the runtime only reports on first use (a :param without its @Param, a mapper method
+// without an ORM annotation, an entity without exactly 1 id column) become compile errors here.
+//
+// the processor refers to the annotations by name only, so it is compiled on its own first:
+//
+//   javac -d build/processor src/processor/OrmProcessor.java
+//   cp -r src/META-INF build/processor/
+//   javac -processorpath build/processor -s .apt_generated -d bin -cp <jars> $(find src -name '*.java')
+//
+// OrmIndex lists what one compilation saw, so always compile the whole src folder together
+@SupportedAnnotationTypes({ OrmProcessor.MAPPED_CLASS, OrmProcessor.ENTITY })
+public class OrmProcessor extends AbstractProcessor {
+
+	static final String MAPPED_CLASS = "annotations.MappedClass";
+	static final String ENTITY = "annotations.Entity";
+	private static final String COLUMN = "annotations.Column";
+	private static final String MANY_TO_ONE = "annotations.ManyToOne";
+	private static final String ONE_TO_MANY = "annotations.OneToMany";
+	private static final String SELECT = "annotations.Select";
+	private static final String SAVE = "annotations.Save";
+	private static final String DELETE = "annotations.Delete";
+	private static final String CREATE_TABLE = "annotations.CreateTable";
+	private static final String PARAM = "annotations.Param";
+
+	private static final String INDEX_PACKAGE = "dao";
+	private static final String INDEX_CLASS = "OrmIndex";
+
+	// qualified interface / entity name -> generated class, sorted so the index is stable
+	private final Map<String, String> mappers = new TreeMap<>();
+	private final Map<String, String> entities = new TreeMap<>();
+	private final Set<String> seen = new HashSet<>();
+	private boolean indexWritten;
+
+	@Override
+	public SourceVersion getSupportedSourceVersion() {
+		return SourceVersion.latestSupported();
+	}
+
+	@Override
+	public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment round) {
+		if (round.processingOver() || indexWritten)
+			return false;
+
+		TypeElement mappedClass = processingEnv.getElementUtils().getTypeElement(MAPPED_CLASS);
+		TypeElement entity = processingEnv.getElementUtils().getTypeElement(ENTITY);
+		if (mappedClass == null || entity == null)
+			return false;
+
+		for (Element e : round.getElementsAnnotatedWith(entity))
+			if (e.getKind() == ElementKind.CLASS)
+				entity((TypeElement) e);
+
+		for (Element e : round.getElementsAnnotatedWith(mappedClass))
+			if (e.getKind() == ElementKind.INTERFACE)
+				mapper((TypeElement) e);
+
+		if (!round.errorRaised() && (!mappers.isEmpty() || !entities.isEmpty())) {
+			writeIndex();
+			indexWritten = true;
+		}
+		return false;
+	}
+
+	// --- mappers
+
+	private void mapper(TypeElement iface) {
+		if (!seen.add(iface.getQualifiedName().toString()))
+			return;
+		if (!iface.getTypeParameters().isEmpty()) {
+			error(iface, "Mapper " + iface.getSimpleName() + " must not have type parameters");
+			return;
+		}
+		if (!iface.getModifiers().contains(Modifier.PUBLIC) && !packageOf(iface).equals(INDEX_PACKAGE)) {
+			error(iface, "Mapper " + iface.getSimpleName() + " must be public to be listed in " + INDEX_PACKAGE + "."
+					+ INDEX_CLASS);
+			return;
+		}
+
+		TypeElement entity = mappedEntity(iface, iface);
+		if (entity == null)
+			return;
+		// mapped entities outside the entity package get accessors too
+		entity(entity);
+
+		DeclaredType type = (DeclaredType) iface.asType();
+		Map<String, ExecutableElement> methods = new LinkedHashMap<>();
+		Map<String, ExecutableType> signatures = new LinkedHashMap<>();
+		for (ExecutableElement m : ElementFilter.methodsIn(processingEnv.getElementUtils().getAllMembers(iface))) {
+			if (!m.getModifiers().contains(Modifier.ABSTRACT) || m.getEnclosingElement().getKind() != ElementKind.INTERFACE)
+				continue;
+
+			// BasicMapper<Student>.save(T) and StudentMapper.save(Student) are the same method
+			ExecutableType t = (ExecutableType) processingEnv.getTypeUtils().asMemberOf(type, m);
+			StringBuilder key = new StringBuilder(m.getSimpleName());
+			for (TypeMirror p : t.getParameterTypes())
+				key.append(',').append(processingEnv.getTypeUtils().erasure(p));
+
+			ExecutableElement known = methods.get(key.toString());
+			if (known == null || m.getEnclosingElement().equals(iface)) {
+				methods.put(key.toString(), m);
+				signatures.put(key.toString(), t);
+			}
+		}
+
+		boolean valid = true;
+		for (ExecutableElement m : methods.values())
+			valid &= checkMethod(iface, m);
+		if (!valid)
+			return;
+
+		String simpleName = generatedName(iface, "Impl");
+		String pkg = packageOf(iface);
+		String ifaceName = iface.getQualifiedName().toString();
+
+		try (PrintWriter out = new PrintWriter(processingEnv.getFiler()
+				.createSourceFile(qualified(pkg, simpleName), iface).openWriter())) {
+
+			if (!pkg.isEmpty())
+				out.println("package " + pkg + ";\n");
+			out.println("import java.lang.reflect.Method;\n");
+			out.println("import orm.DaoInvocationHandler;");
+			out.println("import orm.MapperOperation;\n");
+			out.println("// generated by " + OrmProcessor.class.getName() + " from " + ifaceName + ", do not edit");
+			out.println("@SuppressWarnings({ \"unchecked\", \"rawtypes\" })");
+			out.println("public final class " + simpleName + " implements " + ifaceName + " {\n");
+
+			int n = 0;
+			for (ExecutableElement m : methods.values()) {
+				out.print("\tprivate static final Method M" + n++ + " = method(\"" + m.getSimpleName() + "\"");
+				for (VariableElement p : m.getParameters())
+					out.print(", " + processingEnv.getTypeUtils().erasure(p.asType()) + ".class");
+				out.println(");");
+			}
+
+			// the operations are resolved once per mapper, a call goes straight to the handler's dispatch
+			out.println("\n\tprivate final DaoInvocationHandler handler;");
+			for (int i = 0; i < n; i++)
+				out.println("\tprivate final MapperOperation op" + i + ";");
+			out.println();
+			out.println("\tpublic " + simpleName + "(DaoInvocationHandler handler) {");
+			out.println("\t\tthis.handler = handler;");
+			for (int i = 0; i < n; i++)
+				out.println("\t\tthis.op" + i + " = handler.operation(M" + i + ");");
+			out.println("\t}");
+
+			n = 0;
+			for (Map.Entry<String, ExecutableElement> e : methods.entrySet())
+				writeMethod(out, e.getValue(), signatures.get(e.getKey()), n++);
+
+			out.println();
+			out.println("\tprivate static Method method(String name, Class<?>... parameterTypes) {");
+			out.println("\t\ttry {");
+			out.println("\t\t\treturn " + ifaceName + ".class.getMethod(name, parameterTypes);");
+			out.println("\t\t} catch (NoSuchMethodException e) {");
+			out.println("\t\t\tthrow new NoSuchMethodError(e.getMessage());");
+			out.println("\t\t}");
+			out.println("\t}");
+			out.println("}");
+		} catch (IOException e) {
+			error(iface, "Cannot write " + simpleName + ": " + e);
+			return;
+		}
+		mappers.put(ifaceName, qualified(pkg, simpleName));
+	}
+
+	private void writeMethod(PrintWriter out, ExecutableElement m, ExecutableType t, int n) {
+		TypeMirror returnType = t.getReturnType();
+
+		out.println();
+		out.println("\t@Override");
+		out.print("\tpublic " + returnType + " " + m.getSimpleName() + "(");
+		List<? extends VariableElement> params = m.getParameters();
+		for (int i = 0; i < params.size(); i++)
+			out.print((i == 0 ? "" : ", ") + t.getParameterTypes().get(i) + " " + params.get(i).getSimpleName());
+		out.print(")");
+		for (int i = 0; i < t.getThrownTypes().size(); i++)
+			out.print((i == 0 ? " throws " : ", ") + t.getThrownTypes().get(i));
+		out.println(" {");
+
+		StringBuilder call = new StringBuilder("handler.call(op").append(n).append(", ");
+		if (params.isEmpty()) {
+			// like a proxy, no-arg methods get a null argument array
+			call.append("null)");
+		} else {
+			call.append("new Object[] { ");
+			for (int i = 0; i < params.size(); i++)
+				call.append(i == 0 ? "" : ", ").append(params.get(i).getSimpleName());
+			call.append(" })");
+		}
+
+		if (returnType.getKind() == TypeKind.VOID)
+			out.println("\t\t" + call + ";");
+		else
+			out.println("\t\treturn (" + castType(returnType) + ") " + call + ";");
+		out.println("\t}");
+	}
+
+	// exactly one ORM annotation, and for @Select a @Param for every :name of the template
+	private boolean checkMethod(TypeElement iface, ExecutableElement m) {
+		String name = iface.getSimpleName() + "." + m.getSimpleName();
+		if (!m.getTypeParameters().isEmpty()) {
+			error(m, name + " must not have type parameters");
+			return false;
+		}
+
+		int kinds = 0;
+		for (String a : new String[] { SELECT, SAVE, DELETE, CREATE_TABLE })
+			if (annotation(m, a) != null)
+				kinds++;
+		if (kinds != 1) {
+			error(m, name + " needs exactly one of @Select, @Save, @Delete or @CreateTable");
+			return false;
+		}
+		if (annotation(m, MAPPED_CLASS) != null && mappedEntity(m, m) == null)
+			return false;
+
+		if ((annotation(m, SAVE) != null || annotation(m, DELETE) != null) && m.getParameters().size() != 1) {
+			error(m, name + " must take exactly one entity or collection of entities");
+			return false;
+		}
+		if (annotation(m, CREATE_TABLE) != null && !m.getParameters().isEmpty()) {
+			error(m, name + " must not take parameters");
+			return false;
+		}
+
+		AnnotationMirror select = annotation(m, SELECT);
+		if (select == null)
+			return true;
+
+		Set<String> params = new HashSet<>();
+		for (VariableElement p : m.getParameters()) {
+			AnnotationMirror param = annotation(p, PARAM);
+			if (param != null)
+				params.add((String) value(param, "value"));
+		}
+		for (String placeholder : placeholders((String) value(select, "value"))) {
+			if (!placeholder.equals("table") && !params.contains(placeholder)) {
+				error(m, "No @Param(\"" + placeholder + "\") on " + name + " for :" + placeholder);
+				return false;
+			}
+		}
+		return true;
+	}
+
+	// the :names of a template, outside quotes, the same way orm.CompiledQuery reads them
+	private static List<String> placeholders(String template) {
+		List<String> names = new ArrayList<>();
+		char quote = 0;
+		int i = 0;
+		while (i < template.length()) {
+			char ch = template.charAt(i);
+			if (quote != 0) {
+				if (ch == quote)
+					quote = 0;
+				i++;
+				continue;
+			}
+			if (ch == '\'' || ch == '"' || ch == '`') {
+				quote = ch;
+				i++;
+				continue;
+			}
+			if (ch != ':' || i + 1 >= template.length() || !Character.isJavaIdentifierStart(template.charAt(i + 1))) {
+				i++;
+				continue;
+			}
+			int end = i + 1;
+			while (end < template.length() && Character.isJavaIdentifierPart(template.charAt(end)))
+				end++;
+			names.add(template.substring(i + 1, end));
+			i = end;
+		}
+		return names;
+	}
+
+	// the @Entity class named by @MappedClass(clazz = ...) on element, null after reporting an error
+	private TypeElement mappedEntity(Element element, Element reportOn) {
+		Object clazz = value(annotation(element, MAPPED_CLASS), "clazz");
+		if (!(clazz instanceof DeclaredType)) {
+			error(reportOn, "@MappedClass(clazz = ...) of " + element.getSimpleName() + " is not a class");
+			return null;
+		}
+		TypeElement entity = (TypeElement) ((DeclaredType) clazz).asElement();
+		if (annotation(entity, ENTITY) == null) {
+			error(reportOn, "Entity class " + entity.getQualifiedName() + " missing @Entity");
+			return null;
+		}
+		return entity;
+	}
+
+	// --- entities
+
+	private void entity(TypeElement entity) {
+		if (!seen.add(entity.getQualifiedName().toString()))
+			return;
+		if (entity.getModifiers().contains(Modifier.PRIVATE) || (entity.getNestingKind() != NestingKind.TOP_LEVEL
+				&& !entity.getModifiers().contains(Modifier.STATIC))) {
+			error(entity, "Entity " + entity.getSimpleName() + " must be a top level or static nested class");
+			return;
+		}
+
+		List<VariableElement> fields = new ArrayList<>();
+		List<ExecutableElement> getters = new ArrayList<>();
+		List<ExecutableElement> setters = new ArrayList<>();
+		Set<Object> columnNames = new HashSet<>();
+		int idCount = 0;
+
+		for (VariableElement f : ElementFilter.fieldsIn(entity.getEnclosedElements())) {
+			AnnotationMirror column = annotation(f, COLUMN);
+			if (column != null && Boolean.TRUE.equals(value(column, "id")))
+				idCount++;
+			if (column != null)
+				columnNames.add(value(column, "name"));
+			AnnotationMirror manyToOne = annotation(f, MANY_TO_ONE);
+			if (manyToOne != null && value(manyToOne, "fetch").toString().equals("LAZY"))
+				error(f, "@ManyToOne field " + f.getSimpleName() + " cannot be LAZY, it holds the parent entity "
+						+ "itself and nothing could load it on access");
+			if (column == null && manyToOne == null && annotation(f, ONE_TO_MANY) == null)
+				continue;
+
+			ExecutableElement getter = accessor(entity, f, true);
+			ExecutableElement setter = accessor(entity, f, false);
+			if (getter != null && setter != null) {
+				fields.add(f);
+				getters.add(getter);
+				setters.add(setter);
+			}
+		}
+		if (idCount != 1) {
+			error(entity, "Entity " + entity.getSimpleName() + " must have exactly 1 ID Column.");
+			return;
+		}
+		Object shardKey = value(annotation(entity, ENTITY), "shardKey");
+		if (!"".equals(shardKey) && !columnNames.contains(shardKey)) {
+			error(entity, "Entity " + entity.getSimpleName() + " has no @Column " + shardKey + " to shard by");
+			return;
+		}
+
+		boolean constructor = false;
+		if (!entity.getModifiers().contains(Modifier.ABSTRACT)) {
+			for (ExecutableElement c : ElementFilter.constructorsIn(entity.getEnclosedElements()))
+				if (c.getParameters().isEmpty() && !c.getModifiers().contains(Modifier.PRIVATE))
+					constructor = true;
+		}
+
+		String simpleName = generatedName(entity, "Accessors");
+		String pkg = packageOf(entity);
+		String entityName = entity.getQualifiedName().toString();
+
+		try (PrintWriter out = new PrintWriter(processingEnv.getFiler()
+				.createSourceFile(qualified(pkg, simpleName), entity).openWriter())) {
+
+			if (!pkg.isEmpty())
+				out.println("package " + pkg + ";\n");
+			out.println("import orm.GeneratedEntity;\n");
+			out.println("// generated by " + OrmProcessor.class.getName() + " from " + entityName + ", do not edit");
+			out.println("@SuppressWarnings({ \"unchecked\", \"rawtypes\" })");
+			out.println("public final class " + simpleName + " implements GeneratedEntity {\n");
+
+			out.print("\tprivate static final String[] FIELDS = {");
+			for (int i = 0; i < fields.size(); i++)
+				out.print((i == 0 ? " \"" : ", \"") + fields.get(i).getSimpleName() + "\"");
+			out.println(" };\n");
+
+			out.println("\t@Override");
+			out.println("\tpublic Class<?> entityClass() {");
+			out.println("\t\treturn " + entityName + ".class;");
+			out.println("\t}\n");
+			out.println("\t@Override");
+			out.println("\tpublic String[] fields() {");
+			out.println("\t\treturn FIELDS.clone();");
+			out.println("\t}\n");
+			out.println("\t@Override");
+			out.println("\tpublic boolean hasConstructor() {");
+			out.println("\t\treturn " + constructor + ";");
+			out.println("\t}\n");
+			out.println("\t@Override");
+			out.println("\tpublic Object newInstance() {");
+			out.println(constructor ? "\t\treturn new " + entityName + "();"
+					: "\t\tthrow new UnsupportedOperationException(\"" + entityName + " has no no-arg constructor\");");
+			out.println("\t}\n");
+
+			out.println("\t@Override");
+			out.println("\tpublic Object get(Object o, int field) {");
+			out.println("\t\t" + entityName + " e = (" + entityName + ") o;");
+			out.println("\t\tswitch (field) {");
+			for (int i = 0; i < fields.size(); i++) {
+				out.println("\t\tcase " + i + ":");
+				out.println("\t\t\treturn e." + getters.get(i).getSimpleName() + "();");
+			}
+			out.println("\t\tdefault:");
+			out.println("\t\t\tthrow new IllegalArgumentException(\"No field \" + field + \" on " + entityName + "\");");
+			out.println("\t\t}");
+			out.println("\t}\n");
+
+			out.println("\t@Override");
+			out.println("\tpublic void set(Object o, int field, Object value) {");
+			out.println("\t\t" + entityName + " e = (" + entityName + ") o;");
+			out.println("\t\tswitch (field) {");
+			for (int i = 0; i < fields.size(); i++) {
+				out.println("\t\tcase " + i + ":");
+				out.println("\t\t\te." + setters.get(i).getSimpleName() + "((" + castType(fields.get(i).asType())
+						+ ") value);");
+				out.println("\t\t\treturn;");
+			}
+			out.println("\t\tdefault:");
+			out.println("\t\t\tthrow new IllegalArgumentException(\"No field \" + field + \" on " + entityName + "\");");
+			out.println("\t\t}");
+			out.println("\t}");
+			out.println("}");
+		} catch (IOException e) {
+			error(entity, "Cannot write " + simpleName + ": " + e);
+			return;
+		}
+		entities.put(entityName, qualified(pkg, simpleName));
+	}
+
+	// the JavaBean getX / isX or setX(type) of a field the generated class can call, null if none
+	private ExecutableElement accessor(TypeElement entity, VariableElement field, boolean getter) {
+		String property = field.getSimpleName().toString();
+		property = Character.toUpperCase(property.charAt(0)) + property.substring(1);
+		TypeMirror type = field.asType();
+		String name = getter ? (type.getKind() == TypeKind.BOOLEAN ? "is" : "get") + property : "set" + property;
+
+		for (ExecutableElement m : ElementFilter.methodsIn(processingEnv.getElementUtils().getAllMembers(entity))) {
+			if (!m.getSimpleName().contentEquals(name) || m.getModifiers().contains(Modifier.STATIC))
+				continue;
+			// the generated class sits in the entity's package, non-private methods of the entity itself are reachable
+			boolean reachable = m.getModifiers().contains(Modifier.PUBLIC)
+					|| (m.getEnclosingElement().equals(entity) && !m.getModifiers().contains(Modifier.PRIVATE));
+			if (!reachable)
+				continue;
+
+			if (getter && m.getParameters().isEmpty()
+					&& processingEnv.getTypeUtils().isSameType(m.getReturnType(), type))
+				return m;
+			if (!getter && m.getParameters().size() == 1
+					&& processingEnv.getTypeUtils().isSameType(m.getParameters().get(0).asType(), type))
+				return m;
+		}
+		return null;
+	}
+
+	// --- index
+
+	private void writeIndex() {
+		try (PrintWriter out = new PrintWriter(processingEnv.getFiler()
+				.createSourceFile(qualified(INDEX_PACKAGE, INDEX_CLASS)).openWriter())) {
+
+			out.println("package " + INDEX_PACKAGE + ";\n");
+			out.println("import java.util.Arrays;");
+			out.println("import java.util.Collections;");
+			out.println("import java.util.List;\n");
+			out.println("import orm.DaoInvocationHandler;");
+			out.println("import orm.GeneratedEntity;");
+			out.println("import orm.GeneratedIndex;\n");
+			out.println("// generated by " + OrmProcessor.class.getName() + ", do not edit");
+			out.println("public final class " + INDEX_CLASS + " implements GeneratedIndex {\n");
+
+			out.println("\tprivate static final List<Class<?>> MAPPERS = Collections.unmodifiableList(Arrays.<Class<?>> asList(");
+			int i = 0;
+			for (String mapper : mappers.keySet())
+				out.println("\t\t\t" + mapper + ".class" + (++i < mappers.size() ? "," : ""));
+			out.println("\t));\n");
+
+			out.println("\t@Override");
+			out.println("\tpublic List<Class<?>> mappers() {");
+			out.println("\t\treturn MAPPERS;");
+			out.println("\t}\n");
+
+			out.println("\t@Override");
+			out.println("\tpublic List<GeneratedEntity> entities() {");
+			out.println("\t\treturn Arrays.<GeneratedEntity> asList(");
+			i = 0;
+			for (String accessors : entities.values())
+				out.println("\t\t\t\tnew " + accessors + "()" + (++i < entities.size() ? "," : ""));
+			out.println("\t\t);");
+			out.println("\t}\n");
+
+			out.println("\t@Override");
+			out.println("\tpublic Object newMapper(Class<?> mapperInterface, DaoInvocationHandler handler) {");
+			for (Map.Entry<String, String> e : mappers.entrySet()) {
+				out.println("\t\tif (mapperInterface == " + e.getKey() + ".class)");
+				out.println("\t\t\treturn new " + e.getValue() + "(handler);");
+			}
+			out.println("\t\treturn null;");
+			out.println("\t}");
+			out.println("}");
+		} catch (IOException e) {
+			processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+					"Cannot write " + INDEX_PACKAGE + "." + INDEX_CLASS + ": " + e);
+		}
+	}
+
+	// --- helpers
+
+	// casts need the boxed type of primitives and the erasure of generic types
+	private String castType(TypeMirror type) {
+		if (type.getKind().isPrimitive())
+			return processingEnv.getTypeUtils().boxedClass((PrimitiveType) type).getQualifiedName().toString();
+		return processingEnv.getTypeUtils().erasure(type).toString();
+	}
+
+	// Outer_InnerImpl for nested types
+	private String generatedName(TypeElement type, String suffix) {
+		String pkg = packageOf(type);
+		String name = type.getQualifiedName().toString();
+		return (pkg.isEmpty() ? name : name.substring(pkg.length() + 1)).replace('.', '_') + suffix;
+	}
+
+	private String packageOf(Element e) {
+		return processingEnv.getElementUtils().getPackageOf(e).getQualifiedName().toString();
+	}
+
+	private static String qualified(String pkg, String simpleName) {
+		return pkg.isEmpty() ? simpleName : pkg + "." + simpleName;
+	}
+
+	private static AnnotationMirror annotation(Element e, String name) {
+		for (AnnotationMirror a : e.getAnnotationMirrors())
+			if (((TypeElement) a.getAnnotationType().asElement()).getQualifiedName().contentEquals(name))
+				return a;
+		return null;
+	}
+
+	private Object value(AnnotationMirror a, String name) {
+		for (Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> e : processingEnv.getElementUtils()
+				.getElementValuesWithDefaults(a).entrySet())
+			if (e.getKey().getSimpleName().contentEquals(name))
+				return e.getValue().getValue();
+		return null;
+	}
+
+	private void error(Element e, String message) {
+		processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, message, e);
+	}
+}
@@ -0,0 +1,49 @@
+package realdb;
+
+// per-thread nanosecond counters for the mapper call currently running on this thread
+// GhettoJdbcBlackBox adds connection-acquire and execute time, the ORM adds hydration time
+// and reads all three back when the call ends
+public final class CallTimings {
+
+	private static final ThreadLocal<long[]> CURRENT = ThreadLocal.withInitial(() -> new long[3]);
+
+	private static final int ACQUIRE = 0;
+	private static final int EXECUTE = 1;
+	private static final int HYDRATE = 2;
+
+	private CallTimings() {
+	}
+
+	// starts a new call on this thread and returns its (zeroed) counters
+	public static long[] reset() {
+		long[] t = CURRENT.get();
+		t[ACQUIRE] = 0;
+		t[EXECUTE] = 0;
+		t[HYDRATE] = 0;
+		return t;
+	}
+
+	public static void addAcquire(long nanos) {
+		CURRENT.get()[ACQUIRE] += nanos;
+	}
+
+	public static void addExecute(long nanos) {
+		CURRENT.get()[EXECUTE] += nanos;
+	}
+
+	public static void addHydrate(long nanos) {
+		CURRENT.get()[HYDRATE] += nanos;
+	}
+
+	public static long acquireNanos(long[] t) {
+		return t[ACQUIRE];
+	}
+
+	public static long executeNanos(long[] t) {
+		return t[EXECUTE];
+	}
+
+	public static long hydrateNanos(long[] t) {
+		return t[HYDRATE];
+	}
+}
@@ -0,0 +1,226 @@
+package realdb;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// bounded pool of physical connections used by GhettoJdbcBlackBox
+//
+// - at most maxSize connections are borrowed at the same time, callers wait up to acquireTimeoutMillis
+// - idle connections are reused most-recently-used first so the warm ones stay warm
+// - a background evictor closes connections idle longer than idleTimeoutMillis, but keeps minSize around
+// - a connection that sat idle longer than validationIntervalMillis is validated before it is handed out
+public class GhettoConnectionPool {
+
+	private final String url;
+	private final String user;
+	private final String pass;
+
+	private final int minSize;
+	private final int maxSize;
+	private final long acquireTimeoutMillis;
+	private final long idleTimeoutMillis;
+	private final long validationIntervalMillis;
+	private static final int VALIDATION_TIMEOUT_SECONDS = 2;
+
+	private final LinkedBlockingDeque<PooledConnection> idle = new LinkedBlockingDeque<>();
+	private final Semaphore permits;
+	private final AtomicInteger total = new AtomicInteger();
+	private final ScheduledExecutorService evictor;
+	private volatile boolean closed;
+
+	private final AtomicLong created = new AtomicLong();
+	private final AtomicLong destroyed = new AtomicLong();
+	private final AtomicLong borrowed = new AtomicLong();
+	private final AtomicLong timeouts = new AtomicLong();
+	private final AtomicLong validationFailures = new AtomicLong();
+	private final AtomicLong totalWaitNanos = new AtomicLong();
+
+	public GhettoConnectionPool(String url, String user, String pass, int minSize, int maxSize,
+			long acquireTimeoutMillis, long idleTimeoutMillis, long validationIntervalMillis) {
+		if (minSize < 0 || maxSize < 1 || minSize > maxSize)
+			throw new IllegalArgumentException("invalid pool size min=" + minSize + " max=" + maxSize);
+
+		this.url = url;
+		this.user = user;
+		this.pass = pass;
+		this.minSize = minSize;
+		this.maxSize = maxSize;
+		this.acquireTimeoutMillis = acquireTimeoutMillis;
+		this.idleTimeoutMillis = idleTimeoutMillis;
+		this.validationIntervalMillis = validationIntervalMillis;
+		this.permits = new Semaphore(maxSize, true);
+
+		this.evictor = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread t = new Thread(r, "ghetto-pool-evictor");
+			t.setDaemon(true);
+			return t;
+		});
+		long period = Math.max(1000, idleTimeoutMillis / 2);
+		evictor.scheduleWithFixedDelay(this::evictIdle, period, period, TimeUnit.MILLISECONDS);
+
+		fillToMinimum();
+	}
+
+	public PooledConnection borrow() throws SQLException {
+		if (closed)
+			throw new SQLException("connection pool is shut down");
+
+		long start = System.nanoTime();
+		long deadline = start + TimeUnit.MILLISECONDS.toNanos(acquireTimeoutMillis);
+
+		try {
+			if (!permits.tryAcquire(acquireTimeoutMillis, TimeUnit.MILLISECONDS)) {
+				timeouts.incrementAndGet();
+				throw new SQLException("timed out after " + acquireTimeoutMillis + "ms waiting for a connection");
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new SQLException("interrupted waiting for a connection", e);
+		}
+
+		try {
+			PooledConnection pc = takeIdleOrCreate(deadline);
+			borrowed.incrementAndGet();
+			totalWaitNanos.addAndGet(System.nanoTime() - start);
+			return pc;
+		} catch (SQLException | RuntimeException e) {
+			permits.release();
+			throw e;
+		}
+	}
+
+	private PooledConnection takeIdleOrCreate(long deadline) throws SQLException {
+		while (true) {
+			PooledConnection pc = idle.pollFirst();
+
+			if (pc == null) {
+				if (total.incrementAndGet() <= maxSize)
+					return create();
+
+				// the evictor topped the pool up at the same time, one of those will show up in idle
+				total.decrementAndGet();
+				try {
+					pc = idle.pollFirst(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new SQLException("interrupted waiting for a connection", e);
+				}
+				if (pc == null) {
+					timeouts.incrementAndGet();
+					throw new SQLException("timed out waiting for a connection");
+				}
+			}
+
+			if (isValid(pc))
+				return pc;
+
+			validationFailures.incrementAndGet();
+			destroy(pc);
+		}
+	}
+
+	private boolean isValid(PooledConnection pc) {
+		if (System.currentTimeMillis() - pc.getLastUsedMillis() < validationIntervalMillis)
+			return true;
+		try {
+			return pc.getConnection().isValid(VALIDATION_TIMEOUT_SECONDS);
+		} catch (SQLException se) {
+			return false;
+		}
+	}
+
+	// the caller already reserved a slot in total
+	private PooledConnection create() throws SQLException {
+		try {
+			Connection conn = DriverManager.getConnection(url, user, pass);
+			created.incrementAndGet();
+			return new PooledConnection(this, conn);
+		} catch (SQLException | RuntimeException e) {
+			total.decrementAndGet();
+			throw e;
+		}
+	}
+
+	void release(PooledConnection pc) {
+		try {
+			boolean reusable = !closed && !pc.isBroken() && !pc.getConnection().isClosed();
+			if (reusable && !pc.getConnection().getAutoCommit())
+				pc.getConnection().setAutoCommit(true);
+			int isolation = pc.takeIsolationToRestore();
+			if (reusable && isolation >= 0)
+				pc.getConnection().setTransactionIsolation(isolation);
+
+			if (reusable) {
+				pc.touch();
+				idle.offerFirst(pc);
+			} else {
+				destroy(pc);
+			}
+		} catch (SQLException se) {
+			destroy(pc);
+		} finally {
+			permits.release();
+		}
+	}
+
+	private void destroy(PooledConnection pc) {
+		total.decrementAndGet();
+		destroyed.incrementAndGet();
+		pc.closePhysical();
+	}
+
+	// oldest idle connections sit at the tail of the deque
+	private void evictIdle() {
+		long now = System.currentTimeMillis();
+		Iterator<PooledConnection> it = idle.descendingIterator();
+		while (it.hasNext() && total.get() > minSize) {
+			PooledConnection pc = it.next();
+			if (now - pc.getLastUsedMillis() < idleTimeoutMillis)
+				break;
+			if (idle.removeLastOccurrence(pc))
+				destroy(pc);
+		}
+		fillToMinimum();
+	}
+
+	private void fillToMinimum() {
+		while (!closed) {
+			int current = total.get();
+			if (current >= minSize)
+				return;
+			if (!total.compareAndSet(current, current + 1))
+				continue;
+			try {
+				idle.offerLast(create());
+			} catch (SQLException se) {
+				return; // the database is down, borrow() will report it
+			}
+		}
+	}
+
+	public PoolStats getStats() {
+		return new PoolStats(total.get(), idle.size(), created.get(), destroyed.get(), borrowed.get(),
+				timeouts.get(), validationFailures.get(), totalWaitNanos.get());
+	}
+
+	public int getMaxSize() {
+		return maxSize;
+	}
+
+	public void shutdown() {
+		closed = true;
+		evictor.shutdownNow();
+		PooledConnection pc;
+		while ((pc = idle.pollFirst()) != null)
+			destroy(pc);
+	}
+}
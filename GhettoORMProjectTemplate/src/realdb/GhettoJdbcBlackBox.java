@@ -1,27 +1,59 @@
 package realdb;
 
-// DO NOT DO ANYTHING WITH THIS CLASS
-
-
 //STEP 1. Import required packages
+import java.math.BigDecimal;
 import java.sql.Connection;
-import java.sql.DriverManager;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.sql.Timestamp;
+import java.sql.Types;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 public class GhettoJdbcBlackBox {
 	
+	private static final Logger LOG = Logger.getLogger(GhettoJdbcBlackBox.class.getName());
 	
 	private String DB_URL;
 	private String USER;
 	private String PASS;
 	private String DRIVER = "com.mysql.jdbc.Driver";
 
+	public static final int DEFAULT_MIN_POOL_SIZE = 2;
+	public static final int DEFAULT_MAX_POOL_SIZE = 10;
+	public static final long DEFAULT_ACQUIRE_TIMEOUT_MILLIS = 30_000;
+	public static final long DEFAULT_IDLE_TIMEOUT_MILLIS = 10 * 60_000;
+	public static final long DEFAULT_VALIDATION_INTERVAL_MILLIS = 5_000;
+
+	private GhettoConnectionPool pool;
+
+	// begin() without an isolation level of its own
+	public static final int DEFAULT_ISOLATION = -1;
+
+	// the connection of the transaction open on each thread, see begin()
+	private final ThreadLocal<PooledConnection> transaction = new ThreadLocal<>();
+
+	// rows the driver fetches per round trip for cursors, MySQL needs useCursorFetch=true to honor it
+	public static final int DEFAULT_FETCH_SIZE = 1000;
+	private volatile int defaultFetchSize = DEFAULT_FETCH_SIZE;
+
 	public void init(String jdbcDriverClass, String url, String userName, String password) {
+		init(jdbcDriverClass, url, userName, password, DEFAULT_MIN_POOL_SIZE, DEFAULT_MAX_POOL_SIZE,
+				DEFAULT_ACQUIRE_TIMEOUT_MILLIS, DEFAULT_IDLE_TIMEOUT_MILLIS);
+	}
+
+	public void init(String jdbcDriverClass, String url, String userName, String password, int minPoolSize,
+			int maxPoolSize, long acquireTimeoutMillis, long idleTimeoutMillis) {
 		DB_URL = url;
 		USER = userName;
 		PASS = password;
@@ -31,89 +63,113 @@ public class GhettoJdbcBlackBox {
 		try {
 			Class.forName(DRIVER);
 		} catch (ClassNotFoundException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
 			throw new RuntimeException(e);
 		}
 
+		pool = new GhettoConnectionPool(DB_URL, USER, PASS, minPoolSize, maxPoolSize, acquireTimeoutMillis,
+				idleTimeoutMillis, DEFAULT_VALIDATION_INTERVAL_MILLIS);
+
 		runSQLQuery("select 1"); // test connection
-		System.out.println("Connection ok");
+		LOG.info("Connection ok: " + DB_URL);
 	}
 
 	public void runSQL(String sql) {
-		Connection conn = null;
+		PooledConnection pc = null;
 		Statement stmt = null;
 		try {
 
-			// STEP 3: Open a connection
-			System.out.println("Connecting to a selected database...");
-			conn = DriverManager.getConnection(DB_URL, USER, PASS);
-			System.out.println("Connected database successfully...");
+			// STEP 3: Borrow a connection from the pool
+			pc = borrow();
+			Connection conn = pc.getConnection();
 
 			// STEP 4: Execute a query
-			System.out.println("Running SQL: " + sql);
+			if (LOG.isLoggable(Level.FINE))
+				LOG.fine("Running SQL: " + sql);
+			long start = System.nanoTime();
 			stmt = conn.createStatement();
 
 			stmt.executeUpdate(sql);
-			System.out.println("SQL executed");
+			CallTimings.addExecute(System.nanoTime() - start);
 
 		} catch (SQLException se) {
 			// Handle errors for JDBC
+			if (pc != null)
+				pc.checkBroken(se);
 			throw new RuntimeException(se);
 		} catch (Exception e) {
-			// Handle errors for Class.forName
 			throw new RuntimeException(e);
 		} finally {
 			// finally block used to close resources
 			try {
 				if (stmt != null)
-					conn.close();
+					stmt.close();
 			} catch (SQLException se) {
 			} // do nothing
-			try {
-				if (conn != null)
-					conn.close();
-			} catch (SQLException se) {
-				se.printStackTrace();
-			} // end finally try
+			if (pc != null)
+				release(pc);
 		} // end try
 	}// end method 
 
+	// table name -> its column names, all lower case, in one DatabaseMetaData.getColumns() pass
+	// over the catalog / schema the pooled connections are using
+	public Map<String, Set<String>> readSchema() {
+		PooledConnection pc = null;
+		try {
+			pc = borrow();
+			Connection conn = pc.getConnection();
+
+			long start = System.nanoTime();
+			Map<String, Set<String>> tables = new HashMap<>();
+			try (ResultSet rs = conn.getMetaData().getColumns(conn.getCatalog(), conn.getSchema(), "%", "%")) {
+				while (rs.next()) {
+					String table = rs.getString("TABLE_NAME").toLowerCase(Locale.ROOT);
+					tables.computeIfAbsent(table, t -> new HashSet<>())
+							.add(rs.getString("COLUMN_NAME").toLowerCase(Locale.ROOT));
+				}
+			}
+			CallTimings.addExecute(System.nanoTime() - start);
+			return tables;
+
+		} catch (SQLException se) {
+			if (pc != null)
+				pc.checkBroken(se);
+			throw new RuntimeException(se);
+		} finally {
+			if (pc != null)
+				release(pc);
+		}
+	}
+
 	public List<HashMap<String, Object>> runSQLQuery(String sql) {
 
-		Connection conn = null;
+		PooledConnection pc = null;
 		Statement stmt = null;
 
 		List<HashMap<String, Object>> returnValue = new ArrayList<HashMap<String, Object>>();
 
 		try {
 
-			// STEP 3: Open a connection
-			System.out.println("Connecting to a selected database...");
-			conn = DriverManager.getConnection(DB_URL, USER, PASS);
-			System.out.println("Connected database successfully...");
+			// STEP 3: Borrow a connection from the pool
+			pc = borrow();
+			Connection conn = pc.getConnection();
 
 			// STEP 4: Execute a query
-			System.out.println("Creating statement... " + sql);
+			if (LOG.isLoggable(Level.FINE))
+				LOG.fine("Running query: " + sql);
 			stmt = conn.createStatement();
 
-			System.out.println("Running query");
 			ResultSet rs = stmt.executeQuery(sql);
 
-			System.out.println("Processing results: ");
-			
-			while (rs.next()) {
+			String[] names = columnNames(rs);
+			int columnCount = names.length;
 
-				int columnCount = rs.getMetaData().getColumnCount();
+			while (rs.next()) {
 
-				
-				
-				HashMap<String, Object> value = new HashMap<String, Object>();
+				HashMap<String, Object> value = new HashMap<String, Object>(columnCount * 2);
 				for (int i = 1; i <= columnCount; i++) {
-					String key = rs.getMetaData().getColumnName(i);
+					String key = names[i - 1];
 					Object columnValue = rs.getObject(i);
 					
-					//System.out.println(key+" "+columnValue);
 					// put result into map
 					value.put(key, columnValue);
 				}
@@ -125,27 +181,361 @@ public class GhettoJdbcBlackBox {
 
 		} catch (SQLException se) {
 			// Handle errors for JDBC
+			if (pc != null)
+				pc.checkBroken(se);
 			throw new RuntimeException(se);
 		} catch (Exception e) {
-			// Handle errors for Class.forName
 			throw new RuntimeException(e);
-	} finally {
+		} finally {
 			// finally block used to close resources
 			try {
 				if (stmt != null)
-					conn.close();
+					stmt.close();
 			} catch (SQLException se) {
 			} // do nothing
-			try {
-				if (conn != null)
-					conn.close();
-			} catch (SQLException se) {
-				se.printStackTrace();
-			} // end finally try
+			if (pc != null)
+				release(pc);
 		} // end try
 
 		return returnValue;
 	} // end method
+
+	// runs an INSERT/UPDATE/DELETE with ? placeholders through the connection's statement cache
+	public int runSQL(String sql, Object[] params) {
+		PooledConnection pc = null;
+		try {
+			pc = borrow();
+			if (LOG.isLoggable(Level.FINE))
+				LOG.fine("Running SQL: " + sql);
+			long start = System.nanoTime();
+			PreparedStatement ps = prepare(pc, sql, params);
+			int count = ps.executeUpdate();
+			CallTimings.addExecute(System.nanoTime() - start);
+			return count;
+		} catch (SQLException se) {
+			if (pc != null)
+				failed(pc, sql, se);
+			throw new RuntimeException(se);
+		} finally {
+			if (pc != null)
+				release(pc);
+		}
+	}
+
+	// runs an INSERT and returns the AUTO_INCREMENT key it generated, null if there was none
+	public Object runInsert(String sql, Object[] params) {
+		PooledConnection pc = null;
+		try {
+			pc = borrow();
+			if (LOG.isLoggable(Level.FINE))
+				LOG.fine("Running SQL: " + sql);
+			long start = System.nanoTime();
+			PreparedStatement ps = pc.prepareReturningKeys(sql);
+			for (int i = 0; i < params.length; i++)
+				bind(ps, i + 1, params[i]);
+			ps.executeUpdate();
+
+			try (ResultSet keys = ps.getGeneratedKeys()) {
+				return keys.next() ? keys.getObject(1) : null;
+			} finally {
+				CallTimings.addExecute(System.nanoTime() - start);
+			}
+		} catch (SQLException se) {
+			if (pc != null)
+				failed(pc, sql, se);
+			throw new RuntimeException(se);
+		} finally {
+			if (pc != null)
+				release(pc);
+		}
+	}
+
+	// runs one statement for every params row as a single JDBC batch
+	// with rewriteBatchedStatements=true MySQL sends the whole batch in one round trip
+	// returns the generated keys in row order when returnKeys is set, otherwise null
+	public List<Object> runBatch(String sql, List<Object[]> paramRows, boolean returnKeys) {
+		PooledConnection pc = null;
+		try {
+			pc = borrow();
+			if (LOG.isLoggable(Level.FINE))
+				LOG.fine("Running batch of " + paramRows.size() + ": " + sql);
+			long start = System.nanoTime();
+			PreparedStatement ps = returnKeys ? pc.prepareReturningKeys(sql) : pc.prepare(sql);
+
+			for (Object[] params : paramRows) {
+				for (int i = 0; i < params.length; i++)
+					bind(ps, i + 1, params[i]);
+				ps.addBatch();
+			}
+			ps.executeBatch();
+
+			if (!returnKeys) {
+				CallTimings.addExecute(System.nanoTime() - start);
+				return null;
+			}
+
+			List<Object> keys = new ArrayList<>(paramRows.size());
+			try (ResultSet rs = ps.getGeneratedKeys()) {
+				while (rs.next())
+					keys.add(rs.getObject(1));
+			}
+			CallTimings.addExecute(System.nanoTime() - start);
+			return keys;
+		} catch (SQLException se) {
+			if (pc != null)
+				failed(pc, sql, se);
+			throw new RuntimeException(se);
+		} finally {
+			if (pc != null)
+				release(pc);
+		}
+	}
+
+	// runs a query with ? placeholders through the connection's statement cache
+	public QueryResult runQuery(String sql, Object[] params) {
+		PooledConnection pc = null;
+		try {
+			pc = borrow();
+			if (LOG.isLoggable(Level.FINE))
+				LOG.fine("Running query: " + sql);
+			long start = System.nanoTime();
+			PreparedStatement ps = prepare(pc, sql, params);
+
+			try (ResultSet rs = ps.executeQuery()) {
+				return readAll(rs);
+			} finally {
+				CallTimings.addExecute(System.nanoTime() - start);
+			}
+		} catch (SQLException se) {
+			if (pc != null)
+				failed(pc, sql, se);
+			throw new RuntimeException(se);
+		} finally {
+			if (pc != null)
+				release(pc);
+		}
+	}
+
+	// inside a transaction every call of the thread runs on the transaction's connection
+	private PooledConnection borrow() throws SQLException {
+		PooledConnection bound = transaction.get();
+		if (bound != null)
+			return bound;
+
+		long start = System.nanoTime();
+		try {
+			return pool.borrow();
+		} finally {
+			CallTimings.addAcquire(System.nanoTime() - start);
+		}
+	}
+
+	// back to the pool, unless the connection belongs to the thread's transaction
+	private void release(PooledConnection pc) {
+		if (pc != transaction.get())
+			pc.close();
+	}
+
+	// binds one pooled connection to the calling thread with autocommit off, every run* and
+	// openCursor call of this thread uses it until commit() or rollback()
+	public void begin() {
+		begin(DEFAULT_ISOLATION);
+	}
+
+	// isolationLevel is a Connection.TRANSACTION_* constant, the pool restores the connection's
+	// own level when the transaction ends. DEFAULT_ISOLATION keeps whatever the connection has
+	public void begin(int isolationLevel) {
+		if (transaction.get() != null)
+			throw new RuntimeException("A transaction is already open on this thread");
+
+		PooledConnection pc = null;
+		try {
+			pc = borrow();
+			if (isolationLevel != DEFAULT_ISOLATION)
+				pc.setIsolation(isolationLevel);
+			pc.getConnection().setAutoCommit(false);
+			transaction.set(pc);
+			if (LOG.isLoggable(Level.FINE))
+				LOG.fine("Transaction started");
+		} catch (SQLException se) {
+			if (pc != null) {
+				pc.checkBroken(se);
+				pc.close();
+			}
+			throw new RuntimeException(se);
+		}
+	}
+
+	public boolean inTransaction() {
+		return transaction.get() != null;
+	}
+
+	public void commit() {
+		end(true);
+	}
+
+	public void rollback() {
+		end(false);
+	}
+
+	private void end(boolean commit) {
+		PooledConnection pc = transaction.get();
+		if (pc == null)
+			throw new RuntimeException("No transaction open on this thread");
+		transaction.remove();
+
+		Connection conn = pc.getConnection();
+		try {
+			if (commit)
+				conn.commit();
+			else
+				conn.rollback();
+			if (LOG.isLoggable(Level.FINE))
+				LOG.fine(commit ? "Transaction committed" : "Transaction rolled back");
+		} catch (SQLException se) {
+			pc.checkBroken(se);
+			// the pool switches autocommit back on, which would commit whatever is left
+			try {
+				conn.rollback();
+			} catch (SQLException e) {
+				pc.markBroken();
+			}
+			throw new RuntimeException(se);
+		} finally {
+			pc.close();
+		}
+	}
+
+	// opens a forward-only cursor that keeps its connection until it is closed or exhausted
+	// fetchSize <= 0 uses the default fetch size
+	public RowCursor openCursor(String sql, Object[] params, int fetchSize) {
+		PooledConnection pc = null;
+		PreparedStatement ps = null;
+		try {
+			pc = borrow();
+			if (LOG.isLoggable(Level.FINE))
+				LOG.fine("Opening cursor: " + sql);
+			long start = System.nanoTime();
+
+			// not taken from the statement cache, the cursor closes it
+			ps = pc.getConnection().prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+			ps.setFetchSize(fetchSize > 0 ? fetchSize : defaultFetchSize);
+			for (int i = 0; i < params.length; i++)
+				bind(ps, i + 1, params[i]);
+
+			RowCursor cursor = new RowCursor(pc, pc != transaction.get(), ps, ps.executeQuery());
+			CallTimings.addExecute(System.nanoTime() - start);
+			return cursor;
+		} catch (SQLException se) {
+			try {
+				if (ps != null)
+					ps.close();
+			} catch (SQLException e) {
+			} // do nothing
+			if (pc != null) {
+				pc.checkBroken(se);
+				release(pc);
+			}
+			throw new RuntimeException(se);
+		}
+	}
+
+	public int getDefaultFetchSize() {
+		return defaultFetchSize;
+	}
+
+	public void setDefaultFetchSize(int defaultFetchSize) {
+		this.defaultFetchSize = defaultFetchSize;
+	}
+
+	// the labels, so "first_name AS firstName" and "COUNT(*) AS n" come back under their aliases
+	static String[] columnNames(ResultSet rs) throws SQLException {
+		ResultSetMetaData md = rs.getMetaData();
+		String[] names = new String[md.getColumnCount()];
+		for (int i = 0; i < names.length; i++)
+			names[i] = md.getColumnLabel(i + 1);
+		return names;
+	}
+
+	private static QueryResult readAll(ResultSet rs) throws SQLException {
+		String[] names = columnNames(rs);
+		int columnCount = names.length;
+		List<Object[]> rows = new ArrayList<>();
+
+		while (rs.next()) {
+			Object[] row = new Object[columnCount];
+			for (int i = 0; i < columnCount; i++)
+				row[i] = rs.getObject(i + 1);
+			rows.add(row);
+		}
+		return new QueryResult(names, rows);
+	}
+
+	private PreparedStatement prepare(PooledConnection pc, String sql, Object[] params) throws SQLException {
+		PreparedStatement ps = pc.prepare(sql);
+		for (int i = 0; i < params.length; i++)
+			bind(ps, i + 1, params[i]);
+		return ps;
+	}
+
+	private void failed(PooledConnection pc, String sql, SQLException se) {
+		pc.evict(sql);
+		pc.checkBroken(se);
+	}
+
+	// SQLState class 08 anywhere in the causes: the database could not be reached or the connection
+	// was lost, as opposed to a statement it refused
+	public static boolean isConnectionFailure(Throwable t) {
+		for (; t != null; t = t.getCause()) {
+			if (t instanceof SQLException) {
+				String state = ((SQLException) t).getSQLState();
+				if (state != null && state.startsWith("08"))
+					return true;
+			}
+		}
+		return false;
+	}
+
+	// typed setXxx for the value types entities use, setObject for the rest
+	public static void bind(PreparedStatement ps, int index, Object value) throws SQLException {
+		if (value == null)
+			ps.setNull(index, Types.NULL);
+		else if (value instanceof String)
+			ps.setString(index, (String) value);
+		else if (value instanceof Integer)
+			ps.setInt(index, (Integer) value);
+		else if (value instanceof Long)
+			ps.setLong(index, (Long) value);
+		else if (value instanceof Double)
+			ps.setDouble(index, (Double) value);
+		else if (value instanceof Float)
+			ps.setFloat(index, (Float) value);
+		else if (value instanceof Boolean)
+			ps.setBoolean(index, (Boolean) value);
+		else if (value instanceof Short)
+			ps.setShort(index, (Short) value);
+		else if (value instanceof BigDecimal)
+			ps.setBigDecimal(index, (BigDecimal) value);
+		else if (value instanceof Timestamp)
+			ps.setTimestamp(index, (Timestamp) value);
+		else if (value instanceof java.util.Date)
+			ps.setTimestamp(index, new Timestamp(((java.util.Date) value).getTime()));
+		else
+			ps.setObject(index, value);
+	}
+
+	public int getMaxPoolSize() {
+		return pool.getMaxSize();
+	}
+
+	public PoolStats getPoolStats() {
+		return pool.getStats();
+	}
+
+	public void shutdown() {
+		if (pool != null)
+			pool.shutdown();
+	}
 	
 	
 	
@@ -0,0 +1,78 @@
+package realdb;
+
+// point-in-time snapshot of the GhettoConnectionPool counters
+public class PoolStats {
+
+	private final int total;
+	private final int idle;
+	private final int active;
+	private final long created;
+	private final long destroyed;
+	private final long borrowed;
+	private final long timeouts;
+	private final long validationFailures;
+	private final long totalWaitNanos;
+
+	PoolStats(int total, int idle, long created, long destroyed, long borrowed, long timeouts,
+			long validationFailures, long totalWaitNanos) {
+		this.total = total;
+		this.idle = idle;
+		this.active = Math.max(0, total - idle);
+		this.created = created;
+		this.destroyed = destroyed;
+		this.borrowed = borrowed;
+		this.timeouts = timeouts;
+		this.validationFailures = validationFailures;
+		this.totalWaitNanos = totalWaitNanos;
+	}
+
+	public int getTotal() {
+		return total;
+	}
+
+	public int getIdle() {
+		return idle;
+	}
+
+	public int getActive() {
+		return active;
+	}
+
+	// physical connections opened over the life of the pool
+	public long getCreated() {
+		return created;
+	}
+
+	public long getDestroyed() {
+		return destroyed;
+	}
+
+	public long getBorrowed() {
+		return borrowed;
+	}
+
+	public long getTimeouts() {
+		return timeouts;
+	}
+
+	public long getValidationFailures() {
+		return validationFailures;
+	}
+
+	// borrows served without opening a new physical connection
+	public long getReuses() {
+		return Math.max(0, borrowed - created);
+	}
+
+	public double getAverageWaitMillis() {
+		return borrowed == 0 ? 0 : (totalWaitNanos / 1_000_000.0) / borrowed;
+	}
+
+	@Override
+	public String toString() {
+		return "PoolStats [total=" + total + ", idle=" + idle + ", active=" + active + ", created=" + created
+				+ ", destroyed=" + destroyed + ", borrowed=" + borrowed + ", reuses=" + getReuses() + ", timeouts="
+				+ timeouts + ", validationFailures=" + validationFailures + ", avgWaitMillis="
+				+ String.format("%.3f", getAverageWaitMillis()) + "]";
+	}
+}
@@ -0,0 +1,141 @@
+package realdb;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// a physical connection owned by a GhettoConnectionPool
+// closing it hands it back to the pool instead of closing the socket
+public class PooledConnection implements AutoCloseable {
+
+	private final GhettoConnectionPool pool;
+	private final Connection connection;
+
+	private volatile long lastUsedMillis;
+	private boolean broken;
+
+	// isolation level to put back when the connection returns to the pool, -1 if unchanged
+	private int isolationToRestore = -1;
+
+	// prepared statements stay open for the life of the physical connection so the
+	// driver / server can reuse the parsed statement, least recently used ones get closed
+	static final int STATEMENT_CACHE_SIZE = 64;
+
+	private final LinkedHashMap<String, PreparedStatement> statements = new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+			if (size() <= STATEMENT_CACHE_SIZE)
+				return false;
+			closeQuietly(eldest.getValue());
+			return true;
+		}
+	};
+
+	PooledConnection(GhettoConnectionPool pool, Connection connection) {
+		this.pool = pool;
+		this.connection = connection;
+		this.lastUsedMillis = System.currentTimeMillis();
+	}
+
+	public Connection getConnection() {
+		return connection;
+	}
+
+	// only one thread holds a borrowed connection, so the cache needs no locking
+	public PreparedStatement prepare(String sql) throws SQLException {
+		PreparedStatement ps = statements.get(sql);
+		if (ps == null || ps.isClosed()) {
+			ps = connection.prepareStatement(sql);
+			statements.put(sql, ps);
+		}
+		return ps;
+	}
+
+	// same cache, for INSERTs that hand back their AUTO_INCREMENT keys
+	public PreparedStatement prepareReturningKeys(String sql) throws SQLException {
+		String key = GENERATED_KEYS_PREFIX + sql;
+		PreparedStatement ps = statements.get(key);
+		if (ps == null || ps.isClosed()) {
+			ps = connection.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS);
+			statements.put(key, ps);
+		}
+		return ps;
+	}
+
+	private static final String GENERATED_KEYS_PREFIX = "\u0000keys:";
+
+	// drop a statement that failed, the next prepare() makes a fresh one
+	public void evict(String sql) {
+		closeQuietly(statements.remove(sql));
+		closeQuietly(statements.remove(GENERATED_KEYS_PREFIX + sql));
+	}
+
+	private static void closeQuietly(PreparedStatement ps) {
+		try {
+			if (ps != null)
+				ps.close();
+		} catch (SQLException se) {
+		} // do nothing
+	}
+
+	// call this when the connection failed in a way that makes it unusable
+	public void markBroken() {
+		broken = true;
+	}
+
+	// SQLState class 08 is "connection exception"
+	public void checkBroken(SQLException se) {
+		String state = se.getSQLState();
+		if (state != null && state.startsWith("08"))
+			broken = true;
+	}
+
+	boolean isBroken() {
+		return broken;
+	}
+
+	// switches the isolation level until the connection is released
+	void setIsolation(int level) throws SQLException {
+		int current = connection.getTransactionIsolation();
+		if (current == level)
+			return;
+		connection.setTransactionIsolation(level);
+		if (isolationToRestore < 0)
+			isolationToRestore = current;
+	}
+
+	// the pool resets a changed isolation level on release
+	int takeIsolationToRestore() {
+		int level = isolationToRestore;
+		isolationToRestore = -1;
+		return level;
+	}
+
+	long getLastUsedMillis() {
+		return lastUsedMillis;
+	}
+
+	void touch() {
+		lastUsedMillis = System.currentTimeMillis();
+	}
+
+	void closePhysical() {
+		for (PreparedStatement ps : statements.values())
+			closeQuietly(ps);
+		statements.clear();
+		try {
+			connection.close();
+		} catch (SQLException se) {
+		} // do nothing
+	}
+
+	@Override
+	public void close() {
+		pool.release(this);
+	}
+}
@@ -0,0 +1,56 @@
+package realdb;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// rows of a query as Object[] indexed by column position (0 based),
+// the column names are read from the ResultSetMetaData once and shared by all rows
+public class QueryResult {
+
+	private final String[] columnNames;
+	private final List<Object[]> rows;
+
+	QueryResult(String[] columnNames, List<Object[]> rows) {
+		this.columnNames = columnNames;
+		this.rows = rows;
+	}
+
+	// the rows of results with the same columns, one result after the other
+	public static QueryResult concat(List<QueryResult> results) {
+		if (results.size() == 1)
+			return results.get(0);
+
+		int total = 0;
+		for (QueryResult r : results)
+			total += r.size();
+		List<Object[]> rows = new ArrayList<>(total);
+		for (QueryResult r : results)
+			rows.addAll(r.rows);
+		return new QueryResult(results.get(0).columnNames, rows);
+	}
+
+	public String[] getColumnNames() {
+		return columnNames;
+	}
+
+	public int getColumnCount() {
+		return columnNames.length;
+	}
+
+	public List<Object[]> getRows() {
+		return rows;
+	}
+
+	public int size() {
+		return rows.size();
+	}
+
+	public boolean isEmpty() {
+		return rows.isEmpty();
+	}
+
+	@Override
+	public String toString() {
+		return "QueryResult [columns=" + columnNames.length + ", rows=" + rows.size() + "]";
+	}
+}
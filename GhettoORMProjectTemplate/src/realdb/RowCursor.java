@@ -0,0 +1,105 @@
+package realdb;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+// a live ResultSet read one row at a time
+// the cursor owns its pooled connection until it is closed or runs off the end, except inside a
+// transaction, where the connection stays with the transaction
+public class RowCursor implements Iterator<Object[]>, AutoCloseable {
+
+	private final PooledConnection pc;
+	private final boolean releaseConnection;
+	private final PreparedStatement ps;
+	private final ResultSet rs;
+	private final String[] columnNames;
+
+	private boolean advanced;
+	private boolean hasRow;
+	private boolean closed;
+
+	RowCursor(PooledConnection pc, boolean releaseConnection, PreparedStatement ps, ResultSet rs) throws SQLException {
+		this.pc = pc;
+		this.releaseConnection = releaseConnection;
+		this.ps = ps;
+		this.rs = rs;
+		this.columnNames = GhettoJdbcBlackBox.columnNames(rs);
+	}
+
+	public String[] getColumnNames() {
+		return columnNames;
+	}
+
+	// for readers that want typed getXxx access to the current row
+	public ResultSet getResultSet() {
+		return rs;
+	}
+
+	@Override
+	public boolean hasNext() {
+		if (closed)
+			return false;
+		if (!advanced) {
+			try {
+				hasRow = rs.next();
+			} catch (SQLException se) {
+				pc.checkBroken(se);
+				close();
+				throw new RuntimeException(se);
+			}
+			advanced = true;
+			if (!hasRow)
+				close(); // give the connection back as soon as the rows run out
+		}
+		return hasRow;
+	}
+
+	@Override
+	public Object[] next() {
+		if (!hasNext())
+			throw new NoSuchElementException();
+		advanced = false;
+
+		try {
+			Object[] row = new Object[columnNames.length];
+			for (int i = 0; i < row.length; i++)
+				row[i] = rs.getObject(i + 1);
+			return row;
+		} catch (SQLException se) {
+			pc.checkBroken(se);
+			close();
+			throw new RuntimeException(se);
+		}
+	}
+
+	// moves to the next row without copying it, for readers using getResultSet()
+	public boolean advance() {
+		boolean more = hasNext();
+		advanced = false;
+		return more;
+	}
+
+	public boolean isClosed() {
+		return closed;
+	}
+
+	@Override
+	public void close() {
+		if (closed)
+			return;
+		closed = true;
+		try {
+			rs.close();
+		} catch (SQLException se) {
+		} // do nothing
+		try {
+			ps.close();
+		} catch (SQLException se) {
+		} // do nothing
+		if (releaseConnection)
+			pc.close(); // back to the pool
+	}
+}
@@ -0,0 +1,137 @@
+package orm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import dao.StudentMapper;
+import entity.Student;
+import standin.StandInDatabase;
+import standin.StandInDriver;
+
+// CompletableFuture mapper methods: run on the async executor, never more at once than the pool
+// has connections, on the calling thread inside a transaction
+public class AsyncMapperTest {
+
+	private StandInDatabase db;
+	private MyORM orm;
+
+	// tasks handed to the executor, run by the test when it wants them to
+	private final List<Runnable> handedOut = new ArrayList<>();
+
+	@Before
+	public void setUp() throws Exception {
+		db = StandInDatabase.get("async");
+		db.clear();
+		db.whenQuery("from student", new String[] { "pk", "first_name", "last_name", "age", "subject_id" },
+				new int[] { Types.INTEGER, Types.VARCHAR, Types.VARCHAR, Types.INTEGER, Types.INTEGER },
+				new Object[][] { { 1, "A", "B", 20, null } });
+		orm = new MyORM(StandInDriver.class.getName(), db.getUrl(), "", "");
+		orm.getMetrics().setJmxEnabled(false);
+		orm.init();
+	}
+
+	@After
+	public void tearDown() {
+		orm.shutdown();
+	}
+
+	private void runHandedOut() {
+		while (!handedOut.isEmpty())
+			handedOut.remove(0).run();
+	}
+
+	@Test
+	public void callsBeyondTheLimitWaitInTheQueue() throws Exception {
+		AsyncMapperExecutor async = new AsyncMapperExecutor(handedOut::add, 2);
+		List<CompletableFuture<Integer>> futures = new ArrayList<>();
+		for (int i = 0; i < 5; i++) {
+			int n = i;
+			futures.add(async.submit(() -> n));
+		}
+		assertEquals(2, handedOut.size());
+		assertEquals(2, async.getRunning());
+		assertEquals(3, async.getQueued());
+
+		// each finished call lets a queued one through
+		handedOut.remove(0).run();
+		assertEquals(2, handedOut.size());
+		assertEquals(2, async.getQueued());
+
+		runHandedOut();
+		assertEquals(0, async.getRunning());
+		assertEquals(0, async.getQueued());
+		for (int i = 0; i < 5; i++)
+			assertEquals(Integer.valueOf(i), futures.get(i).getNow(null));
+	}
+
+	@Test
+	public void failuresCompleteTheFuture() throws Exception {
+		AsyncMapperExecutor async = new AsyncMapperExecutor(handedOut::add, 1);
+		IllegalStateException boom = new IllegalStateException("boom");
+		CompletableFuture<Object> failed = async.submit(() -> {
+			throw boom;
+		});
+		CompletableFuture<String> next = async.submit(() -> "next");
+		runHandedOut();
+
+		try {
+			failed.get();
+			fail("the call threw");
+		} catch (ExecutionException e) {
+			assertSame(boom, e.getCause());
+		}
+		// the slot was given back
+		assertEquals("next", next.get());
+
+		AsyncMapperExecutor rejecting = new AsyncMapperExecutor(r -> {
+			throw new RejectedExecutionException("shut down");
+		}, 1);
+		CompletableFuture<String> rejected = rejecting.submit(() -> "never");
+		assertTrue(rejected.isCompletedExceptionally());
+		assertEquals(0, rejecting.getRunning());
+	}
+
+	@Test
+	public void mapperCallsAreBoundedByThePool() throws Exception {
+		orm.setAsyncExecutor(handedOut::add);
+		StudentMapper sm = (StudentMapper) orm.getMapper(Student.class);
+		int max = orm.getJdbc().getMaxPoolSize();
+
+		List<CompletableFuture<List<Student>>> futures = new ArrayList<>();
+		for (int i = 0; i < max + 3; i++)
+			futures.add(sm.getAllAsync());
+		assertEquals(max, handedOut.size());
+		assertEquals(3, orm.getAsyncExecutor().getQueued());
+		assertFalse(futures.get(0).isDone());
+
+		runHandedOut();
+		for (CompletableFuture<List<Student>> f : futures)
+			assertEquals("A", f.get().get(0).getFirst());
+	}
+
+	@Test
+	public void insideATransactionTheCallingThreadRunsIt() {
+		orm.setAsyncExecutor(handedOut::add);
+		StudentMapper sm = (StudentMapper) orm.getMapper(Student.class);
+		orm.inTransaction(tx -> {
+			CompletableFuture<Student> f = sm.getByIdAsync(1);
+			assertTrue(f.isDone());
+			assertEquals("A", f.join().getFirst());
+		});
+		assertTrue(handedOut.isEmpty());
+	}
+}
@@ -0,0 +1,125 @@
+package orm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import dao.StudentMapper;
+import entity.Student;
+import standin.StandInDatabase;
+import standin.StandInDriver;
+
+// saveAll / deleteAll: chunked JDBC batches, generated keys written back in row order
+public class BatchWriteTest {
+
+	private StandInDatabase db;
+	private MyORM orm;
+	private StudentMapper sm;
+
+	@Before
+	public void setUp() throws Exception {
+		db = StandInDatabase.get("batchwrite");
+		db.clear();
+		db.setAutoIncrement(100, 1);
+		orm = new MyORM(StandInDriver.class.getName(), db.getUrl(), "", "");
+		orm.getMetrics().setJmxEnabled(false);
+		orm.setBatchSize(4);
+		orm.init();
+		sm = (StudentMapper) orm.getMapper(Student.class);
+		db.setLogging(true);
+	}
+
+	@After
+	public void tearDown() {
+		db.setLogging(false);
+		orm.shutdown();
+	}
+
+	private static List<Student> students(int n) {
+		List<Student> students = new ArrayList<>();
+		for (int i = 0; i < n; i++) {
+			Student s = new Student();
+			s.setFirst("S" + i);
+			students.add(s);
+		}
+		return students;
+	}
+
+	private List<String> batches() {
+		List<String> batches = new ArrayList<>();
+		for (String line : db.getLog())
+			if (line.startsWith("executeBatch"))
+				batches.add(line.substring(0, line.indexOf(' ')));
+		return batches;
+	}
+
+	@Test
+	public void insertsAreChunkedAndGetTheirKeysInOrder() {
+		List<Student> students = students(10);
+		sm.saveAll(students);
+
+		assertEquals(Arrays.asList("executeBatch(4)", "executeBatch(4)", "executeBatch(2)"), batches());
+		for (int i = 0; i < students.size(); i++)
+			assertEquals(Integer.valueOf(100 + i), students.get(i).getId());
+	}
+
+	@Test
+	public void savedEntitiesAreUpdatedNextTime() {
+		List<Student> students = students(3);
+		sm.saveAll(students);
+		db.clear();
+		db.setLogging(true);
+
+		// unchanged students would be skipped by dirty checking
+		for (Student s : students)
+			s.setAge(30);
+		sm.saveAll(students);
+		assertEquals(Arrays.asList("executeBatch(3)"), batches());
+		assertTrue(db.getLog().get(0), db.getLog().get(0).startsWith("addBatch UPDATE student"));
+	}
+
+	@Test
+	public void deletesAreBatched() {
+		List<Student> students = students(5);
+		for (int i = 0; i < students.size(); i++)
+			students.get(i).setId(i + 1);
+		sm.deleteAll(students);
+		assertEquals(Arrays.asList("executeBatch(4)", "executeBatch(1)"), batches());
+		assertTrue(db.getLog().get(0), db.getLog().get(0).startsWith("addBatch DELETE FROM student"));
+	}
+
+	@Test
+	public void missingGeneratedKeysFailTheBatch() {
+		db.setGeneratedKeyLimit(1);
+		List<Student> students = students(3);
+		try {
+			sm.saveAll(students);
+			fail("1 key for 3 rows");
+		} catch (RuntimeException e) {
+			assertTrue(e.getMessage(), e.getMessage().contains("1 generated keys for 3 rows"));
+		}
+		assertNull(students.get(2).getId());
+	}
+
+	@Test
+	public void missingGeneratedKeyFailsTheInsert() {
+		db.setGeneratedKeyLimit(0);
+		Student s = students(1).get(0);
+		try {
+			sm.save(s);
+			fail("no key");
+		} catch (RuntimeException e) {
+			assertTrue(e.getMessage(), e.getMessage().contains("no generated key"));
+		}
+		assertNull(s.getId());
+	}
+}
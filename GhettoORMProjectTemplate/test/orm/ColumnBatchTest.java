@@ -0,0 +1,134 @@
+package orm;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.sql.Types;
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import dao.StudentMapper;
+import entity.Student;
+import standin.StandInDatabase;
+import standin.StandInDriver;
+
+// columnar reads: one primitive array per numeric column, nulls as bits, in chunks when streamed
+public class ColumnBatchTest {
+
+	private StandInDatabase db;
+	private MyORM orm;
+
+	@Before
+	public void setUp() throws Exception {
+		db = StandInDatabase.get("columns");
+		db.clear();
+		orm = new MyORM(StandInDriver.class.getName(), db.getUrl(), "", "");
+		orm.getMetrics().setJmxEnabled(false);
+		orm.init();
+	}
+
+	@After
+	public void tearDown() {
+		orm.shutdown();
+	}
+
+	private ColumnBatch readAll(String sql) {
+		return ColumnBatch.readAll(orm.getJdbc().openCursor(sql, new Object[0], 0));
+	}
+
+	@Test
+	public void sqlTypesPickTheArray() {
+		db.whenQuery("from mixed", new String[] { "i", "s", "l", "d", "n", "v" },
+				new int[] { Types.INTEGER, Types.SMALLINT, Types.BIGINT, Types.DOUBLE, Types.DECIMAL, Types.VARCHAR },
+				new Object[][] { { 1, 2, 3L, 1.5, 2.5, "a" }, { null, 4, null, null, 3.5, null } });
+
+		ColumnBatch batch = readAll("select * from mixed");
+		assertEquals(2, batch.size());
+		assertEquals(ColumnBatch.Type.INT, batch.getColumn("i").getType());
+		assertEquals(ColumnBatch.Type.INT, batch.getColumn("s").getType());
+		assertEquals(ColumnBatch.Type.LONG, batch.getColumn("l").getType());
+		assertEquals(ColumnBatch.Type.DOUBLE, batch.getColumn("d").getType());
+		assertEquals(ColumnBatch.Type.DOUBLE, batch.getColumn("n").getType());
+		assertEquals(ColumnBatch.Type.OBJECT, batch.getColumn("v").getType());
+
+		// trimmed to the rows read, nulls are 0 plus a bit
+		assertArrayEquals(new int[] { 1, 0 }, batch.getInts("i"));
+		assertArrayEquals(new int[] { 2, 4 }, batch.getInts("s"));
+		assertArrayEquals(new long[] { 3L, 0L }, batch.getLongs("l"));
+		assertArrayEquals(new double[] { 1.5, 0 }, batch.getDoubles("d"), 0);
+		assertArrayEquals(new double[] { 2.5, 3.5 }, batch.getDoubles("n"), 0);
+		assertArrayEquals(new Object[] { "a", null }, batch.getColumn("v").getObjects());
+
+		assertFalse(batch.isNull("i", 0));
+		assertTrue(batch.isNull("i", 1));
+		assertEquals(1, batch.getColumn("l").getNullCount());
+		assertEquals(0, batch.getColumn("n").getNullCount());
+	}
+
+	@Test
+	public void aColumnIsOnlyReadAsItsType() {
+		db.whenQuery("from student", new String[] { "age" }, new int[] { Types.INTEGER }, new Object[][] { { 1 } });
+		ColumnBatch batch = readAll("select age from student");
+		try {
+			batch.getLongs("age");
+			fail("age is an int column");
+		} catch (RuntimeException e) {
+			assertEquals("Column age is read as INT, not LONG", e.getMessage());
+		}
+		try {
+			batch.getInts("name");
+			fail("no such column");
+		} catch (RuntimeException e) {
+			assertEquals("No column name in [age]", e.getMessage());
+		}
+	}
+
+	@Test
+	public void arraysGrowPastTheInitialCapacity() {
+		int rows = 5000;
+		Object[][] ages = new Object[rows][];
+		for (int i = 0; i < rows; i++)
+			ages[i] = new Object[] { i % 7 == 0 ? null : i };
+		db.whenQuery("from student", new String[] { "age" }, new int[] { Types.INTEGER }, ages);
+
+		ColumnBatch batch = ((StudentMapper) orm.getMapper(Student.class)).getAges();
+		int[] read = batch.getInts("age");
+		assertEquals(rows, read.length);
+		assertEquals(rows - 1, read[rows - 1]);
+		assertEquals((rows + 6) / 7, batch.getColumn("age").getNullCount());
+		assertTrue(batch.isNull("age", 4998));
+	}
+
+	@Test
+	public void chunksAreReadOneAtATimeAndConcatBack() {
+		Object[][] rows = new Object[25][];
+		for (int i = 0; i < rows.length; i++)
+			rows[i] = new Object[] { (long) i, i % 2 == 0 ? null : i * 0.5 };
+		db.whenQuery("from scores", new String[] { "id", "score" }, new int[] { Types.BIGINT, Types.DOUBLE }, rows);
+
+		ColumnBatch.Chunks chunks = new ColumnBatch.Chunks(orm.getJdbc().openCursor("select * from scores",
+				new Object[0], 10), 10);
+		ColumnBatch first = chunks.next();
+		ColumnBatch second = chunks.next();
+		ColumnBatch last = chunks.next();
+		assertFalse(chunks.hasNext());
+		assertEquals(10, first.size());
+		assertEquals(10, second.size());
+		assertEquals(5, last.size());
+		assertEquals(10L, second.getLongs("id")[0]);
+		assertTrue(second.isNull("score", 0));
+
+		ColumnBatch all = ColumnBatch.concat(Arrays.asList(first, second, last));
+		assertEquals(25, all.size());
+		assertEquals(24L, all.getLongs("id")[24]);
+		assertEquals(11.5, all.getDoubles("score")[23], 0);
+		assertEquals(13, all.getColumn("score").getNullCount());
+		assertTrue(all.isNull("score", 24));
+	}
+}
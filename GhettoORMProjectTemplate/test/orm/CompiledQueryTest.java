@@ -0,0 +1,75 @@
+package orm;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+import dao.StudentMapper;
+import entity.Student;
+
+// @Select templates turned into ? statements once, arguments bound by position
+public class CompiledQueryTest {
+
+	private static final EntityMetadata STUDENT = EntityMetadata.of(Student.class);
+
+	private static Map<String, Integer> params(String... names) {
+		Map<String, Integer> indexes = new HashMap<>();
+		for (int i = 0; i < names.length; i++)
+			indexes.put(names[i], i);
+		return indexes;
+	}
+
+	@Test
+	public void namedParamsBecomePositional() {
+		CompiledQuery q = CompiledQuery.compile("select * from :table where a = :x and b = :y or c = :x", "t",
+				params("x", "y"), "m");
+		assertEquals("select * from t where a = ? and b = ? or c = ?", q.getSql());
+		assertEquals(3, q.getParameterCount());
+		assertArrayEquals(new Object[] { "X", "Y", "X" }, q.bind(new Object[] { "X", "Y" }));
+	}
+
+	@Test
+	public void quotedTextIsLeftAlone() {
+		CompiledQuery q = CompiledQuery.compile("select ':x', \"a:y\" from :table where a = :x", "t", params("x"), "m");
+		assertEquals("select ':x', \"a:y\" from t where a = ?", q.getSql());
+		assertEquals(1, q.getParameterCount());
+	}
+
+	@Test
+	public void valuesAreNeverInlined() {
+		CompiledQuery q = CompiledQuery.compile("select * from :table where name = :name", "t", params("name"), "m");
+		Object[] bound = q.bind(new Object[] { "x' or '1'='1" });
+		assertEquals("select * from t where name = ?", q.getSql());
+		assertEquals("x' or '1'='1", bound[0]);
+	}
+
+	@Test
+	public void missingParamFailsWhenCompiled() {
+		try {
+			CompiledQuery.compile("select * from :table where a = :x", "t", params(), "getByX");
+			fail(":x has no @Param");
+		} catch (RuntimeException e) {
+			assertEquals("No @Param(\"x\") on getByX for :x", e.getMessage());
+		}
+	}
+
+	@Test
+	public void primaryKeyLookupsAreRecognized() throws Exception {
+		CompiledQuery byId = CompiledQuery.compile(StudentMapper.class.getMethod("getById", Integer.class), STUDENT);
+		assertTrue(byId.isPkLookup());
+		assertEquals(0, byId.getPkArgIndex());
+
+		CompiledQuery byName = CompiledQuery.compile(
+				StudentMapper.class.getMethod("getByFirstNameAndLastName", String.class, String.class), STUDENT);
+		assertFalse(byName.isPkLookup());
+		assertEquals("select * from student where first_name = ? and last_name = ?", byName.getSql());
+		assertArrayEquals(new Object[] { "A", "B" }, byName.bind(new Object[] { "A", "B" }));
+	}
+}
@@ -0,0 +1,129 @@
+package orm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.lang.reflect.Field;
+
+import org.junit.Test;
+
+// instantiators, getters and setters built once per entity: bean methods first, the field itself
+// when there is no public accessor, GeneratedEntity switches over both
+public class EntityAccessorsTest {
+
+	public static class Bean {
+		private String name;
+		private int hidden;
+		int setterCalls;
+
+		public String getName() {
+			return "bean:" + name;
+		}
+
+		public void setName(String name) {
+			setterCalls++;
+			this.name = name;
+		}
+	}
+
+	public static class Hidden {
+		private Integer id;
+
+		private Hidden() {
+		}
+	}
+
+	public static class NoDefaultConstructor {
+		public NoDefaultConstructor(int x) {
+		}
+	}
+
+	// serves only Bean.name
+	private static final class Generated implements GeneratedEntity {
+		@Override
+		public Class<?> entityClass() {
+			return Bean.class;
+		}
+
+		@Override
+		public String[] fields() {
+			return new String[] { "name" };
+		}
+
+		@Override
+		public boolean hasConstructor() {
+			return true;
+		}
+
+		@Override
+		public Object newInstance() {
+			Bean b = new Bean();
+			b.name = "generated";
+			return b;
+		}
+
+		@Override
+		public Object get(Object entity, int field) {
+			return "generated:" + ((Bean) entity).name;
+		}
+
+		@Override
+		public void set(Object entity, int field, Object value) {
+			((Bean) entity).name = "set:" + value;
+		}
+	}
+
+	private static Field field(Class<?> c, String name) throws NoSuchFieldException {
+		return c.getDeclaredField(name);
+	}
+
+	@Test
+	public void beanMethodsAreUsedWhenPublic() throws Exception {
+		Bean b = (Bean) EntityAccessors.instantiator(Bean.class).get();
+		EntityAccessors.setter(field(Bean.class, "name")).accept(b, "x");
+		assertEquals(1, b.setterCalls);
+		assertEquals("bean:x", EntityAccessors.getter(field(Bean.class, "name")).apply(b));
+	}
+
+	@Test
+	public void fieldsWithoutAccessorsAreReachedDirectly() throws Exception {
+		Bean b = new Bean();
+		EntityAccessors.setter(field(Bean.class, "hidden")).accept(b, 5);
+		assertEquals(5, b.hidden);
+		assertEquals(5, EntityAccessors.getter(field(Bean.class, "hidden")).apply(b));
+	}
+
+	@Test
+	public void privateConstructorsStillInstantiate() throws Exception {
+		Object o = EntityAccessors.instantiator(Hidden.class).get();
+		assertTrue(o instanceof Hidden);
+		EntityAccessors.setter(field(Hidden.class, "id")).accept(o, 3);
+		assertEquals(3, EntityAccessors.getter(field(Hidden.class, "id")).apply(o));
+	}
+
+	@Test
+	public void aNoArgConstructorIsRequired() {
+		try {
+			EntityAccessors.instantiator(NoDefaultConstructor.class);
+			fail("no no-arg constructor");
+		} catch (RuntimeException e) {
+			assertTrue(e.getMessage(), e.getMessage().contains("needs a no-arg constructor"));
+		}
+	}
+
+	@Test
+	public void generatedAccessorsWinForTheFieldsTheyList() throws Exception {
+		GeneratedEntity generated = new Generated();
+		Bean b = (Bean) EntityAccessors.instantiator(Bean.class, generated).get();
+		assertEquals("generated", b.name);
+
+		EntityAccessors.setter(field(Bean.class, "name"), generated).accept(b, "y");
+		assertEquals("set:y", b.name);
+		assertEquals("generated:set:y", EntityAccessors.getter(field(Bean.class, "name"), generated).apply(b));
+
+		// not listed, back to the field
+		EntityAccessors.setter(field(Bean.class, "hidden"), generated).accept(b, 9);
+		assertEquals(9, b.hidden);
+	}
+}
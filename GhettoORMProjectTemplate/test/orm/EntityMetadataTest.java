@@ -0,0 +1,116 @@
+package orm;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import annotations.Column;
+import annotations.Entity;
+import entity.Student;
+
+// what EntityMetadata.of() reads from the annotations, once per entity
+public class EntityMetadataTest {
+
+	private static final EntityMetadata STUDENT = EntityMetadata.of(Student.class);
+
+	@Entity(table = "two_ids")
+	public static class TwoIds {
+		@Column(name = "a", sqlType = "INTEGER", id = true)
+		public Integer a;
+
+		@Column(name = "b", sqlType = "INTEGER", id = true)
+		public Integer b;
+	}
+
+	public static class NotAnEntity {
+		@Column(name = "a", sqlType = "INTEGER", id = true)
+		public Integer a;
+	}
+
+	private static List<String> names(List<ColumnMetadata> columns) {
+		List<String> names = new ArrayList<>();
+		for (ColumnMetadata c : columns)
+			names.add(c.getName());
+		return names;
+	}
+
+	@Test
+	public void columnsAndStatementsComeFromTheAnnotations() {
+		assertEquals("student", STUDENT.getTableName());
+		assertEquals(Arrays.asList("pk", "first_name", "last_name", "age", "subject_id"), names(STUDENT.getColumns()));
+		assertEquals(Arrays.asList("first_name", "last_name", "age", "subject_id"), names(STUDENT.getNonIdColumns()));
+		assertEquals("pk", STUDENT.getIdColumn().getName());
+
+		assertEquals("INSERT INTO student (first_name, last_name, age, subject_id) VALUES (?, ?, ?, ?)",
+				STUDENT.getInsertSql());
+		assertEquals("UPDATE student SET first_name = ?, last_name = ?, age = ?, subject_id = ? WHERE pk = ?",
+				STUDENT.getUpdateSql());
+		assertEquals("DELETE FROM student WHERE pk = ?", STUDENT.getDeleteSql());
+		assertTrue(STUDENT.getCreateTableSql(), STUDENT.getCreateTableSql().startsWith("CREATE TABLE student (pk "));
+		assertTrue(STUDENT.getCreateTableSql(), STUDENT.getCreateTableSql().endsWith("PRIMARY KEY (pk))"));
+	}
+
+	@Test
+	public void headersMapToColumnsByName() {
+		ColumnMetadata[] mapping = STUDENT.mapHeader(new String[] { "age", "nickname", "pk" });
+		assertSame(STUDENT.getColumn("age"), mapping[0]);
+		assertNull(mapping[1]);
+		assertSame(STUDENT.getIdColumn(), mapping[2]);
+		assertFalse(STUDENT.isComplete(mapping));
+	}
+
+	@Test
+	public void hydrateConvertsToTheFieldTypes() {
+		ColumnMetadata[] mapping = STUDENT.mapHeader(new String[] { "pk", "first_name", "age" });
+		Student s = (Student) STUDENT.hydrate(mapping, new Object[] { 7L, "Ann", 20L });
+		assertEquals(Integer.valueOf(7), s.getId());
+		assertEquals("Ann", s.getFirst());
+		assertEquals(Integer.valueOf(20), s.getAge());
+
+		Object[] row = STUDENT.toRow(s);
+		assertArrayEquals(new Object[] { 7, "Ann", null, 20, null }, row);
+		assertArrayEquals(row, STUDENT.toRow(STUDENT.fromRow(row)));
+		assertArrayEquals(new Object[] { "Ann", null, 20, null, 7 }, STUDENT.getUpdateValues(s));
+	}
+
+	@Test
+	public void changedColumnsPickThePartialUpdate() {
+		Object[] before = { 7, "Ann", "Lee", 20, null };
+		Object[] after = { 7, "Ann", "Lee", 21, 3 };
+		long changed = STUDENT.changedColumns(before, after);
+
+		assertEquals("UPDATE student SET age = ?, subject_id = ? WHERE pk = ?", STUDENT.getUpdateSql(changed));
+		assertArrayEquals(new Object[] { 21, 3, 7 }, STUDENT.getUpdateValues(after, changed));
+		assertEquals(0, STUDENT.changedColumns(before, before.clone()));
+	}
+
+	@Test
+	public void exactlyOneIdColumn() {
+		try {
+			EntityMetadata.of(TwoIds.class);
+			fail("two id columns");
+		} catch (RuntimeException e) {
+			assertTrue(e.getMessage(), e.getMessage().contains("exactly 1 ID Column"));
+		}
+	}
+
+	@Test
+	public void entityAnnotationIsRequired() {
+		try {
+			EntityMetadata.of(NotAnEntity.class);
+			fail("no @Entity");
+		} catch (RuntimeException e) {
+			assertTrue(e.getMessage(), e.getMessage().contains("missing @Entity"));
+		}
+	}
+}
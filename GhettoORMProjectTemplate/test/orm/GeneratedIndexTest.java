@@ -0,0 +1,90 @@
+package orm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.Proxy;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import dao.StudentMapper;
+import entity.Student;
+import standin.StandInDatabase;
+import standin.StandInDriver;
+
+// the build runs processor.OrmProcessor over src, so init() finds dao.OrmIndex and never scans
+public class GeneratedIndexTest {
+
+	private static final Logger ORM_LOG = Logger.getLogger(MyORM.class.getName());
+
+	private final List<String> messages = new ArrayList<>();
+	private final Handler handler = new Handler() {
+		@Override
+		public void publish(LogRecord record) {
+			messages.add(record.getMessage());
+		}
+
+		@Override
+		public void flush() {
+		}
+
+		@Override
+		public void close() {
+		}
+	};
+
+	private StandInDatabase db;
+	private MyORM orm;
+	private Level level;
+
+	@Before
+	public void setUp() throws Exception {
+		level = ORM_LOG.getLevel();
+		handler.setLevel(Level.FINE);
+		ORM_LOG.setLevel(Level.FINE);
+		ORM_LOG.addHandler(handler);
+
+		db = StandInDatabase.get("generated");
+		db.clear();
+		orm = new MyORM(StandInDriver.class.getName(), db.getUrl(), "", "");
+		orm.getMetrics().setJmxEnabled(false);
+		orm.init();
+	}
+
+	@After
+	public void tearDown() {
+		ORM_LOG.removeHandler(handler);
+		ORM_LOG.setLevel(level);
+		orm.shutdown();
+	}
+
+	@Test
+	public void indexIsLoadedInsteadOfScanning() {
+		assertTrue(messages.toString(), messages.contains("ORM: Using dao.OrmIndex, classpath scanning skipped"));
+		assertTrue(messages.toString(), messages.contains("ORM: Mapped Student -> StudentMapper"));
+	}
+
+	@Test
+	public void mappersAreTheGeneratedClasses() {
+		Object mapper = orm.getMapper(Student.class);
+		assertEquals("dao.StudentMapperImpl", mapper.getClass().getName());
+		assertFalse(Proxy.isProxyClass(mapper.getClass()));
+
+		db.whenQuery("select \\* from student", new String[] { "pk", "first_name", "last_name", "age", "subject_id" },
+				new int[] { Types.INTEGER, Types.VARCHAR, Types.VARCHAR, Types.INTEGER, Types.INTEGER },
+				new Object[][] { { 7, "Ann", "Lee", 20, null } });
+		Student s = ((StudentMapper) mapper).getById(7);
+		assertEquals("Ann", s.getFirst());
+		assertEquals(Integer.valueOf(20), s.getAge());
+	}
+}
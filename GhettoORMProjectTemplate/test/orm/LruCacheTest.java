@@ -0,0 +1,117 @@
+package orm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+// the entity cache: versions that keep stale loads out, tombstones, LRU eviction and the TTL
+public class LruCacheTest {
+
+	@Test
+	public void loadIsStoredWhenNothingChanged() {
+		LruCache<Integer, String> cache = new LruCache<>(10, 0);
+		long gen = cache.generation(1);
+		cache.putIfGeneration(1, "loaded", gen);
+		assertEquals("loaded", cache.get(1));
+	}
+
+	@Test
+	public void invalidationDuringALoadWins() {
+		LruCache<Integer, String> cache = new LruCache<>(10, 0);
+		long gen = cache.generation(1);
+		cache.invalidate(1);	// a writer got in while the row was read
+		cache.putIfGeneration(1, "stale", gen);
+		assertNull(cache.get(1));
+
+		// the next load sees the tombstone's version and may store
+		cache.putIfGeneration(1, "fresh", cache.generation(1));
+		assertEquals("fresh", cache.get(1));
+	}
+
+	@Test
+	public void writesToOtherKeysDoNotBlockALoad() {
+		LruCache<Integer, String> cache = new LruCache<>(10, 0);
+		long gen = cache.generation(1);
+		cache.invalidate(2);
+		cache.put(3, "three");
+		cache.putIfGeneration(1, "one", gen);
+		assertEquals("one", cache.get(1));
+	}
+
+	@Test
+	public void replacedEntryStopsAnOlderLoad() {
+		LruCache<Integer, String> cache = new LruCache<>(10, 0);
+		cache.put(1, "v1");
+		long gen = cache.generation(1);
+		cache.put(1, "v2");
+		cache.putIfGeneration(1, "from an old read", gen);
+		assertEquals("v2", cache.get(1));
+	}
+
+	@Test
+	public void clearStopsLoadsStartedBefore() {
+		LruCache<Integer, String> cache = new LruCache<>(10, 0);
+		long gen = cache.generation(1);
+		cache.clear();
+		cache.putIfGeneration(1, "stale", gen);
+		assertNull(cache.get(1));
+	}
+
+	@Test
+	public void evictedTombstoneStillStopsAnOlderLoad() {
+		LruCache<Integer, String> cache = new LruCache<>(10, 0);
+		long gen = cache.generation(0);
+		cache.invalidate(0);
+		// push the tombstone out
+		for (int i = 1; i <= 10; i++)
+			cache.put(i, "v" + i);
+		assertTrue(cache.getSize() <= 10);
+		cache.putIfGeneration(0, "stale", gen);
+		assertNull(cache.get(0));
+	}
+
+	@Test
+	public void leastRecentlyReadEntriesAreEvicted() throws Exception {
+		LruCache<Integer, String> cache = new LruCache<>(10, 0);
+		for (int i = 0; i < 10; i++)
+			cache.put(i, "v" + i);
+		Thread.sleep(1);
+		for (int i = 5; i < 10; i++)
+			cache.get(i);
+		cache.put(10, "v10");
+
+		// trimmed back to 90%: the two oldest unread entries went
+		assertEquals(9, cache.getSize());
+		assertEquals(2, cache.getEvictions());
+		assertNull(cache.get(0));
+		assertNull(cache.get(1));
+		for (int i = 5; i <= 10; i++)
+			assertEquals("v" + i, cache.get(i));
+	}
+
+	@Test
+	public void expiredEntriesAreMisses() throws Exception {
+		LruCache<Integer, String> cache = new LruCache<>(10, 1);
+		cache.put(1, "one");
+		Thread.sleep(5);
+		assertNull(cache.get(1));
+		assertEquals(0, cache.getSize());
+	}
+
+	@Test
+	public void statsCountHitsMissesAndInvalidations() {
+		LruCache<Integer, String> cache = new LruCache<>(10, 0);
+		cache.put(1, "one");
+		cache.get(1);
+		cache.get(2);
+		cache.invalidate(1);
+		cache.invalidate(2);	// nothing cached, not counted
+		CacheStats stats = cache.getStats();
+		assertEquals(1, stats.getHits());
+		assertEquals(1, stats.getMisses());
+		assertEquals(1, stats.getInvalidations());
+		assertEquals(0.5, stats.getHitRatio(), 0.0001);
+	}
+}
@@ -0,0 +1,80 @@
+package orm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.Method;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import dao.BasicMapper;
+import dao.StudentMapper;
+import entity.Student;
+import standin.StandInDatabase;
+import standin.StandInDriver;
+
+// mappers are made once per interface, their methods resolved once, BasicMapper methods included
+public class MapperDispatchTest {
+
+	private StandInDatabase db;
+	private MyORM orm;
+
+	@Before
+	public void setUp() throws Exception {
+		db = StandInDatabase.get("dispatch");
+		db.clear();
+		orm = new MyORM(StandInDriver.class.getName(), db.getUrl(), "", "");
+		orm.getMetrics().setJmxEnabled(false);
+		orm.init();
+	}
+
+	@After
+	public void tearDown() {
+		db.setLogging(false);
+		orm.shutdown();
+	}
+
+	@Test
+	public void oneMapperPerInterface() {
+		Object mapper = orm.getMapper(Student.class);
+		assertSame(mapper, orm.getMapper(Student.class));
+		assertTrue(mapper instanceof StudentMapper);
+
+		// session mappers queue into their session, each session has its own
+		try (Session session = orm.openSession()) {
+			assertNotSame(mapper, session.getMapper(Student.class));
+		}
+	}
+
+	@Test
+	public void operationsAreResolvedOnce() {
+		Map<Method, MapperOperation> ops = orm.getOperations(StudentMapper.class);
+		assertSame(ops, orm.getOperations(StudentMapper.class));
+	}
+
+	@Test
+	public void basicMapperMethodsRunTheAnnotatedOverride() throws Exception {
+		// save(Object) of BasicMapper<T>, as the interface hands it out
+		Map<Method, MapperOperation> ops = orm.getOperations(StudentMapper.class);
+		MapperOperation save = ops.get(StudentMapper.class.getMethod("save", Object.class));
+		assertEquals(MapperOperation.Kind.SAVE, save.getKind());
+		assertEquals(StudentMapper.class.getMethod("save", Student.class), save.getMethod());
+		assertEquals(MapperOperation.Kind.DELETE, ops.get(StudentMapper.class.getMethod("delete", Object.class)).getKind());
+
+		@SuppressWarnings("unchecked")
+		BasicMapper<Student> basic = (BasicMapper<Student>) orm.getMapper(Student.class);
+		Student s = new Student();
+		s.setFirst("B");
+		db.setLogging(true);
+		basic.save(s);
+		List<String> log = db.getLog();
+		assertTrue(log.toString(), log.get(0).startsWith("INSERT INTO student"));
+		assertTrue(s.getId() != null);
+	}
+}
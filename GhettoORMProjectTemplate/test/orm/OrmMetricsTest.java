@@ -0,0 +1,79 @@
+package orm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.util.Set;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.Test;
+
+import dao.StudentMapper;
+import entity.Student;
+import standin.StandInDatabase;
+import standin.StandInDriver;
+
+// the MBeans of each MyORM carry its instance key and leave with shutdown()
+public class OrmMetricsTest {
+
+	private static final MBeanServer SERVER = ManagementFactory.getPlatformMBeanServer();
+
+	private static MyORM orm(String instanceName) throws Exception {
+		MyORM orm = new MyORM(StandInDriver.class.getName(), StandInDatabase.get("metrics").getUrl(), "", "");
+		if (instanceName != null)
+			orm.getMetrics().setInstanceName(instanceName);
+		orm.init();
+		return orm;
+	}
+
+	private static Set<ObjectName> mbeans(MyORM orm) throws Exception {
+		return SERVER.queryNames(new ObjectName("orm:instance=" + orm.getMetrics().getInstanceName() + ",*"), null);
+	}
+
+	@Test
+	public void everyInstanceExportsItsOwnMBeans() throws Exception {
+		MyORM first = orm(null);
+		MyORM second = orm(null);
+		try {
+			assertNotEquals(first.getMetrics().getInstanceName(), second.getMetrics().getInstanceName());
+
+			((StudentMapper) second.getMapper(Student.class)).getAll();
+			ObjectName pool = new ObjectName("orm:type=ConnectionPool,instance=" + second.getMetrics().getInstanceName());
+			ObjectName method = new ObjectName("orm:type=MapperMethod,instance=" + second.getMetrics().getInstanceName()
+					+ ",mapper=StudentMapper,method=getAll/0");
+			assertTrue(SERVER.isRegistered(pool));
+			assertEquals(1L, SERVER.getAttribute(method, "Calls"));
+
+			// the first instance has its pool and caches, but not the other's method
+			assertTrue(mbeans(first).contains(
+					new ObjectName("orm:type=ConnectionPool,instance=" + first.getMetrics().getInstanceName())));
+			assertEquals(mbeans(first).size() + 1, mbeans(second).size());
+		} finally {
+			first.shutdown();
+			second.shutdown();
+		}
+		assertTrue(mbeans(first).isEmpty());
+		assertTrue(mbeans(second).isEmpty());
+	}
+
+	@Test
+	public void aNameCanBeRegisteredAgainAfterShutdown() throws Exception {
+		MyORM orm = orm("reports");
+		Set<ObjectName> registered = mbeans(orm);
+		assertTrue(registered.contains(new ObjectName("orm:type=ConnectionPool,instance=reports")));
+		orm.shutdown();
+		assertTrue(mbeans(orm).isEmpty());
+
+		MyORM again = orm("reports");
+		try {
+			assertEquals(registered, mbeans(again));
+		} finally {
+			again.shutdown();
+		}
+		assertTrue(mbeans(again).isEmpty());
+	}
+}
@@ -0,0 +1,145 @@
+package orm;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.lang.reflect.Method;
+import java.sql.Types;
+import java.util.List;
+
+import org.junit.Test;
+
+import annotations.Param;
+import annotations.Select;
+import dao.StudentMapper;
+import entity.Student;
+import standin.StandInDatabase;
+import standin.StandInDriver;
+
+// the keyset / offset rewrite of paged @Select templates, and a few pages read through StudentMapper
+public class PagedQueryTest {
+
+	interface Queries {
+		@Select("select * from :table")
+		Slice<Student> all(PageRequest page);
+
+		@Select("select * from :table where last_name = :lastName")
+		Page<Student> byLastName(@Param("lastName") String lastName, PageRequest page);
+
+		@Select("select * from :table order by age")
+		Slice<Student> sorted(PageRequest page);
+	}
+
+	private static final EntityMetadata STUDENT = EntityMetadata.of(Student.class);
+
+	private static PagedQuery paged(String name) throws NoSuchMethodException {
+		for (Method m : Queries.class.getDeclaredMethods())
+			if (m.getName().equals(name))
+				return PagedQuery.compile(m, STUDENT);
+		throw new NoSuchMethodException(name);
+	}
+
+	@Test
+	public void firstKeysetPageOrdersByIdAndFetchesOneRowMore() throws Exception {
+		PagedQuery paged = paged("all");
+		PageRequest request = PageRequest.of(2);
+		CompiledQuery query = paged.query(request);
+
+		assertEquals("select * from student ORDER BY pk LIMIT ?", query.getSql());
+		assertArrayEquals(new Object[] { 3 }, paged.bind(query, new Object[] { request }, request));
+	}
+
+	@Test
+	public void laterKeysetPagesSeekPastTheLastId() throws Exception {
+		PagedQuery paged = paged("byLastName");
+		PageRequest request = PageRequest.of(2).next(null, 5);
+		CompiledQuery query = paged.query(request);
+
+		assertEquals("select * from student where (last_name = ?) AND pk > ? ORDER BY pk LIMIT ?", query.getSql());
+		assertArrayEquals(new Object[] { "B", 5, 3 }, paged.bind(query, new Object[] { "B", request }, request));
+	}
+
+	@Test
+	public void sortColumnSeeksWithTheIdAsTieBreaker() throws Exception {
+		PagedQuery paged = paged("all");
+		PageRequest request = PageRequest.of(2, "age").descending().next(30, 7);
+		CompiledQuery query = paged.query(request);
+
+		assertEquals("select * from student WHERE (age < ? OR (age = ? AND pk < ?)) ORDER BY age DESC, pk DESC LIMIT ?",
+				query.getSql());
+		assertArrayEquals(new Object[] { 30, 30, 7, 3 }, paged.bind(query, new Object[] { request }, request));
+	}
+
+	@Test
+	public void offsetPagesSkipTheRowsBefore() throws Exception {
+		PagedQuery paged = paged("byLastName");
+		PageRequest request = PageRequest.ofOffset(3, 10);
+		CompiledQuery query = paged.query(request);
+
+		assertEquals("select * from student where last_name = ? ORDER BY pk LIMIT ? OFFSET ?", query.getSql());
+		assertArrayEquals(new Object[] { "B", 11, 30L }, paged.bind(query, new Object[] { "B", request }, request));
+	}
+
+	@Test
+	public void countQueryWrapsTheTemplate() throws Exception {
+		assertEquals("SELECT COUNT(*) FROM (select * from student where last_name = ?) page_count",
+				paged("byLastName").countQuery().getSql());
+	}
+
+	@Test
+	public void templatesMustNotSortThemselves() {
+		try {
+			paged("sorted");
+			fail("ORDER BY in a paged template");
+		} catch (Exception e) {
+			assertTrue(e.getMessage(), e.getMessage().contains("ORDER BY"));
+		}
+	}
+
+	@Test
+	public void onlyDeclaredColumnsSort() throws Exception {
+		try {
+			paged("all").query(PageRequest.of(2, "age; drop table student"));
+			fail("unknown sort column");
+		} catch (RuntimeException e) {
+			assertTrue(e.getMessage(), e.getMessage().contains("No @Column"));
+		}
+	}
+
+	@Test
+	public void slicesChainThroughTheMapper() throws Exception {
+		StandInDatabase db = StandInDatabase.get("pagedquery");
+		db.clear();
+		db.whenQuery("from student", new String[] { "pk", "first_name", "last_name", "age", "subject_id" },
+				new int[] { Types.INTEGER, Types.VARCHAR, Types.VARCHAR, Types.INTEGER, Types.INTEGER },
+				new Object[][] { { 4, "A", "B", 14, null }, { 5, "C", "D", 15, null }, { 6, "E", "F", 16, null } });
+
+		MyORM orm = new MyORM(StandInDriver.class.getName(), db.getUrl(), "", "");
+		orm.getMetrics().setJmxEnabled(false);
+		orm.init();
+		try {
+			StudentMapper sm = (StudentMapper) orm.getMapper(Student.class);
+			db.setLogging(true);
+
+			Slice<Student> first = sm.getAll(PageRequest.of(2));
+			assertEquals(2, first.getNumberOfElements());
+			assertTrue(first.hasNext());
+
+			// the stand-in answers with the same 3 rows, the seek value is the last row of the page
+			Slice<Student> second = sm.getAll(first.nextPageRequest());
+			assertFalse(second.getContent().isEmpty());
+
+			List<String> log = db.getLog();
+			assertEquals("select * from student ORDER BY pk LIMIT ? [3]", log.get(0));
+			assertEquals("select * from student WHERE pk > ? ORDER BY pk LIMIT ? [5, 3]", log.get(1));
+			assertNull(first.getContent().get(0).getSubject());
+		} finally {
+			db.setLogging(false);
+			orm.shutdown();
+		}
+	}
+}
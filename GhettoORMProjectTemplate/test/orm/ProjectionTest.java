@@ -0,0 +1,172 @@
+package orm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import annotations.Select;
+import entity.Student;
+
+// constructor projections of classes without parameter names (this folder is compiled without
+// -parameters): by position only when the select list says that fits. classes with names are
+// compiled by the test itself
+public class ProjectionTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	public static class NameAndAge {
+		final String name;
+		final Integer age;
+
+		public NameAndAge(String name, Integer age) {
+			this.name = name;
+			this.age = age;
+		}
+	}
+
+	public static class AgeAndName {
+		public AgeAndName(int age, String name) {
+		}
+	}
+
+	interface Queries {
+		@Select("select first_name, age from :table")
+		List<NameAndAge> inOrder();
+
+		@Select("select first_name, age from :table")
+		List<AgeAndName> swapped();
+
+		@Select("select first_name, last_name, age from :table")
+		List<NameAndAge> tooMany();
+
+		@Select("select * from :table")
+		List<NameAndAge> star();
+
+		@Select("select last_name, count(*) from :table group by last_name")
+		List<NameAndAge> counted();
+	}
+
+	private static final EntityMetadata STUDENT = EntityMetadata.of(Student.class);
+
+	private static Projection projection(String name, Class<?> type) throws NoSuchMethodException {
+		Method m = Queries.class.getDeclaredMethod(name);
+		assertFalse("compiled with -parameters", NameAndAge.class.getConstructors()[0].getParameters()[0].isNamePresent());
+		return Projection.of(type, STUDENT, m);
+	}
+
+	private static void assertRejected(String name, Class<?> type, String message) throws NoSuchMethodException {
+		try {
+			projection(name, type);
+			fail(name + " should not bind");
+		} catch (RuntimeException e) {
+			assertTrue(e.getMessage(), e.getMessage().contains(message));
+		}
+	}
+
+	@Test
+	public void matchingColumnsGoByPosition() throws Exception {
+		NameAndAge row = (NameAndAge) projection("inOrder", NameAndAge.class)
+				.forHeader(new String[] { "first_name", "age" }).apply(new Object[] { "A", 14L });
+		assertEquals("A", row.name);
+		assertEquals(Integer.valueOf(14), row.age);
+	}
+
+	@Test
+	public void expressionsAreNotTypeChecked() throws Exception {
+		projection("counted", NameAndAge.class);
+	}
+
+	@Test
+	public void mismatchedTypesFailWhenBound() throws Exception {
+		assertRejected("swapped", AgeAndName.class, "-parameters");
+	}
+
+	@Test
+	public void mismatchedCountsFailWhenBound() throws Exception {
+		assertRejected("tooMany", NameAndAge.class, "no public constructor");
+	}
+
+	@Test
+	public void selectStarHasNoOrder() throws Exception {
+		assertRejected("star", NameAndAge.class, "-parameters");
+	}
+
+	// public class name { public name(params) {} }, compiled with -parameters
+	private Class<?> withParameterNames(String name, String params) throws Exception {
+		return withParameterNames(name, params, "");
+	}
+
+	private Class<?> withParameterNames(String name, String params, String body) throws Exception {
+		File dir = folder.getRoot();
+		File source = new File(dir, name + ".java");
+		Files.write(source.toPath(), ("public class " + name + " { public " + name + "(" + params + ") {" + body + "} }")
+				.getBytes(StandardCharsets.UTF_8));
+		JavaCompiler javac = ToolProvider.getSystemJavaCompiler();
+		assertEquals(0, javac.run(null, null, null, "-parameters", "-d", dir.getPath(), source.getPath()));
+
+		URLClassLoader loader = new URLClassLoader(new URL[] { dir.toURI().toURL() });
+		return loader.loadClass(name);
+	}
+
+	@Test
+	public void namedParametersGoByName() throws Exception {
+		Class<?> type = withParameterNames("AgeFirst", "Integer age, String firstName",
+				"if (age != 14 || !firstName.equals(\"A\")) throw new IllegalStateException();");
+		assertTrue(type.getConstructors()[0].getParameters()[0].isNamePresent());
+		projection("inOrder", type).forHeader(new String[] { "first_name", "age" })
+				.apply(new Object[] { "A", 14L });
+	}
+
+	@Test
+	public void unmatchedParameterNameFailsWhenBound() throws Exception {
+		Class<?> type = withParameterNames("NameAndYears", "String firstName, Integer years");
+		assertRejected("inOrder", type, "Parameter years of the constructor of NameAndYears matches none of the "
+				+ "selected columns [first_name, age]");
+	}
+
+	@Test
+	public void unmatchedParameterNameFailsOnTheResult() throws Exception {
+		Class<?> type = withParameterNames("NameAndYears", "String firstName, Integer years");
+		Projection projection = Projection.of(type, STUDENT, Queries.class.getDeclaredMethod("star"));
+		try {
+			projection.forHeader(new String[] { "first_name", "age" });
+			fail("years has no column");
+		} catch (RuntimeException e) {
+			assertTrue(e.getMessage(), e.getMessage().contains("Parameter years"));
+			assertTrue(e.getMessage(), e.getMessage().contains("[first_name, age]"));
+		}
+	}
+
+	@Test
+	public void selectListLabels() {
+		assertEquals(Arrays.asList("first_name", "age"), Projection.selectList("select first_name, age from :table"));
+		assertEquals(Arrays.asList("name", "oldest", ""),
+				Projection.selectList("select s.first_name as name, max(age) oldest, count(*) from :table s"));
+		assertEquals(Arrays.asList("y"), Projection.selectList("SELECT extract(year from d) AS y FROM t"));
+		assertEquals(Collections.singletonList("last_name"), Projection.selectList("select distinct last_name from t"));
+		assertEquals(Arrays.asList("x", "b"), Projection.selectList("select 'a, b from c' x, b from t"));
+		assertNull(Projection.selectList("select * from :table"));
+		assertNull(Projection.selectList("select s.* from :table s"));
+		assertNull(Projection.selectList("call proc()"));
+	}
+}
@@ -0,0 +1,131 @@
+package orm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import realdb.QueryResult;
+import standin.StandInDatabase;
+import standin.StandInDriver;
+
+// single-flight loading and invalidation of a @Select(cached = true) result cache
+public class QueryCacheTest {
+
+	private static final Object[] PARAMS = { "A", "B" };
+
+	private MyORM orm;
+	private QueryCache cache;
+
+	@Before
+	public void setUp() throws Exception {
+		StandInDatabase db = StandInDatabase.get("querycache");
+		orm = new MyORM(StandInDriver.class.getName(), db.getUrl(), "", "");
+		orm.getMetrics().setJmxEnabled(false);
+		orm.init();
+		cache = new QueryCache("student", 100, 0);
+	}
+
+	@After
+	public void tearDown() {
+		orm.shutdown();
+	}
+
+	// a new QueryResult per call, from the stand-in
+	private QueryResult rows() {
+		return orm.getJdbc().runQuery("select 1", new Object[0]);
+	}
+
+	@Test
+	public void concurrentMissesRunOneQuery() throws Exception {
+		AtomicInteger loads = new AtomicInteger();
+		CountDownLatch loading = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		Callable<QueryResult> loader = () -> {
+			loads.incrementAndGet();
+			loading.countDown();
+			release.await();
+			return rows();
+		};
+
+		int callers = 8;
+		QueryResult[] results = new QueryResult[callers];
+		List<Thread> threads = new ArrayList<>();
+		for (int i = 0; i < callers; i++) {
+			int caller = i;
+			Thread t = new Thread(() -> {
+				try {
+					results[caller] = cache.get(PARAMS.clone(), loader);
+				} catch (Exception e) {
+					throw new RuntimeException(e);
+				}
+			});
+			threads.add(t);
+			t.start();
+		}
+
+		// every caller is parked, one in the loader and the others on its future
+		assertTrue(loading.await(5, TimeUnit.SECONDS));
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+		for (Thread t : threads)
+			while (t.getState() != Thread.State.WAITING && System.nanoTime() < deadline)
+				Thread.sleep(1);
+		release.countDown();
+		for (Thread t : threads)
+			t.join(5000);
+
+		assertEquals(1, loads.get());
+		for (QueryResult r : results)
+			assertSame(results[0], r);
+		assertSame(results[0], cache.get(PARAMS.clone(), () -> {
+			throw new AssertionError("cached");
+		}));
+	}
+
+	@Test
+	public void failedLoadsAreNotCached() throws Exception {
+		try {
+			cache.get(PARAMS, () -> {
+				throw new IllegalStateException("down");
+			});
+			fail("the loader failed");
+		} catch (IllegalStateException expected) {
+		}
+
+		QueryResult loaded = cache.get(PARAMS, this::rows);
+		assertSame(loaded, cache.get(PARAMS, this::rows));
+	}
+
+	@Test
+	public void writeDuringLoadKeepsTheOldRowsOut() throws Exception {
+		// the write lands while the query runs, its rows may predate it
+		QueryResult raced = cache.get(PARAMS, () -> {
+			QueryResult r = rows();
+			cache.invalidateAll();
+			return r;
+		});
+
+		QueryResult fresh = cache.get(PARAMS, this::rows);
+		assertNotSame(raced, fresh);
+		assertSame(fresh, cache.get(PARAMS, this::rows));
+	}
+
+	@Test
+	public void invalidateAllDropsEveryResult() throws Exception {
+		QueryResult first = cache.get(PARAMS, this::rows);
+		cache.invalidateAll();
+		assertNotSame(first, cache.get(PARAMS, this::rows));
+	}
+}
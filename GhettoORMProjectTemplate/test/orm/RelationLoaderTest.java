@@ -0,0 +1,143 @@
+package orm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import annotations.Column;
+import annotations.Entity;
+import annotations.FetchType;
+import annotations.ManyToOne;
+import dao.StudentMapper;
+import dao.SubjectMapper;
+import entity.Student;
+import entity.Subject;
+import standin.StandInDatabase;
+import standin.StandInDriver;
+
+// relationships are loaded with one WHERE ... IN (...) query per batch, never one per entity
+public class RelationLoaderTest {
+
+	private static final String[] STUDENT_COLUMNS = { "pk", "first_name", "last_name", "age", "subject_id" };
+	private static final int[] STUDENT_TYPES = { Types.INTEGER, Types.VARCHAR, Types.VARCHAR, Types.INTEGER,
+			Types.INTEGER };
+	private static final String[] SUBJECT_COLUMNS = { "id", "name", "num_students" };
+	private static final int[] SUBJECT_TYPES = { Types.INTEGER, Types.VARCHAR, Types.INTEGER };
+
+	@Entity(table = "lazy_child")
+	public static class LazyChild {
+		@Column(name = "id", sqlType = "INTEGER", id = true)
+		public Integer id;
+
+		@Column(name = "subject_id", sqlType = "INTEGER")
+		public Integer subjectId;
+
+		@ManyToOne(column = "subject_id", fetch = FetchType.LAZY)
+		public Subject subject;
+	}
+
+	private StandInDatabase db;
+	private MyORM orm;
+
+	@Before
+	public void setUp() throws Exception {
+		db = StandInDatabase.get("relations");
+		db.clear();
+		db.whenQuery("FROM subject WHERE", SUBJECT_COLUMNS, SUBJECT_TYPES,
+				new Object[][] { { 1, "Math", 2 }, { 2, "Art", 1 } });
+		orm = new MyORM(StandInDriver.class.getName(), db.getUrl(), "", "");
+		orm.getMetrics().setJmxEnabled(false);
+		orm.init();
+		db.setLogging(true);
+	}
+
+	@After
+	public void tearDown() {
+		db.setLogging(false);
+		orm.shutdown();
+	}
+
+	private List<String> queriesOf(String table) {
+		List<String> queries = new ArrayList<>();
+		for (String line : db.getLog())
+			if (line.startsWith("SELECT * FROM " + table))
+				queries.add(line);
+		return queries;
+	}
+
+	@Test
+	public void parentsOfAListAreFetchedInOneQuery() {
+		db.whenQuery("select \\* from student", STUDENT_COLUMNS, STUDENT_TYPES,
+				new Object[][] { { 1, "A", "L", 20, 1 }, { 2, "B", "L", 21, 2 }, { 3, "C", "L", 22, 1 } });
+		StudentMapper sm = (StudentMapper) orm.getMapper(Student.class);
+
+		List<Student> students = sm.getAll();
+
+		List<String> queries = queriesOf("subject");
+		assertEquals(queries.toString(), 1, queries.size());
+		assertEquals("SELECT * FROM subject WHERE id IN (?, ?) [1, 2]", queries.get(0));
+		assertEquals("Math", students.get(0).getSubject().getName());
+		assertSame(students.get(0).getSubject(), students.get(2).getSubject());
+
+		// Subject is cached, the second load needs no query for the parents
+		sm.getAll();
+		assertEquals(1, queriesOf("subject").size());
+	}
+
+	@Test
+	public void manyParentsAreFetchedInBatches() {
+		Object[][] rows = new Object[150][];
+		for (int i = 0; i < rows.length; i++)
+			rows[i] = new Object[] { i + 1, "S", "L", 20, 1000 + i };
+		db.whenQuery("select \\* from student", STUDENT_COLUMNS, STUDENT_TYPES, rows);
+		StudentMapper sm = (StudentMapper) orm.getMapper(Student.class);
+
+		sm.getAll();
+
+		// batchSize 100, the rest rounded up to a power of two so the statements repeat
+		List<String> queries = queriesOf("subject");
+		assertEquals(queries.toString(), 2, queries.size());
+		assertEquals(100, queries.get(0).split("\\?", -1).length - 1);
+		assertEquals(64, queries.get(1).split("\\?", -1).length - 1);
+	}
+
+	@Test
+	public void lazyChildrenLoadForTheWholeListOnFirstUse() {
+		db.whenQuery("select \\* from subject", SUBJECT_COLUMNS, SUBJECT_TYPES,
+				new Object[][] { { 1, "Math", 2 }, { 2, "Art", 1 } });
+		db.whenQuery("FROM student WHERE", STUDENT_COLUMNS, STUDENT_TYPES,
+				new Object[][] { { 1, "A", "L", 20, 1 }, { 2, "B", "L", 21, 2 }, { 3, "C", "L", 22, 1 } });
+		SubjectMapper sm = (SubjectMapper) orm.getMapper(Subject.class);
+
+		List<Subject> subjects = sm.getAll();
+		assertTrue(queriesOf("student").isEmpty());
+
+		assertEquals(2, subjects.get(0).getStudents().size());
+		assertEquals(1, subjects.get(1).getStudents().size());
+		List<String> queries = queriesOf("student");
+		assertEquals(queries.toString(), 1, queries.size());
+		assertEquals("SELECT * FROM student WHERE subject_id IN (?, ?) [1, 2]", queries.get(0));
+
+		// the children point back at their parent without a query
+		assertSame(subjects.get(0), subjects.get(0).getStudents().get(0).getSubject());
+	}
+
+	@Test
+	public void lazyManyToOneIsRejected() {
+		try {
+			EntityMetadata.of(LazyChild.class);
+			fail("a LAZY @ManyToOne has nothing to load it");
+		} catch (RuntimeException e) {
+			assertTrue(e.getMessage(), e.getMessage().contains("@ManyToOne field subject cannot be LAZY"));
+		}
+	}
+}
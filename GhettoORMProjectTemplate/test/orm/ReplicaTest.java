@@ -0,0 +1,159 @@
+package orm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.Proxy;
+import java.sql.Types;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import annotations.MappedClass;
+import annotations.Param;
+import annotations.Save;
+import annotations.Select;
+import dao.StudentMapper;
+import entity.Student;
+import standin.StandInDatabase;
+import standin.StandInDriver;
+
+// which database a call goes to with a replica: reads to the replica, writes and the reads that
+// must see them to the primary, everything to the primary while the replica cannot be reached
+public class ReplicaTest {
+
+	@MappedClass(clazz = Student.class)
+	public interface Reads {
+		@Select("select * from :table")
+		List<Student> all();
+
+		@Select(value = "select * from :table where age = :age", readFromPrimary = true)
+		List<Student> fresh(@Param("age") int age);
+
+		@Save
+		void save(Student s);
+	}
+
+	private StandInDatabase primary;
+	private StandInDatabase replica;
+	private MyORM orm;
+	private Reads reads;
+
+	// every row says which database it came from
+	private static void rows(StandInDatabase db, String first) {
+		db.clear();
+		db.whenQuery("select \\* from student", new String[] { "pk", "first_name", "last_name", "age", "subject_id" },
+				new int[] { Types.INTEGER, Types.VARCHAR, Types.VARCHAR, Types.INTEGER, Types.INTEGER },
+				new Object[][] { { 1, first, "L", 20, 7 } });
+	}
+
+	@Before
+	public void setUp() throws Exception {
+		primary = StandInDatabase.get("replicatest-primary");
+		replica = StandInDatabase.get("replicatest-replica");
+		rows(primary, "primary");
+		rows(replica, "replica");
+
+		orm = new MyORM(StandInDriver.class.getName(), primary.getUrl(), "", "");
+		orm.getMetrics().setJmxEnabled(false);
+		orm.addReplica(replica.getUrl());
+		orm.init();
+		primary.setLogging(true);
+		replica.setLogging(true);
+
+		reads = (Reads) Proxy.newProxyInstance(Reads.class.getClassLoader(), new Class<?>[] { Reads.class },
+				new DaoInvocationHandler(orm, Reads.class));
+	}
+
+	@After
+	public void tearDown() {
+		primary.setLogging(false);
+		replica.setLogging(false);
+		primary.setDown(false);
+		replica.setDown(false);
+		orm.shutdown();
+	}
+
+	// sql first, then whatever goes with it (relation loads, the COMMIT)
+	private static void assertRan(StandInDatabase db, String sql) {
+		List<String> log = db.getLog();
+		assertTrue(log.toString(), !log.isEmpty() && log.get(0).startsWith(sql));
+	}
+
+	private void assertFromPrimary(List<Student> rows) {
+		assertEquals("primary", rows.get(0).getFirst());
+		assertRan(primary, "select * from student");
+		assertTrue(replica.getLog().toString(), replica.getLog().isEmpty());
+	}
+
+	@Test
+	public void selectsGoToTheReplica() {
+		assertEquals("replica", reads.all().get(0).getFirst());
+		assertRan(replica, "select * from student");
+		assertTrue(primary.getLog().toString(), primary.getLog().isEmpty());
+	}
+
+	@Test
+	public void writesGoToThePrimary() {
+		Student s = new Student();
+		s.setFirst("N");
+		reads.save(s);
+		assertRan(primary, "INSERT INTO student");
+		assertTrue(replica.getLog().toString(), replica.getLog().isEmpty());
+	}
+
+	@Test
+	public void readFromPrimarySelectsGoToThePrimary() {
+		assertFromPrimary(reads.fresh(20));
+	}
+
+	@Test
+	public void readFromPrimarySessionsReadFromThePrimary() {
+		try (Session session = orm.openSession()) {
+			session.setReadFromPrimary(true);
+			assertFromPrimary(((StudentMapper) session.getMapper(Student.class)).getAll());
+		}
+	}
+
+	@Test
+	public void readsInATransactionGoToThePrimary() {
+		orm.inTransaction(tx -> assertEquals("primary", reads.all().get(0).getFirst()));
+		assertTrue(replica.getLog().toString(), replica.getLog().isEmpty());
+	}
+
+	@Test
+	public void unreachableReplicaFallsBackToThePrimary() {
+		replica.setDown(true);
+		assertFromPrimary(reads.all());
+
+		// skipped for the retry time, even once it is back
+		replica.setDown(false);
+		rows(primary, "primary");
+		primary.setLogging(true);
+		assertFromPrimary(reads.all());
+	}
+
+	@Test
+	public void replicaIsTriedAgainAfterTheRetryTime() {
+		orm.setReplicaRetryMillis(0);
+		replica.setDown(true);
+		assertEquals("primary", reads.all().get(0).getFirst());
+
+		replica.setDown(false);
+		assertEquals("replica", reads.all().get(0).getFirst());
+	}
+
+	@Test
+	public void queryErrorsOnTheReplicaAreNotRetried() {
+		replica.failWhen("select");
+		try {
+			reads.all();
+			throw new AssertionError("the replica fails the query");
+		} catch (RuntimeException expected) {
+		}
+		assertTrue(primary.getLog().toString(), primary.getLog().isEmpty());
+		assertEquals("primary", reads.fresh(20).get(0).getFirst());
+	}
+}
@@ -0,0 +1,145 @@
+package orm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import entity.Student;
+import entity.Subject;
+import standin.StandInDatabase;
+import standin.StandInDriver;
+
+// what init() does about the tables: CREATE_MISSING adds only what is missing, VALIDATE only
+// complains, SKIP does not look
+public class SchemaBootstrapTest {
+
+	private static final EntityMetadata STUDENT = EntityMetadata.of(Student.class);
+	private static final EntityMetadata SUBJECT = EntityMetadata.of(Subject.class);
+
+	private StandInDatabase db;
+	private MyORM orm;
+
+	@Before
+	public void setUp() throws Exception {
+		db = StandInDatabase.get("schema");
+		db.clear();
+		orm = new MyORM(StandInDriver.class.getName(), db.getUrl(), "", "");
+		orm.getMetrics().setJmxEnabled(false);
+		orm.setSchemaMode(SchemaMode.SKIP);
+		orm.init();
+		db.setLogging(true);
+	}
+
+	@After
+	public void tearDown() {
+		db.setLogging(false);
+		db.setDown(false);
+		orm.shutdown();
+	}
+
+	// what DatabaseMetaData.getColumns() reports, "table.column"
+	private void existing(String... columns) {
+		Object[][] rows = new Object[columns.length][];
+		for (int i = 0; i < columns.length; i++)
+			rows[i] = columns[i].split("\\.");
+		db.whenQuery("metadata:getColumns", new String[] { "TABLE_NAME", "COLUMN_NAME" },
+				new int[] { Types.VARCHAR, Types.VARCHAR }, rows);
+	}
+
+	// the DDL statements the database saw
+	private List<String> ddlRun() {
+		List<String> ddl = new ArrayList<>();
+		for (String line : db.getLog())
+			if (line.startsWith("CREATE") || line.startsWith("ALTER"))
+				ddl.add(line);
+		return ddl;
+	}
+
+	private List<String> run(SchemaMode mode, EntityMetadata... entities) {
+		return new SchemaBootstrap(orm).run(orm.getJdbc(), mode, Arrays.asList(entities));
+	}
+
+	@Test
+	public void missingTablesAreCreated() {
+		existing("STUDENT.PK", "STUDENT.FIRST_NAME", "STUDENT.LAST_NAME", "STUDENT.AGE", "STUDENT.SUBJECT_ID");
+		List<String> ddl = run(SchemaMode.CREATE_MISSING, STUDENT, SUBJECT);
+		assertEquals(Collections.singletonList(SUBJECT.getCreateTableSql()), ddl);
+		assertEquals(ddl, ddlRun());
+	}
+
+	@Test
+	public void missingColumnsAreAdded() {
+		existing("student.pk", "student.first_name", "student.last_name");
+		List<String> ddl = run(SchemaMode.CREATE_MISSING, STUDENT);
+		assertEquals(Arrays.asList("ALTER TABLE student ADD COLUMN age INTEGER",
+				"ALTER TABLE student ADD COLUMN subject_id INTEGER"), ddl);
+		assertEquals(ddl, ddlRun());
+	}
+
+	@Test
+	public void matchingSchemaRunsNoDdl() {
+		existing("student.pk", "student.first_name", "student.last_name", "student.age", "student.subject_id",
+				"subject.id", "subject.name", "subject.num_students");
+		assertTrue(run(SchemaMode.CREATE_MISSING, STUDENT, SUBJECT).isEmpty());
+		assertTrue(run(SchemaMode.VALIDATE, STUDENT, SUBJECT).isEmpty());
+		assertTrue(ddlRun().isEmpty());
+	}
+
+	@Test
+	public void aMissingPrimaryKeyCannotBeAdded() {
+		existing("student.first_name");
+		try {
+			run(SchemaMode.CREATE_MISSING, STUDENT);
+			fail("pk is missing");
+		} catch (RuntimeException e) {
+			assertEquals("Table student exists without its primary key column pk, which cannot be added to it",
+					e.getMessage());
+		}
+		assertTrue(ddlRun().isEmpty());
+	}
+
+	@Test
+	public void validateListsWhatIsMissingAndRunsNothing() {
+		existing("student.pk", "student.first_name", "student.last_name", "student.age");
+		try {
+			run(SchemaMode.VALIDATE, STUDENT, SUBJECT);
+			fail("the schema does not match");
+		} catch (RuntimeException e) {
+			assertEquals("Database schema does not match the entities, missing column student.subject_id, table subject",
+					e.getMessage());
+		}
+		assertTrue(ddlRun().isEmpty());
+	}
+
+	@Test
+	public void skipDoesNotTouchTheDatabase() {
+		db.setDown(true);
+		assertTrue(run(SchemaMode.SKIP, STUDENT, SUBJECT).isEmpty());
+	}
+
+	@Test
+	public void initFailsWhenValidationFails() throws Exception {
+		MyORM validating = new MyORM(StandInDriver.class.getName(), db.getUrl(), "", "");
+		validating.getMetrics().setJmxEnabled(false);
+		validating.setSchemaMode(SchemaMode.VALIDATE);
+		try {
+			validating.init();
+			fail("no tables at all");
+		} catch (RuntimeException e) {
+			assertTrue(e.getMessage(), e.getMessage().startsWith("Database schema does not match the entities"));
+		} finally {
+			validating.shutdown();
+		}
+		assertTrue(ddlRun().isEmpty());
+	}
+}
@@ -0,0 +1,245 @@
+package orm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import dao.StudentMapper;
+import entity.Student;
+import standin.StandInDatabase;
+import standin.StandInDriver;
+
+// what Session.flush() sends, in which order, and what a failed flush leaves behind
+public class SessionTest {
+
+	private StandInDatabase db;
+	private MyORM orm;
+
+	@Before
+	public void setUp() throws Exception {
+		db = StandInDatabase.get("session");
+		db.clear();
+		orm = new MyORM(StandInDriver.class.getName(), db.getUrl(), "", "");
+		orm.getMetrics().setJmxEnabled(false);
+		orm.init();
+		db.setLogging(true);
+	}
+
+	@After
+	public void tearDown() {
+		db.setLogging(false);
+		orm.shutdown();
+	}
+
+	private static Student student(Integer id, String first) {
+		Student s = new Student();
+		s.setId(id);
+		s.setFirst(first);
+		return s;
+	}
+
+	// student 7 as the database has it
+	private void cannedRow() {
+		db.whenQuery("select \\* from student", new String[] { "pk", "first_name", "last_name", "age", "subject_id" },
+				new int[] { Types.INTEGER, Types.VARCHAR, Types.VARCHAR, Types.INTEGER, Types.INTEGER },
+				new Object[][] { { 7, "Ann", "Lee", 20, null } });
+	}
+
+	// the UPDATE statements of the log, single and batched
+	private List<String> updates() {
+		List<String> updates = new ArrayList<>();
+		for (String line : db.getLog())
+			if (line.startsWith("UPDATE") || line.startsWith("executeBatch") && line.contains("UPDATE"))
+				updates.add(line);
+		return updates;
+	}
+
+	// the statements and transaction ends of the log, without the addBatch lines
+	private List<String> statements() {
+		List<String> statements = new ArrayList<>();
+		for (String line : db.getLog())
+			if (!line.startsWith("addBatch"))
+				statements.add(line);
+		return statements;
+	}
+
+	@Test
+	public void flushWritesInsertsThenUpdatesThenDeletes() {
+		try (Session session = orm.openSession()) {
+			StudentMapper sm = (StudentMapper) session.getMapper(Student.class);
+			Student deleted = student(8, "D");
+			Student updated = student(7, "U");
+			Student inserted = student(null, "I");
+
+			sm.delete(deleted);
+			sm.save(updated);
+			sm.save(inserted);
+			assertTrue(db.getLog().isEmpty());
+
+			session.flush();
+
+			List<String> statements = statements();
+			assertEquals(4, statements.size());
+			assertTrue(statements.get(0), statements.get(0).contains("INSERT INTO student"));
+			assertTrue(statements.get(1), statements.get(1).contains("UPDATE student"));
+			assertTrue(statements.get(2), statements.get(2).contains("DELETE FROM student"));
+			assertEquals("COMMIT", statements.get(3));
+			assertNotNull(inserted.getId());
+			assertEquals(0, session.getPendingCount());
+		}
+	}
+
+	@Test
+	public void repeatedWritesOfARowCollapse() {
+		try (Session session = orm.openSession()) {
+			StudentMapper sm = (StudentMapper) session.getMapper(Student.class);
+			Student inserted = student(null, "I");
+			Student updated = student(7, "U");
+			for (int age = 1; age <= 3; age++) {
+				inserted.setAge(age);
+				updated.setAge(age);
+				sm.save(inserted);
+				sm.save(updated);
+			}
+			Student cancelled = student(null, "C");
+			sm.save(cancelled);
+			sm.delete(cancelled);
+			assertEquals(2, session.getPendingCount());
+
+			session.flush();
+
+			List<String> batched = new ArrayList<>();
+			for (String line : db.getLog())
+				if (line.startsWith("addBatch") || line.startsWith("INSERT") || line.startsWith("UPDATE"))
+					batched.add(line);
+			assertEquals(batched.toString(), 2, batched.size());
+			assertTrue(batched.get(0), batched.get(0).endsWith("[I, null, 3, null]"));
+			assertTrue(batched.get(1), batched.get(1).endsWith("[U, null, 3, null, 7]"));
+		}
+	}
+
+	@Test
+	public void failedFlushRollsBackAndForgetsTheQueue() {
+		db.failWhen("DELETE FROM student");
+		try (Session session = orm.openSession()) {
+			StudentMapper sm = (StudentMapper) session.getMapper(Student.class);
+			Student inserted = student(null, "I");
+			sm.save(inserted);
+			sm.delete(student(8, "D"));
+
+			try {
+				session.flush();
+				fail("the DELETE fails");
+			} catch (RuntimeException expected) {
+			}
+
+			List<String> statements = statements();
+			assertTrue(statements.toString(), statements.contains("ROLLBACK"));
+			assertFalse(statements.toString(), statements.contains("COMMIT"));
+			assertNull(inserted.getId());
+			assertEquals(0, session.getPendingCount());
+
+			// nothing is left to send
+			db.clear();
+			session.flush();
+			assertTrue(db.getLog().isEmpty());
+		}
+	}
+
+	@Test
+	public void flushInsideATransactionCommitsWithIt() {
+		try (Session session = orm.openSession()) {
+			StudentMapper sm = (StudentMapper) session.getMapper(Student.class);
+			orm.inTransaction(tx -> {
+				sm.save(student(7, "U"));
+				session.flush();
+				assertFalse(statements().contains("COMMIT"));
+			});
+			List<String> statements = statements();
+			assertEquals("COMMIT", statements.get(statements.size() - 1));
+		}
+	}
+
+	@Test
+	public void flushUpdatesOnlyTheChangedColumns() {
+		cannedRow();
+		try (Session session = orm.openSession()) {
+			StudentMapper sm = (StudentMapper) session.getMapper(Student.class);
+			Student s = sm.getById(7);
+			s.setAge(21);
+			sm.save(s);
+			db.clear();
+
+			session.flush();
+
+			List<String> updates = updates();
+			assertEquals(updates.toString(), 1, updates.size());
+			assertTrue(updates.get(0), updates.get(0).endsWith("UPDATE student SET age = ? WHERE pk = ?"));
+			assertTrue(db.getLog().toString(), db.getLog().contains("addBatch UPDATE student SET age = ? WHERE pk = ? [21, 7]"));
+		}
+	}
+
+	@Test
+	public void flushSkipsAnUnchangedEntity() {
+		cannedRow();
+		try (Session session = orm.openSession()) {
+			StudentMapper sm = (StudentMapper) session.getMapper(Student.class);
+			Student s = sm.getAll().get(0);
+			sm.save(s);
+			db.clear();
+
+			session.flush();
+
+			assertTrue(updates().toString(), updates().isEmpty());
+			assertEquals(0, session.getPendingCount());
+		}
+	}
+
+	@Test
+	public void plainMapperUpdatesOnlyTheChangedColumns() {
+		cannedRow();
+		StudentMapper sm = (StudentMapper) orm.getMapper(Student.class);
+		Student s = sm.getById(7);
+		db.clear();
+
+		sm.save(s);
+		assertTrue(updates().toString(), updates().isEmpty());
+
+		s.setFirst("Anna");
+		sm.save(s);
+		assertEquals(1, updates().size());
+		assertTrue(updates().get(0), updates().get(0).startsWith("UPDATE student SET first_name = ? WHERE pk = ? [Anna, 7]"));
+
+		// the saved row is the new snapshot
+		db.clear();
+		sm.save(s);
+		assertTrue(updates().toString(), updates().isEmpty());
+	}
+
+	@Test
+	public void plainMapperWriteInATransactionDropsTheSnapshot() {
+		cannedRow();
+		StudentMapper sm = (StudentMapper) orm.getMapper(Student.class);
+		Student s = sm.getById(7);
+		s.setAge(21);
+		orm.inTransaction(tx -> sm.save(s));
+		db.clear();
+
+		// the transaction could have rolled back, the next save writes every column
+		sm.save(s);
+		assertEquals(1, updates().size());
+		assertTrue(updates().get(0),
+				updates().get(0).startsWith("UPDATE student SET first_name = ?, last_name = ?, age = ?, subject_id = ? WHERE pk = ?"));
+	}
+}
@@ -0,0 +1,101 @@
+package orm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+import annotations.Column;
+import annotations.Entity;
+import annotations.ShardFunction;
+
+// which shard a shard key value maps to
+public class ShardRouterTest {
+
+	@Entity(table = "hashed", sharded = true)
+	public static class Hashed {
+		@Column(name = "id", sqlType = "BIGINT", id = true)
+		private Long id;
+	}
+
+	@Entity(table = "coded", sharded = true, shardKey = "code")
+	public static class Coded {
+		@Column(name = "id", sqlType = "BIGINT", id = true)
+		private Long id;
+		@Column(name = "code", sqlType = "VARCHAR(16)")
+		private String code;
+	}
+
+	@Entity(table = "ranged", sharded = true, shardFunction = ShardFunction.RANGE, shardRanges = { 100, 200 })
+	public static class Ranged {
+		@Column(name = "id", sqlType = "BIGINT", id = true)
+		private Long id;
+	}
+
+	// shardOf only needs to know how many shards there are
+	private static ShardRouter router(Class<?> entity, int shards) {
+		return new ShardRouter(EntityMetadata.of(entity), new DatabaseNode[shards], Runnable::run);
+	}
+
+	@Test
+	public void hashSpreadsGeneratedIdsRoundRobin() {
+		ShardRouter router = router(Hashed.class, 3);
+		for (long id = 1; id <= 9; id++)
+			assertEquals(id + " ", (int) ((id - 1) % 3), router.shardOf(id));
+
+		// every integral type of the same value, ids of 0 and below included
+		assertEquals(1, router.shardOf(5));
+		assertEquals(1, router.shardOf((short) 5));
+		assertEquals(2, router.shardOf(0L));
+		assertEquals(1, router.shardOf(-1L));
+	}
+
+	@Test
+	public void hashOfOtherKeysIsTheirStringHash() {
+		ShardRouter router = router(Coded.class, 4);
+		for (String code : new String[] { "", "a", "NL-42", "zzzzzzzz" })
+			assertEquals(code, Math.floorMod(code.hashCode(), 4), router.shardOf(code));
+	}
+
+	@Test
+	public void rangeStartsANewShardAtEveryBound() {
+		ShardRouter router = router(Ranged.class, 3);
+		assertEquals(0, router.shardOf(Long.MIN_VALUE));
+		assertEquals(0, router.shardOf(99L));
+		assertEquals(1, router.shardOf(100L));
+		assertEquals(1, router.shardOf(199));
+		assertEquals(2, router.shardOf(200L));
+		assertEquals(2, router.shardOf(Long.MAX_VALUE));
+	}
+
+	@Test
+	public void rangeNeedsABoundPerExtraShard() {
+		try {
+			router(Ranged.class, 2);
+			fail("2 shardRanges for 2 shards");
+		} catch (RuntimeException e) {
+			assertTrue(e.getMessage(), e.getMessage().contains("needs 1"));
+		}
+	}
+
+	@Test
+	public void rangeNeedsIntegralKeys() {
+		try {
+			router(Ranged.class, 3).shardOf("100");
+			fail("string key");
+		} catch (RuntimeException e) {
+			assertTrue(e.getMessage(), e.getMessage().contains("integral"));
+		}
+	}
+
+	@Test
+	public void nullKeysHaveNoShard() {
+		try {
+			router(Hashed.class, 3).shardOf(null);
+			fail("null key");
+		} catch (RuntimeException e) {
+			assertTrue(e.getMessage(), e.getMessage().contains("no value"));
+		}
+	}
+}
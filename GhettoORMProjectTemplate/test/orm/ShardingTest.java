@@ -0,0 +1,210 @@
+package orm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import annotations.Column;
+import annotations.Entity;
+import annotations.ShardFunction;
+import dao.EnrollmentMapper;
+import dao.StudentMapper;
+import entity.Enrollment;
+import entity.Student;
+import realdb.QueryResult;
+import standin.StandInDatabase;
+import standin.StandInDriver;
+
+// where the calls of a sharded entity go with three stand-in shards: writes and keyed reads to the
+// shard of the key, other reads to all of them, gathered in shard order
+public class ShardingTest {
+
+	@Entity(table = "ranged", sharded = true, shardFunction = ShardFunction.RANGE, shardRanges = { 100, 200 })
+	public static class Ranged {
+		@Column(name = "id", sqlType = "BIGINT", id = true)
+		private Long id;
+	}
+
+	private static final String[] COLUMNS = { "id", "student_id", "subject_id", "grade" };
+	private static final int[] TYPES = { Types.INTEGER, Types.INTEGER, Types.INTEGER, Types.INTEGER };
+
+	private final StandInDatabase[] shards = new StandInDatabase[3];
+	private MyORM orm;
+	private EnrollmentMapper em;
+
+	@Before
+	public void setUp() throws Exception {
+		for (int i = 0; i < shards.length; i++) {
+			shards[i] = StandInDatabase.get("sharding-" + i);
+			shards[i].clear();
+			shards[i].whenQuery("count", new String[] { "c" }, new int[] { Types.BIGINT },
+					new Object[][] { { 10L + i } });
+			// HASH puts student i + 1 on shard i
+			shards[i].whenQuery("from enrollment", COLUMNS, TYPES, new Object[][] { { 100 + i, i + 1, 7, 90 } });
+		}
+		shards[0].whenQuery("from subject", new String[] { "id", "name", "num_students" },
+				new int[] { Types.INTEGER, Types.VARCHAR, Types.INTEGER }, new Object[][] { { 7, "math", 3 } });
+
+		orm = new MyORM(StandInDriver.class.getName(), shards[0].getUrl(), "", "");
+		orm.getMetrics().setJmxEnabled(false);
+		orm.addShard(shards[1].getUrl());
+		orm.addShard(shards[2].getUrl());
+		orm.init();
+		em = (EnrollmentMapper) orm.getMapper(Enrollment.class);
+		for (StandInDatabase db : shards)
+			db.setLogging(true);
+	}
+
+	@After
+	public void tearDown() {
+		for (StandInDatabase db : shards)
+			db.setLogging(false);
+		orm.shutdown();
+	}
+
+	private static Enrollment enrollment(Integer id, int student) {
+		Enrollment e = new Enrollment();
+		e.setId(id);
+		e.setStudentId(student);
+		e.setSubjectId(7);
+		e.setGrade(80);
+		return e;
+	}
+
+	// the log lines of a shard starting with prefix
+	private List<String> lines(int shard, String prefix) {
+		List<String> lines = new ArrayList<>();
+		for (String line : shards[shard].getLog())
+			if (line.startsWith(prefix))
+				lines.add(line);
+		return lines;
+	}
+
+	@Test
+	public void writesGoToTheShardOfTheKey() {
+		for (int student = 1; student <= 6; student++)
+			em.save(enrollment(null, student));
+		em.delete(enrollment(5, 2));
+
+		for (int i = 0; i < shards.length; i++) {
+			List<String> inserts = lines(i, "INSERT INTO enrollment");
+			assertEquals(inserts.toString(), 2, inserts.size());
+			assertTrue(inserts.get(0), inserts.get(0).endsWith("[" + (i + 1) + ", 7, 80]"));
+			assertTrue(inserts.get(1), inserts.get(1).endsWith("[" + (i + 4) + ", 7, 80]"));
+		}
+		assertEquals(1, lines(1, "DELETE FROM enrollment").size());
+		assertTrue(lines(0, "DELETE").isEmpty());
+		assertTrue(lines(2, "DELETE").isEmpty());
+	}
+
+	@Test
+	public void batchesAreSplitPerShard() {
+		List<Enrollment> batch = new ArrayList<>();
+		for (int student = 1; student <= 6; student++)
+			batch.add(enrollment(null, student));
+		em.saveAll(batch);
+
+		for (int i = 0; i < shards.length; i++) {
+			List<String> batches = lines(i, "executeBatch");
+			assertEquals(batches.toString(), 1, batches.size());
+			assertTrue(batches.get(0), batches.get(0).startsWith("executeBatch(2)"));
+		}
+	}
+
+	@Test
+	public void keyedSelectsReadOneShard() {
+		List<Enrollment> rows = em.getByStudent(2);
+		assertEquals(1, rows.size());
+		assertEquals(Integer.valueOf(2), rows.get(0).getStudentId());
+
+		assertEquals(1, lines(1, "select * from enrollment").size());
+		assertTrue(lines(0, "select * from enrollment").isEmpty());
+		assertTrue(lines(2, "select * from enrollment").isEmpty());
+	}
+
+	@Test
+	public void otherSelectsGatherEveryShardInOrder() {
+		List<Enrollment> rows = em.getBySubject(7);
+		List<Integer> students = new ArrayList<>();
+		for (Enrollment e : rows) {
+			students.add(e.getStudentId());
+			// subjects are not sharded, they come from the primary
+			assertEquals("math", e.getSubject().getName());
+		}
+		assertEquals(Arrays.asList(1, 2, 3), students);
+		for (int i = 0; i < shards.length; i++)
+			assertEquals(1, lines(i, "select * from enrollment").size());
+		assertTrue(lines(1, "SELECT * FROM subject").isEmpty());
+
+		assertEquals(Arrays.asList(10L, 11L, 12L), em.countPerShard());
+	}
+
+	@Test
+	public void transactionsCommitOnTheShardsTheyWrote() {
+		orm.inTransaction(tx -> {
+			em.save(enrollment(null, 1));
+			em.save(enrollment(null, 2));
+		});
+		assertEquals(1, lines(0, "COMMIT").size());
+		assertEquals(1, lines(1, "COMMIT").size());
+		assertTrue(shards[2].getLog().isEmpty());
+
+		try {
+			orm.inTransaction(tx -> {
+				em.save(enrollment(null, 2));
+				em.save(enrollment(null, 3));
+				throw new IllegalStateException("undo");
+			});
+			fail("the work threw");
+		} catch (IllegalStateException expected) {
+		}
+		assertEquals(1, lines(0, "ROLLBACK").size());
+		assertEquals(1, lines(1, "ROLLBACK").size());
+		assertEquals(1, lines(2, "ROLLBACK").size());
+		assertTrue(lines(2, "COMMIT").isEmpty());
+	}
+
+	@Test
+	public void otherEntitiesStayOnThePrimary() {
+		StudentMapper sm = (StudentMapper) orm.getMapper(Student.class);
+		assertEquals(10L, sm.countAll());
+		assertTrue(sm.getByLastName("L", PageRequest.of(5)).getContent().isEmpty());
+		assertTrue(shards[1].getLog().isEmpty());
+		assertTrue(shards[2].getLog().isEmpty());
+	}
+
+	@Test
+	public void rangeRoutesToTheShardOfTheBound() {
+		ShardRouter hashed = orm.getShardRouter(orm.getEntityMetadata(Enrollment.class));
+		DatabaseNode[] nodes = { hashed.getShard(0), hashed.getShard(1), hashed.getShard(2) };
+		ExecutorService threads = Executors.newFixedThreadPool(2);
+		ShardRouter ranged = new ShardRouter(EntityMetadata.of(Ranged.class), nodes, threads);
+
+		for (long id : new long[] { 5, 99, 100, 150, 250 })
+			ranged.shardFor(id).getJdbc().runSQL("INSERT INTO ranged (id) VALUES (?)", new Object[] { id });
+		String insert = "INSERT INTO ranged (id) VALUES (?) ";
+		assertEquals(Arrays.asList(insert + "[5]", insert + "[99]"), lines(0, insert));
+		assertEquals(Arrays.asList(insert + "[100]", insert + "[150]"), lines(1, insert));
+		assertEquals(Arrays.asList(insert + "[250]"), lines(2, insert));
+
+		// gathered in shard order, whichever shard answers first
+		try {
+			List<QueryResult> counts = ranged.onEveryShard(jdbc -> jdbc.runQuery("select count(*) from ranged", new Object[0]));
+			for (int i = 0; i < shards.length; i++)
+				assertEquals(10L + i, counts.get(i).getRows().get(0)[0]);
+		} finally {
+			threads.shutdown();
+		}
+	}
+}
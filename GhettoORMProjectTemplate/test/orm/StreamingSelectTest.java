@@ -0,0 +1,99 @@
+package orm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.sql.Types;
+import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import dao.StudentMapper;
+import entity.Student;
+import standin.StandInDatabase;
+import standin.StandInDriver;
+
+// Stream<T> selects read a live cursor: rows are hydrated as they are used and the connection
+// goes back to the pool when the stream is closed or runs out
+public class StreamingSelectTest {
+
+	private static final int ROWS = 10_000;
+
+	private StandInDatabase db;
+	private MyORM orm;
+	private StudentMapper sm;
+
+	// the highest row index the driver was asked for
+	private final AtomicInteger furthestRow = new AtomicInteger(-1);
+
+	@Before
+	public void setUp() throws Exception {
+		db = StandInDatabase.get("streaming");
+		db.clear();
+		db.whenQuery("select \\* from student", new String[] { "pk", "first_name", "last_name", "age", "subject_id" },
+				new int[] { Types.INTEGER, Types.VARCHAR, Types.VARCHAR, Types.INTEGER, Types.INTEGER },
+				new StandInDatabase.RowSource() {
+					public int size() {
+						return ROWS;
+					}
+
+					public Object get(int row, int column) {
+						furthestRow.accumulateAndGet(row, Math::max);
+						return column == 0 ? row + 1 : column == 3 ? 20 : column == 4 ? null : "S" + row;
+					}
+				});
+		orm = new MyORM(StandInDriver.class.getName(), db.getUrl(), "", "");
+		orm.getMetrics().setJmxEnabled(false);
+		orm.init();
+		sm = (StudentMapper) orm.getMapper(Student.class);
+	}
+
+	@After
+	public void tearDown() {
+		orm.shutdown();
+	}
+
+	private int borrowed() {
+		return orm.getJdbc().getPoolStats().getActive();
+	}
+
+	@Test
+	public void rowsAreReadAsTheStreamIsUsed() {
+		try (Stream<Student> students = sm.streamAll()) {
+			Iterator<Student> it = students.iterator();
+			assertEquals(Integer.valueOf(1), it.next().getId());
+
+			// one read-ahead chunk of a relationship-bearing entity, not the table
+			assertTrue(String.valueOf(furthestRow.get()), furthestRow.get() < 1000);
+			assertEquals(1, borrowed());
+		}
+		assertEquals(0, borrowed());
+	}
+
+	@Test
+	public void streamsRunToTheEnd() {
+		try (Stream<Student> students = sm.streamAll()) {
+			assertEquals(ROWS, students.filter(s -> s.getAge() == 20).count());
+		}
+		assertEquals(ROWS - 1, furthestRow.get());
+		assertEquals(0, borrowed());
+	}
+
+	@Test
+	public void exhaustedIteratorGivesTheConnectionBack() {
+		Iterator<Student> it = sm.streamAll().iterator();
+		int n = 0;
+		while (it.hasNext()) {
+			it.next();
+			n++;
+		}
+		assertEquals(ROWS, n);
+		assertFalse(it.hasNext());
+		assertEquals(0, borrowed());
+	}
+}
@@ -0,0 +1,127 @@
+package orm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import entity.Student;
+import standin.StandInDatabase;
+import standin.StandInDriver;
+
+// exportTable / importTable round trips: the rows an import sends are the rows the export read
+public class TableTransferTest {
+
+	private StandInDatabase db;
+	private MyORM orm;
+	private Object[][] rows;
+	private final List<Path> files = new ArrayList<>();
+
+	@Before
+	public void setUp() throws Exception {
+		// quotes, separators, line breaks, empty and null strings, a value larger than the buffer
+		char[] large = new char[100_000];
+		Arrays.fill(large, 'é');
+		rows = new Object[300][];
+		for (int i = 0; i < rows.length; i++) {
+			String first = i == 3 ? "a,\"b\"\nc" : i == 4 ? "" : i == 5 ? null : i == 6 ? new String(large) : "F" + i;
+			rows[i] = new Object[] { i + 1, first, "L" + i, i % 5 == 0 ? null : i, i % 3 };
+		}
+
+		db = StandInDatabase.get("tabletransfer");
+		db.clear();
+		db.whenQuery("SELECT pk, first_name", new String[] { "pk", "first_name", "last_name", "age", "subject_id" },
+				new int[] { Types.INTEGER, Types.VARCHAR, Types.VARCHAR, Types.INTEGER, Types.INTEGER }, rows);
+
+		orm = new MyORM(StandInDriver.class.getName(), db.getUrl(), "", "");
+		orm.getMetrics().setJmxEnabled(false);
+		orm.setBatchSize(128);
+		orm.init();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		db.setLogging(false);
+		orm.shutdown();
+		for (Path f : files)
+			Files.deleteIfExists(f);
+	}
+
+	private Path file(String suffix) throws Exception {
+		Path f = Files.createTempFile("tabletransfer", suffix);
+		files.add(f);
+		return f;
+	}
+
+	// the bound values of every row the import added to a batch
+	private List<String> imported(Path file) {
+		db.setLogging(false);
+		db.setLogging(true);
+		int before = db.getLog().size();
+		assertEquals(rows.length, orm.importTable(Student.class, file));
+
+		List<String> values = new ArrayList<>();
+		for (String line : db.getLog().subList(before, db.getLog().size()))
+			if (line.startsWith("addBatch"))
+				values.add(line.substring(line.lastIndexOf(" [") + 1));
+		return values;
+	}
+
+	private List<String> expected() {
+		List<String> values = new ArrayList<>();
+		for (Object[] row : rows)
+			values.add(Arrays.asList(row).toString());
+		return values;
+	}
+
+	@Test
+	public void binaryRoundTrip() throws Exception {
+		Path bin = file(".bin");
+		assertEquals(rows.length, orm.exportTable(Student.class, bin));
+		assertEquals(expected(), imported(bin));
+	}
+
+	@Test
+	public void csvRoundTrip() throws Exception {
+		Path csv = file(".csv");
+		assertEquals(rows.length, orm.exportTable(Student.class, csv));
+		assertTrue(new String(Files.readAllBytes(csv), StandardCharsets.UTF_8).startsWith("pk,first_name,"));
+		assertEquals(expected(), imported(csv));
+	}
+
+	@Test
+	public void importsSendBatchesOfTheBatchSize() throws Exception {
+		Path bin = file(".bin");
+		orm.exportTable(Student.class, bin);
+		imported(bin);
+
+		List<String> batches = new ArrayList<>();
+		for (String line : db.getLog())
+			if (line.startsWith("executeBatch"))
+				batches.add(line.substring(0, line.indexOf(' ')));
+		assertEquals(Arrays.asList("executeBatch(128)", "executeBatch(128)", "executeBatch(44)"), batches);
+	}
+
+	@Test
+	public void unknownColumnsAreRejected() throws Exception {
+		Path csv = file(".csv");
+		Files.write(csv, "pk,nope\r\n1,x\r\n".getBytes(StandardCharsets.UTF_8));
+		try {
+			orm.importTable(Student.class, csv);
+			fail("no @Column nope");
+		} catch (RuntimeException e) {
+			assertTrue(e.getMessage(), e.getMessage().contains("nope"));
+		}
+	}
+}
@@ -0,0 +1,124 @@
+package orm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import dao.StudentMapper;
+import entity.Student;
+import standin.StandInDatabase;
+import standin.StandInDriver;
+
+// how inTransaction() ends: COMMIT, ROLLBACK, and which exception the caller sees
+public class TransactionTest {
+
+	private StandInDatabase db;
+	private MyORM orm;
+	private StudentMapper sm;
+
+	@Before
+	public void setUp() throws Exception {
+		db = StandInDatabase.get("transaction");
+		db.clear();
+		orm = new MyORM(StandInDriver.class.getName(), db.getUrl(), "", "");
+		orm.getMetrics().setJmxEnabled(false);
+		orm.init();
+		sm = (StudentMapper) orm.getMapper(Student.class);
+		db.setLogging(true);
+	}
+
+	@After
+	public void tearDown() {
+		db.setLogging(false);
+		orm.shutdown();
+	}
+
+	private void save(String first) {
+		Student s = new Student();
+		s.setFirst(first);
+		sm.save(s);
+	}
+
+	private String ending() {
+		List<String> log = db.getLog();
+		assertFalse(log.contains("COMMIT") && log.contains("ROLLBACK"));
+		return log.get(log.size() - 1);
+	}
+
+	@Test
+	public void returningWorkCommits() {
+		assertEquals(Integer.valueOf(1), orm.inTransactionResult(tx -> {
+			save("A");
+			return 1;
+		}));
+		assertEquals("COMMIT", ending());
+	}
+
+	@Test
+	public void throwingWorkRollsBackWithItsException() {
+		IllegalStateException thrown = new IllegalStateException("no");
+		try {
+			orm.inTransaction(tx -> {
+				save("A");
+				throw thrown;
+			});
+			fail("the work threw");
+		} catch (IllegalStateException e) {
+			assertSame(thrown, e);
+		}
+		assertEquals("ROLLBACK", ending());
+	}
+
+	@Test
+	public void setRollbackOnlyRollsBackQuietly() {
+		orm.inTransaction(tx -> {
+			save("A");
+			tx.setRollbackOnly();
+		});
+		assertEquals("ROLLBACK", ending());
+	}
+
+	@Test
+	public void nestedFailureCaughtByTheOuterWorkIsReported() {
+		IllegalStateException nested = new IllegalStateException("nested");
+		try {
+			orm.inTransaction(tx -> {
+				save("A");
+				try {
+					orm.inTransaction(inner -> {
+						save("B");
+						throw nested;
+					});
+				} catch (IllegalStateException swallowed) {
+				}
+				save("C");
+			});
+			fail("the transaction rolled back");
+		} catch (UnexpectedRollbackException e) {
+			assertSame(nested, e.getCause());
+		}
+		assertEquals("ROLLBACK", ending());
+	}
+
+	@Test
+	public void nestedFailureLeftToPropagateKeepsItsException() {
+		IllegalStateException nested = new IllegalStateException("nested");
+		try {
+			orm.inTransaction(tx -> orm.inTransaction(inner -> {
+				throw nested;
+			}));
+			fail("the nested work threw");
+		} catch (IllegalStateException e) {
+			assertSame(nested, e);
+		}
+		assertTrue(db.getLog().toString(), db.getLog().contains("ROLLBACK"));
+	}
+}
@@ -0,0 +1,153 @@
+package realdb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.sql.SQLException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import standin.StandInDatabase;
+import standin.StandInDriver;
+
+// limits, timeouts, validation and eviction of the pool behind GhettoJdbcBlackBox
+public class GhettoConnectionPoolTest {
+
+	private StandInDatabase db;
+	private GhettoConnectionPool pool;
+
+	@Before
+	public void setUp() throws Exception {
+		Class.forName(StandInDriver.class.getName());
+		db = StandInDatabase.get("pool");
+		db.clear();
+	}
+
+	@After
+	public void tearDown() {
+		if (pool != null)
+			pool.shutdown();
+	}
+
+	private GhettoConnectionPool pool(int min, int max, long acquireTimeoutMillis, long idleTimeoutMillis,
+			long validationIntervalMillis) {
+		pool = new GhettoConnectionPool(db.getUrl(), "", "", min, max, acquireTimeoutMillis, idleTimeoutMillis,
+				validationIntervalMillis);
+		return pool;
+	}
+
+	@Test
+	public void opensTheMinimumUpFront() {
+		pool(2, 4, 1000, 60_000, 5000);
+		assertEquals(2, pool.getStats().getTotal());
+		assertEquals(2, pool.getStats().getIdle());
+	}
+
+	@Test
+	public void releasedConnectionsAreReused() throws SQLException {
+		pool(0, 2, 1000, 60_000, 5000);
+		PooledConnection first = pool.borrow();
+		first.close();
+		PooledConnection second = pool.borrow();
+		second.close();
+
+		assertSame(first, second);
+		PoolStats stats = pool.getStats();
+		assertEquals(1, stats.getCreated());
+		assertEquals(2, stats.getBorrowed());
+		assertEquals(1, stats.getReuses());
+	}
+
+	@Test
+	public void borrowWaitsAtMostTheAcquireTimeout() throws SQLException {
+		pool(0, 1, 100, 60_000, 5000);
+		PooledConnection held = pool.borrow();
+
+		long start = System.nanoTime();
+		try {
+			pool.borrow();
+			fail("the only connection is borrowed");
+		} catch (SQLException expected) {
+			assertTrue(expected.getMessage(), expected.getMessage().contains("timed out"));
+		}
+		assertTrue((System.nanoTime() - start) / 1_000_000 >= 90);
+		assertEquals(1, pool.getStats().getTimeouts());
+
+		// the slot comes back with the connection
+		held.close();
+		pool.borrow().close();
+		assertEquals(1, pool.getStats().getCreated());
+	}
+
+	@Test
+	public void brokenConnectionsAreDiscarded() throws SQLException {
+		pool(0, 2, 1000, 60_000, 5000);
+		PooledConnection pc = pool.borrow();
+		pc.markBroken();
+		pc.close();
+
+		assertEquals(0, pool.getStats().getTotal());
+		assertEquals(1, pool.getStats().getDestroyed());
+		assertNotSame(pc, pool.borrow());
+	}
+
+	@Test
+	public void deadIdleConnectionsFailValidation() throws SQLException {
+		pool(0, 2, 1000, 60_000, 0);
+		PooledConnection pc = pool.borrow();
+		pc.close();
+		pc.getConnection().close();	// dropped by the server while idle
+
+		PooledConnection fresh = pool.borrow();
+		assertNotSame(pc, fresh);
+		assertEquals(1, pool.getStats().getValidationFailures());
+		assertEquals(2, pool.getStats().getCreated());
+	}
+
+	@Test
+	public void idleConnectionsAreEvictedDownToTheMinimum() throws Exception {
+		pool(1, 3, 1000, 1, 5000);
+		PooledConnection a = pool.borrow();
+		PooledConnection b = pool.borrow();
+		PooledConnection c = pool.borrow();
+		a.close();
+		b.close();
+		c.close();
+		assertEquals(3, pool.getStats().getTotal());
+
+		// the evictor runs every second at the most
+		long deadline = System.currentTimeMillis() + 5000;
+		while (pool.getStats().getTotal() > 1 && System.currentTimeMillis() < deadline)
+			Thread.sleep(50);
+		assertEquals(1, pool.getStats().getTotal());
+		assertEquals(2, pool.getStats().getDestroyed());
+	}
+
+	@Test
+	public void blackBoxDropsAConnectionThatLostTheServer() {
+		GhettoJdbcBlackBox jdbc = new GhettoJdbcBlackBox();
+		jdbc.init(StandInDriver.class.getName(), db.getUrl(), "", "", 1, 1, 1000, 60_000);
+		try {
+			db.setDown(true);
+			try {
+				jdbc.runQuery("select 1", new Object[0]);
+				fail("the database is down");
+			} catch (RuntimeException expected) {
+				assertTrue(GhettoJdbcBlackBox.isConnectionFailure(expected));
+			}
+			db.setDown(false);
+
+			jdbc.runQuery("select 1", new Object[0]);
+			PoolStats stats = jdbc.getPoolStats();
+			assertEquals(1, stats.getDestroyed());
+			assertEquals(2, stats.getCreated());
+		} finally {
+			jdbc.shutdown();
+		}
+	}
+}
@@ -0,0 +1,130 @@
+package realdb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.Proxy;
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.UUID;
+
+import org.junit.Test;
+
+// the per-connection prepared statement cache and the typed binding of parameters
+public class PooledConnectionTest {
+
+	// statements prepared on the fake connection, in order
+	private final List<PreparedStatement> prepared = new ArrayList<>();
+	private final List<PreparedStatement> closed = new ArrayList<>();
+
+	// setXxx calls made on a recording statement, "setInt 1 7"
+	private final List<String> calls = new ArrayList<>();
+
+	private PreparedStatement statement() {
+		PreparedStatement[] self = new PreparedStatement[1];
+		self[0] = (PreparedStatement) Proxy.newProxyInstance(getClass().getClassLoader(),
+				new Class<?>[] { PreparedStatement.class }, (proxy, method, args) -> {
+					switch (method.getName()) {
+					case "close":
+						closed.add(self[0]);
+						return null;
+					case "isClosed":
+						return closed.contains(self[0]);
+					case "hashCode":
+						return System.identityHashCode(proxy);
+					case "equals":
+						return proxy == args[0];
+					default:
+						if (method.getName().startsWith("set"))
+							calls.add(method.getName() + " " + args[0] + " " + args[1]);
+						return null;
+					}
+				});
+		return self[0];
+	}
+
+	private PooledConnection connection() {
+		Connection c = (Connection) Proxy.newProxyInstance(getClass().getClassLoader(),
+				new Class<?>[] { Connection.class }, (proxy, method, args) -> {
+					if (method.getName().equals("prepareStatement")) {
+						PreparedStatement ps = statement();
+						prepared.add(ps);
+						return ps;
+					}
+					return null;
+				});
+		return new PooledConnection(null, c);
+	}
+
+	@Test
+	public void statementsAreReusedPerSql() throws Exception {
+		PooledConnection pc = connection();
+		PreparedStatement first = pc.prepare("select 1");
+		assertSame(first, pc.prepare("select 1"));
+		assertNotSame(first, pc.prepare("select 2"));
+		assertEquals(2, prepared.size());
+
+		// the generated keys flavor is a statement of its own
+		assertNotSame(first, pc.prepareReturningKeys("select 1"));
+		assertEquals(3, prepared.size());
+	}
+
+	@Test
+	public void leastRecentlyUsedStatementIsClosed() throws Exception {
+		PooledConnection pc = connection();
+		PreparedStatement oldest = pc.prepare("select 0");
+		PreparedStatement used = pc.prepare("select 1");
+		for (int i = 2; i < PooledConnection.STATEMENT_CACHE_SIZE; i++)
+			pc.prepare("select " + i);
+		pc.prepare("select 1");	// now the most recently used
+		assertTrue(closed.isEmpty());
+
+		pc.prepare("select " + PooledConnection.STATEMENT_CACHE_SIZE);
+		assertEquals(1, closed.size());
+		assertSame(oldest, closed.get(0));
+		assertFalse(used.isClosed());
+
+		// asked for again, the evicted one is prepared anew
+		assertNotSame(oldest, pc.prepare("select 0"));
+	}
+
+	@Test
+	public void evictDropsAFailedStatement() throws Exception {
+		PooledConnection pc = connection();
+		PreparedStatement ps = pc.prepare("select 1");
+		pc.evict("select 1");
+		assertTrue(ps.isClosed());
+		assertNotSame(ps, pc.prepare("select 1"));
+	}
+
+	@Test
+	public void valuesBindWithTypedSetters() throws Exception {
+		PreparedStatement ps = statement();
+		Date date = new Date(0);
+		UUID uuid = new UUID(1, 2);
+		GhettoJdbcBlackBox.bind(ps, 1, "a");
+		GhettoJdbcBlackBox.bind(ps, 2, 7);
+		GhettoJdbcBlackBox.bind(ps, 3, 8L);
+		GhettoJdbcBlackBox.bind(ps, 4, true);
+		GhettoJdbcBlackBox.bind(ps, 5, new BigDecimal("1.5"));
+		GhettoJdbcBlackBox.bind(ps, 6, null);
+		GhettoJdbcBlackBox.bind(ps, 7, date);
+		GhettoJdbcBlackBox.bind(ps, 8, uuid);
+
+		assertEquals("setString 1 a", calls.get(0));
+		assertEquals("setInt 2 7", calls.get(1));
+		assertEquals("setLong 3 8", calls.get(2));
+		assertEquals("setBoolean 4 true", calls.get(3));
+		assertEquals("setBigDecimal 5 1.5", calls.get(4));
+		assertTrue(calls.get(5), calls.get(5).startsWith("setNull 6 "));
+		assertEquals("setTimestamp 7 " + new java.sql.Timestamp(0), calls.get(6));
+		assertEquals("setObject 8 " + uuid, calls.get(7));
+	}
+}
@@ -0,0 +1,94 @@
+package realdb;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.lang.reflect.Proxy;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.Types;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import standin.StandInDatabase;
+import standin.StandInDriver;
+
+// query results as one shared header plus Object[] rows by column position
+public class QueryResultTest {
+
+	private StandInDatabase db;
+	private GhettoJdbcBlackBox jdbc;
+
+	@Before
+	public void setUp() {
+		db = StandInDatabase.get("rows");
+		db.clear();
+		jdbc = new GhettoJdbcBlackBox();
+		jdbc.init(StandInDriver.class.getName(), db.getUrl(), "", "", 1, 1, 1000, 60_000);
+	}
+
+	@After
+	public void tearDown() {
+		jdbc.shutdown();
+	}
+
+	@Test
+	public void rowsAreArraysInColumnOrder() {
+		db.whenQuery("from student", new String[] { "pk", "first_name", "age" },
+				new int[] { Types.INTEGER, Types.VARCHAR, Types.INTEGER },
+				new Object[][] { { 1, "A", 20 }, { 2, null, 21 } });
+
+		QueryResult result = jdbc.runQuery("select pk, first_name, age from student where age > ?", new Object[] { 18 });
+
+		assertArrayEquals(new String[] { "pk", "first_name", "age" }, result.getColumnNames());
+		assertEquals(3, result.getColumnCount());
+		assertEquals(2, result.size());
+		assertArrayEquals(new Object[] { 1, "A", 20 }, result.getRows().get(0));
+		assertArrayEquals(new Object[] { 2, null, 21 }, result.getRows().get(1));
+	}
+
+	@Test
+	public void concatKeepsTheOrderAndTheHeader() {
+		String[] header = { "id" };
+		QueryResult a = new QueryResult(header, Arrays.asList(new Object[] { 1 }, new Object[] { 2 }));
+		QueryResult b = new QueryResult(header, Arrays.<Object[]> asList(new Object[] { 3 }));
+
+		QueryResult all = QueryResult.concat(Arrays.asList(a, b));
+		assertSame(header, all.getColumnNames());
+		assertEquals(3, all.size());
+		assertEquals(3, all.getRows().get(2)[0]);
+		assertSame(a, QueryResult.concat(Arrays.asList(a)));
+	}
+
+	@Test
+	public void headerUsesTheColumnLabels() throws Exception {
+		List<String> names = Arrays.asList("first_name", "count(*)");
+		List<String> labels = Arrays.asList("firstName", "n");
+		ResultSetMetaData md = (ResultSetMetaData) Proxy.newProxyInstance(getClass().getClassLoader(),
+				new Class<?>[] { ResultSetMetaData.class }, (proxy, method, args) -> {
+					switch (method.getName()) {
+					case "getColumnCount":
+						return 2;
+					case "getColumnName":
+						return names.get((Integer) args[0] - 1);
+					case "getColumnLabel":
+						return labels.get((Integer) args[0] - 1);
+					default:
+						throw new UnsupportedOperationException(method.getName());
+					}
+				});
+		ResultSet rs = (ResultSet) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { ResultSet.class },
+				(proxy, method, args) -> {
+					if (method.getName().equals("getMetaData"))
+						return md;
+					throw new UnsupportedOperationException(method.getName());
+				});
+
+		assertArrayEquals(new String[] { "firstName", "n" }, GhettoJdbcBlackBox.columnNames(rs));
+	}
+}